@@ -13,6 +13,8 @@ import com.vividsolutions.jts.geom.*;
 import sim.field.grid.DoubleGrid2D;
 import sim.field.grid.Grid2D;
 import sim.field.grid.IntGrid2D;
+import sim.field.grid.MappedDoubleGrid2D;
+import sim.field.grid.MappedIntGrid2D;
 
 /** A georeferenced area represented by a grid
  *
@@ -39,11 +41,11 @@ public class GeomGridField extends GeomField
      */
     public GridDataType getGridDataType()
     {
-        if (getGrid() instanceof IntGrid2D)
+        if (getGrid() instanceof IntGrid2D || getGrid() instanceof MappedIntGrid2D)
         {
             return GridDataType.INTEGER;
         }
-        else if (getGrid() instanceof DoubleGrid2D)
+        else if (getGrid() instanceof DoubleGrid2D || getGrid() instanceof MappedDoubleGrid2D)
         {
             return GridDataType.DOUBLE;
         }
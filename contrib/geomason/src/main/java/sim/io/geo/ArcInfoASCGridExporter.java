@@ -15,6 +15,8 @@ import java.io.Writer;
 import sim.field.geo.GeomGridField;
 import sim.field.grid.DoubleGrid2D;
 import sim.field.grid.IntGrid2D;
+import sim.field.grid.MappedDoubleGrid2D;
+import sim.field.grid.MappedIntGrid2D;
 
 /** Write a GeomGridField to an Arc/Grid formatted output stream.
  *
@@ -69,13 +71,15 @@ public class ArcInfoASCGridExporter
         switch( gridField.getGridDataType() )
         {
             case INTEGER :
-                IntGrid2D intGrid = (IntGrid2D) gridField.getGrid();
+                // the grid may instead be memory-mapped, in which case we read it through the mapped grid
+                IntGrid2D intGrid = (gridField.getGrid() instanceof IntGrid2D ? (IntGrid2D) gridField.getGrid() : null);
+                MappedIntGrid2D mappedIntGrid = (intGrid == null ? (MappedIntGrid2D) gridField.getGrid() : null);
 
-                for (int y = 0; y < intGrid.getHeight(); y++)
+                for (int y = 0; y < gridField.getGridHeight(); y++)
                 {
-                    for (int x = 0; x < intGrid.getWidth(); x++)
+                    for (int x = 0; x < gridField.getGridWidth(); x++)
                     {
-                        outputStream.write( Integer.toString(intGrid.get(x, y)) );
+                        outputStream.write( Integer.toString(intGrid != null ? intGrid.get(x, y) : mappedIntGrid.get(x, y)) );
                         outputStream.write( " " );
                     }
                     outputStream.write( "\n" );
@@ -83,13 +87,14 @@ public class ArcInfoASCGridExporter
                 break;
 
             case DOUBLE :
-                DoubleGrid2D doubleGrid = (DoubleGrid2D) gridField.getGrid();
+                DoubleGrid2D doubleGrid = (gridField.getGrid() instanceof DoubleGrid2D ? (DoubleGrid2D) gridField.getGrid() : null);
+                MappedDoubleGrid2D mappedDoubleGrid = (doubleGrid == null ? (MappedDoubleGrid2D) gridField.getGrid() : null);
 
-                for (int y = 0; y < doubleGrid.getHeight(); y++)
+                for (int y = 0; y < gridField.getGridHeight(); y++)
                 {
-                    for (int x = 0; x < doubleGrid.getWidth(); x++)
+                    for (int x = 0; x < gridField.getGridWidth(); x++)
                     {
-                        outputStream.write( Double.toString(doubleGrid.get(x, y)) );
+                        outputStream.write( Double.toString(doubleGrid != null ? doubleGrid.get(x, y) : mappedDoubleGrid.get(x, y)) );
                         outputStream.write( " " );
                     }
                     outputStream.write( "\n" );
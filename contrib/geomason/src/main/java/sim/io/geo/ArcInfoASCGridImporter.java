@@ -11,6 +11,7 @@
 package sim.io.geo;
 
 import com.vividsolutions.jts.geom.Envelope;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Locale;
@@ -21,6 +22,9 @@ import sim.field.geo.GeomGridField;
 import sim.field.grid.AbstractGrid2D;
 import sim.field.grid.DoubleGrid2D;
 import sim.field.grid.IntGrid2D;
+import sim.field.grid.MappedDoubleGrid2D;
+import sim.field.grid.MappedGrid2D;
+import sim.field.grid.MappedIntGrid2D;
 
 
 
@@ -46,6 +50,25 @@ public class ArcInfoASCGridImporter //extends GeomImporter
      * 
      */
     public static void read(InputStream source, final GeomGridField.GridDataType type, GeomGridField field)
+    {
+        read(source, type, field, null);
+    }
+
+
+
+    /** Read geospatial grid data from source into a new memory-mapped grid
+     * stored in mappedFile, for grids too large to fit on the heap.
+     *
+     * The grid is a MappedIntGrid2D or MappedDoubleGrid2D, mapped READ_WRITE
+     * and flushed to mappedFile.  Later runs can map mappedFile directly
+     * (say, READ_ONLY) without importing the data again.
+     *
+     * @param source is the data stream for the file
+     * @param type denotes the base type as either integer or double-based
+     * @param field to be populated
+     * @param mappedFile will hold the grid; if null, an ordinary grid is used
+     */
+    public static void read(InputStream source, final GeomGridField.GridDataType type, GeomGridField field, File mappedFile)
     {
         try
         {
@@ -92,16 +115,34 @@ public class ArcInfoASCGridImporter //extends GeomImporter
 
             AbstractGrid2D grid = null;
 
-            switch (type)
+            if (mappedFile != null)
             {
-                case INTEGER:
-                    grid = new IntGrid2D(width, height);
-                    readIntegerBased(scanner, width, height, (IntGrid2D) grid);
-                    break;
-                case DOUBLE:
-                    grid = new DoubleGrid2D(width, height);
-                    readDoubleBased(scanner, width, height, (DoubleGrid2D) grid);
-                    break;
+                switch (type)
+                {
+                    case INTEGER:
+                        grid = new MappedIntGrid2D(mappedFile, width, height);
+                        readIntegerBased(scanner, width, height, (MappedIntGrid2D) grid);
+                        break;
+                    case DOUBLE:
+                        grid = new MappedDoubleGrid2D(mappedFile, width, height);
+                        readDoubleBased(scanner, width, height, (MappedDoubleGrid2D) grid);
+                        break;
+                }
+                ((MappedGrid2D) grid).flush();
+            }
+            else
+            {
+                switch (type)
+                {
+                    case INTEGER:
+                        grid = new IntGrid2D(width, height);
+                        readIntegerBased(scanner, width, height, (IntGrid2D) grid);
+                        break;
+                    case DOUBLE:
+                        grid = new DoubleGrid2D(width, height);
+                        readDoubleBased(scanner, width, height, (DoubleGrid2D) grid);
+                        break;
+                }
             }
 
             field.setGrid(grid);
@@ -172,4 +213,42 @@ public class ArcInfoASCGridImporter //extends GeomImporter
         }
     }
 
+
+    /** Reads integer-based geospatial data from ARC/INFO ASCII GRID file
+     * into a memory-mapped grid
+     *
+     * @throws IOException if problem reading data
+     *
+     * @see read()
+     */
+    private static void readIntegerBased(Scanner scanner, int width, int height, MappedIntGrid2D intGrid2D) throws IOException
+    {
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                intGrid2D.set(x, y, scanner.nextInt());
+            }
+        }
+    }
+
+
+    /** Reads real-based geospatial data from ARC/INFO ASCII GRID file
+     * into a memory-mapped grid
+     *
+     * @throws IOException if problem reading data
+     *
+     * @see read()
+     */
+    private static void readDoubleBased(Scanner scanner, int width, int height, MappedDoubleGrid2D doubleGrid2D) throws IOException
+    {
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                doubleGrid2D.set(x, y, scanner.nextDouble());
+            }
+        }
+    }
+
 }
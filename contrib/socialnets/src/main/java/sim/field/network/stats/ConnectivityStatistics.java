@@ -35,7 +35,8 @@ public class ConnectivityStatistics
         if( !network.isDirected() )
             throw new RuntimeException( "Connect.getStronglyConnectedComponents should be called only with directed graphs" );
         Bag result = new Bag();
-        final int N = NetworkStatistics.getNumberNodes(network);
+        final NetworkSnapshot snapshot = network.getSnapshot();
+        final int N = snapshot.numNodes;
         double[] finishingTime = new double[N];  // double vector to allow the use of heap later on 
         int[] color = new int[N]; // 0=WHITE, 1=GRAY, 2=BLACK
         int time = 0;
@@ -56,11 +57,9 @@ public class ConnectivityStatistics
                         color[j] = 1;
                         myStack.push(j);
                         time++;
-                        final Bag edgesOut = network.getEdgesOut(network.allNodes.objs[j]);
-                        for( int k = 0 ; k < edgesOut.numObjs ; k++ )
+                        for( int k = snapshot.outStart[j] ; k < snapshot.outStart[j + 1] ; k++ )
                             {
-                            final Edge edge = (Edge)(edgesOut.objs[k]);
-                            final int toNode = network.getNodeIndex(edge.to());
+                            final int toNode = snapshot.outNeighbors[k];
                             if( color[toNode] == 0 )
                                 myStack.push(toNode);
                             }
@@ -97,12 +96,11 @@ public class ConnectivityStatistics
                     if( color[j] == 0 ) // if it's a white node
                         {
                         color[j] = 1;
-                        component.add( network.allNodes.objs[j] );
-                        final Bag edgesOut = network.getEdgesIn(network.allNodes.objs[j]); // here we use the in-edges, because the graph should have been transposed
-                        for( int k = 0 ; k < edgesOut.numObjs ; k++ )
+                        component.add( snapshot.nodes[j] );
+                        // here we use the in-edges, because the graph should have been transposed
+                        for( int k = snapshot.inStart[j] ; k < snapshot.inStart[j + 1] ; k++ )
                             {
-                            final Edge edge = (Edge)(edgesOut.objs[k]);
-                            final int toNode = network.getNodeIndex(edge.from());  // this is now edge.from() because the graph should have been transposed
+                            final int toNode = snapshot.inNeighbors[k];
                             if( color[toNode] == 0 )
                                 myStack.push(toNode);
                             }
@@ -139,40 +137,41 @@ public class ConnectivityStatistics
     static class ConnectedComponentFactory
         {
         final Network network;
+        final NetworkSnapshot snapshot;
         final int n;
         final Bag components;
                 
         //instead of making a new hashtable, stick all nodes in it
         //and remove them as they get visited,
-        //I rely on the hashtable inside the Network and 
-        //the nodes' indices in the allNodes bag. 
+        //I rely on the nodes' indices in the allNodes bag. 
         final boolean[] visited;
         int countVisited;
+
+        // the explicit stack used by explore(...): the nodes being explored, and how many of each node's edges we've looked at so far
+        final int[] stack;
+        final int[] cursor;
                 
         public ConnectedComponentFactory( final Network network)
             {
             this.network = network;
-            n = network.allNodes.numObjs;
+            snapshot = network.getSnapshot();
+            n = snapshot.numNodes;
             visited = new boolean[n];
-            for(int i=0;i<n;i++)
-                visited[i]=false;
             countVisited = 0;
             components = new Bag(n);
+            stack = new int[n];
+            cursor = new int[n];
             }
 
         public Bag getComponents()
             {
-            boolean directed = network.isDirected();
             for( int i = 0 ; i < n; i++ )
                 {
                 if(!visited[i])
                     {
                     Bag component = new Bag();  
                     components.add(component);
-                    if(directed)
-                        exploreWD(network.allNodes.objs[i], i, component);
-                    else
-                        exploreU(network.allNodes.objs[i], i, component);
+                    explore(i, component);
                     }
                 }
             return components;
@@ -180,55 +179,51 @@ public class ConnectivityStatistics
 
         public boolean isConnected()
             {
-            if(network.isDirected())
-                exploreWD(network.allNodes.objs[0], 0, null);
-            else
-                exploreU(network.allNodes.objs[0], 0, null);
+            explore(0, null);
             return (countVisited ==n);
             }
+
         /**
-         * explore for Weakly connected components in a Directed graph
+         * Explores depth-first from the given node, visiting nodes in the same order as a recursive search would, 
+         * but without recursion, so large components don't overflow the stack.  In a directed graph this finds the
+         * weakly connected component, following both out-edges and in-edges.
          * The Bag 'component' can be null if I'm only interested in whether the graph is connected.
          */
-        private void exploreWD(Object nodeObj, int nodeIndex, Bag component)
+        private void explore(int nodeIndex, Bag component)
             {
+            final int[] outStart = snapshot.outStart;
+            final int[] outNeighbors = snapshot.outNeighbors;
+            // in an undirected graph, the in-edges are the out-edges, so we don't look at them twice
+            final int[] inStart = (network.isDirected() ? snapshot.inStart : null);
+            final int[] inNeighbors = snapshot.inNeighbors;
+            
             visited[nodeIndex]=true; countVisited++;
-            if(component!=null)
-                component.add(nodeObj);
-            Bag temp;
-            temp = network.getEdgesOut( nodeObj );
-            for(int i=0;i<temp.numObjs;i++)
+            if(component!=null) component.add(snapshot.nodes[nodeIndex]);
+            int top = 0;
+            stack[0] = nodeIndex;
+            cursor[0] = 0;
+            while(top >= 0)
                 {
-                Object node2 = ((Edge)temp.objs[i]).getOtherNode(nodeObj);
-                int node2Index = network.getNodeIndex(node2); 
-                if(!visited[node2Index])
-                    exploreWD(node2, node2Index, component);
-                }
-            temp = network.getEdgesIn ( nodeObj );
-            for(int i=0;i<temp.numObjs;i++)
-                {
-                Object node2 = ((Edge)temp.objs[i]).getOtherNode(nodeObj);
-                int node2Index = network.getNodeIndex(node2); 
-                if(!visited[node2Index])
-                    exploreWD(node2, node2Index, component);
-                }       
-            }
-
-        // The Bag 'component' can be null if I'm only interested in whether the graph is connected.
-        private void exploreU(Object nodeObj, int nodeIndex, Bag component)
-            {
-            visited[nodeIndex]=true;countVisited++;
-            if(component!=null) component.add(nodeObj);
-            Bag temp = network.getEdgesOut( nodeObj );
-            for(int i=0;i<temp.numObjs;i++)
-                {
-                Object node2 = ((Edge)temp.objs[i]).getOtherNode(nodeObj);
-                int node2Index = network.getNodeIndex(node2); 
-                if(!visited[node2Index])
-                    exploreU(node2, node2Index, component);
+                final int node = stack[top];
+                final int c = cursor[top]++;
+                final int outDegree = outStart[node + 1] - outStart[node];
+                int node2;
+                if (c < outDegree)
+                    node2 = outNeighbors[outStart[node] + c];
+                else if (inStart != null && c < outDegree + inStart[node + 1] - inStart[node])
+                    node2 = inNeighbors[inStart[node] + c - outDegree];
+                else { top--; continue; }  // done with this node
+
+                if(!visited[node2])
+                    {
+                    visited[node2]=true; countVisited++;
+                    if(component!=null) component.add(snapshot.nodes[node2]);
+                    top++;
+                    stack[top] = node2;
+                    cursor[top] = 0;
+                    }
                 }
             }
-                
         }
 
     static class FlowData
@@ -0,0 +1,268 @@
+/*
+  Copyright 2010 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.network.stats;
+import sim.field.network.*;
+import sim.util.*;
+import java.util.*;
+
+/**
+   Keeps the triangle counts and clustering coefficient of a Network up to date as the network changes, so they
+   can be read every step without recomputing them from scratch as NetworkStatistics.getClusteringCoefficient(...) does.
+
+   <p>Construct it with the network: it registers itself as a NetworkListener and computes its initial values.
+   Call detach() when you no longer need it.
+
+   <p>For each node <i>i</i> we keep the number of edges between pairs of <i>i</i>'s (out-)neighbors, which is what the
+   clustering coefficient is made of.  Adding or removing an edge from <i>u</i> to <i>v</i> changes this count only for
+   <i>u</i>, <i>v</i>, and the nodes with edges to both of them, and we find those by intersecting the neighbor sets of <i>u</i>
+   and <i>v</i>: the cost is proportional to the smaller of their degrees, not to the size of the network.  In exchange, we hold a
+   hash table of neighbors for each node, roughly doubling the memory of the network itself.
+
+   <p>The values agree with NetworkStatistics.getClusteringCoefficient(...), including its treatment of multigraphs and self-loops,
+   except that, as the per-node ratios are added and subtracted over a long run, the overall coefficient may drift from a
+   recomputed one in the last few digits.  Call rebuild() if that matters.
+*/
+
+public class IncrementalClusteringStatistics implements NetworkListener, java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    final Network network;
+    boolean directed;
+    HashMap nodes;          // maps each node to its Node
+    long totalPairs;
+    double sum;             // the sum of the per-node clustering coefficients
+
+    /** Builds the statistics for the given network, and registers them as a listener on it. */
+    public IncrementalClusteringStatistics(Network network)
+        {
+        this.network = network;
+        network.addListener(this);
+        rebuild();
+        }
+
+    /** Stops listening to the network.  The statistics will no longer be updated. */
+    public void detach()
+        {
+        network.removeListener(this);
+        }
+
+    /** Recomputes all the statistics from scratch. */
+    public void rebuild()
+        {
+        directed = network.isDirected();
+        nodes = new HashMap();
+        totalPairs = 0;
+        sum = 0;
+        final Bag allNodes = network.allNodes;
+        for(int i = 0; i < allNodes.numObjs; i++)
+            nodeAdded(network, allNodes.objs[i]);
+        for(int i = 0; i < allNodes.numObjs; i++)
+            {
+            final Object node = allNodes.objs[i];
+            final Bag edges = network.getEdgesOut(node);
+            for(int j = 0; j < edges.numObjs; j++)
+                {
+                final Edge edge = (Edge)(edges.objs[j]);
+                // each undirected edge appears in both of its nodes' bags (a self-loop appears twice in the same bag), but we add it only once
+                if (directed || (edge.from().equals(node) && (!edge.to().equals(node) || edge.indexFrom() == j)))
+                    edgeAdded(network, edge);
+                }
+            }
+        }
+
+
+    /// LISTENER
+
+    public void nodeAdded(Network network, Object node)
+        {
+        nodes.put(node, new Node(directed));
+        }
+
+    public void nodeRemoved(Network network, Object node)
+        {
+        // its edges have already been removed, so its count and coefficient are zero
+        nodes.remove(node);
+        }
+
+    public void edgeAdded(Network network, Edge edge)
+        {
+        change(edge, 1);
+        }
+
+    public void edgeRemoved(Network network, Edge edge)
+        {
+        change(edge, -1);
+        }
+
+    public void networkChanged(Network network)
+        {
+        rebuild();
+        }
+
+
+    /// STATISTICS
+
+    /** Returns the clustering coefficient of the network, as NetworkStatistics.getClusteringCoefficient(...) does. */
+    public double getClusteringCoefficient()
+        {
+        return sum / nodes.size();
+        }
+
+    /** Returns the clustering coefficient of the given node: the number of edges among its neighbors,
+        divided by the number there could be.  This is zero if the node has fewer than two edges. */
+    public double getClusteringCoefficient(Object node)
+        {
+        return getNode(node).coefficient;
+        }
+
+    /** Returns the number of triangles through the given node.  In an undirected network this is the number of edges between
+        pairs of its neighbors; in a directed network it is the number of edges from one of its out-neighbors to another.
+        Parallel edges between the neighbors are each counted. */
+    public long getTriangles(Object node)
+        {
+        final Node n = getNode(node);
+        return (directed ? n.pairs : n.pairs / 2);
+        }
+
+    /** Returns the number of triangles in the network.  In a directed network, this is the number of transitive triples
+        (i to j, i to k, and j to k).  */
+    public long getNumberTriangles()
+        {
+        return (directed ? totalPairs : totalPairs / 6);
+        }
+
+
+    /// MAINTENANCE
+
+    // Per-node storage.  We count edges between distinct nodes only; self-loops just add to the degree.
+    static class Node implements java.io.Serializable
+        {
+        private static final long serialVersionUID = 1;
+
+        final HashMap out = new HashMap();      // maps each distinct out-neighbor's Node to a Count of the edges to it
+        final HashMap in;                       // likewise for in-neighbors.  The same as out in an undirected network.
+        int degree;                             // the node's out-degree, counting parallel edges and self-loops, as the Network does
+        long pairs;                             // the number of edges from one neighbor to another, counted in both directions if undirected
+        double coefficient;
+
+        Node(boolean directed) { in = (directed ? new HashMap() : out); }
+        }
+
+    static class Count implements java.io.Serializable
+        {
+        private static final long serialVersionUID = 1;
+        int value;
+        }
+
+    Node getNode(Object node)
+        {
+        final Node n = (Node)(nodes.get(node));
+        if (n == null)
+            throw new RuntimeException("Object parameter is not a node in the network.");
+        return n;
+        }
+
+    // recomputes the node's coefficient after its pairs or degree have changed
+    void update(Node n)
+        {
+        sum -= n.coefficient;
+        final int d = n.degree;
+        //Gabriel: "An object must have at least two neighbors to calculate the clustering coefficient"
+        n.coefficient = (d >= 2 ? (double)n.pairs / (double)(d * (d - 1)) : 0);
+        sum += n.coefficient;
+        }
+
+    void addPairs(Node n, long delta)
+        {
+        n.pairs += delta;
+        totalPairs += delta;
+        }
+
+    // adds (delta = 1) or removes (delta = -1) an edge
+    void change(Edge edge, int delta)
+        {
+        final Node u = getNode(edge.from());
+        final Node v = getNode(edge.to());
+        if (u == v)  // a self-loop: it's in the node's edges once if directed, twice if not
+            {
+            u.degree += (directed ? delta : 2 * delta);
+            update(u);
+            return;
+            }
+
+        final int m = addCount(u.out, v, delta);
+        if (u.in != u.out) addCount(v.in, u, delta);
+        else addCount(v.out, u, delta);
+
+        // Every node with both u and v as neighbors now has one more (or one fewer) edge between its neighbors,
+        // or two if undirected, as the edge is then counted from both ends.
+        final long w = (directed ? 1 : 2);
+        final HashMap a = (u.in.size() <= v.in.size() ? u.in : v.in);
+        final HashMap b = (a == u.in ? v.in : u.in);
+        for(Iterator i = a.keySet().iterator(); i.hasNext(); )
+            {
+            final Node n = (Node)(i.next());
+            if (b.containsKey(n))
+                {
+                addPairs(n, delta * w);
+                update(n);
+                }
+            }
+
+        // If v has just become (or stopped being) a neighbor of u, the edges between v and u's other neighbors
+        // now count (or no longer count) for u, and if undirected, likewise the other way around.
+        if ((delta > 0 && m == 1) || (delta < 0 && m == 0))
+            {
+            if (directed)
+                addPairs(u, delta * (sharedCount(u.out, v.out) + sharedCount(u.out, v.in)));
+            else
+                {
+                addPairs(u, delta * 2 * sharedCount(u.out, v.out));
+                addPairs(v, delta * 2 * sharedCount(v.out, u.out));
+                }
+            }
+
+        u.degree += delta;
+        if (!directed) v.degree += delta;
+        update(u);
+        update(v);
+        }
+
+    // adds delta to the count of edges to n in map, removing n if it drops to 0, and returns the new count
+    static int addCount(HashMap map, Node n, int delta)
+        {
+        Count c = (Count)(map.get(n));
+        if (c == null) { c = new Count(); map.put(n, c); }
+        c.value += delta;
+        if (c.value == 0) map.remove(n);
+        return c.value;
+        }
+
+    // returns the sum of the counts in countMap of the nodes which are also keys in keyMap, scanning whichever is smaller
+    static long sharedCount(HashMap keyMap, HashMap countMap)
+        {
+        long total = 0;
+        if (keyMap.size() <= countMap.size())
+            {
+            for(Iterator i = keyMap.keySet().iterator(); i.hasNext(); )
+                {
+                final Count c = (Count)(countMap.get(i.next()));
+                if (c != null) total += c.value;
+                }
+            }
+        else
+            {
+            for(Iterator i = countMap.entrySet().iterator(); i.hasNext(); )
+                {
+                final Map.Entry e = (Map.Entry)(i.next());
+                if (keyMap.containsKey(e.getKey())) total += ((Count)(e.getValue())).value;
+                }
+            }
+        return total;
+        }
+    }
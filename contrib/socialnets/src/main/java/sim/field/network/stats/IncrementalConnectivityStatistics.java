@@ -0,0 +1,297 @@
+/*
+  Copyright 2010 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.network.stats;
+import sim.field.network.*;
+import sim.util.*;
+import java.util.*;
+
+/**
+   Keeps the connected components of a Network (or, for a directed network, its weakly connected components)
+   up to date as the network changes, so they can be read every step without searching the whole network as
+   ConnectivityStatistics.getConnectedComponents(...) does.
+
+   <p>Construct it with the network: it registers itself as a NetworkListener and computes its initial components.
+   Call detach() when you no longer need it.
+
+   <p>When an edge joins two components, the smaller component is relabeled as part of the larger, so over any sequence of
+   additions each node is relabeled at most log(n) times.  When an edge is removed, we don't know whether its
+   nodes are still connected, so we search outwards from both of them at once, one node at a time from each side.  If the searches meet,
+   the component is still whole.  If one search runs out of nodes first, it has found exactly the part which has broken off, and only
+   that part is relabeled.  Thus the cost of a split is proportional to the smaller of the two parts, and in the common case where the
+   nodes are still connected by a short detour (in particular, by a parallel edge) the searches meet after a few steps.
+   However if the nodes remain connected only by a long path around a large component, the searches may visit much of it.
+*/
+
+public class IncrementalConnectivityStatistics implements NetworkListener, java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    final Network network;
+    HashMap nodes;          // maps each node to its Node
+    Bag components;         // all the Components
+    long mark;              // the most recent search mark
+
+    // the search queues, kept around so we don't have to allocate them each time
+    transient Bag fromQueue;
+    transient Bag toQueue;
+
+    /** Builds the components of the given network, and registers itself as a listener on it. */
+    public IncrementalConnectivityStatistics(Network network)
+        {
+        this.network = network;
+        network.addListener(this);
+        rebuild();
+        }
+
+    /** Stops listening to the network.  The components will no longer be updated. */
+    public void detach()
+        {
+        network.removeListener(this);
+        }
+
+    /** Recomputes the components from scratch. */
+    public void rebuild()
+        {
+        nodes = new HashMap();
+        components = new Bag();
+        final Bag allNodes = network.allNodes;
+        for(int i = 0; i < allNodes.numObjs; i++)
+            nodeAdded(network, allNodes.objs[i]);
+        for(int i = 0; i < allNodes.numObjs; i++)
+            {
+            final Bag edges = network.getEdgesOut(allNodes.objs[i]);
+            for(int j = 0; j < edges.numObjs; j++)
+                edgeAdded(network, (Edge)(edges.objs[j]));
+            }
+        }
+
+
+    /// LISTENER
+
+    public void nodeAdded(Network network, Object node)
+        {
+        final Node n = new Node(node);
+        nodes.put(node, n);
+        final Component c = new Component();
+        addComponent(c);
+        c.add(n);
+        }
+
+    public void nodeRemoved(Network network, Object node)
+        {
+        // its edges have already been removed, so it's alone in its component
+        final Node n = (Node)(nodes.remove(node));
+        removeComponent(n.component);
+        }
+
+    public void edgeAdded(Network network, Edge edge)
+        {
+        final Node u = getNode(edge.from());
+        final Node v = getNode(edge.to());
+        Component large = u.component;
+        Component small = v.component;
+        if (large == small) return;
+        if (large.members.numObjs < small.members.numObjs)
+            { Component tmp = large; large = small; small = tmp; }
+
+        // relabel the smaller component
+        final Bag members = small.members;
+        for(int i = 0; i < members.numObjs; i++)
+            large.add((Node)(members.objs[i]));
+        removeComponent(small);
+        }
+
+    public void edgeRemoved(Network network, Edge edge)
+        {
+        final Node u = getNode(edge.from());
+        final Node v = getNode(edge.to());
+        if (u == v) return;  // a self-loop never connects anything
+
+        if (fromQueue == null) { fromQueue = new Bag(); toQueue = new Bag(); }
+        final Bag fromQueue = this.fromQueue;
+        final Bag toQueue = this.toQueue;
+        final long fromMark = ++mark;
+        final long toMark = ++mark;
+        fromQueue.clear();
+        toQueue.clear();
+        u.mark = fromMark;
+        fromQueue.add(u);
+        v.mark = toMark;
+        toQueue.add(v);
+
+        // Breadth-first search from both ends, a node at a time from each, until they meet or one runs out.
+        // The queues are never emptied: each holds all the nodes its search has reached, in order.
+        int fromHead = 0;
+        int toHead = 0;
+        while(true)
+            {
+            if (fromHead == fromQueue.numObjs) { split(fromQueue); break; }
+            if (expand((Node)(fromQueue.objs[fromHead++]), fromMark, toMark, fromQueue)) break;
+            if (toHead == toQueue.numObjs) { split(toQueue); break; }
+            if (expand((Node)(toQueue.objs[toHead++]), toMark, fromMark, toQueue)) break;
+            }
+        fromQueue.clear();
+        toQueue.clear();
+        }
+
+    public void networkChanged(Network network)
+        {
+        rebuild();
+        }
+
+
+    /// STATISTICS
+
+    /** Returns the number of connected components (weakly connected components, if the network is directed). */
+    public int getNumberComponents() { return components.numObjs; }
+
+    /** Returns true if the network is connected (weakly connected, if it is directed).  An empty network is connected. */
+    public boolean isConnected() { return components.numObjs <= 1; }
+
+    /** Returns true if the two nodes are in the same component. */
+    public boolean isConnected(Object node1, Object node2)
+        {
+        return getNode(node1).component == getNode(node2).component;
+        }
+
+    /** Returns the number of nodes in the component holding the given node. */
+    public int getComponentSize(Object node)
+        {
+        return getNode(node).component.members.numObjs;
+        }
+
+    /** Returns the number of nodes in the largest component, or 0 if there are no nodes.  This takes time proportional to the number of components. */
+    public int getLargestComponentSize()
+        {
+        int max = 0;
+        for(int i = 0; i < components.numObjs; i++)
+            {
+            final int size = ((Component)(components.objs[i])).members.numObjs;
+            if (size > max) max = size;
+            }
+        return max;
+        }
+
+    /** Returns a new Bag holding the nodes of the component holding the given node. */
+    public Bag getComponent(Object node)
+        {
+        return getComponent(getNode(node).component);
+        }
+
+    /** Returns a Bag of Bags of nodes, one Bag for each component, as ConnectivityStatistics.getConnectedComponents(...) does
+        (though the components and the nodes in them may be in a different order).  You may modify the Bags. */
+    public Bag getComponents()
+        {
+        final Bag result = new Bag(components.numObjs);
+        for(int i = 0; i < components.numObjs; i++)
+            result.add(getComponent((Component)(components.objs[i])));
+        return result;
+        }
+
+
+    /// MAINTENANCE
+
+    static class Node implements java.io.Serializable
+        {
+        private static final long serialVersionUID = 1;
+        final Object node;
+        Component component;
+        int memberIndex;        // where we are in component.members
+        long mark;              // the last search which reached us
+
+        Node(Object node) { this.node = node; }
+        }
+
+    static class Component implements java.io.Serializable
+        {
+        private static final long serialVersionUID = 1;
+        final Bag members = new Bag();  // the Nodes
+        int index;                      // where we are in the components Bag
+
+        void add(Node n)
+            {
+            n.component = this;
+            n.memberIndex = members.numObjs;
+            members.add(n);
+            }
+
+        void remove(Node n)
+            {
+            members.remove(n.memberIndex);  // moves the last member into its place
+            if (members.numObjs > n.memberIndex)
+                ((Node)(members.objs[n.memberIndex])).memberIndex = n.memberIndex;
+            }
+        }
+
+    Node getNode(Object node)
+        {
+        final Node n = (Node)(nodes.get(node));
+        if (n == null)
+            throw new RuntimeException("Object parameter is not a node in the network.");
+        return n;
+        }
+
+    Bag getComponent(Component c)
+        {
+        final Bag members = c.members;
+        final Bag result = new Bag(members.numObjs);
+        for(int i = 0; i < members.numObjs; i++)
+            result.add(((Node)(members.objs[i])).node);
+        return result;
+        }
+
+    void addComponent(Component c)
+        {
+        c.index = components.numObjs;
+        components.add(c);
+        }
+
+    void removeComponent(Component c)
+        {
+        components.remove(c.index);  // moves the last component into its place
+        if (components.numObjs > c.index)
+            ((Component)(components.objs[c.index])).index = c.index;
+        }
+
+    // Adds to the queue the unvisited neighbors of n (following edges in both directions), marking them with myMark.
+    // Returns true if we've reached a node marked by the other search.
+    boolean expand(Node n, long myMark, long otherMark, Bag queue)
+        {
+        if (expand(network.getEdgesOut(n.node), n.node, myMark, otherMark, queue)) return true;
+        if (network.isDirected() && expand(network.getEdgesIn(n.node), n.node, myMark, otherMark, queue)) return true;
+        return false;
+        }
+
+    boolean expand(Bag edges, Object node, long myMark, long otherMark, Bag queue)
+        {
+        for(int i = 0; i < edges.numObjs; i++)
+            {
+            final Node n2 = getNode(((Edge)(edges.objs[i])).getOtherNode(node));
+            if (n2.mark == otherMark) return true;
+            if (n2.mark != myMark)
+                {
+                n2.mark = myMark;
+                queue.add(n2);
+                }
+            }
+        return false;
+        }
+
+    // The nodes in the queue have broken off from their component: move them to a new one
+    void split(Bag queue)
+        {
+        final Component old = ((Node)(queue.objs[0])).component;
+        final Component c = new Component();
+        addComponent(c);
+        for(int i = 0; i < queue.numObjs; i++)
+            {
+            final Node n = (Node)(queue.objs[i]);
+            old.remove(n);
+            c.add(n);
+            }
+        }
+    }
@@ -0,0 +1,250 @@
+/*
+  Copyright 2010 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.network.stats;
+import sim.field.network.*;
+import sim.util.*;
+
+/**
+   Keeps the degree distribution, number of edges, and density of a Network up to date as the network changes,
+   so they can be read every step without rescanning the network as DegreeStatistics and NetworkStatistics do.
+   Adding or removing an edge costs O(1) (and occasionally a short scan of the histogram, when the minimum or maximum degree changes).
+
+   <p>Construct it with the network: it registers itself as a NetworkListener and computes its initial values.
+   Call detach() when you no longer need it.
+
+   <p>The values agree with those of DegreeStatistics and NetworkStatistics, with one exception: in an undirected
+   network, DegreeStatistics computes the mean and variance of the degree as if the sum of the degrees were the number
+   of edges, whereas here they are the mean and variance of the actual degrees (which sum to twice the number of edges).
+   In an undirected network the in-degree and out-degree of a node are the same, and a self-loop counts twice.
+*/
+
+public class IncrementalDegreeStatistics implements NetworkListener, java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    final Network network;
+    Distribution out;
+    Distribution in;        // the same as out if the network is undirected
+    int numEdges;
+
+    /** Builds the statistics for the given network, and registers them as a listener on it. */
+    public IncrementalDegreeStatistics(Network network)
+        {
+        this.network = network;
+        network.addListener(this);
+        rebuild();
+        }
+
+    /** Stops listening to the network.  The statistics will no longer be updated. */
+    public void detach()
+        {
+        network.removeListener(this);
+        }
+
+    /** Recomputes all the statistics from scratch. */
+    public void rebuild()
+        {
+        final boolean directed = network.isDirected();
+        out = new Distribution();
+        in = (directed ? new Distribution() : out);
+        final Bag allNodes = network.allNodes;
+        int sum = 0;
+        for(int i = 0; i < allNodes.numObjs; i++)
+            {
+            final Object node = allNodes.objs[i];
+            final int d = network.getEdgesOut(node).numObjs;
+            out.add(d);
+            sum += d;
+            if (directed) in.add(network.getEdgesIn(node).numObjs);
+            }
+        numEdges = (directed ? sum : sum / 2);
+        }
+
+
+    /// LISTENER
+
+    public void nodeAdded(Network network, Object node)
+        {
+        out.add(0);
+        if (in != out) in.add(0);
+        }
+
+    public void nodeRemoved(Network network, Object node)
+        {
+        // its edges have already been removed
+        out.remove(0);
+        if (in != out) in.remove(0);
+        }
+
+    public void edgeAdded(Network network, Edge edge)
+        {
+        numEdges++;
+        if (in != out)
+            {
+            final int d = network.getEdgesOut(edge.from()).numObjs;
+            out.move(d - 1, d);
+            final int d2 = network.getEdgesIn(edge.to()).numObjs;
+            in.move(d2 - 1, d2);
+            }
+        else if (edge.from().equals(edge.to()))  // a self-loop appears twice in the node's edges
+            {
+            final int d = network.getEdgesOut(edge.from()).numObjs;
+            out.move(d - 2, d);
+            }
+        else
+            {
+            final int d = network.getEdgesOut(edge.from()).numObjs;
+            out.move(d - 1, d);
+            final int d2 = network.getEdgesOut(edge.to()).numObjs;
+            out.move(d2 - 1, d2);
+            }
+        }
+
+    public void edgeRemoved(Network network, Edge edge)
+        {
+        numEdges--;
+        if (in != out)
+            {
+            final int d = network.getEdgesOut(edge.from()).numObjs;
+            out.move(d + 1, d);
+            final int d2 = network.getEdgesIn(edge.to()).numObjs;
+            in.move(d2 + 1, d2);
+            }
+        else if (edge.from().equals(edge.to()))
+            {
+            final int d = network.getEdgesOut(edge.from()).numObjs;
+            out.move(d + 2, d);
+            }
+        else
+            {
+            final int d = network.getEdgesOut(edge.from()).numObjs;
+            out.move(d + 1, d);
+            final int d2 = network.getEdgesOut(edge.to()).numObjs;
+            out.move(d2 + 1, d2);
+            }
+        }
+
+    public void networkChanged(Network network)
+        {
+        rebuild();
+        }
+
+
+    /// STATISTICS
+
+    /** Returns the number of nodes in the network. */
+    public int getNumberNodes() { return out.count; }
+
+    /** Returns the number of edges in the network, as NetworkStatistics.getNumberActualEdges(...) does. */
+    public int getNumberEdges() { return numEdges; }
+
+    /** Returns the density of the network, as NetworkStatistics.getDensity(...) does. */
+    public double getDensity()
+        {
+        final int N = out.count;
+        if (N == 0) return 0;
+        return (double)numEdges / (double)(network.isDirected() ? N * (N - 1) : N * (N - 1) / 2);
+        }
+
+    /** Returns the sum of degrees of all nodes in the network, as DegreeStatistics.getSumOfDegrees(...) does. */
+    public int getSumOfDegrees() { return 2 * numEdges; }
+
+    /** Returns the minimum in-degree, or Integer.MAX_VALUE if there are no nodes. */
+    public int getMinInDegree() { return in.getMin(); }
+    /** Returns the minimum out-degree, or Integer.MAX_VALUE if there are no nodes. */
+    public int getMinOutDegree() { return out.getMin(); }
+    /** Returns the maximum in-degree, or Integer.MIN_VALUE if there are no nodes. */
+    public int getMaxInDegree() { return in.getMax(); }
+    /** Returns the maximum out-degree, or Integer.MIN_VALUE if there are no nodes. */
+    public int getMaxOutDegree() { return out.getMax(); }
+    /** Returns the mean in-degree. */
+    public double getMeanInDegree() { return in.getMean(); }
+    /** Returns the mean out-degree. */
+    public double getMeanOutDegree() { return out.getMean(); }
+    /** Returns the (sample) variance of the in-degree. */
+    public double getVarInDegree() { return in.getVariance(); }
+    /** Returns the (sample) variance of the out-degree. */
+    public double getVarOutDegree() { return out.getVariance(); }
+
+    /** Returns the histogram of the out-degrees (if out is true) or in-degrees of the nodes, as DegreeStatistics.getDegreeHistogram(...) does:
+        element <i>d</i> holds the number of nodes with degree <i>d</i>.  The array is a copy, which you may modify. */
+    public int[] getDegreeHistogram(boolean out)
+        {
+        final Distribution dist = (out ? this.out : in);
+        final int[] histogram = new int[Math.max(dist.count, dist.count == 0 ? 0 : dist.max + 1)];
+        System.arraycopy(dist.histogram, 0, histogram, 0, Math.min(histogram.length, dist.histogram.length));
+        return histogram;
+        }
+
+
+    // The distribution of one kind of degree.  min and max are kept exact: when the last node with the
+    // min (or max) degree moves, we scan the histogram for the new one, which is usually nearby.
+    static class Distribution implements java.io.Serializable
+        {
+        private static final long serialVersionUID = 1;
+
+        int[] histogram = new int[16];
+        int count;
+        long sum;
+        long sumSq;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+
+        void add(int d)
+            {
+            if (d >= histogram.length)
+                {
+                int[] newHistogram = new int[Math.max(d + 1, histogram.length * 2)];
+                System.arraycopy(histogram, 0, newHistogram, 0, histogram.length);
+                histogram = newHistogram;
+                }
+            histogram[d]++;
+            count++;
+            sum += d;
+            sumSq += (long)d * d;
+            if (d < min) min = d;
+            if (d > max) max = d;
+            }
+
+        void remove(int d)
+            {
+            histogram[d]--;
+            count--;
+            sum -= d;
+            sumSq -= (long)d * d;
+            if (count == 0) { min = Integer.MAX_VALUE; max = Integer.MIN_VALUE; }
+            else if (histogram[d] == 0)
+                {
+                if (d == min) while(histogram[min] == 0) min++;
+                if (d == max) while(histogram[max] == 0) max--;
+                }
+            }
+
+        void move(int from, int to)
+            {
+            // add first, so count never drops to zero in the middle
+            add(to);
+            remove(from);
+            }
+
+        int getMin() { return min; }
+        int getMax() { return max; }
+
+        double getMean()
+            {
+            if (count == 0) return 0;
+            return sum / (double)count;
+            }
+
+        double getVariance()
+            {
+            // [Sum(x^2)n - S^2] / [n(n-1)], as in DegreeStatistics
+            final double n = count;
+            return (sumSq * n - (double)sum * sum) / (n * (n - 1));
+            }
+        }
+    }
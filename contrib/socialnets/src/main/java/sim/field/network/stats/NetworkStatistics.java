@@ -110,42 +110,47 @@ public class NetworkStatistics
     */
     public static double[] getShortestPaths( final Network network, final Object startNode, final EdgeMetric computer )
         {
-        double[] result = new double[network.allNodes.numObjs];
+        final NetworkSnapshot snapshot = network.getSnapshot();
+        double[] result = new double[snapshot.numNodes];
+        getShortestPaths( snapshot, getWeights(snapshot, computer), network.getNodeIndex(startNode), result, new IntDoubleHeap() );
+        return result;
+        }
+
+    /**
+       Computes the distances from the node with index startNode to all the nodes in a NetworkSnapshot, using Dijkstra's algorithm,
+       and places them in result, which must be as long as the number of nodes.  Double.POSITIVE_INFINITY marks nodes
+       that are not accessible from the startNode.  The weights are those of the snapshot's out-edges, as returned by 
+       getWeights(...).  The heap is used as working space.  Returns result.
+    */
+    public static double[] getShortestPaths( final NetworkSnapshot snapshot, final double[] weights, final int startNode, final double[] result, final IntDoubleHeap heap )
+        {
+        // locals are faster
+        final int[] outStart = snapshot.outStart;
+        final int[] outNeighbors = snapshot.outNeighbors;
+
         for( int i = 0 ; i < result.length ; i++ )
             result[i] = Double.POSITIVE_INFINITY;
-        DoubleHeap heap = new DoubleHeap();
-//              System.out.println("***" + startNode);
+        heap.clear();
+        result[startNode] = 0.0;
         heap.add( startNode, 0.0 );
 
-        // TODO: we need to check this thing again!
-        // extract nodes from the heap, until the heap becomes empty.  to make the code easier, we do not
-        // modify the information on the heap, but we rather make sure the information is not too old.  that is,
-        // once we pop a node from the heap, we verify that it has not already been visited with a lower cost
-        // (in which case, we just discard the current information).  this incurs some extra costs (i am not sure
-        // exactly how slower this can make things go), but i think the costs are not that significant.  once we
-        // check this, the same check/modifications will need to be performed to the getShortestPath and
-        // johnsonShortestPathsMatrix methods, where I basically just copied/pasted the code.
+        // we keep the best distance found so far for each node in result, and rather than modifying the information on the heap,
+        // we add a node again each time we find a shorter path to it.  Thus when we pop a node from the heap whose distance
+        // is larger than its best distance, the information is out of date and we just discard it.
         while( !heap.isEmpty() )
             {
             final double dist = heap.getMinKey();
-            final Object node = heap.extractMin();
-            int nodeIndex = network.getNodeIndex(node);
-            if( result[nodeIndex] <= dist ) // if node was already visited and it was closer than it is now, skip it
+            final int node = heap.extractMin();
+            if( result[node] < dist ) // out of date
                 continue;
-            result[nodeIndex] = dist;
-            final Bag edgesOut = network.getEdgesOut(node);
-            for( int i = 0 ; i < edgesOut.numObjs ; i++ )
+            for( int k = outStart[node] ; k < outStart[node + 1] ; k++ )
                 {
-                final Edge edge = (Edge)(edgesOut.objs[i]);
-                int toNode = network.getNodeIndex(((Edge)(edgesOut.objs[i])).getOtherNode(node));
-//System.out.println("%%%");                            
-//System.out.println("" + edge + " " + nodeIndex + " " + ((Edge)(edgesOut.objs[i])).getOtherNode(node) + " " + toNode + " " + network.allNodes.numObjs);
-//System.out.println("!!!" + java.lang.Thread.currentThread());
-                final double newDist = dist + computer.getWeight(edge);
+                final int toNode = outNeighbors[k];
+                final double newDist = dist + weights[k];
                 if( result[toNode] > newDist )
                     {
-//                                      System.out.println("+++" + network.allNodes.objs[toNode]);
-                    heap.add( network.allNodes.objs[toNode], newDist );
+                    result[toNode] = newDist;
+                    heap.add( toNode, newDist );
                     }
                 }
             }
@@ -153,6 +158,21 @@ public class NetworkStatistics
         return result;
         }
 
+    /**
+       Returns the weights of the out-edges of a NetworkSnapshot (that is, of snapshot.outEdges), as computed by the given EdgeMetric.
+       The weights are computed afresh, so they reflect edge weights which have changed in place (say, a MutableDouble
+       stored as an edge's info) since the snapshot was taken.  If you want the weights as they were when the snapshot was
+       taken, use snapshot.outWeights instead.
+    */
+    public static double[] getWeights( final NetworkSnapshot snapshot, final EdgeMetric computer )
+        {
+        final Edge[] edges = snapshot.outEdges;
+        double[] weights = new double[edges.length];
+        for( int k = 0 ; k < edges.length ; k++ )
+            weights[k] = computer.getWeight(edges[k]);
+        return weights;
+        }
+
     /**
        Returns the shortest path (number of edges) between two nodes indicated by their indexes in the allNodes Bag.
        Returns Double.POSITIVE_INFINITY if no path is found.
@@ -161,30 +181,38 @@ public class NetworkStatistics
         {
         if( startNode.equals(endNode) )
             return 0;
-        double[] result = new double[network.allNodes.numObjs];
+        final NetworkSnapshot snapshot = network.getSnapshot();
+        final int[] outStart = snapshot.outStart;
+        final int[] outNeighbors = snapshot.outNeighbors;
+        final Edge[] outEdges = snapshot.outEdges;
+        final int endIndex = network.getNodeIndex(endNode);
+
+        double[] result = new double[snapshot.numNodes];
         for( int i = 0 ; i < result.length ; i++ )
             result[i] = Double.POSITIVE_INFINITY;
-        DoubleHeap heap = new DoubleHeap();
-        heap.add( startNode, 0.0 );
+        IntDoubleHeap heap = new IntDoubleHeap();
+        final int startIndex = network.getNodeIndex(startNode);
+        result[startIndex] = 0.0;
+        heap.add( startIndex, 0.0 );
 
         while( !heap.isEmpty() )
             {
             final double dist = heap.getMinKey();
-            final Object node = heap.extractMin();
-            int nodeIndex = network.getNodeIndex(node);
-            if( result[nodeIndex] <= dist ) // if node was already visited and it was closer than it is now, skip it
+            final int node = heap.extractMin();
+            if( result[node] < dist ) // out of date
                 continue;
-            result[nodeIndex] = dist;
-            if( node.equals(endNode) )
+            if( node == endIndex )
                 return dist;
-            final Bag edgesOut = network.getEdgesOut(node);
-            for( int i = 0 ; i < edgesOut.numObjs ; i++ )
+            for( int k = outStart[node] ; k < outStart[node + 1] ; k++ )
                 {
-                final Edge edge = (Edge)(edgesOut.objs[i]);
-                int toNode = network.getNodeIndex(((Edge)(edgesOut.objs[i])).getOtherNode(node));
-                final double newDist = dist + computer.getWeight(edge);
+                final int toNode = outNeighbors[k];
+                // we don't precompute the weights, as we may well stop long before we've seen all the edges
+                final double newDist = dist + computer.getWeight(outEdges[k]);
                 if( result[toNode] > newDist )
-                    heap.add( network.allNodes.objs[toNode], newDist );
+                    {
+                    result[toNode] = newDist;
+                    heap.add( toNode, newDist );
+                    }
                 }
             }
 
@@ -197,38 +225,41 @@ public class NetworkStatistics
     public static double getClusteringCoefficient( final Network network )
         {
         double clusteringCoefficient = 0;
-        int N = getNumberNodes(network);
-        boolean[] allFalse = new boolean[N];
-        HashSet neighbors = new HashSet();
+        final NetworkSnapshot snapshot = network.getSnapshot();
+        final int N = snapshot.numNodes;
+        final int[] outStart = snapshot.outStart;
+        final int[] outNeighbors = snapshot.outNeighbors;
+
+        // rather than collecting the neighbors of node i into a hash set, we mark them with i+1 in isNeighbor,
+        // and mark each neighbor in done with i+1 once we have dealt with it.
+        final int[] isNeighbor = new int[N];
+        final int[] done = new int[N];
         for( int i = 0 ; i < N ; i++ )
             {
-            // collect all the neighbors of a node into a single hash set
-            neighbors.clear();
-            final Bag edgesOut = network.getEdgesOut(network.allNodes.objs[i]);
-            for( int j = 0 ; j < edgesOut.numObjs ; j++ )
-                {
-                Object toNode = ((Edge)(edgesOut.objs[j])).getOtherNode(network.allNodes.objs[i]);
-                if( !toNode.equals(network.allNodes.objs[i]) )
-                    neighbors.add(toNode);
-                }
+            final int mark = i + 1;
+            for( int k = outStart[i] ; k < outStart[i + 1] ; k++ )
+                if( outNeighbors[k] != i )
+                    isNeighbor[outNeighbors[k]] = mark;
 
             // go through the neighbors, and compute how many pairs of them have direct edges connecting them
             int pairs = 0;
-            Iterator iter = neighbors.iterator();
-            while( iter.hasNext() )
+            for( int k = outStart[i] ; k < outStart[i + 1] ; k++ )
                 {
-                Object neigh = iter.next();
-                final Bag edgesOutOfNeigh = network.getEdgesOut(neigh);
-                for( int j = 0 ; j < edgesOutOfNeigh.numObjs ; j++ )
+                final int neigh = outNeighbors[k];
+                if( neigh == i || done[neigh] == mark )
+                    continue;
+                done[neigh] = mark;
+                for( int l = outStart[neigh] ; l < outStart[neigh + 1] ; l++ )
                     {
-                    Object toNode = ((Edge)(edgesOutOfNeigh.objs[j])).getOtherNode(neigh);
-                    if( (!toNode.equals(network.allNodes.objs[i])) && (!toNode.equals(neigh)) && neighbors.contains(toNode) )
+                    final int toNode = outNeighbors[l];
+                    if( toNode != i && toNode != neigh && isNeighbor[toNode] == mark )
                         pairs++;
                     }
                 }
-            if( edgesOut.numObjs >= 2 )
+            final int degree = outStart[i + 1] - outStart[i];
+            if( degree >= 2 )
                 //Gabriel: "An object must have at least two neighbors to calculate the clustering coefficient"
-                clusteringCoefficient += (double)pairs/(double)(edgesOut.numObjs*(edgesOut.numObjs-1));
+                clusteringCoefficient += (double)pairs/(double)(degree*(degree-1));
             }
         return clusteringCoefficient/N;
         }
@@ -238,19 +269,17 @@ public class NetworkStatistics
     */
     public static boolean isMultigraphNetwork( final Network network )
         {
-        HashSet hashSet = new HashSet();
-        for( int i = 0 ; i < network.allNodes.numObjs ; i++ )
-            {
-            hashSet.clear();
-            Bag edgesOut = network.getEdgesOut(network.allNodes.objs[i]);
-            for( int j = 0 ; j < edgesOut.numObjs ; j++ )
+        final NetworkSnapshot snapshot = network.getSnapshot();
+        final int[] outStart = snapshot.outStart;
+        final int[] outNeighbors = snapshot.outNeighbors;
+        final int[] seen = new int[snapshot.numNodes];
+        for( int i = 0 ; i < snapshot.numNodes ; i++ )
+            for( int k = outStart[i] ; k < outStart[i + 1] ; k++ )
                 {
-                final Object toNode = ((Edge)(edgesOut.objs[j])).getOtherNode(network.allNodes.objs[i]);
-                if( hashSet.contains(toNode) )
+                if( seen[outNeighbors[k]] == i + 1 )
                     return true;
-                hashSet.add(toNode);
+                seen[outNeighbors[k]] = i + 1;
                 }
-            }
         return false;
         }
 
@@ -259,16 +288,13 @@ public class NetworkStatistics
     */
     public static boolean getHasSelfLoops( final Network network )
         {
-        for( int i = 0 ; i < network.allNodes.numObjs ; i++ )
-            {
-            final Bag edgesOut = network.getEdgesOut(network.allNodes.objs[i]);
-            for( int j = 0 ; j < edgesOut.numObjs ; j++ )
-                {
-                final Object toNode = ((Edge)(edgesOut.objs[j])).getOtherNode(network.allNodes.objs[i]);
-                if( network.allNodes.objs[i].equals(((Edge)(edgesOut.objs[j])).getOtherNode(network.allNodes.objs[i])) )
+        final NetworkSnapshot snapshot = network.getSnapshot();
+        final int[] outStart = snapshot.outStart;
+        final int[] outNeighbors = snapshot.outNeighbors;
+        for( int i = 0 ; i < snapshot.numNodes ; i++ )
+            for( int k = outStart[i] ; k < outStart[i + 1] ; k++ )
+                if( outNeighbors[k] == i )
                     return true;
-                }
-            }
         return false;
         }
 
@@ -316,7 +342,7 @@ public class NetworkStatistics
         if( numEdges > numNodes*Math.sqrt(numNodes) ) // a quick-and-dirty way of deciding whether the matrix is sparse or not
             return floydWarshallShortestPathsMatrix(network,computer); // if too many edges, use the O(V^3) algorithm
         else
-            return johnsonShortestPathsMatrix(network,computer); // use the O(V^2*log(V)+VE) algorithm
+            return new ShortestPathSearch(network,computer).getDistances(); // use the O(V^2*log(V)+VE) algorithm, in parallel
         }
 
     /**
@@ -334,15 +360,10 @@ public class NetworkStatistics
                 result[i][j] = Double.POSITIVE_INFINITY;
 
         // initialize the distance matrix with the weights of the existing edges
+        final NetworkSnapshot snapshot = network.getSnapshot();
         for( int i = 0 ; i < N ; i++ )
-            {
-            Bag bag = network.getEdgesOut(network.allNodes.objs[i]);
-            for( int j = 0 ; j < bag.numObjs ; j++ )
-                {
-                Edge edge = (Edge)(bag.objs[j]);
-                result[i][network.getNodeIndex(edge.getOtherNode(network.allNodes.objs[i]))] = computer.getWeight(edge);
-                }
-            }
+            for( int k = snapshot.outStart[i] ; k < snapshot.outStart[i + 1] ; k++ )
+                result[i][snapshot.outNeighbors[k]] = computer.getWeight(snapshot.outEdges[k]);
 
         // initialize the distance matrix with 0s on the main diagonal
         for( int i = 0 ; i < N ; i++ )
@@ -367,37 +388,13 @@ public class NetworkStatistics
     */
     public static double[][] johnsonShortestPathsMatrix( final Network network, final EdgeMetric computer )
         {
-        final int N = getNumberNodes(network);
+        final NetworkSnapshot snapshot = network.getSnapshot();
+        final double[] weights = getWeights(snapshot, computer);
+        final int N = snapshot.numNodes;
         double[][] result = new double[N][N];
-        DoubleHeap heap = new DoubleHeap();
+        IntDoubleHeap heap = new IntDoubleHeap();
         for( int i = 0 ; i < N ; i++ )
-            {
-            for( int j = 0 ; j < result.length ; j++ )
-                result[i][j] = Double.POSITIVE_INFINITY;
-            heap.clear();
-            heap.add( network.allNodes.objs[i], 0.0 );
-
-            while( !heap.isEmpty() )
-                {
-                final double dist = heap.getMinKey();
-                final Object node = heap.extractMin();
-                int nodeIndex = network.getNodeIndex(node);
-                if( result[i][nodeIndex] > -1 && result[i][nodeIndex] <= dist ) // if node was already visited and it was closer than it is now, skip it
-                    continue;
-                result[i][nodeIndex] = dist;
-                final Bag edgesOut = network.getEdgesOut(node);
-                for( int j = 0 ; j < edgesOut.numObjs ; j++ )
-                    {
-                    final Edge edge = (Edge)(edgesOut.objs[j]);
-                    int toNode = network.getNodeIndex(((Edge)(edgesOut.objs[j])).getOtherNode(node));
-                    final double newDist = dist + computer.getWeight(edge);
-                    if( result[i][toNode] > newDist )
-                        heap.add( network.allNodes.objs[toNode], newDist );
-                    }
-                }
-
-            result[i][i] = 0;
-            }
+            getShortestPaths( snapshot, weights, i, result[i], heap );
         return result;
         }
 
@@ -436,14 +433,16 @@ public class NetworkStatistics
     public static double getLargeNetworkMeanShortestPath( final Network network, final EdgeMetric computer )
         {
         double result = 0;
-        Bag nodes = network.getAllNodes();
-        int N = nodes.numObjs;
+        final NetworkSnapshot snapshot = network.getSnapshot();
+        final double[] weights = getWeights(snapshot, computer);
+        final IntDoubleHeap heap = new IntDoubleHeap();
+        int N = snapshot.numNodes;
+        double[] paths = new double[N];
         if(!network.isDirected())
             {
             for( int i = 0; i < N - 1; i++ )
                 {
-                Object node = (Object) nodes.get(i);
-                double[] paths = getShortestPaths( network, node, computer );
+                getShortestPaths( snapshot, weights, i, paths, heap );
                 for( int j = i + 1 ; j < N ; j++ )
                     result += paths[j];
                 }
@@ -453,8 +452,7 @@ public class NetworkStatistics
             {
             for( int i = 0; i < N; i++ )
                 {
-                Object node = (Object) nodes.get(i);
-                double[] paths = getShortestPaths( network, node, computer );
+                getShortestPaths( snapshot, weights, i, paths, heap );
                 for( int j = 0 ; j < N ; j++ )
                     if( i != j )
                         result += paths[j];
@@ -476,6 +474,11 @@ public class NetworkStatistics
         if( N == 0 )
             return 0;
         double[] dist = getShortestPaths( network, node, computer );
+        return max(dist);
+        }
+
+    static double max( final double[] dist )
+        {
         double max = dist[0];
         for( int i = 1 ; i < dist.length ; i++ )
             if( max < dist[i] )
@@ -492,9 +495,10 @@ public class NetworkStatistics
         if( N == 0 || N == 1 )
             return 0;
         double min = Double.POSITIVE_INFINITY;
+        final double[] eccentricities = new ShortestPathSearch(network, computer).getEccentricities();
         for( int nn = 0 ; nn < N ; nn++ )
             {
-            double dist = getNodeEccentricity( network, network.allNodes.objs[nn], computer );
+            double dist = eccentricities[nn];
             if( min > dist )
                 min = dist;
             }
@@ -510,9 +514,10 @@ public class NetworkStatistics
         if( N == 0 || N == 1 )
             return 0;
         double max = -1;
+        final double[] eccentricities = new ShortestPathSearch(network, computer).getEccentricities();
         for( int nn = 0 ; nn < N ; nn++ )
             {
-            double dist = getNodeEccentricity( network, network.allNodes.objs[nn], computer );
+            double dist = eccentricities[nn];
             if( max < dist )
                 max = dist;
             }
@@ -527,71 +532,50 @@ public class NetworkStatistics
     */
     public static long[][] johnsonNumberShortestPathsMatrix( final Network network, final EdgeMetric computer, final double precision )
         {
-        final int N = getNumberNodes(network);
-        double[][] result = new double[N][N];
+        final NetworkSnapshot snapshot = network.getSnapshot();
+        final double[] weights = getWeights(snapshot, computer);
+        final int[] outStart = snapshot.outStart;
+        final int[] outNeighbors = snapshot.outNeighbors;
+        final int N = snapshot.numNodes;
+        double[] result = new double[N];
         long[][] number = new long[N][N];
-        DoubleHeap heap = new DoubleHeap();
+        IntDoubleHeap heap = new IntDoubleHeap();
         for( int i = 0 ; i < N ; i++ )
             {
+            final long[] num = number[i];
             for( int j = 0 ; j < N ; j++ )
-                {
-                result[i][j] = Double.POSITIVE_INFINITY;
-                number[i][j] = 0;
-                }
+                result[j] = Double.POSITIVE_INFINITY;
             heap.clear();
-            heap.add( new Pair(network.allNodes.objs[i],-1), 0d );
+            result[i] = 0;
+            num[i] = 1;
+            heap.add( i, 0d );
 
+            // As in getShortestPaths(...), but we also count the shortest paths.  The weights are positive, so by the time a node
+            // comes off the heap, all its predecessors on shortest paths have come off before it, and its count is complete.
             while( !heap.isEmpty() )
                 {
-                boolean shouldExpand = true;
                 final double dist = heap.getMinKey();
-                final Pair node = (Pair)(heap.extractMin());
-                int nodeIndex = network.getNodeIndex(node.object);
-                if( result[i][nodeIndex] < dist - precision ) // if node was already visited and it was closer than it is now, skip it
-                    continue;
-                if( result[i][nodeIndex] > dist + precision )
-                    {
-                    result[i][nodeIndex] = dist;
-                    if( node.index < 0 )
-                        number[i][nodeIndex] = 1;
-                    else
-                        number[i][nodeIndex] = number[i][node.index];
-                    }
-                else
-                    {
-                    if( node.index < 0 )
-                        number[i][nodeIndex] += 1;
-                    else
-                        number[i][nodeIndex] += number[i][node.index];
-                    shouldExpand = false;
-                    }
-                if( !shouldExpand )
+                final int node = heap.extractMin();
+                if( result[node] < dist ) // out of date
                     continue;
-                final Bag edgesOut = network.getEdgesOut(node.object);
-                for( int j = 0 ; j < edgesOut.numObjs ; j++ )
+                for( int k = outStart[node] ; k < outStart[node + 1] ; k++ )
                     {
-                    final Edge edge = (Edge)(edgesOut.objs[j]);
-                    int toNode = network.getNodeIndex(((Edge)(edgesOut.objs[j])).getOtherNode(node.object));
-                    final double newDist = dist + computer.getWeight(edge);
-                    if(result[i][toNode] >= newDist + precision )
+                    final int toNode = outNeighbors[k];
+                    final double newDist = dist + weights[k];
+                    if( result[toNode] > newDist + precision )
                         {
-                        heap.add( new Pair(network.allNodes.objs[toNode],nodeIndex), newDist );
+                        result[toNode] = newDist;
+                        num[toNode] = num[node];
+                        heap.add( toNode, newDist );
                         }
+                    else if( abs( result[toNode] - newDist ) <= precision )
+                        num[toNode] += num[node];
                     }
                 }
-
-            result[i][i] = 0;
             }
         return number;
         }
         
-    static class Pair
-        {
-        Object object;
-        int index;
-        public Pair( Object o, int i ) { object=o; index=i; }
-        }
-
     /**
        Get the numer of shortest paths (from any node to any other node) using the Floyd-Warshall algorithm.
        Precision is used to deal with equality of real-valued paths (two real-valued numbers are different with their
@@ -613,17 +597,14 @@ public class NetworkStatistics
                 }
 
         // initialize the distance matrix with the weights of the existing edges
+        final NetworkSnapshot snapshot = network.getSnapshot();
         for( int i = 0 ; i < N ; i++ )
-            {
-            Bag bag = network.getEdgesOut(network.allNodes.objs[i]);
-            for( int j = 0 ; j < bag.numObjs ; j++ )
+            for( int e = snapshot.outStart[i] ; e < snapshot.outStart[i + 1] ; e++ )
                 {
-                Edge edge = (Edge)(bag.objs[j]);
-                final int k = network.getNodeIndex(edge.getOtherNode(network.allNodes.objs[i]));
-                result[i][k] = computer.getWeight(edge);
+                final int k = snapshot.outNeighbors[e];
+                result[i][k] = computer.getWeight(snapshot.outEdges[e]);
                 number[i][k]++;
                 }
-            }
 
         // initialize the distance matrix with 0s on the main diagonal
         for( int i = 0 ; i < N ; i++ )
@@ -668,17 +649,14 @@ public class NetworkStatistics
                 }
 
         // initialize the distance matrix with the weights of the existing edges
+        final NetworkSnapshot snapshot = network.getSnapshot();
         for( int i = 0 ; i < N ; i++ )
-            {
-            Bag bag = network.getEdgesOut(network.allNodes.objs[i]);
-            for( int j = 0 ; j < bag.numObjs ; j++ )
+            for( int e = snapshot.outStart[i] ; e < snapshot.outStart[i + 1] ; e++ )
                 {
-                Edge edge = (Edge)(bag.objs[j]);
-                final int k = network.getNodeIndex(edge.getOtherNode(network.allNodes.objs[i]));
-                result[i][k] = computer.getWeight(edge);
+                final int k = snapshot.outNeighbors[e];
+                result[i][k] = computer.getWeight(snapshot.outEdges[e]);
                 number[i][k]++;
                 }
-            }
 
         // initialize the distance matrix with 0s on the main diagonal
         for( int i = 0 ; i < N ; i++ )
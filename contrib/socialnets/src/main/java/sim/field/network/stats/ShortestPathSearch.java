@@ -0,0 +1,329 @@
+/*
+  Copyright 2010 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.network.stats;
+import sim.field.network.*;
+import sim.util.*;
+import java.util.concurrent.*;
+
+/**
+   Runs a shortest-path search from every node of a Network, in parallel, to compute all-pairs distances,
+   per-node distance sums (for closeness and proximity measures), eccentricities, and betweenness centrality.
+
+   <p>Each search is a breadth-first search if the EdgeMetric is the UnitEdgeMetric, and Dijkstra's algorithm
+   (using an IntDoubleHeap) otherwise, walking the Network's NetworkSnapshot.  The searches from different source
+   nodes are independent, so they are divided among the threads of a ForkJoinPool (by default, the common pool).
+   Apart from getDistances(), none of the methods need memory proportional to the square of the number of nodes,
+   so they can be used on networks with hundreds of thousands of nodes.
+
+   <p>Betweenness is computed with Brandes' algorithm (U. Brandes, "A Faster Algorithm for Betweenness Centrality",
+   Journal of Mathematical Sociology 25(2), 2001), which takes O(VE) time for unweighted networks and O(VE + V^2 log V)
+   for weighted ones, rather than the O(V^3) time and memory of counting paths through every intermediate node.
+
+   <p>Edge weights must be positive.  The search works on a snapshot of the network, and on the edge weights, as they were
+   when it is constructed, so if the network or its weights change, make a new ShortestPathSearch.
+*/
+
+public class ShortestPathSearch
+    {
+    /** Networks with fewer nodes than this are searched in the current thread. */
+    public static final int MIN_PARALLEL_NODES = 64;
+
+    final NetworkSnapshot snapshot;
+    final int n;
+    final boolean unit;           // unit weights: we can use breadth-first search
+    final double[] outWeights;
+    final double[] inWeights;
+
+    boolean usesForkJoin = true;
+    transient ForkJoinPool pool = null;  // null means the common pool
+
+    /** Returns whether the searches are divided among the threads of a ForkJoinPool. */
+    public boolean getUsesForkJoin() { return usesForkJoin; }
+    /** Sets whether the searches are divided among the threads of a ForkJoinPool. */
+    public void setUsesForkJoin(boolean val) { usesForkJoin = val; }
+    /** Returns the ForkJoinPool used for parallel searches, or null if the common pool is used. */
+    public ForkJoinPool getForkJoinPool() { return pool; }
+    /** Sets the ForkJoinPool used for parallel searches.  Pass in null to use the common pool (the default). */
+    public void setForkJoinPool(ForkJoinPool pool) { this.pool = pool; }
+
+    public ShortestPathSearch(final Network network, final EdgeMetric computer)
+        {
+        snapshot = network.getSnapshot();
+        n = snapshot.numNodes;
+        unit = (computer.getClass() == UnitEdgeMetric.class);
+        outWeights = NetworkStatistics.getWeights(snapshot, computer);
+        if (!snapshot.directed) inWeights = outWeights;
+        else
+            {
+            final Edge[] inEdges = snapshot.inEdges;
+            inWeights = new double[inEdges.length];
+            for( int k = 0 ; k < inEdges.length ; k++ )
+                inWeights[k] = computer.getWeight(inEdges[k]);
+            }
+        }
+
+    /**
+       Returns the matrix of distances from each node (the first index) to each other node (the second index), indexed
+       as in the Network's allNodes bag.  Double.POSITIVE_INFINITY marks nodes which cannot be reached.
+    */
+    public double[][] getDistances()
+        {
+        final double[][] result = new double[n][];
+        run(new Job()
+            {
+            void source(Searcher s, int source)
+                {
+                s.search(source, false, false, 0);
+                result[source] = (double[])(s.dist.clone());
+                }
+            });
+        return result;
+        }
+
+    /**
+       Returns, for each node, the sum of its distances to all nodes (or, if incoming is true, of the distances from all
+       nodes to it).  The sum is Double.POSITIVE_INFINITY if some node cannot be reached.  If reachable is non-null, it
+       must be as long as the number of nodes, and it is filled with the number of nodes reachable from (or, if incoming is true,
+       which can reach) each node, including the node itself.
+    */
+    public double[] getDistanceSums(final boolean incoming, final int[] reachable)
+        {
+        final double[] result = new double[n];
+        run(new Job()
+            {
+            void source(Searcher s, int source)
+                {
+                s.search(source, incoming, false, 0);
+                final double[] dist = s.dist;
+                double sum = 0;
+                for( int i = 0 ; i < n ; i++ )
+                    sum += dist[i];
+                result[source] = sum;
+                if (reachable != null) reachable[source] = s.numOrdered;
+                }
+            });
+        return result;
+        }
+
+    /**
+       Returns, for each node, its eccentricity: the largest of its distances to other nodes.  This is Double.POSITIVE_INFINITY
+       if some node cannot be reached from it.
+    */
+    public double[] getEccentricities()
+        {
+        final double[] result = new double[n];
+        run(new Job()
+            {
+            void source(Searcher s, int source)
+                {
+                s.search(source, false, false, 0);
+                result[source] = NetworkStatistics.max(s.dist);
+                }
+            });
+        return result;
+        }
+
+    /**
+       Returns the betweenness centrality of each node: the sum, over all pairs of other nodes s and t, of the fraction
+       of shortest paths from s to t which pass through the node.  In an undirected network each pair is counted once.
+       Two path lengths are considered equal if they differ by no more than precision.
+    */
+    public double[] getBetweenness(final double precision)
+        {
+        final double[] result = new double[n];
+        run(new Job()
+            {
+            double[] partial;
+            void start() { partial = new double[n]; }
+            void source(Searcher s, int source) { s.accumulateBetweenness(source, precision, partial); }
+            void finish()
+                {
+                synchronized(result)
+                    {
+                    for( int i = 0 ; i < n ; i++ )
+                        result[i] += partial[i];
+                    }
+                }
+            });
+        if (!snapshot.directed)  // we counted each path in both directions
+            for( int i = 0 ; i < n ; i++ )
+                result[i] /= 2;
+        return result;
+        }
+
+
+    /// SEARCHING
+
+    // The work to be done for each source.  The Searchers and Jobs are handed out so that each thread has its own,
+    // in the order start(), source(...) for a range of sources, finish().
+    abstract class Job implements Cloneable
+        {
+        void start() { }
+        abstract void source(Searcher s, int source);
+        void finish() { }
+        Job copy()
+            {
+            try { return (Job)(clone()); }
+            catch (CloneNotSupportedException e) { throw new InternalError(); } // never happens
+            }
+        }
+
+    void run(Job job)
+        {
+        if (n == 0) return;
+        ForkJoinPool pool = this.pool;
+        if (pool == null) pool = ForkJoinPool.commonPool();
+        if (!usesForkJoin || n < MIN_PARALLEL_NODES || pool.getParallelism() < 2)
+            {
+            new Sources(job, 0, n, n).compute();
+            return;
+            }
+        // a few chunks per thread, for load balancing, but not so many that the per-chunk arrays cost much
+        final int chunk = Math.max(1, n / (pool.getParallelism() * 4));
+        pool.invoke(new Sources(job, 0, n, chunk));
+        }
+
+    class Sources extends RecursiveAction
+        {
+        private static final long serialVersionUID = 1;
+        final Job job;
+        final int from;
+        final int to;
+        final int chunk;
+
+        Sources(Job job, int from, int to, int chunk) { this.job = job; this.from = from; this.to = to; this.chunk = chunk; }
+
+        protected void compute()
+            {
+            if (to - from > chunk)
+                {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new Sources(job, from, mid, chunk), new Sources(job, mid, to, chunk));
+                return;
+                }
+            final Job j = job.copy();
+            final Searcher s = new Searcher();
+            j.start();
+            for( int source = from ; source < to ; source++ )
+                j.source(s, source);
+            j.finish();
+            }
+        }
+
+    // The working storage for searching from one source at a time.
+    class Searcher
+        {
+        final double[] dist = new double[n];
+        final int[] order = new int[n];      // the nodes reached, in the order their distances became final
+        int numOrdered;
+        final IntDoubleHeap heap = (unit ? null : new IntDoubleHeap());
+        double[] sigma;                      // the number of shortest paths from the source
+        double[] delta;                      // the source's dependency on each node
+
+        /** Computes dist (and, if count is true, sigma) from the given source, following in-edges rather than out-edges if incoming is true. */
+        void search(final int source, final boolean incoming, final boolean count, final double precision)
+            {
+            final int[] start = (incoming ? snapshot.inStart : snapshot.outStart);
+            final int[] neighbors = (incoming ? snapshot.inNeighbors : snapshot.outNeighbors);
+            final double[] weights = (incoming ? inWeights : outWeights);
+            final double[] dist = this.dist;
+            final int[] order = this.order;
+            final double[] sigma = this.sigma;
+
+            java.util.Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            if (count) java.util.Arrays.fill(sigma, 0);
+            dist[source] = 0;
+            if (count) sigma[source] = 1;
+            int num = 0;
+
+            if (unit)
+                {
+                // breadth-first search, using the order array as the queue
+                order[num++] = source;
+                for( int head = 0 ; head < num ; head++ )
+                    {
+                    final int node = order[head];
+                    final double d = dist[node] + 1;
+                    for( int k = start[node] ; k < start[node + 1] ; k++ )
+                        {
+                        final int toNode = neighbors[k];
+                        if (dist[toNode] == Double.POSITIVE_INFINITY)
+                            {
+                            dist[toNode] = d;
+                            order[num++] = toNode;
+                            }
+                        if (count && dist[toNode] == d)
+                            sigma[toNode] += sigma[node];
+                        }
+                    }
+                }
+            else
+                {
+                // Dijkstra's algorithm, as in NetworkStatistics.getShortestPaths(...)
+                final IntDoubleHeap heap = this.heap;
+                heap.clear();
+                heap.add(source, 0);
+                while( !heap.isEmpty() )
+                    {
+                    final double d = heap.getMinKey();
+                    final int node = heap.extractMin();
+                    if (dist[node] < d) // out of date
+                        continue;
+                    order[num++] = node;
+                    for( int k = start[node] ; k < start[node + 1] ; k++ )
+                        {
+                        final int toNode = neighbors[k];
+                        final double newDist = d + weights[k];
+                        if (dist[toNode] > newDist + precision)
+                            {
+                            dist[toNode] = newDist;
+                            if (count) sigma[toNode] = sigma[node];
+                            heap.add(toNode, newDist);
+                            }
+                        else if (count && NetworkStatistics.abs(dist[toNode] - newDist) <= precision)
+                            sigma[toNode] += sigma[node];
+                        }
+                    }
+                }
+            numOrdered = num;
+            }
+
+        /** Adds to bc the dependencies of the given source on each other node. */
+        void accumulateBetweenness(final int source, final double precision, final double[] bc)
+            {
+            if (sigma == null) { sigma = new double[n]; delta = new double[n]; }
+            search(source, false, true, precision);
+
+            // Walk back from the farthest nodes, passing each node's dependency back to its predecessors on shortest paths.
+            // Rather than storing the predecessors, we find them again among the node's in-edges.
+            final int[] inStart = snapshot.inStart;
+            final int[] inNeighbors = snapshot.inNeighbors;
+            final double[] inWeights = ShortestPathSearch.this.inWeights;
+            final double[] dist = this.dist;
+            final double[] sigma = this.sigma;
+            final double[] delta = this.delta;
+            final int[] order = this.order;
+            for( int i = 0 ; i < numOrdered ; i++ )
+                delta[order[i]] = 0;
+            for( int i = numOrdered - 1 ; i > 0 ; i-- )  // order[0] is the source
+                {
+                final int node = order[i];
+                final double coefficient = (1 + delta[node]) / sigma[node];
+                final double d = dist[node];
+                for( int k = inStart[node] ; k < inStart[node + 1] ; k++ )
+                    {
+                    final int pred = inNeighbors[k];
+                    if (pred == node) continue;  // a self-loop
+                    final double predDist = dist[pred];
+                    if (unit ? predDist + 1 == d : NetworkStatistics.abs(predDist + inWeights[k] - d) <= precision)
+                        delta[pred] += sigma[pred] * coefficient;
+                    }
+                bc[node] += delta[node];
+                }
+            }
+        }
+    }
@@ -13,25 +13,22 @@ import sim.field.network.*;
  * @author Gabriel Catalin Balan
  */
 public class ClosenessCentrality extends FreemanNodeIndex {
-    final double[][] allDistances;
+    final double[] distanceSums;
     public ClosenessCentrality(final Network network)
         {
         super(network);
-        allDistances = NetworkStatistics.getShortestPathsMatrix(network, UnitEdgeMetric.defaultInstance);               
+        // we only need the sum of each node's distances, not the whole matrix
+        distanceSums = new ShortestPathSearch(network, UnitEdgeMetric.defaultInstance).getDistanceSums(false, null);
         }
 
     public double getValue(final Object node) {
-//              double[] distances = NetworkStatistics.getShortestPaths(network, node, UnitEdgeMetric.defaultInstance);
+        return getValue(network.getNodeIndex(node));
+        }
 
-        double[] distances = allDistances[network.getNodeIndex(node)];
-                
-        double sum = 0;
-        int n= distances.length;
-        for(int i=0;i<distances.length; i++)
-            sum+=distances[i];
+    public double getValue(final int nodeIndex) {
         //I want to return 1/[Sum_{j!=i} disntance(i,j)] 
         //but the hop distance(i, i) is 0, so I don't bother not adding it
-        return 1d/sum;
+        return 1d/distanceSums[nodeIndex];
         }
 
     //TODO double check this, I back engineered it from the standardized value on page 186
@@ -19,29 +19,25 @@ import sim.field.network.*;
  * @author Gabriel Catalin Balan
  **/
 public class ProximityPrestige extends NodeIndex {
-    final double[][] allDistances;
+    final double[] distanceSums;   // Sum_j(dji), found by searching backwards along the in-edges from i
+    final int[] influenceDomains;  // Ii, including i itself
     public ProximityPrestige(final Network network)
         {
         super(network);
-        allDistances = NetworkStatistics.getShortestPathsMatrix(network, UnitEdgeMetric.defaultInstance);               
+        influenceDomains = new int[network.allNodes.numObjs];
+        distanceSums = new ShortestPathSearch(network, UnitEdgeMetric.defaultInstance).getDistanceSums(true, influenceDomains);
         }
 
     public double getValue(final Object node) {
+        return getValue(network.getNodeIndex(node));
+        }
 
-        int i = network.getNodeIndex(node);
-        int Ii = 0;
-        double sum = 0;
+    public double getValue(final int i) {
+        int Ii = influenceDomains[i];
         int n= network.allNodes.numObjs;
-        for(int j=0;j<n; j++)
-            {
-            double dji = allDistances[j][i];
-            if(dji!=Double.POSITIVE_INFINITY)
-                Ii++;
-            sum+=dji;
-            }
         //I want to return 1/[Sum_{j!=i} dintance(i,j)] 
         //but the hop distance(i, i) is 0, so I don't bother
-        return Ii*Ii/sum/(n-1);
+        return Ii*Ii/distanceSums[i]/(n-1);
         }
         
     public double  getMaxValue()
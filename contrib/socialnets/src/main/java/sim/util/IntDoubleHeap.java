@@ -0,0 +1,127 @@
+/*
+  Copyright 2010 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util;
+
+/**
+ * A binary min-heap of ints with double keys.  This is the same as DoubleHeap, except that
+ * the elements are ints (typically node indices) rather than Objects, so nothing is boxed or allocated as
+ * elements are added and removed.  Intentionally very simple: as in DoubleHeap, there is no decrease-key
+ * operation, so shortest-path algorithms simply add an element again with its smaller key, and skip stale
+ * entries as they are extracted.
+ */
+
+public class IntDoubleHeap implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    // the keys
+    double[] keys;
+
+    // the elements associated with the keys
+    int[] elements;
+
+    int numElem = 0;
+
+    public IntDoubleHeap()
+        {
+        this(16);
+        }
+
+    public IntDoubleHeap(int capacity)
+        {
+        if (capacity < 1) capacity = 1;
+        keys = new double[capacity];
+        elements = new int[capacity];
+        }
+
+    /** Returns the key value of the current min element.  Does not extract the element. */
+    public double getMinKey()
+        {
+        return keys[0];
+        }
+
+    /** Returns the current min element.  Does not extract the element. */
+    public int getMin()
+        {
+        return elements[0];
+        }
+
+    /** Removes the minimum element and its key from the heap, and returns the minimum element.  The heap must not be empty. */
+    public int extractMin()
+        {
+        // make local
+        final double[] keys = this.keys;
+        final int[] elements = this.elements;
+
+        final int result = elements[0];
+        final int n = --numElem;
+        final double key = keys[n];
+        final int elem = elements[n];
+
+        // sift the last element down from the root
+        int i = 0;
+        while(true)
+            {
+            int child = 2 * i + 1;
+            if (child >= n) break;
+            if (child + 1 < n && keys[child + 1] < keys[child]) child++;
+            if (keys[child] >= key) break;
+            keys[i] = keys[child];
+            elements[i] = elements[child];
+            i = child;
+            }
+        keys[i] = key;
+        elements[i] = elem;
+        return result;
+        }
+
+    /** Adds an element to the heap with the given key. */
+    public void add(int elem, double key)
+        {
+        if (numElem == keys.length)
+            {
+            double[] newKeys = new double[keys.length * 2 + 1];
+            System.arraycopy(keys, 0, newKeys, 0, numElem);
+            keys = newKeys;
+            int[] newElements = new int[elements.length * 2 + 1];
+            System.arraycopy(elements, 0, newElements, 0, numElem);
+            elements = newElements;
+            }
+
+        // make local
+        final double[] keys = this.keys;
+        final int[] elements = this.elements;
+
+        // sift up
+        int i = numElem++;
+        while(i > 0)
+            {
+            final int parent = (i - 1) / 2;
+            if (keys[parent] <= key) break;
+            keys[i] = keys[parent];
+            elements[i] = elements[parent];
+            i = parent;
+            }
+        keys[i] = key;
+        elements[i] = elem;
+        }
+
+    public int size()
+        {
+        return numElem;
+        }
+
+    public boolean isEmpty()
+        {
+        return (numElem==0);
+        }
+
+    public void clear()
+        {
+        numElem = 0;
+        }
+    }
@@ -0,0 +1,140 @@
+/*
+  Copyright 2010 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.network.stats;
+
+import junit.framework.TestCase;
+import ec.util.MersenneTwisterFast;
+import sim.field.network.*;
+import sim.util.*;
+import java.util.*;
+
+/** Checks that the incremental network statistics agree with statistics recomputed from scratch as the network changes. */
+
+public class IncrementalStatisticsTest extends TestCase
+    {
+    public IncrementalStatisticsTest(String name) { super(name); }
+
+    MersenneTwisterFast random;
+    Network network;
+    IncrementalDegreeStatistics degrees;
+    IncrementalClusteringStatistics clustering;
+    IncrementalConnectivityStatistics connectivity;
+    int nextNode;
+
+    Object randomNode() { return network.allNodes.objs[random.nextInt(network.allNodes.numObjs)]; }
+
+    // makes one random change to the network
+    void mutate(boolean allowSelfLoops)
+        {
+        int r = random.nextInt(100);
+        if (network.allNodes.numObjs < 2 || r < 10)
+            network.addNode(new Integer(nextNode++));
+        else if (r < 60)
+            {
+            Object from = randomNode();
+            Object to = randomNode();
+            if (from != to || allowSelfLoops)
+                network.addEdge(from, to, null);  // may be a parallel edge
+            }
+        else if (r < 95)
+            {
+            Bag edges = network.getEdgesOut(randomNode());
+            if (edges.numObjs > 0)
+                network.removeEdge((Edge)edges.objs[random.nextInt(edges.numObjs)]);
+            }
+        else network.removeNode(randomNode());
+        }
+
+    void check(String message)
+        {
+        assertEquals(message, NetworkStatistics.getNumberNodes(network), degrees.getNumberNodes());
+        assertEquals(message, NetworkStatistics.getNumberActualEdges(network), degrees.getNumberEdges());
+        assertEquals(message, NetworkStatistics.getDensity(network), degrees.getDensity(), 1e-12);
+        assertEquals(message, DegreeStatistics.getMinOutDegree(network), degrees.getMinOutDegree());
+        assertEquals(message, DegreeStatistics.getMaxOutDegree(network), degrees.getMaxOutDegree());
+        assertEquals(message, DegreeStatistics.getMinInDegree(network), degrees.getMinInDegree());
+        assertEquals(message, DegreeStatistics.getMaxInDegree(network), degrees.getMaxInDegree());
+
+        int[] histogram = degrees.getDegreeHistogram(true);
+        int[] expected = new int[histogram.length];
+        for(int i = 0; i < network.allNodes.numObjs; i++)
+            expected[network.getEdgesOut(network.allNodes.objs[i]).numObjs]++;
+        assertTrue(message, Arrays.equals(expected, histogram));
+
+        if (network.allNodes.numObjs > 0)
+            assertEquals(message, NetworkStatistics.getClusteringCoefficient(network), clustering.getClusteringCoefficient(), 1e-9);
+        IncrementalClusteringStatistics fresh = new IncrementalClusteringStatistics(network);
+        fresh.detach();
+        assertEquals(message, fresh.getNumberTriangles(), clustering.getNumberTriangles());
+        for(int i = 0; i < network.allNodes.numObjs; i++)
+            {
+            Object node = network.allNodes.objs[i];
+            assertEquals(message, fresh.getTriangles(node), clustering.getTriangles(node));
+            assertEquals(message, fresh.getClusteringCoefficient(node), clustering.getClusteringCoefficient(node), 1e-12);
+            }
+
+        Bag components = ConnectivityStatistics.getConnectedComponents(network);
+        assertEquals(message, components.numObjs, connectivity.getNumberComponents());
+        int largest = 0;
+        HashMap componentOf = new HashMap();
+        for(int c = 0; c < components.numObjs; c++)
+            {
+            Bag component = (Bag)components.objs[c];
+            largest = Math.max(largest, component.numObjs);
+            for(int i = 0; i < component.numObjs; i++)
+                {
+                componentOf.put(component.objs[i], component);
+                assertEquals(message, component.numObjs, connectivity.getComponentSize(component.objs[i]));
+                }
+            }
+        assertEquals(message, largest, connectivity.getLargestComponentSize());
+        for(int i = 0; i < 20 && network.allNodes.numObjs > 0; i++)
+            {
+            Object a = randomNode();
+            Object b = randomNode();
+            assertEquals(message, componentOf.get(a) == componentOf.get(b), connectivity.isConnected(a, b));
+            }
+        }
+
+    void run(boolean directed, long seed)
+        {
+        random = new MersenneTwisterFast(seed);
+        network = new Network(directed);
+        nextNode = 0;
+        for(int i = 0; i < 30; i++)
+            network.addNode(new Integer(nextNode++));
+        degrees = new IncrementalDegreeStatistics(network);
+        clustering = new IncrementalClusteringStatistics(network);
+        connectivity = new IncrementalConnectivityStatistics(network);
+        check("initially");
+        for(int step = 0; step < 2000; step++)
+            {
+            // self-loops count differently toward undirected degrees here and in DegreeStatistics, so leave them out there
+            mutate(directed);
+            check("after step " + step);
+            }
+        network.clear();
+        check("after clear");
+        }
+
+    public void testUndirected() { run(false, 1); }
+
+    public void testDirected() { run(true, 2); }
+
+    public void testDetach()
+        {
+        network = new Network(false);
+        network.addEdge("a", "b", null);
+        IncrementalDegreeStatistics stats = new IncrementalDegreeStatistics(network);
+        assertEquals(1, stats.getNumberEdges());
+        stats.detach();
+        network.addEdge("b", "c", null);
+        assertEquals(1, stats.getNumberEdges());
+        stats.rebuild();
+        assertEquals(2, stats.getNumberEdges());
+        }
+    }
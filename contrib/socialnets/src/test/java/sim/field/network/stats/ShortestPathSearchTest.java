@@ -0,0 +1,230 @@
+/*
+  Copyright 2010 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.network.stats;
+
+import junit.framework.TestCase;
+import ec.util.MersenneTwisterFast;
+import sim.field.network.*;
+import sim.field.network.stats.actorcentrality.*;
+import java.util.concurrent.*;
+
+/** Checks ShortestPathSearch's distances and Brandes betweenness against brute-force path counting. */
+
+public class ShortestPathSearchTest extends TestCase
+    {
+    static final double INF = Double.POSITIVE_INFINITY;
+
+    public ShortestPathSearchTest(String name) { super(name); }
+
+    Network randomNetwork(boolean directed, boolean weighted, int numNodes, int numEdges, long seed)
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(seed);
+        Network network = new Network(directed);
+        for(int i = 0; i < numNodes; i++)
+            network.addNode(new Integer(i));
+        boolean[][] used = new boolean[numNodes][numNodes];
+        for(int e = 0; e < numEdges; e++)
+            {
+            int from = random.nextInt(numNodes);
+            int to = random.nextInt(numNodes);
+            if (from == to || used[from][to]) continue;
+            used[from][to] = true;
+            if (!directed) used[to][from] = true;
+            // small integer weights, so that shortest paths are often tied and the sums are exact
+            network.addEdge(network.allNodes.objs[from], network.allNodes.objs[to], new Double(weighted ? 1 + random.nextInt(3) : 1));
+            }
+        return network;
+        }
+
+    // Floyd-Warshall
+    double[][] bruteDistances(Network network, EdgeMetric metric)
+        {
+        int n = network.allNodes.numObjs;
+        double[][] d = new double[n][n];
+        for(int i = 0; i < n; i++)
+            {
+            java.util.Arrays.fill(d[i], INF);
+            d[i][i] = 0;
+            }
+        Edge[][] adjacency = network.getAdjacencyList(true);
+        for(int i = 0; i < n; i++)
+            for(int k = 0; k < adjacency[i].length; k++)
+                {
+                Edge edge = adjacency[i][k];
+                int j = network.getNodeIndex(edge.getOtherNode(network.allNodes.objs[i]));
+                d[i][j] = Math.min(d[i][j], metric.getWeight(edge));
+                }
+        for(int k = 0; k < n; k++)
+            for(int i = 0; i < n; i++)
+                for(int j = 0; j < n; j++)
+                    if (d[i][k] + d[k][j] < d[i][j])
+                        d[i][j] = d[i][k] + d[k][j];
+        return d;
+        }
+
+    // counts shortest paths from s to t by working through the nodes in order of distance from s
+    double[][] brutePathCounts(Network network, EdgeMetric metric, double[][] d)
+        {
+        int n = d.length;
+        Edge[][] adjacency = network.getAdjacencyList(false);  // in-edges
+        double[][] sigma = new double[n][n];
+        for(int s = 0; s < n; s++)
+            {
+            Integer[] order = new Integer[n];
+            for(int i = 0; i < n; i++) order[i] = new Integer(i);
+            final double[] ds = d[s];
+            java.util.Arrays.sort(order, new java.util.Comparator()
+                {
+                public int compare(Object a, Object b) { return Double.compare(ds[((Integer)a).intValue()], ds[((Integer)b).intValue()]); }
+                });
+            sigma[s][s] = 1;
+            for(int o = 0; o < n; o++)
+                {
+                int t = order[o].intValue();
+                if (t == s || ds[t] == INF) continue;
+                for(int k = 0; k < adjacency[t].length; k++)
+                    {
+                    Edge edge = adjacency[t][k];
+                    int u = network.getNodeIndex(edge.getOtherNode(network.allNodes.objs[t]));
+                    if (ds[u] + metric.getWeight(edge) == ds[t])
+                        sigma[s][t] += sigma[s][u];
+                    }
+                }
+            }
+        return sigma;
+        }
+
+    double[] bruteBetweenness(Network network, EdgeMetric metric)
+        {
+        double[][] d = bruteDistances(network, metric);
+        double[][] sigma = brutePathCounts(network, metric, d);
+        int n = d.length;
+        double[] bc = new double[n];
+        for(int s = 0; s < n; s++)
+            for(int t = 0; t < n; t++)
+                {
+                if (s == t || d[s][t] == INF) continue;
+                for(int v = 0; v < n; v++)
+                    if (v != s && v != t && d[s][v] + d[v][t] == d[s][t])
+                        bc[v] += sigma[s][v] * sigma[v][t] / sigma[s][t];
+                }
+        if (!network.isDirected())
+            for(int v = 0; v < n; v++)
+                bc[v] /= 2;
+        return bc;
+        }
+
+    void assertArrayEquals(String message, double[] expected, double[] actual)
+        {
+        assertEquals(message, expected.length, actual.length);
+        for(int i = 0; i < expected.length; i++)
+            assertEquals(message + " at " + i, expected[i], actual[i], 1e-9);
+        }
+
+    void check(boolean directed, boolean weighted, long seed)
+        {
+        // more nodes than MIN_PARALLEL_NODES, so that the parallel search splits up the sources
+        Network network = randomNetwork(directed, weighted, 100, 300, seed);
+        EdgeMetric metric = (weighted ? (EdgeMetric)WeightedEdgeMetric.defaultInstance : (EdgeMetric)UnitEdgeMetric.defaultInstance);
+        String message = (directed ? "directed" : "undirected") + (weighted ? " weighted" : " unweighted");
+
+        double[][] d = bruteDistances(network, metric);
+        double[] bc = bruteBetweenness(network, metric);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try
+            {
+            ShortestPathSearch parallel = new ShortestPathSearch(network, metric);
+            parallel.setForkJoinPool(pool);
+            ShortestPathSearch serial = new ShortestPathSearch(network, metric);
+            serial.setUsesForkJoin(false);
+            ShortestPathSearch[] searches = new ShortestPathSearch[] { serial, parallel };
+            for(int i = 0; i < searches.length; i++)
+                {
+                double[][] distances = searches[i].getDistances();
+                for(int s = 0; s < d.length; s++)
+                    assertArrayEquals(message + " distances from " + s, d[s], distances[s]);
+                assertArrayEquals(message + " betweenness", bc, searches[i].getBetweenness(0));
+
+                double[] eccentricities = searches[i].getEccentricities();
+                int[] reachable = new int[d.length];
+                double[] sums = searches[i].getDistanceSums(false, reachable);
+                for(int s = 0; s < d.length; s++)
+                    {
+                    double max = 0;
+                    double sum = 0;
+                    int count = 0;
+                    for(int t = 0; t < d.length; t++)
+                        {
+                        max = Math.max(max, d[s][t]);
+                        sum += d[s][t];
+                        if (d[s][t] != INF) count++;
+                        }
+                    assertEquals(message + " eccentricity of " + s, max, eccentricities[s], 0);
+                    assertEquals(message + " distance sum of " + s, sum, sums[s], 0);
+                    assertEquals(message + " reachable from " + s, count, reachable[s]);
+                    }
+                }
+            }
+        finally { pool.shutdown(); }
+        }
+
+    public void testUndirectedUnweighted() { check(false, false, 1); }
+    public void testDirectedUnweighted() { check(true, false, 2); }
+    public void testUndirectedWeighted() { check(false, true, 3); }
+    public void testDirectedWeighted() { check(true, true, 4); }
+
+    public void testStar()
+        {
+        // every path between two leaves goes through the hub
+        Network network = new Network(false);
+        Object hub = "hub";
+        network.addNode(hub);
+        for(int i = 0; i < 10; i++)
+            network.addEdge(hub, new Integer(i), null);
+        BetweennessCentrality centrality = new BetweennessCentrality(network);
+        assertEquals(10 * 9 / 2, centrality.getValue(hub), 0);
+        for(int i = 0; i < 10; i++)
+            assertEquals(0, centrality.getValue(new Integer(i)), 0);
+        }
+
+    public void testSquare()
+        {
+        // two equally short paths between opposite corners, so each corner in between gets half of each pair
+        Network network = new Network(false);
+        String[] corners = new String[] { "a", "b", "c", "d" };
+        for(int i = 0; i < 4; i++)
+            network.addEdge(corners[i], corners[(i + 1) % 4], null);
+        double[] bc = new ShortestPathSearch(network, UnitEdgeMetric.defaultInstance).getBetweenness(0);
+        for(int i = 0; i < 4; i++)
+            assertEquals(0.5, bc[i], 0);
+        }
+
+    public void testWeightsChangedInPlace()
+        {
+        // a -> b -> c costs 2, against 5 for a -> c, until the a -> b weight is changed in place
+        Network network = new Network(true);
+        sim.util.MutableDouble ab = new sim.util.MutableDouble(1);
+        network.addEdge("a", "b", ab);
+        network.addEdge("b", "c", new sim.util.MutableDouble(1));
+        network.addEdge("a", "c", new sim.util.MutableDouble(5));
+        EdgeMetric metric = WeightedEdgeMetric.defaultInstance;
+        assertEquals(2, NetworkStatistics.getShortestPaths(network, "a", metric)[2], 0);
+        assertEquals(2, new ShortestPathSearch(network, metric).getDistances()[0][2], 0);
+        NetworkSnapshot snapshot = network.getSnapshot();
+
+        // the snapshot survives, since the network can't see the change, but its weights are no longer used
+        ab.val = 10;
+        assertSame(snapshot, network.getSnapshot());
+        assertEquals(5, NetworkStatistics.getShortestPaths(network, "a", metric)[2], 0);
+        assertEquals(10, NetworkStatistics.getShortestPaths(network, "a", metric)[1], 0);
+        assertEquals(5, NetworkStatistics.johnsonShortestPathsMatrix(network, metric)[0][2], 0);
+        ShortestPathSearch search = new ShortestPathSearch(network, metric);
+        assertEquals(5, search.getDistances()[0][2], 0);
+        assertEquals(0, search.getBetweenness(0)[1], 0);   // b is no longer on the shortest path, going by the in-edge weights
+        }
+    }
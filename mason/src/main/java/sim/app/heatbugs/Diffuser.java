@@ -327,7 +327,10 @@ public /*strictfp*/ class Diffuser implements Steppable
 
         // ----------------------------------------------------------------------
         // If you have a multiprocessor machine, you can speed this up further by
-        // dividing the work among two processors.  We do that over in ThreadedDiffuser.java
+        // dividing the work among two processors.  We do that over in ThreadedDiffuser.java,
+        // which uses sim.field.grid.Stencil to do exactly this computation, split into
+        // tiles and spread over as many processors as you like.  If your own model
+        // diffuses things, you can just use a Stencil too.
         //
         // You can also avoid some of the array bounds checks by using linearized
         // double arrays -- that is, using a single array but computing the double
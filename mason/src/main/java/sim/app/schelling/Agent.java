@@ -7,14 +7,13 @@
 package sim.app.schelling;
 import sim.util.*;
 import sim.engine.*;
+import sim.field.grid.*;
 
 public /*strictfp*/ class Agent implements Steppable
     {
     private static final long serialVersionUID = 1;
 
     Int2D loc;
-    IntBag neighborsX = new IntBag(9);
-    IntBag neighborsY = new IntBag(9);
     
     public Agent( int x, int y) 
         {
@@ -31,23 +30,29 @@ public /*strictfp*/ class Agent implements Steppable
         if (locs[x][y] < Schelling.RED) return ;  // not an agent
         if (sch.emptySpaces.numObjs == 0) return;  // nowhere to move to!
         
-        // get all the places I can go.  This will be slow as we have to rely on grabbing neighbors.
-        sch.neighbors.getMooreLocations(loc.x,loc.y,sch.neighborhood,sch.neighbors.BOUNDED,true,neighborsX,neighborsY);
+        // Walk the offsets of the Moore neighborhood directly rather than having getMooreLocations
+        // load all the neighboring locations into IntBags first.  The Neighborhood is cached, and it lists its
+        // offsets in the same order that getMooreLocations would, so the result is the same.
+        Neighborhood neighborhood = Neighborhood.get(Neighborhood.MOORE, sch.neighborhood, true);
+        int[] dx = neighborhood.getXOffsets(x);
+        int[] dy = neighborhood.getYOffsets(x);
+        int width = sch.neighbors.getWidth();
+        int height = sch.neighbors.getHeight();
         
         // compute value
         double val = 0;
         int threshold = sch.threshold;  // locals a little faster
-        int numObjs = neighborsX.numObjs;
-        int[] objsX = neighborsX.objs;
-        int[] objsY = neighborsY.objs;
         int myVal = locs[x][y];
 
-        for(int i=0;i<numObjs;i++)
+        for(int i=0;i<dx.length;i++)
             {
-            if (locs[objsX[i]][objsY[i]] == myVal // just like me
-                && !(objsX[i] == x && objsY[i] == y))  // but it's NOT me
+            int xx = x + dx[i];
+            int yy = y + dy[i];
+            if (xx < 0 || xx >= width || yy < 0 || yy >= height) continue;  // bounded
+            if (locs[xx][yy] == myVal // just like me
+                && !(dx[i] == 0 && dy[i] == 0))  // but it's NOT me
                 {
-                val += 1.0/Math.sqrt((x-objsX[i])*(x-objsX[i]) + (y-objsY[i])*(y-objsY[i]));
+                val += 1.0/Math.sqrt(dx[i]*dx[i] + dy[i]*dy[i]);
                 if (val >= threshold) return;  // we're not moving
                 }
             }
@@ -0,0 +1,264 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import sim.util.CheckpointOutputStream;
+
+/** Writes checkpoints of a SimState in the background while the simulation keeps running.
+
+    <p>SimState.writeToCheckpoint(...) stops the simulation until the whole checkpoint has been serialized, compressed, and
+    written to disk, which for a large model can take longer than many steps.  checkpoint(...) instead takes a <i>snapshot</i> of
+    the state: it serializes the state, between steps, into memory, without compressing it.  Primitive arrays (and thus grids) are
+    copied in bulk, so this is usually quick.  The snapshot is frozen: the simulation may change however it likes afterwards.  A separate
+    thread then compresses the snapshot and writes it to its file, in the SimState's checkpoint format (see SimState.setCheckpointFormat(...)),
+    while the simulation carries on.  The file is the same as writeToCheckpoint(...) would have produced.
+
+    <p>Snapshots are as large as uncompressed checkpoints, so to bound the memory used, at most getMaxSnapshots() of them (by default 1)
+    are held at a time, including the one being written.  If checkpoint(...) is called when there are already that many, it waits until the
+    oldest has been written.  When a checkpoint has been written, or has failed, its Callback is called in the writing thread.
+    If it has no Callback, failures are printed.
+    Call finish() to wait for all the checkpoints to be written.
+
+    <p>As with writeToCheckpoint(...), preCheckpoint() and postCheckpoint() are called on the state before and after the snapshot is taken.
+*/
+
+public class AsynchronousCheckpointer
+    {
+    /** Called when a checkpoint has been written, or has failed.  It's called in the writing thread, not in the simulation's thread. */
+    public interface Callback
+        {
+        /** Called after the snapshot taken at the given number of steps has been written to the given file.  exception is null
+            if the checkpoint was written successfully, and otherwise is the exception which stopped it. */
+        public void checkpointWritten(File file, long steps, Exception exception);
+        }
+
+    final int maxSnapshots;
+    final LinkedList queue = new LinkedList();  // Snapshots waiting to be written, not including the one being written
+    int numSnapshots = 0;                       // the snapshots held, including the one being written
+    Thread thread = null;
+    ForkJoinPool pool = null;
+
+    /** Creates an AsynchronousCheckpointer which holds at most one snapshot at a time. */
+    public AsynchronousCheckpointer()
+        {
+        this(1);
+        }
+
+    /** Creates an AsynchronousCheckpointer which holds at most maxSnapshots snapshots at a time, including the one being written. */
+    public AsynchronousCheckpointer(int maxSnapshots)
+        {
+        if (maxSnapshots < 1)
+            throw new IllegalArgumentException("maxSnapshots must be at least 1: " + maxSnapshots);
+        this.maxSnapshots = maxSnapshots;
+        }
+
+    /** Returns the most snapshots held at a time, including the one being written. */
+    public int getMaxSnapshots() { return maxSnapshots; }
+
+    /** Returns the number of snapshots now held, including the one being written. */
+    public synchronized int getNumSnapshots() { return numSnapshots; }
+
+    /** Returns the ForkJoinPool in which checkpoints in CHECKPOINT_FORMAT_FAST are compressed.  If null, the common pool is used. */
+    public ForkJoinPool getPool() { return pool; }
+
+    /** Sets the ForkJoinPool in which checkpoints in CHECKPOINT_FORMAT_FAST are compressed.  If null, the common pool is used. */
+    public void setPool(ForkJoinPool pool) { this.pool = pool; }
+
+    /** Takes a snapshot of the state, and queues it to be written to the given file in the state's checkpoint format.
+        If getMaxSnapshots() snapshots are already held, first waits until one has been written.  Call this between steps.
+        callback may be null.  Throws an IOException if the state could not be serialized.  If serializing the state fails
+        in any way (say, with a RuntimeException thrown by an agent's writeObject(...)), the exception is passed on to you,
+        and nothing is queued. */
+    public void checkpoint(SimState state, File file, Callback callback) throws IOException
+        {
+        synchronized(this)
+            {
+            while(numSnapshots >= maxSnapshots)
+                {
+                try { wait(); }
+                catch (InterruptedException e) { throw new InterruptedIOException(); }
+                }
+            numSnapshots++;
+            }
+
+        // If we don't make it to the queue, for whatever reason, we must give back the slot we just took,
+        // or the next checkpoint(...) or finish() will wait for it forever.
+        boolean queued = false;
+        final Snapshot snapshot = new Snapshot(file, state.schedule.getSteps(), state.getCheckpointFormat(), callback);
+        try
+            {
+            state.preCheckpoint();
+            try
+                {
+                ObjectOutputStream s = (snapshot.format == SimState.CHECKPOINT_FORMAT_GZIP ?
+                    new ObjectOutputStream(snapshot) :
+                    new CheckpointOutputStream(snapshot, Deflater.NO_COMPRESSION, null));
+                s.writeObject(state);
+                s.close();
+                }
+            finally
+                {
+                state.postCheckpoint();
+                }
+
+            synchronized(this)
+                {
+                queue.addLast(snapshot);
+                queued = true;
+                if (thread == null) startThread();
+                notifyAll();
+                }
+            }
+        finally
+            {
+            if (!queued)
+                {
+                snapshot.release();
+                synchronized(this) { numSnapshots--; notifyAll(); }
+                }
+            }
+        }
+
+    // starts a new writing thread.  Call this while synchronized.
+    void startThread()
+        {
+        final Thread t = new Thread(new Runnable() { public void run() { writeAll(); } });
+        t.setName("MASON Checkpoint Writer");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+        }
+
+    /** Waits until all the snapshots have been written, and stops the writing thread.  The AsynchronousCheckpointer may still be used afterwards:
+        the next checkpoint(...) will start a new writing thread, and the old one won't touch its snapshots. */
+    public void finish()
+        {
+        Thread t;
+        synchronized(this)
+            {
+            while(numSnapshots > 0)
+                {
+                try { wait(); }
+                catch (InterruptedException e) { return; }
+                }
+            t = thread;
+            thread = null;
+            notifyAll();
+            }
+        if (t != null)
+            try { t.join(); } catch (InterruptedException e) { }  // do nothing
+        }
+
+    // The writing thread's loop.  It quits as soon as it is no longer the thread, that is, when finish() has cleared it.
+    // finish() only does so when there is nothing left to write, so anything queued afterwards belongs to a new thread
+    // started by checkpoint(...), and we must not touch it, or the two threads would race for the queue.
+    void writeAll()
+        {
+        final Thread me = Thread.currentThread();
+        try
+            {
+            while(true)
+                {
+                Snapshot snapshot;
+                synchronized(this)
+                    {
+                    while(queue.isEmpty() && thread == me)
+                        {
+                        try { wait(); }
+                        catch (InterruptedException e) { }  // keep waiting
+                        }
+                    if (thread != me) return;
+                    snapshot = (Snapshot)(queue.removeFirst());
+                    }
+
+                try
+                    {
+                    Exception exception = null;
+                    try { write(snapshot); }
+                    catch (Exception e) { exception = e; }
+                    finally { snapshot.release(); }
+
+                    if (snapshot.callback != null)
+                        snapshot.callback.checkpointWritten(snapshot.file, snapshot.steps, exception);
+                    else if (exception != null)
+                        exception.printStackTrace();
+                    }
+                finally
+                    {
+                    // only now, so that finish() also waits for the callbacks
+                    synchronized(this) { numSnapshots--; notifyAll(); }
+                    }
+                }
+            }
+        finally
+            {
+            // If we died (of an Error, or an exception thrown by a Callback), hand anything left over to a new thread
+            synchronized(this)
+                {
+                if (thread == me)
+                    {
+                    thread = null;
+                    if (!queue.isEmpty()) startThread();
+                    }
+                }
+            }
+        }
+
+    // Compresses the snapshot and writes it to its file
+    void write(Snapshot snapshot) throws IOException
+        {
+        final InputStream in = snapshot.getInputStream();
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(snapshot.file));
+        try
+            {
+            if (snapshot.format == SimState.CHECKPOINT_FORMAT_GZIP)
+                {
+                GZIPOutputStream g = new GZIPOutputStream(out);
+                copy(in, g);
+                g.finish();
+                }
+            else if (snapshot.format == SimState.CHECKPOINT_FORMAT_FAST)
+                CheckpointOutputStream.recompress(in, out, Deflater.BEST_SPEED, pool);
+            else copy(in, out);  // it's already uncompressed
+            }
+        finally
+            {
+            out.close();
+            }
+        }
+
+    static void copy(InputStream in, OutputStream out) throws IOException
+        {
+        final byte[] b = new byte[8192];
+        int n;
+        while((n = in.read(b)) > 0)
+            out.write(b, 0, n);
+        }
+
+
+    // An in-memory serialized state, and where it's to be written.  Blocks are released as they're read back out.
+    static class Snapshot extends BlockBuffer
+        {
+        final File file;
+        final long steps;
+        final int format;
+        final Callback callback;
+
+        Snapshot(File file, long steps, int format, Callback callback)
+            {
+            this.file = file;
+            this.steps = steps;
+            this.format = format;
+            this.callback = callback;
+            }
+
+        InputStream getInputStream() { return getInputStream(true); }
+        }
+    }
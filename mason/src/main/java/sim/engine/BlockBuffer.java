@@ -0,0 +1,133 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import java.io.*;
+import java.util.*;
+
+/** An in-memory stream of bytes, held in blocks of BLOCK_SIZE so it never has to be copied as it grows, and
+    so it may be longer than a single array (more than 2GB).  Used to hold serialized states by AsynchronousCheckpointer
+    and DeltaCheckpointer. */
+
+class BlockBuffer extends OutputStream
+    {
+    static final int BLOCK_SIZE = 1 << 20;
+
+    ArrayList blocks = new ArrayList();
+    byte[] current = null;
+    int pos = BLOCK_SIZE;   // position in current
+    long length = 0;
+
+    public void write(int b)
+        {
+        if (pos == BLOCK_SIZE) nextBlock();
+        current[pos++] = (byte)b;
+        length++;
+        }
+
+    public void write(byte[] b, int off, int len)
+        {
+        length += len;
+        while(len > 0)
+            {
+            if (pos == BLOCK_SIZE) nextBlock();
+            final int n = Math.min(len, BLOCK_SIZE - pos);
+            System.arraycopy(b, off, current, pos, n);
+            pos += n;
+            off += n;
+            len -= n;
+            }
+        }
+
+    void nextBlock()
+        {
+        current = new byte[BLOCK_SIZE];
+        blocks.add(current);
+        pos = 0;
+        }
+
+    /** Returns the number of bytes written. */
+    long length() { return length; }
+
+    /** Returns the given block.  All but the last are full. */
+    byte[] block(int i) { return (byte[])(blocks.get(i)); }
+
+    /** Returns the number of blocks. */
+    int numBlocks() { return blocks.size(); }
+
+    /** Lets the blocks be garbage collected.  The buffer can't be used afterwards. */
+    void release()
+        {
+        blocks = null;
+        current = null;
+        }
+
+    /** Writes len bytes, starting at position from, to the given stream. */
+    void writeTo(long from, long len, OutputStream out) throws IOException
+        {
+        if (from < 0 || len < 0 || from + len > length)
+            throw new IndexOutOfBoundsException("Range " + from + "+" + len + " outside buffer of length " + length);
+        int block = (int)(from / BLOCK_SIZE);
+        int off = (int)(from % BLOCK_SIZE);
+        while(len > 0)
+            {
+            final int n = (int)Math.min(len, BLOCK_SIZE - off);
+            out.write(block(block), off, n);
+            len -= n;
+            block++;
+            off = 0;
+            }
+        }
+
+    /** Reads exactly len bytes from the given stream onto the end of the buffer, throwing an EOFException if there aren't that many. */
+    void readFrom(InputStream in, long len) throws IOException
+        {
+        while(len > 0)
+            {
+            if (pos == BLOCK_SIZE) nextBlock();
+            final int n = in.read(current, pos, (int)Math.min(len, BLOCK_SIZE - pos));
+            if (n < 0) throw new EOFException();
+            pos += n;
+            length += n;
+            len -= n;
+            }
+        }
+
+    /** Returns a stream of the bytes in the buffer.  If release is true, each block is released as soon as it has been read,
+        so the buffer can't be used again afterwards. */
+    InputStream getInputStream(final boolean release)
+        {
+        return new InputStream()
+            {
+            int block = 0;
+            int blockPos = 0;
+            long remaining = length;
+
+            public int read()
+                {
+                final byte[] b = new byte[1];
+                return (read(b, 0, 1) <= 0 ? -1 : (b[0] & 0xFF));
+                }
+
+            public int read(byte[] b, int off, int len)
+                {
+                if (remaining == 0) return -1;
+                if (len == 0) return 0;
+                if (blockPos == BLOCK_SIZE)
+                    {
+                    if (release) blocks.set(block, null);  // let it be collected
+                    block++;
+                    blockPos = 0;
+                    }
+                final int n = (int)Math.min(Math.min(len, BLOCK_SIZE - blockPos), remaining);
+                System.arraycopy(block(block), blockPos, b, off, n);
+                blockPos += n;
+                remaining -= n;
+                return n;
+                }
+            };
+        }
+    }
@@ -0,0 +1,391 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import sim.util.*;
+
+/**
+   CalendarQueue is a drop-in replacement for the binary Heap used by the Schedule, tuned for
+   simulations which schedule most of their events at dense, regularly spaced times (typically
+   integer timesteps).  You can have a Schedule use it by calling <tt>schedule.setCalendarQueue(...)</tt>,
+   or by overriding Schedule.createHeap().
+
+   <p>The queue is a ring of <i>buckets</i>, each covering one "day" of width <tt>bucketWidth</tt>.  The
+   ring as a whole covers a window of <tt>numBuckets</tt> consecutive days starting at the day of the
+   earliest event in the queue.  Within a bucket, events are kept in groups of identical keys (same time and
+   same ordering), and the groups are kept sorted.  Events scheduled beyond the end of the window are held in an
+   ordinary binary Heap and are moved into the ring as the window advances.
+
+   <p>If your events mostly fall within the window and each bucket holds only a handful of distinct
+   (time, ordering) pairs -- as is the case for models which schedule at integer timesteps with a bucket
+   width of 1.0 -- then both add(...) and extractMin(...) are amortized O(1) rather than O(log n).  If
+   your events are spread out far into the future, the queue degenerates gracefully into a binary heap.
+   Days are clamped to +/- MAX_DAY, so events at huge times (even AFTER_SIMULATION) all share the last
+   day, where they are still kept in order.
+
+   <p>CalendarQueue only works with Schedule.Key keys.  It preserves the Schedule's ordering semantics exactly:
+   events come out in order of time, then ordering.  Events with identical keys are returned by extractMin(Bag)
+   in the reverse of the order in which they were added, so the Schedule's "reverse when not shuffling" trick
+   steps them in insertion order.
+*/
+
+public class CalendarQueue extends Heap
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The default number of buckets in the ring. */
+    public static final int DEFAULT_NUM_BUCKETS = 1024;
+    /** The default width of a bucket, suitable for integer timesteps. */
+    public static final double DEFAULT_BUCKET_WIDTH = 1.0;
+
+    /* A Bucket holds all the events for a single day, as a sorted array of groups of identical keys.
+       Each group consists of a Bag of keys and a parallel Bag of objects. */
+    static class Bucket implements java.io.Serializable
+        {
+        private static final long serialVersionUID = 1;
+
+        double[] times = new double[1];
+        int[] orderings = new int[1];
+        Bag[] keys = new Bag[1];
+        Bag[] objects = new Bag[1];
+        int numGroups = 0;
+
+        // returns the index of the group with the given time and ordering, or -(insertion point) - 1
+        int find(double time, int ordering)
+            {
+            double[] times = this.times;
+            int[] orderings = this.orderings;
+            int lo = 0;
+            int hi = numGroups - 1;
+            while(lo <= hi)
+                {
+                int mid = (lo + hi) >>> 1;
+                double t = times[mid];
+                if (t < time || (t == time && orderings[mid] < ordering)) lo = mid + 1;
+                else if (t > time || orderings[mid] > ordering) hi = mid - 1;
+                else return mid;
+                }
+            return -(lo + 1);
+            }
+
+        void add(Object obj, Schedule.Key key, Bag freeBags)
+            {
+            int g = find(key.time, key.ordering);
+            if (g < 0)
+                {
+                g = -(g + 1);
+                if (numGroups == times.length)
+                    {
+                    int len = numGroups * 2 + 1;
+                    double[] newTimes = new double[len];
+                    int[] newOrderings = new int[len];
+                    Bag[] newKeys = new Bag[len];
+                    Bag[] newObjects = new Bag[len];
+                    System.arraycopy(times, 0, newTimes, 0, numGroups);
+                    System.arraycopy(orderings, 0, newOrderings, 0, numGroups);
+                    System.arraycopy(keys, 0, newKeys, 0, numGroups);
+                    System.arraycopy(objects, 0, newObjects, 0, numGroups);
+                    times = newTimes;
+                    orderings = newOrderings;
+                    keys = newKeys;
+                    objects = newObjects;
+                    }
+                int shift = numGroups - g;
+                if (shift > 0)
+                    {
+                    System.arraycopy(times, g, times, g + 1, shift);
+                    System.arraycopy(orderings, g, orderings, g + 1, shift);
+                    System.arraycopy(keys, g, keys, g + 1, shift);
+                    System.arraycopy(objects, g, objects, g + 1, shift);
+                    }
+                times[g] = key.time;
+                orderings[g] = key.ordering;
+                keys[g] = (freeBags.numObjs > 0 ? (Bag)(freeBags.pop()) : new Bag());
+                objects[g] = (freeBags.numObjs > 0 ? (Bag)(freeBags.pop()) : new Bag());
+                numGroups++;
+                }
+            keys[g].add(key);
+            objects[g].add(obj);
+            }
+
+        // removes the first group, returning its Bags to freeBags
+        void removeFirstGroup(Bag freeBags)
+            {
+            Bag k = keys[0];
+            Bag o = objects[0];
+            k.clear();
+            o.clear();
+            freeBags.add(k);
+            freeBags.add(o);
+            numGroups--;
+            if (numGroups > 0)
+                {
+                System.arraycopy(times, 1, times, 0, numGroups);
+                System.arraycopy(orderings, 1, orderings, 0, numGroups);
+                System.arraycopy(keys, 1, keys, 0, numGroups);
+                System.arraycopy(objects, 1, objects, 0, numGroups);
+                }
+            keys[numGroups] = null;
+            objects[numGroups] = null;
+            }
+        }
+
+    Bucket[] buckets;
+    int mask;
+    double bucketWidth;
+
+    /* The day of the first bucket in the window.  The window covers days currentDay ... currentDay + buckets.length - 1. */
+    long currentDay = 0;
+    /* Number of events presently in the ring (not counting overflow). */
+    int numInRing = 0;
+    /* Events scheduled beyond the end of the window. */
+    Heap overflow = new Heap();
+    /* Recycled group Bags */
+    Bag freeBags = new Bag();
+
+    /** Creates a CalendarQueue with DEFAULT_NUM_BUCKETS buckets of width DEFAULT_BUCKET_WIDTH. */
+    public CalendarQueue()
+        {
+        this(DEFAULT_NUM_BUCKETS, DEFAULT_BUCKET_WIDTH);
+        }
+
+    /** Creates a CalendarQueue with the given number of buckets (rounded up to a power of two) and bucket width.
+        For models which schedule at integer timesteps, a bucket width of 1.0 is ideal, and the number of buckets
+        should exceed the largest interval at which you typically schedule into the future. */
+    public CalendarQueue(int numBuckets, double bucketWidth)
+        {
+        if (numBuckets <= 0)
+            throw new IllegalArgumentException("Number of buckets must be positive: " + numBuckets);
+        if (!(bucketWidth > 0) || bucketWidth == Double.POSITIVE_INFINITY)
+            throw new IllegalArgumentException("Bucket width must be positive and finite: " + bucketWidth);
+        int n = 1;
+        while(n < numBuckets && n < (1 << 30)) n <<= 1;
+        buckets = new Bucket[n];
+        mask = n - 1;
+        this.bucketWidth = bucketWidth;
+        }
+
+    /* The largest (and minus the smallest) day.  Far enough from Long.MAX_VALUE that neither the difference
+       of two days nor a day plus the number of buckets can overflow. */
+    static final long MAX_DAY = 1L << 61;
+
+    /** Returns the number of buckets in the ring. */
+    public int getNumBuckets() { return buckets.length; }
+
+    /** Returns the width of each bucket. */
+    public double getBucketWidth() { return bucketWidth; }
+
+    long dayOf(double time)
+        {
+        final double day = Math.floor(time / bucketWidth);
+        if (day >= MAX_DAY) return MAX_DAY;
+        if (day <= -MAX_DAY) return -MAX_DAY;
+        return (long)day;
+        }
+
+    void addToRing(Object elem, Schedule.Key key, long day)
+        {
+        int b = (int)(day & mask);
+        Bucket bucket = buckets[b];
+        if (bucket == null) bucket = buckets[b] = new Bucket();
+        bucket.add(elem, key, freeBags);
+        numInRing++;
+        }
+
+    /* Moves overflow events which now fall within the window into the ring. */
+    void migrateOverflow()
+        {
+        final long end = (currentDay > Long.MAX_VALUE - buckets.length ? Long.MAX_VALUE : currentDay + buckets.length);
+        while(!overflow.isEmpty())
+            {
+            Schedule.Key key = (Schedule.Key)(overflow.getMinKey());
+            long day = dayOf(key.time);
+            if (day >= end) break;
+            addToRing(overflow.extractMin(), key, day);
+            }
+        }
+
+    /* Advances currentDay to the first non-empty bucket, pulling in overflow as needed.  Returns the
+       bucket holding the minimum event, or null if the queue is empty. */
+    Bucket advance()
+        {
+        while(true)
+            {
+            if (numInRing == 0)
+                {
+                if (overflow.isEmpty()) return null;
+                currentDay = dayOf(((Schedule.Key)(overflow.getMinKey())).time);
+                migrateOverflow();
+                }
+            Bucket bucket = buckets[(int)(currentDay & mask)];
+            if (bucket != null && bucket.numGroups > 0) return bucket;
+            currentDay++;
+            migrateOverflow();
+            }
+        }
+
+    /* Rebuilds the ring so that the window starts at the given day.  Only called when someone
+       inserts an event earlier than the window, which the Schedule never does. */
+    void rewind(long day)
+        {
+        Comparable[] k = getKeys();
+        Object[] o = getObjects();
+        clear();
+        currentDay = day;
+        for(int i = 0; i < k.length; i++)
+            insert(o[i], (Schedule.Key)(k[i]), dayOf(((Schedule.Key)(k[i])).time));
+        }
+
+    void insert(Object elem, Schedule.Key key, long day)
+        {
+        if (day - currentDay < buckets.length)
+            addToRing(elem, key, day);
+        else overflow.add(elem, key);
+        }
+
+    public void add(Object elem, Comparable key)
+        {
+        Schedule.Key k = (Schedule.Key)key;
+        long day = dayOf(k.time);
+        if (numInRing == 0 && overflow.isEmpty())
+            currentDay = day;
+        else if (day < currentDay)
+            rewind(day);
+        insert(elem, k, day);
+        }
+
+    public Comparable getMinKey()
+        {
+        Bucket bucket = advance();
+        if (bucket == null) return null;
+        return (Comparable)(bucket.keys[0].objs[0]);
+        }
+
+    public Object getMin()
+        {
+        Bucket bucket = advance();
+        if (bucket == null) return null;
+        Bag o = bucket.objects[0];
+        return o.objs[o.numObjs - 1];
+        }
+
+    public Object extractMin()
+        {
+        Bucket bucket = advance();
+        if (bucket == null) return null;
+        Bag k = bucket.keys[0];
+        Bag o = bucket.objects[0];
+        k.pop();
+        Object result = o.pop();
+        numInRing--;
+        if (o.numObjs == 0) bucket.removeFirstGroup(freeBags);
+        return result;
+        }
+
+    public Bag extractMin(Bag putInHere)
+        {
+        Bucket bucket = advance();
+        if (bucket == null)
+            {
+            if (putInHere == null) return new Bag(0);
+            else return putInHere;
+            }
+        if (putInHere == null) putInHere = new Bag();
+
+        // dump in reverse order, so Schedule's reverse() restores insertion order
+        Bag o = bucket.objects[0];
+        Object[] objs = o.objs;
+        int len = o.numObjs;
+        for(int i = len - 1; i >= 0; i--)
+            putInHere.add(objs[i]);
+        numInRing -= len;
+        bucket.removeFirstGroup(freeBags);
+        return putInHere;
+        }
+
+    public int size()
+        {
+        return numInRing + overflow.size();
+        }
+
+    public boolean isEmpty()
+        {
+        return numInRing == 0 && overflow.isEmpty();
+        }
+
+    public void clear()
+        {
+        for(int i = 0; i < buckets.length; i++)
+            {
+            Bucket bucket = buckets[i];
+            if (bucket != null)
+                while(bucket.numGroups > 0)
+                    bucket.removeFirstGroup(freeBags);
+            }
+        numInRing = 0;
+        overflow.clear();
+        }
+
+    /** Returns the keys in no particular order, but in the same order as getObjects(). */
+    public Comparable[] getKeys()
+        {
+        Comparable[] k = new Comparable[size()];
+        int count = 0;
+        for(int i = 0; i < buckets.length; i++)
+            {
+            Bucket bucket = buckets[i];
+            if (bucket == null) continue;
+            for(int g = 0; g < bucket.numGroups; g++)
+                {
+                Bag keys = bucket.keys[g];
+                System.arraycopy(keys.objs, 0, k, count, keys.numObjs);
+                count += keys.numObjs;
+                }
+            }
+        Comparable[] o = overflow.getKeys();
+        System.arraycopy(o, 0, k, count, o.length);
+        return k;
+        }
+
+    /** Returns the objects in no particular order, but in the same order as getKeys(). */
+    public Object[] getObjects()
+        {
+        Object[] k = new Object[size()];
+        int count = 0;
+        for(int i = 0; i < buckets.length; i++)
+            {
+            Bucket bucket = buckets[i];
+            if (bucket == null) continue;
+            for(int g = 0; g < bucket.numGroups; g++)
+                {
+                Bag objects = bucket.objects[g];
+                System.arraycopy(objects.objs, 0, k, count, objects.numObjs);
+                count += objects.numObjs;
+                }
+            }
+        Object[] o = overflow.getObjects();
+        System.arraycopy(o, 0, k, count, o.length);
+        return k;
+        }
+
+    /**
+       Produces a new CalendarQueue, with the same bucket layout as this one, which is the union of this queue with the other.
+       The original queues are not modified.  The new queue is returned.
+    */
+    public Heap merge(Heap other)
+        {
+        CalendarQueue queue = new CalendarQueue(buckets.length, bucketWidth);
+        Comparable[] k = getKeys();
+        Object[] o = getObjects();
+        for(int i = 0; i < k.length; i++)
+            queue.add(o[i], k[i]);
+        k = other.getKeys();
+        o = other.getObjects();
+        for(int i = 0; i < k.length; i++)
+            queue.add(o[i], k[i]);
+        return queue;
+        }
+    }
@@ -0,0 +1,446 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import java.io.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import sim.util.CheckpointInputStream;
+import sim.util.CheckpointOutputStream;
+
+/** Writes a series of checkpoints of a SimState, most of which record only what has changed since the checkpoint before.
+
+    <p>Many long-running models change only a small part of their state between checkpoints: a large, mostly static landscape,
+    say, with a few agents moving about on it.  Yet every checkpoint written by SimState.writeToCheckpoint(...) holds the whole state.
+    A DeltaCheckpointer instead writes a <i>full</i> checkpoint first, and then <i>delta</i> checkpoints, each of which holds only
+    those parts of the serialized state which differ from the checkpoint before it, and the name of that checkpoint.  After
+    getMaxDeltas() deltas in a row, it writes a full checkpoint again, which bounds both the length of the chain needed to restore
+    a checkpoint and the time it takes.  Full checkpoints are ordinary checkpoints in the CheckpointOutputStream format, and can be read
+    by SimState.readFromCheckpoint(...) as usual.  Delta checkpoints are read by readFromCheckpoint(...) here (which
+    SimState.readFromCheckpoint(File) calls for you): it reads the full checkpoint at the start of the chain, and replays the deltas
+    after it in turn.  So keep all the checkpoints of a chain together in the same directory, and don't rename them.
+
+    <p>The state is serialized, as by a CheckpointOutputStream, into memory (in blocks of 1MB, so it may be larger than 2GB), and cut into
+    <i>chunks</i> of a few KB each.  The boundaries of the chunks depend on their contents (on a rolling hash of the last few bytes), not on
+    their positions, so that inserting or removing some bytes changes the chunks around them but not the chunks after them.  Each chunk is
+    identified by (the first 128 bits of) its SHA-256 hash.  A chunk whose hash and size match one of the previous checkpoint's is recorded
+    as a reference to it; the rest are written out, compressed.  Only the hashes of the previous checkpoint's chunks are kept in memory between
+    checkpoints, not the chunks themselves, so chunks are never compared byte for byte: we rely on the strength of the hash instead.  Each
+    checkpoint also records a SHA-256 digest of the whole serialized state, which is checked when it is restored.
+
+    <p>How well this works depends on how much of the serialized state stays the same.  The contents of grids and other large arrays
+    are serialized in place, so a grid in which a few cells have changed costs a few chunks.  But Java serialization refers back to objects
+    it has already written by number, so if objects are created or destroyed early in the state, references to later objects change too.
+    Thus models with a lot of churn among their agents may see less benefit.
+
+    <p>Checkpoints are written at Deflater.BEST_SPEED, unless the SimState's checkpoint format is CHECKPOINT_FORMAT_UNCOMPRESSED.
+    (A DeltaCheckpointer doesn't write gzip checkpoints.)  As with writeToCheckpoint(...), preCheckpoint() and postCheckpoint() are called
+    on the state before and after it is serialized.
+*/
+
+public class DeltaCheckpointer
+    {
+    /** The first bytes of every delta checkpoint. */
+    public static final byte[] MAGIC = { 'M', 'A', 'S', 'O', 'N', 'D', 'L', 'T' };
+    /** The version of the delta format. */
+    public static final int VERSION = 2;
+
+    // Chunk boundaries fall where the low bits of the rolling hash are all zero, giving chunks of 4K on average,
+    // but never less than MIN_CHUNK nor more than MAX_CHUNK
+    static final int MIN_CHUNK = 1 << 10;
+    static final int MAX_CHUNK = 32 << 10;
+    static final long CHUNK_MASK = (1L << 12) - 1;
+
+    // operations in a delta
+    static final int END = 0;
+    static final int COPY = 1;
+    static final int LITERAL = 2;
+
+    // random values for the rolling hash
+    static final long[] GEAR = new long[256];
+    static
+        {
+        long x = 0x9E3779B97F4A7C15L;
+        for(int i = 0; i < GEAR.length; i++)
+            {
+            // splitmix64
+            x += 0x9E3779B97F4A7C15L;
+            long z = x;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+            }
+        }
+
+    int maxDeltas = 10;
+    ForkJoinPool pool = null;
+
+    // the previous checkpoint
+    String previousName = null;
+    Chunks previous = null;
+    HashMap previousIndex = null;   // maps the first half of the hash (a Long) of each of previous's chunks to its (first) index (an Integer)
+    int numDeltas = 0;              // the number of deltas since the last full checkpoint
+
+    /** Returns the most delta checkpoints written in a row before a full checkpoint is written again.  The default is 10. */
+    public int getMaxDeltas() { return maxDeltas; }
+
+    /** Sets the most delta checkpoints written in a row before a full checkpoint is written again.  If 0, only full checkpoints are written. */
+    public void setMaxDeltas(int maxDeltas)
+        {
+        if (maxDeltas < 0)
+            throw new IllegalArgumentException("maxDeltas must be >= 0: " + maxDeltas);
+        this.maxDeltas = maxDeltas;
+        }
+
+    /** Returns the ForkJoinPool in which checkpoints are compressed.  If null, the common pool is used. */
+    public ForkJoinPool getPool() { return pool; }
+
+    /** Sets the ForkJoinPool in which checkpoints are compressed.  If null, the common pool is used. */
+    public void setPool(ForkJoinPool pool) { this.pool = pool; }
+
+    /** Returns the number of delta checkpoints written since the last full checkpoint. */
+    public int getNumDeltas() { return numDeltas; }
+
+    /** Forgets the previous checkpoint, so the next one written will be a full checkpoint. */
+    public void reset()
+        {
+        previousName = null;
+        previous = null;
+        previousIndex = null;
+        numDeltas = 0;
+        }
+
+    /** Writes a checkpoint of the state to the given file: a delta checkpoint, holding the changes since the previous checkpoint written
+        by this DeltaCheckpointer, or a full checkpoint if there was no previous checkpoint or there have been getMaxDeltas() deltas in a row.
+        Returns true if a delta checkpoint was written.  The previous checkpoint must stay in the same directory as the file, with the same
+        name.  If the file is in another directory, or is the previous checkpoint itself, a full checkpoint is written.
+        Call this between steps. */
+    public boolean writeToCheckpoint(SimState state, File file) throws IOException
+        {
+        // serialize into memory
+        final BlockBuffer data = new BlockBuffer();
+        state.preCheckpoint();
+        try
+            {
+            CheckpointOutputStream s = CheckpointOutputStream.createUnframed(data);
+            s.writeObject(state);
+            s.close();
+            }
+        finally
+            {
+            state.postCheckpoint();
+            }
+
+        final Chunks chunks = new Chunks(data);
+        final int level = (state.getCheckpointFormat() == SimState.CHECKPOINT_FORMAT_UNCOMPRESSED ? Deflater.NO_COMPRESSION : Deflater.BEST_SPEED);
+        // a delta must be next to its previous checkpoint, and mustn't overwrite it
+        final boolean delta = (previous != null && numDeltas < maxDeltas && !file.getAbsolutePath().equals(previousName) &&
+            file.getAbsoluteFile().getParentFile().equals(new File(previousName).getAbsoluteFile().getParentFile()));
+
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try
+            {
+            if (delta)
+                {
+                final DataOutputStream header = new DataOutputStream(out);
+                header.write(MAGIC);
+                header.writeInt(VERSION);
+                header.writeUTF(new File(previousName).getName());
+                header.writeLong(previous.length);
+                header.write(previous.digest());
+                header.writeLong(chunks.length);
+                header.write(chunks.digest());
+                header.flush();
+                final DataOutputStream body = new DataOutputStream(CheckpointOutputStream.createChunkStream(out, level, pool));
+                writeDelta(data, chunks, body);
+                body.close();
+                }
+            else
+                {
+                final OutputStream body = CheckpointOutputStream.createChunkStream(out, level, pool);
+                data.writeTo(0, data.length(), body);
+                body.close();
+                }
+            }
+        finally
+            {
+            out.close();
+            }
+
+        // remember this checkpoint for next time
+        numDeltas = (delta ? numDeltas + 1 : 0);
+        previousName = file.getAbsolutePath();
+        previous = chunks;
+        previousIndex = chunks.index();
+        return delta;
+        }
+
+    // Writes the operations which turn the previous checkpoint into data
+    void writeDelta(BlockBuffer data, Chunks chunks, DataOutputStream out) throws IOException
+        {
+        int copyStart = -1;     // the first chunk of the previous checkpoint in the current run of copied chunks, or -1
+        int copyCount = 0;
+        long literalStart = -1; // the start in data of the current run of new chunks, or -1
+        long literalEnd = -1;
+        for(int i = 0; i < chunks.count; i++)
+            {
+            final long start = chunks.start(i);
+            final long end = chunks.ends[i];
+            final Integer match = (Integer)(previousIndex.get(Long.valueOf(chunks.hashes[2 * i])));
+            if (match != null && previous.hashes[2 * match.intValue() + 1] == chunks.hashes[2 * i + 1] &&
+                previous.size(match.intValue()) == end - start)
+                {
+                final int m = match.intValue();
+                if (literalStart >= 0) { writeLiteral(data, literalStart, literalEnd, out); literalStart = -1; }
+                if (copyStart >= 0 && copyStart + copyCount == m) copyCount++;
+                else
+                    {
+                    if (copyStart >= 0) writeCopy(copyStart, copyCount, out);
+                    copyStart = m;
+                    copyCount = 1;
+                    }
+                }
+            else
+                {
+                if (copyStart >= 0) { writeCopy(copyStart, copyCount, out); copyStart = -1; }
+                if (literalStart < 0) literalStart = start;
+                literalEnd = end;
+                }
+            }
+        if (copyStart >= 0) writeCopy(copyStart, copyCount, out);
+        if (literalStart >= 0) writeLiteral(data, literalStart, literalEnd, out);
+        out.writeByte(END);
+        }
+
+    static void writeCopy(int start, int count, DataOutputStream out) throws IOException
+        {
+        out.writeByte(COPY);
+        out.writeInt(start);
+        out.writeInt(count);
+        }
+
+    static void writeLiteral(BlockBuffer data, long start, long end, DataOutputStream out) throws IOException
+        {
+        out.writeByte(LITERAL);
+        out.writeLong(end - start);
+        data.writeTo(start, end - start, out);
+        }
+
+    /** Returns true if the given file is a delta checkpoint. */
+    public static boolean isDelta(File file) throws IOException
+        {
+        final InputStream in = new FileInputStream(file);
+        try { return isDelta(in); }
+        finally { in.close(); }
+        }
+
+    static boolean isDelta(InputStream in) throws IOException
+        {
+        for(int i = 0; i < MAGIC.length; i++)
+            if (in.read() != (MAGIC[i] & 0xFF))
+                return false;
+        return true;
+        }
+
+    /** Creates and returns a new SimState read from the given checkpoint, which may be a full checkpoint or a delta checkpoint.
+        A delta checkpoint is restored by reading the full checkpoint at the start of its chain, and replaying each delta after it in turn.
+        Calls awakeFromCheckpoint().  Throws an IOException if a checkpoint in the chain is missing, or doesn't match the delta after it. */
+    public static SimState readFromCheckpoint(File file) throws IOException, ClassNotFoundException
+        {
+        final BlockBuffer data = reconstruct(file);
+        final ObjectInputStream s = CheckpointInputStream.createUnframed(data.getInputStream(true));
+        final SimState state = (SimState)(s.readObject());
+        state.awakeFromCheckpoint();
+        return state;
+        }
+
+    // Returns the serialized state held in the given full or delta checkpoint
+    static BlockBuffer reconstruct(File file) throws IOException
+        {
+        final InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try
+            {
+            in.mark(MAGIC.length);
+            if (!isDelta(in))
+                {
+                in.reset();
+                final BlockBuffer data = new BlockBuffer();
+                final InputStream body = CheckpointInputStream.createChunkStream(in);
+                final byte[] b = new byte[8192];
+                int n;
+                while((n = body.read(b)) > 0)
+                    data.write(b, 0, n);
+                return data;
+                }
+
+            final DataInputStream header = new DataInputStream(in);
+            final int version = header.readInt();
+            if (version != VERSION)
+                throw new StreamCorruptedException("Unknown delta checkpoint version " + version + " in " + file);
+            final File previousFile = new File(file.getAbsoluteFile().getParentFile(), header.readUTF());
+            final long previousLength = header.readLong();
+            final byte[] previousDigest = new byte[DIGEST_LENGTH];
+            header.readFully(previousDigest);
+            final long length = header.readLong();
+            final byte[] digest = new byte[DIGEST_LENGTH];
+            header.readFully(digest);
+
+            final BlockBuffer previousData = reconstruct(previousFile);
+            final Chunks previous = new Chunks(previousData);
+            if (previous.length != previousLength || !Arrays.equals(previous.digest(), previousDigest))
+                throw new StreamCorruptedException("Checkpoint " + previousFile + " is not the one which " + file + " was written against");
+
+            if (length < 0)
+                throw new StreamCorruptedException("Invalid length " + length + " in " + file);
+            final BlockBuffer data = new BlockBuffer();
+            final DataInputStream body = new DataInputStream(CheckpointInputStream.createChunkStream(in));
+            while(true)
+                {
+                final int op = body.readByte();
+                if (op == END) break;
+                else if (op == COPY)
+                    {
+                    final int start = body.readInt();
+                    final int count = body.readInt();
+                    if (start < 0 || count < 0 || (long)start + count > previous.count)
+                        throw new StreamCorruptedException("Invalid chunks " + start + "+" + count + " in " + file);
+                    if (count == 0) continue;
+                    final long from = previous.start(start);
+                    final long n = previous.ends[start + count - 1] - from;
+                    if (n > length - data.length())
+                        throw new StreamCorruptedException("Delta too long in " + file);
+                    previousData.writeTo(from, n, data);
+                    }
+                else if (op == LITERAL)
+                    {
+                    final long n = body.readLong();
+                    if (n < 0 || n > length - data.length())
+                        throw new StreamCorruptedException("Delta too long in " + file);
+                    data.readFrom(body, n);
+                    }
+                else throw new StreamCorruptedException("Unknown delta operation " + op + " in " + file);
+                }
+            previousData.release();
+            if (data.length() != length || !Arrays.equals(new Chunks(data).digest(), digest))
+                throw new StreamCorruptedException("Checkpoint " + file + " did not restore correctly");
+            return data;
+            }
+        finally
+            {
+            in.close();
+            }
+        }
+
+
+    // The content-defined chunks of a serialized state: the end of each in the data, and its hash
+    static class Chunks
+        {
+        long[] ends = new long[16];
+        long[] hashes = new long[32];   // the first 128 bits of each chunk's SHA-256 hash, as two longs
+        int count = 0;
+        final long length;
+
+        Chunks(BlockBuffer data)
+            {
+            length = data.length();
+            final MessageDigest sha = newDigest();
+            long start = 0;                 // the start of the current chunk
+            long position = 0;              // the position of the current block
+            long gear = 0;
+            for(int b = 0; b < data.numBlocks(); b++)
+                {
+                final byte[] block = data.block(b);
+                final int limit = (int)Math.min(BlockBuffer.BLOCK_SIZE, length - position);
+                int unhashed = 0;           // the start in the block of the part of the current chunk not yet hashed
+                for(int i = 0; i < limit; i++)
+                    {
+                    gear = (gear << 1) + GEAR[block[i] & 0xFF];
+                    final long size = position + i + 1 - start;
+                    if ((size >= MIN_CHUNK && (gear & CHUNK_MASK) == 0) || size == MAX_CHUNK)
+                        {
+                        sha.update(block, unhashed, i + 1 - unhashed);
+                        add(position + i + 1, sha.digest());
+                        start = position + i + 1;
+                        unhashed = i + 1;
+                        gear = 0;
+                        }
+                    }
+                sha.update(block, unhashed, limit - unhashed);
+                position += limit;
+                }
+            if (start < length) add(length, sha.digest());
+            }
+
+        void add(long end, byte[] hash)
+            {
+            if (count == ends.length)
+                {
+                ends = Arrays.copyOf(ends, count * 2);
+                hashes = Arrays.copyOf(hashes, count * 4);
+                }
+            ends[count] = end;
+            hashes[2 * count] = toLong(hash, 0);
+            hashes[2 * count + 1] = toLong(hash, 8);
+            count++;
+            }
+
+        long start(int i) { return (i == 0 ? 0 : ends[i - 1]); }
+
+        long size(int i) { return ends[i] - start(i); }
+
+        // A SHA-256 digest of the whole data, made from its length and the chunks' hashes and sizes.  Since the chunk hashes
+        // are themselves (truncated) SHA-256 hashes of the chunks, this is as hard to fool as a digest of the data itself.
+        byte[] digest()
+            {
+            final MessageDigest sha = newDigest();
+            final byte[] b = new byte[8];
+            update(sha, b, length);
+            for(int i = 0; i < count; i++)
+                {
+                update(sha, b, hashes[2 * i]);
+                update(sha, b, hashes[2 * i + 1]);
+                update(sha, b, size(i));
+                }
+            return sha.digest();
+            }
+
+        HashMap index()
+            {
+            final HashMap index = new HashMap();
+            for(int i = count - 1; i >= 0; i--)  // backwards, so the first of identical chunks wins
+                index.put(Long.valueOf(hashes[2 * i]), Integer.valueOf(i));
+            return index;
+            }
+        }
+
+    static final int DIGEST_LENGTH = 32;
+
+    static MessageDigest newDigest()
+        {
+        try { return MessageDigest.getInstance("SHA-256"); }
+        catch (NoSuchAlgorithmException e) { throw new InternalError(); } // never happens: every Java platform has SHA-256
+        }
+
+    static long toLong(byte[] b, int off)
+        {
+        long l = 0;
+        for(int i = off; i < off + 8; i++)
+            l = (l << 8) | (b[i] & 0xFF);
+        return l;
+        }
+
+    static void update(MessageDigest sha, byte[] b, long l)
+        {
+        for(int i = 7; i >= 0; i--)
+            {
+            b[i] = (byte)l;
+            l >>>= 8;
+            }
+        sha.update(b);
+        }
+    }
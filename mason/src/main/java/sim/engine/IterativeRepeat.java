@@ -18,6 +18,8 @@ public class IterativeRepeat implements  Steppable, Stoppable
     double interval;
     Steppable step;  // if null, does not reschedule
     Schedule.Key key;
+    Schedule.Roster roster;  // if non-null, the Roster reschedules me, and I share its Key
+    int rosterIndex;  // my position in the Roster, for O(1) removal
     protected Object[] lock = new Object[0];
     
     public int getOrdering() { return key.ordering; }
@@ -46,16 +48,19 @@ public class IterativeRepeat implements  Steppable, Stoppable
         	{
         if (step!=null)
             {
-            try
+            if (roster == null)  // otherwise my Roster has already rescheduled me
                 {
-                // reuse the Key to save some gc perhaps -- it's been pulled out and discarded at this point
-                key.time += interval;
-                if (key.time < Schedule.AFTER_SIMULATION) 
-                    state.schedule.scheduleOnce(key, this);  // may return false if we couldn't schedule, which is fine
-                }
-            catch (IllegalArgumentException e)
-                {
-                e.printStackTrace(); // something bad happened
+                try
+                    {
+                    // reuse the Key to save some gc perhaps -- it's been pulled out and discarded at this point
+                    key.time += interval;
+                    if (key.time < Schedule.AFTER_SIMULATION) 
+                        state.schedule.scheduleOnce(key, this);  // may return false if we couldn't schedule, which is fine
+                    }
+                catch (IllegalArgumentException e)
+                    {
+                    e.printStackTrace(); // something bad happened
+                    }
                 }
             assert sim.util.LocationLog.set(step);
             step.step(state);
@@ -69,6 +74,13 @@ public class IterativeRepeat implements  Steppable, Stoppable
         synchronized(lock)
         	{
         	step = null;
+        	if (roster != null)
+        	    {
+        	    synchronized(roster.schedule.lock)
+        	        {
+        	        roster.schedule._leaveRoster(this);
+        	        }
+        	    }
         	}
         }
         
@@ -6,6 +6,7 @@
 
 package sim.engine;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.*;
 import sim.util.*;
 
@@ -18,7 +19,9 @@ import sim.util.*;
     <p>For example, keep in mind that the random number generator is unsynchronized.
     If you access the random number generator from within a ParallelSequence, or
     indeed from multiple threads you've spawned in other situations, you need
-    to remember to lock on the random number generator itself.
+    to remember to lock on the random number generator itself.  Better still, have each of your
+    Steppables draw from its own random stream, obtained via state.getRandomStream(index), which
+    needs no locking at all.
     
     <p>In the same vein, if you use a RandomSequence within a ParallelSequence, you need
     to let the RandomSequence know this so that it will lock on the random number generator
@@ -50,6 +53,20 @@ import sim.util.*;
     at the end of the run to call cleanup() on it.  It's not a bad idea for a ParallelSequence which
     is one-shot rather than repeating.
     
+    <p><b>Fork/Join Mode</b>
+    By default a ParallelSequence breaks its Steppables into one fixed contiguous block per thread.  If some Steppables
+    take much longer than others, one thread may still be working long after the others have finished, and your cores sit idle.
+    If you call <b>setUsesForkJoin(true)</b>, the ParallelSequence instead recursively splits its Steppables into small chunks
+    and submits them to a ForkJoinPool, whose threads steal work from one another as they run out.  The chunk size adapts
+    to the number of Steppables and the parallelism of the pool.  By default the shared common pool is used, but you can provide
+    your own with setForkJoinPool(...).  In this mode the number of threads passed into the constructor only affects the chunk size,
+    and cleanup() and setDestroysThreads(...) have no effect on the pool.
+    
+    <p>To see how well the work is being spread out, call <b>setRecordsTiming(true)</b>.  Thereafter after each step() you can
+    call getLastStepNanos() to get the wall-clock time of the step, getLastStepBusyNanos() to get the total time spent by all
+    threads actually stepping Steppables, and getLastStepEfficiency() to get the ratio of the second to the first times the number of threads.
+    An efficiency near 1.0 means that the threads were kept busy; a low efficiency means that threads were idling while others finished.
+    
     <p>Be sure to read the class documentation on sim.engine.Sequence</b>
 */
 
@@ -61,6 +78,13 @@ public class ParallelSequence extends Sequence
     boolean operating = false;  // checking for circularity
     boolean destroysThreads = false;
     int numThreads = 0;
+    boolean usesForkJoin = false;
+    ForkJoinPool pool = null;  // null means the common pool.  Not serialized.
+    boolean recordsTiming = false;
+    long lastStepNanos = 0;
+    long lastStepBusyNanos = 0;
+    int lastStepThreads = 0;
+    AtomicLong busyNanos = new AtomicLong();
     
     /** Indicates that MASON should determine how many threads to use based on the number of CPUs. */ 
     public static final int CPUS = -1;
@@ -69,6 +93,41 @@ public class ParallelSequence extends Sequence
         
     public boolean getDestroysThreads() { return destroysThreads; }
     public void setDestroysThreads(boolean val) { destroysThreads = val; }
+
+    /** Returns whether the ParallelSequence steps its Steppables by submitting chunks of them to a ForkJoinPool. */
+    public boolean getUsesForkJoin() { return usesForkJoin; }
+    /** Sets whether the ParallelSequence steps its Steppables by submitting chunks of them to a ForkJoinPool, 
+        rather than by splitting them evenly among its own threads. */
+    public void setUsesForkJoin(boolean val) { usesForkJoin = val; }
+    
+    /** Returns the ForkJoinPool used when in fork/join mode, or null if the common pool is used. */
+    public ForkJoinPool getForkJoinPool() { return pool; }
+    /** Sets the ForkJoinPool used when in fork/join mode.  Pass in null to use the common pool (the default).
+        The pool is not serialized: after a checkpoint is loaded, the common pool is used until you set another one. */
+    public void setForkJoinPool(ForkJoinPool pool) { this.pool = pool; }
+    
+    /** Returns whether the ParallelSequence records the timing of each step. */
+    public boolean getRecordsTiming() { return recordsTiming; }
+    /** Sets whether the ParallelSequence records the timing of each step.  This costs a call to System.nanoTime() per thread or chunk. */
+    public void setRecordsTiming(boolean val) { recordsTiming = val; }
+    
+    /** Returns the wall-clock time, in nanoseconds, of the most recent step, if timing is being recorded. */
+    public long getLastStepNanos() { return lastStepNanos; }
+    
+    /** Returns the total time, in nanoseconds, which all threads spent stepping Steppables during the most recent step, 
+        if timing is being recorded. */
+    public long getLastStepBusyNanos() { return lastStepBusyNanos; }
+    
+    /** Returns the fraction of the available thread time which was spent stepping Steppables during the most recent step, 
+        if timing is being recorded: that is, getLastStepBusyNanos() / (getLastStepNanos() * number of threads).
+        In fork/join mode the number of threads is the pool's parallelism (or the number of Steppables, if fewer),
+        whatever numThreads is, since that's how many workers the pool may run the chunks on.
+        Values near 1.0 indicate that the load was evenly balanced. */
+    public double getLastStepEfficiency() 
+        {
+        if (lastStepNanos == 0 || lastStepThreads == 0) return 0;
+        return lastStepBusyNanos / (double)(lastStepNanos * lastStepThreads);
+        }
         
     /// Threads are not serializable, so we must manually rebuild here
     private void writeObject(java.io.ObjectOutputStream p)
@@ -77,8 +136,11 @@ public class ParallelSequence extends Sequence
         p.writeBoolean(pleaseDie);
         p.writeBoolean(destroysThreads);
         p.writeInt(numThreads);
+        p.writeBoolean(usesForkJoin);
+        p.writeBoolean(recordsTiming);
         // don't write operating
         // dont' write threads
+        // don't write the pool
         }
         
     /// Threads are not serializable, so we must manually rebuild here
@@ -88,10 +150,14 @@ public class ParallelSequence extends Sequence
         pleaseDie = p.readBoolean();
         destroysThreads = p.readBoolean();
         numThreads = p.readInt();
+        usesForkJoin = p.readBoolean();
+        recordsTiming = p.readBoolean();
         // don't write operating
         // dont' write threads
+        // don't write the pool
         // rebuild locks
         operatingLock = new Object();
+        busyNanos = new AtomicLong();
         }
         
     public Steppable getCleaner()
@@ -169,6 +235,57 @@ public class ParallelSequence extends Sequence
             loadSteps();
             }
 
+        long startTime = 0;
+        if (recordsTiming)
+            {
+            busyNanos.set(0);
+            startTime = System.nanoTime();
+            }
+        
+        if (usesForkJoin)
+            stepForkJoin(state);
+        else 
+            stepThreads(state);
+
+        if (recordsTiming)
+            {
+            lastStepNanos = System.nanoTime() - startTime;
+            lastStepBusyNanos = busyNanos.get();
+            }
+            
+        // don't need to synchronize to turn operating off
+        operating = false;
+        }
+        
+    // steps using the ForkJoinPool
+    void stepForkJoin(final SimState state)
+        {
+        int size = this.size;
+        ForkJoinPool pool = this.pool;
+        if (pool == null) 
+            pool = ForkJoinPool.commonPool();
+
+        // How many threads?
+        int n = numThreads;
+        if (n == CPUS || n == STEPPABLES)
+            n = pool.getParallelism();
+        if (n > size)
+            n = size;
+        // n only sets the grain: the pool runs the chunks on as many of its workers as it has
+        lastStepThreads = Math.min(pool.getParallelism(), size);
+        if (size == 0) return;
+        
+        // We split down to about 8 chunks per thread: small enough that threads which finish
+        // early can steal the remaining chunks, large enough to keep the task overhead low.
+        int grain = size / (n * 8);
+        if (grain < 1) grain = 1;
+        
+        pool.invoke(new Chunk(state, 0, size, grain));
+        }
+
+    // steps using our own ThreadPool
+    void stepThreads(final SimState state)
+        {
         if (threads == null)  // rebuild threads
             threads = new ThreadPool();
 
@@ -181,6 +298,7 @@ public class ParallelSequence extends Sequence
             n = size;
         if (n > size)
             n = size;
+        lastStepThreads = n;
         
         int jump = size / n;
         int extra = size % n;
@@ -242,9 +360,6 @@ public class ParallelSequence extends Sequence
             cleanup();
         else
             threads.joinThreads();
-
-        // don't need to synchronize to turn operating off
-        operating = false;
         }
 
 
@@ -361,6 +476,7 @@ public class ParallelSequence extends Sequence
         
         public void run()
             {
+            long startTime = (recordsTiming ? System.nanoTime() : 0);
             Steppable[] steps = ParallelSequence.this.steps;
             int modulo = this.modulo;
             for(int s = start; s < end; s += modulo)
@@ -371,6 +487,7 @@ public class ParallelSequence extends Sequence
                 steps[s].step(state);
                 assert sim.util.LocationLog.clear();
                 }
+            if (recordsTiming) busyNanos.addAndGet(System.nanoTime() - startTime);
             }
 
         // explicitly state a UID in order to be 'cross-platform' serializable 
@@ -379,6 +496,45 @@ public class ParallelSequence extends Sequence
         private static final long serialVersionUID = 1;
         }
         
+    // a chunk of steppables for the ForkJoinPool, which splits itself in half until it's no bigger than grain
+    class Chunk extends RecursiveAction
+        {
+        SimState state;
+        int start;
+        int end;
+        int grain;
+        public Chunk(SimState state, int start, int end, int grain)
+            {
+            this.state = state;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+            }
+            
+        protected void compute()
+            {
+            if (end - start > grain)
+                {
+                int mid = (start + end) >>> 1;
+                invokeAll(new Chunk(state, start, mid, grain), new Chunk(state, mid, end, grain));
+                return;
+                }
+                
+            long startTime = (recordsTiming ? System.nanoTime() : 0);
+            Steppable[] steps = ParallelSequence.this.steps;
+            for(int s = start; s < end; s++)
+                {
+                Steppable step = steps[s];
+                assert sim.util.LocationLog.set(step);
+                step.step(state);
+                assert sim.util.LocationLog.clear();
+                }
+            if (recordsTiming) busyNanos.addAndGet(System.nanoTime() - startTime);
+            }
+
+        private static final long serialVersionUID = 1;
+        }
+        
     // explicitly state a UID in order to be 'cross-platform' serializable
     // because we contain an inner class and compilers come up with all
     // sorts of different UIDs for inner classes and their parents.
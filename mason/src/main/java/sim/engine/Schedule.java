@@ -6,6 +6,7 @@
 
 package sim.engine;
 import java.io.Serializable;
+import java.util.concurrent.*;
 
 import sim.util.*;
 import ec.util.*;
@@ -84,10 +85,12 @@ import ec.util.*;
    has been reset or not.  Thus now if you call reset() or [better] SimState.kill(), the Schedule will continue to step Steppables
    until it has exhausted ones scheduled for the current timestep.  Only at that point will it cease.
    
-   <p><b>Heaps and Calendar Queues</b>.  Schedule uses a plain-old binary heap for its queueing mechanism.  This is reasonably efficient,
+   <p><b>Heaps and Calendar Queues</b>.  By default Schedule uses a plain-old binary heap for its queueing mechanism.  This is reasonably efficient,
    but it could be made more efficient with a Calendar Queue designed for the purposes of your simulation.  We settled on a Heap because
-   we do not know what the expected scheduling pattern will be for any given simulation, and so had to go for the most general case.  If you'd
-   care to customize your queue, you can do so by overriding the createHeap() method in a custom Schedule.  We imagine this would be rare.
+   we do not know what the expected scheduling pattern will be for any given simulation, and so had to go for the most general case.  If
+   your model schedules most of its events at integer (or otherwise regularly spaced) timesteps, you can switch to a CalendarQueue by calling
+   setCalendarQueue(...), typically in your SimState's constructor.  If you'd
+   care to customize your queue further, you can do so by overriding the createHeap() method in a custom Schedule.
 */
     
 
@@ -112,10 +115,164 @@ public class Schedule implements java.io.Serializable
     /** The Schedule's queue. */
     protected Heap queue = createHeap();
     
+    // if > 0, createHeap() builds a CalendarQueue with this many buckets
+    int calendarBuckets = 0;
+    double calendarBucketWidth = CalendarQueue.DEFAULT_BUCKET_WIDTH;
+    
     /** Returns a Heap to be used by the Schedule.  By default, returns a
-        binary heap.  Override this to provide your own
+        binary heap, or a CalendarQueue if you have called setCalendarQueue(...).  Override this to provide your own
         subclass of Heap tuned for your particular problem. */
-    protected Heap createHeap() { return new Heap(); }
+    protected Heap createHeap() 
+        {
+        if (calendarBuckets > 0) return new CalendarQueue(calendarBuckets, calendarBucketWidth);
+        return new Heap(); 
+        }
+    
+    /** Sets the Schedule to use a CalendarQueue, with the given number of buckets and bucket width, rather than
+        a binary heap.  This is much faster for models which schedule most of their events densely at regular times
+        (typically integer timesteps, where a bucket width of 1.0 is appropriate).  Pass in 0 buckets to revert to the
+        binary heap.  Any events presently in the schedule are moved to the new queue.  The setting persists
+        across reset().  See CalendarQueue for more information. */
+    public void setCalendarQueue(int numBuckets, double bucketWidth)
+        {
+        if (numBuckets < 0)
+            throw new IllegalArgumentException("Number of buckets may not be negative: " + numBuckets);
+        synchronized(lock)
+            {
+            calendarBuckets = numBuckets;
+            calendarBucketWidth = bucketWidth;
+            Heap old = queue;
+            queue = createHeap();
+            Comparable[] keys = old.getKeys();
+            Object[] objs = old.getObjects();
+            for(int i = 0; i < keys.length; i++)
+                queue.add(objs[i], keys[i]);
+            }
+        }
+    
+    /** Returns true if the Schedule is using a CalendarQueue (see setCalendarQueue(...)). */
+    public boolean isCalendarQueue()
+        {
+        synchronized(lock)
+            {
+            return calendarBuckets > 0;
+            }
+        }
+
+    // should repeating steppables be gathered into Rosters?
+    boolean usesRosters = false;
+    
+    // the Rosters presently in the queue, which new repeating steppables may join
+    Bag rosters = new Bag();
+    
+    // true if any Roster has been put in the queue since the last reset, so step() must check for them
+    boolean hasRosters = false;
+    
+    /** Sets the Schedule to gather repeating Steppables into <i>rosters</i> (or not, the default).
+        A roster is a single entry in the queue which stands in for all of the Steppables repeating
+        at the same interval, ordering, and next time.  When the roster comes up, step() expands it into its members
+        (which are then shuffled along with everything else scheduled at that time and ordering) and reschedules the roster once,
+        rather than rescheduling each member individually.  This can dramatically reduce the load on the queue
+        for models which schedule most of their agents with scheduleRepeating(...).  Stopping a member is O(1).
+        
+        <p>The semantics are the same as ordinary repeating, but because the queue sees a different set of objects,
+        the shuffled order of Steppables will differ from a run with rosters turned off.  This setting only affects Steppables scheduled
+        repeating after it is made, so you should set it before scheduling anything, typically in your SimState's constructor.
+        The setting persists across reset(). */
+    public void setUsesRosters(boolean val)
+        {
+        synchronized(lock)
+            {
+            usesRosters = val;
+            }
+        }
+        
+    /** Returns true if repeating Steppables are gathered into rosters.  See setUsesRosters(...). */
+    public boolean getUsesRosters()
+        {
+        synchronized(lock)
+            {
+            return usesRosters;
+            }
+        }
+
+    // number of threads to step each ordering with, or 0 or 1 to step sequentially
+    int parallelThreads = 0;
+    
+    // one random number generator per block, derived from the SimState's seed the first time they're needed after a reset
+    MersenneTwisterFast[] parallelRandoms = null;
+    
+    // the family of random streams used by the blocks, so they don't collide with SimState.getRandomStream(...)
+    static final int PARALLEL_RANDOM_FAMILY = 1;
+    
+    // the pool and the Block each thread is working on are rebuilt as needed and not serialized
+    transient ForkJoinPool parallelPool = null;
+    transient ThreadLocal currentBlock = null;
+    
+    // the start index in currentSteps of each ordering at the current time
+    IntBag tiers = new IntBag();
+    
+    /** Sets the number of threads which the Schedule uses to step Steppables scheduled for the same time and ordering.
+        By default this is 0, meaning that all Steppables are stepped sequentially in the Schedule's thread.
+        
+        <p>If the value is greater than 1, then each time the Schedule steps, it gathers and shuffles the Steppables
+        as usual, then for each ordering in turn, splits the Steppables of that ordering into this many contiguous blocks
+        and steps the blocks in parallel.  It waits for all the Steppables of one ordering to finish before starting the
+        next ordering.  The Steppables stepped by addBefore(...) and addAfter(...) are still stepped sequentially.
+        
+        <p>Since Steppables with the same time and ordering are already stepped in an arbitrary order, this does not change
+        the semantics of your model, so long as those Steppables don't interfere with one another.  But that is a big if.
+        No synchronization is done on your model data.  In particular, state.random is unsynchronized.  Instead of using it, 
+        Steppables should call <b>getRandom(state)</b>, which returns a random number generator dedicated to the block
+        being stepped.  These generators are derived deterministically from the SimState's seed, in the same way as, but distinct from, 
+        the streams returned by SimState.getRandomStream(...).  Furthermore, anything the Steppables 
+        schedule (or stop, if they're in rosters) while being stepped in parallel is held back and entered into the Schedule in block order
+        once the ordering has finished.  Thus a given model with a given seed and number of
+        threads will produce the same results every time, regardless of how the operating system schedules the threads.
+        If you change the number of threads, you will get different (but equally valid) results.
+        
+        <p>You should set this before your simulation starts, typically in your SimState's constructor.  The setting persists across reset().
+    */
+    public void setParallelThreads(int val)
+        {
+        if (val < 0)
+            throw new IllegalArgumentException("Number of threads may not be negative: " + val);
+        synchronized(lock)
+            {
+            parallelThreads = val;
+            parallelRandoms = null;
+            if (parallelPool != null) parallelPool.shutdown();
+            parallelPool = null;
+            }
+        }
+                
+    /** Returns the number of threads which the Schedule uses to step Steppables scheduled for the same time and ordering.
+        See setParallelThreads(...). */
+    public int getParallelThreads()
+        {
+        synchronized(lock)
+            {
+            return parallelThreads;
+            }
+        }
+        
+    /** Returns the random number generator which a Steppable should use in the current thread.  If the Steppable is being
+        stepped by the Schedule in parallel (see setParallelThreads(...)), this is the generator dedicated to the Steppable's block.
+        Otherwise it's simply state.random. */
+    public MersenneTwisterFast getRandom(SimState state)
+        {
+        Block block = currentBlock();
+        if (block != null) return block.random;
+        return state.random;
+        }
+        
+    /** Returns the Block the current thread is stepping, or null if it isn't stepping one. */
+    Block currentBlock()
+        {
+        ThreadLocal currentBlock = this.currentBlock;
+        if (currentBlock == null) return null;
+        return (Block)(currentBlock.get());
+        }
     
     /** The current time, as returned by getTime().  
         If you modify this in a subclass, be sure to synchronize on Schedule.lock first. */
@@ -209,6 +366,7 @@ public class Schedule implements java.io.Serializable
             {
             time = AFTER_SIMULATION;
             queue = createHeap();  // let 'em GC  -- must be inside the lock so scheduleOnce doesn't try to add more
+            rosters = new Bag();
             }
         }
 
@@ -221,6 +379,7 @@ public class Schedule implements java.io.Serializable
         synchronized(lock)
             {
             queue = createHeap();  // let 'em GC  -- must be inside the lock so scheduleOnce doesn't try to add more
+            rosters = new Bag();
             }
         }
 
@@ -236,14 +395,18 @@ public class Schedule implements java.io.Serializable
         }
 
     /** Empties out the schedule and resets it to a pristine state BEFORE_SIMULATION, with steps = 0.  If you're
-        looking for a way to kill your simulation from a Steppable, use SimState.kill() instead.  */
+        looking for a way to kill your simulation from a Steppable, use SimState.kill() instead.  The queue is emptied
+        rather than replaced, so a Schedule which is reset and refilled over and over (as in a ParameterSweep) keeps its storage.  */
     public void reset()
         {
         synchronized(lock)
             {
             time = BEFORE_SIMULATION;
             steps = 0;
-            queue = createHeap();  // let 'em GC  -- must be inside the lock so scheduleOnce doesn't try to add more
+            queue.clear();  // keep the storage -- must be inside the lock so scheduleOnce doesn't try to add more
+            rosters.clear();
+            hasRosters = false;
+            parallelRandoms = null;
             sealed = false;
             }
         }
@@ -276,6 +439,7 @@ public class Schedule implements java.io.Serializable
             }
         
         queue = queue.merge(other.queue);
+        if (other.hasRosters) hasRosters = true;  // we don't let other rosters be joined, but we must still expand them
         }
         
     /** Called in SimState.finish() to clear the beforeSteps and afterSteps Bags.  
@@ -336,6 +500,7 @@ public class Schedule implements java.io.Serializable
             time = ((Key)(queue.getMinKey())).time;  // key shouldn't be able to be null; time should always be one bigger
 
             final boolean shuffling = this.shuffling; // locals are faster.  This one needs to be synchronized inside lock
+            final boolean parallel = (parallelThreads > 1);
 
             // grab all of the steppables in the right order.  To do this, we employ two Bags:
             // 1. Each iteration of the while-loop, we grab all the steppables of the next ordering, put into the substeps Bag
@@ -348,6 +513,9 @@ public class Schedule implements java.io.Serializable
                 // Suck out the contents of the next ordering
                 queue.extractMin(substeps);  // come out in reverse order
 
+                // replace any rosters with their members
+                if (hasRosters) expandRosters(substeps);
+
                 // shuffle
                 if (substeps.numObjs > 1) 
                     {
@@ -356,6 +524,7 @@ public class Schedule implements java.io.Serializable
                     }
                                                                 
                 // dump
+                if (parallel) tiers.add(currentSteps.numObjs);  // remember where this ordering starts
                 if (topSubstep < substeps.numObjs) topSubstep = substeps.numObjs;  // remember index of largest substep since we're violating clear()
                 currentSteps.addAll(substeps);
                 substeps.numObjs = 0;  // temporarily clear
@@ -382,7 +551,9 @@ public class Schedule implements java.io.Serializable
                 
         try
             {
-            for(int x=0;x<len;x++)  // if we're not being killed...
+            if (tiers.numObjs > 0)
+                stepParallel(state, objs, len);
+            else for(int x=0;x<len;x++)  // if we're not being killed...
                 {
                 assert sim.util.LocationLog.set(((Steppable)(objs[x])));
                 ((Steppable)(objs[x])).step(state);
@@ -395,6 +566,7 @@ public class Schedule implements java.io.Serializable
             {
             // reuse currentSteps -- all objects should have been released to gc already, no need to call clear()
             currentSteps.numObjs = 0;
+            tiers.numObjs = 0;
                 
             synchronized(lock) { steps++; }
             inStep = false;
@@ -409,6 +581,137 @@ public class Schedule implements java.io.Serializable
         return true;
         }
         
+    /** Steps each ordering's worth of the Steppables in objs[0...len-1] in parallel, one ordering after another.
+        The orderings start at the indices given in tiers. */
+    void stepParallel(final SimState state, final Object[] objs, final int len)
+        {
+        final int numThreads;
+        MersenneTwisterFast[] randoms;
+        ForkJoinPool pool;
+        synchronized(lock)
+            {
+            numThreads = parallelThreads;
+            if (parallelRandoms == null || parallelRandoms.length != numThreads)
+                {
+                // derive one generator per block
+                parallelRandoms = new MersenneTwisterFast[numThreads];
+                for(int i = 0; i < numThreads; i++)
+                    parallelRandoms[i] = SimState.createRandomStream(state.seed, PARALLEL_RANDOM_FAMILY, i);
+                }
+            randoms = parallelRandoms;
+            if (parallelPool == null) 
+                parallelPool = new ForkJoinPool(numThreads);
+            pool = parallelPool;
+            if (currentBlock == null)
+                currentBlock = new ThreadLocal();
+            }
+                
+        int numTiers = tiers.numObjs;
+        int[] t = tiers.objs;
+        for(int i = 0; i < numTiers; i++)
+            {
+            int start = t[i];
+            int end = (i + 1 < numTiers ? t[i + 1] : len);
+            int size = end - start;
+            if (size == 0) continue;
+
+            Block[] blocks = new Block[numThreads];
+            for(int b = 0; b < numThreads; b++)
+                blocks[b] = new Block(state, objs, start + (int)(((long)size * b) / numThreads), 
+                    start + (int)(((long)size * (b + 1)) / numThreads), randoms[b]);
+            
+            if (size < numThreads * 2)  // not worth the trouble of parallelizing, but we still use the block generators
+                for(int b = 0; b < numThreads; b++) blocks[b].compute();
+            else pool.invoke(new Tier(blocks));
+            
+            // enter everything the blocks scheduled, in block order
+            synchronized(lock)
+                {
+                for(int b = 0; b < numThreads; b++)
+                    blocks[b].commit();
+                }
+            }
+        }
+        
+    /** Invokes all the blocks of an ordering and waits for them to finish. */
+    static class Tier extends RecursiveAction
+        {
+        private static final long serialVersionUID = 1;
+        Block[] blocks;
+        Tier(Block[] blocks) { this.blocks = blocks; }
+        protected void compute() { invokeAll(blocks); }
+        }
+        
+    // markers for deferred roster operations in a Block
+    static final Object JOIN_ROSTER = "JOIN_ROSTER";
+    static final Object LEAVE_ROSTER = "LEAVE_ROSTER";
+        
+    /** Steps a contiguous block of the Steppables of an ordering, using the block's dedicated random number generator.
+        Anything scheduled while the block is stepping is deferred until commit(). */
+    class Block extends RecursiveAction
+        {
+        private static final long serialVersionUID = 1;
+        SimState state;
+        Object[] objs;
+        int start;
+        int end;
+        MersenneTwisterFast random;
+        Bag deferred = null;  // pairs of (Key or JOIN_ROSTER or LEAVE_ROSTER, Steppable)
+        
+        void defer(Object op, Steppable event)
+            {
+            if (deferred == null) deferred = new Bag();
+            deferred.add(op);
+            deferred.add(event);
+            }
+                
+        // You must synchronize on lock before calling this method
+        void commit()
+            {
+            if (deferred == null) return;
+            Object[] d = deferred.objs;
+            int len = deferred.numObjs;
+            for(int i = 0; i < len; i += 2)
+                {
+                Object op = d[i];
+                if (op == JOIN_ROSTER) _scheduleInRoster((IterativeRepeat)(d[i + 1]));
+                else if (op == LEAVE_ROSTER) _leaveRoster((IterativeRepeat)(d[i + 1]));
+                else if (!sealed && time < AFTER_SIMULATION) queue.add(d[i + 1], (Key)op);
+                }
+            deferred = null;
+            }
+                
+        Block(SimState state, Object[] objs, int start, int end, MersenneTwisterFast random)
+            {
+            this.state = state;
+            this.objs = objs;
+            this.start = start;
+            this.end = end;
+            this.random = random;
+            }
+                        
+        protected void compute()
+            {
+            Object[] objs = this.objs;
+            ThreadLocal currentBlock = Schedule.this.currentBlock;
+            currentBlock.set(this);
+            try
+                {
+                for(int x = start; x < end; x++)
+                    {
+                    assert sim.util.LocationLog.set(((Steppable)(objs[x])));
+                    ((Steppable)(objs[x])).step(state);
+                    assert sim.util.LocationLog.clear();
+                    objs[x] = null;  // let gc even if being killed
+                    }
+                }
+            finally
+                {
+                currentBlock.set(null);
+                }
+            }
+        }
+        
     /** Schedules the event to occur at getTime() + 1.0, 0 ordering. If this is a valid time
         and event, schedules the event and returns TRUE.
         This method at present returns FALSE if the schedule cannot
@@ -559,6 +862,16 @@ public class Schedule implements java.io.Serializable
         else if (event == null)
             throw new IllegalArgumentException("The provided Steppable is null");
         
+        if (currentBlock != null)
+            {
+            Block block = currentBlock();
+            if (block != null)  // we're being called by a Steppable which is being stepped in parallel
+                {
+                block.defer(key, event);
+                return true;
+                }
+            }
+                        
         queue.add(event, key);
         
         return true;
@@ -729,11 +1042,158 @@ public class Schedule implements java.io.Serializable
 
         synchronized(lock)
             {
+            if (usesRosters) 
+                {
+                if (currentBlock != null)
+                    {
+                    Block block = currentBlock();
+                    if (block != null)  // we're being called by a Steppable which is being stepped in parallel
+                        {
+                        if (sealed || time >= AFTER_SIMULATION) return null;
+                        block.defer(JOIN_ROSTER, r);
+                        return r;
+                        }
+                    }
+                return _scheduleInRoster(r);
+                }
             if (_scheduleOnce(r.getKey(),r)) return r;
             else return null;
             }
         }
 
+    /** Adds an IterativeRepeat to the Roster with its time, ordering, and interval, creating and
+        scheduling a new Roster if there is none.  You must synchronize on this.lock before calling this method. */
+    IterativeRepeat _scheduleInRoster(IterativeRepeat r)
+        {
+        Key key = r.getKey();
+        
+        // _scheduleOnce may bump the time by epsilon, so we have to do the same before looking for a matching Roster
+        double t = key.time;
+        if (t == time && t != AFTER_SIMULATION)
+            t = Math.nextUp(t);
+                
+        Object[] objs = rosters.objs;
+        int len = rosters.numObjs;
+        for(int i = 0; i < len; i++)
+            {
+            Roster roster = (Roster)(objs[i]);
+            if (roster.key.time == t && roster.key.ordering == key.ordering && roster.interval == r.interval)
+                {
+                roster.add(r);
+                return r;
+                }
+            }
+                
+        // make a new roster
+        Roster roster = new Roster(key.time, key.ordering, r.interval, this);
+        if (!_scheduleOnce(roster.key, roster)) return null;
+        hasRosters = true;
+        rosters.add(roster);
+        roster.add(r);
+        return r;
+        }
+        
+    /** Removes a stopped IterativeRepeat from its Roster, or defers doing so if we're stepping in parallel.
+        You must synchronize on this.lock before calling this method. */
+    void _leaveRoster(IterativeRepeat r)
+        {
+        if (currentBlock != null)
+            {
+            Block block = currentBlock();
+            if (block != null)  // we're being called by a Steppable which is being stepped in parallel
+                {
+                block.defer(LEAVE_ROSTER, r);
+                return;
+                }
+            }
+        r.roster.remove(r);
+        }
+
+    /** Replaces each Roster in the given Bag with its members, and reschedules the Roster.  
+        You must synchronize on this.lock before calling this method. */
+    void expandRosters(Bag substeps)
+        {
+        // we go backwards so the elements swapped in by remove(...) have already been checked
+        for(int i = substeps.numObjs - 1; i >= 0; i--)
+            {
+            Object obj = substeps.objs[i];
+            if (obj instanceof Roster)
+                {
+                Roster roster = (Roster)obj;
+                substeps.remove(i);
+                substeps.addAll(roster.members);
+                
+                // reschedule, reusing the Key
+                roster.key.time += roster.interval;
+                if (roster.members.numObjs == 0 || 
+                    roster.key.time >= AFTER_SIMULATION ||
+                    !_scheduleOnce(roster.key, roster))
+                    {
+                    rosters.remove(roster);
+                    roster.release();
+                    }
+                }
+            }
+        }
+
+    /** A Roster holds all the IterativeRepeats which share a time, ordering, and interval.  It's scheduled
+        in the queue in their stead.  See setUsesRosters(...). */
+    static class Roster implements Steppable
+        {
+        private static final long serialVersionUID = 1;
+
+        Key key;
+        double interval;
+        Bag members = new Bag();
+        Schedule schedule;
+                
+        Roster(double time, int ordering, double interval, Schedule schedule)
+            {
+            this.key = new Key(time, ordering);
+            this.interval = interval;
+            this.schedule = schedule;
+            }
+                
+        // You must synchronize on schedule.lock before calling this method
+        void add(IterativeRepeat r)
+            {
+            r.key = key;  // share my Key, so the member's getTime() is correct
+            r.roster = this;
+            r.rosterIndex = members.numObjs;
+            members.add(r);
+            }
+
+        // Removes the IterativeRepeat in O(1) by moving my last member into its slot.
+        // You must synchronize on schedule.lock before calling this method
+        void remove(IterativeRepeat r)
+            {
+            int index = r.rosterIndex;
+            if (index >= members.numObjs || members.objs[index] != r) return;  // already released
+            members.remove(index);
+            if (index < members.numObjs)
+                ((IterativeRepeat)(members.objs[index])).rosterIndex = index;
+            }
+                
+        // Lets go of all members once I've dropped out of the schedule.  They still
+        // point to me, so they won't try to reschedule themselves.
+        // You must synchronize on schedule.lock before calling this method
+        void release()
+            {
+            members.clear();
+            }
+                
+        // Normally a Roster is expanded by the Schedule and never stepped.  This is just in case.
+        public void step(SimState state)
+            {
+            Bag m;
+            synchronized(schedule.lock) { m = new Bag(members); }
+            for(int i = 0; i < m.numObjs; i++)
+                ((Steppable)(m.objs[i])).step(state);
+            }
+        
+        public String toString() { return "Schedule.Roster[" + members.numObjs + " at " + key.time + ", " + key.ordering + "]"; }
+        }
+
     /** Timestamps stored as keys in the heap.  Comps are comparable by their time first, and their ordering second. */
     protected static class Key implements Comparable, Serializable
         {
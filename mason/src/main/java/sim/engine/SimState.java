@@ -6,6 +6,7 @@
 package sim.engine;
 import ec.util.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
 import java.util.zip.*;
 import java.text.*;
@@ -19,6 +20,10 @@ import java.lang.reflect.*;
 
     <p>SimStates are serializable; if you wish to be able to checkpoint your simulation and read from checkpoints, you should endeavor to make all objects in the simulation serializable as well.  Prior to serializing to a checkpoint, preCheckpoint() is called.  Then after serialization, postCheckpoint() is called.  When a SimState is loaded from a checkpoint, awakeFromCheckpoint() is called to give you a chance to make any adjustments.  SimState also implements several methods which call these methods and then serialize the SimState to files and to streams.
 
+    <p>The random number generator is not synchronized.  If your agents run in multiple threads, rather than locking on it
+    they can each draw from their own <i>random stream</i>, a generator obtained by calling getRandomStream(index).  Each stream is
+    derived deterministically from the seed and the index, so runs remain reproducible regardless of how the threads are scheduled.
+
     <p>SimState also maintains a private registry of AsynchronousSteppable objects, and handles pausing and resuming
     them during the checkpointing process, and killing them during finish() in case they had not completed yet.
 
@@ -41,6 +46,13 @@ public class SimState implements java.io.Serializable
     Object asynchronousLock = new boolean[1];  // an array is a unique, serializable object
     // Are we cleaning house and replacing the HashSet?
     boolean cleaningAsynchronous = false;
+    
+    // Random streams built so far, indexed by stream number, so they can be read without locking.  Slots are filled in place, 
+    // so it's an AtomicReferenceArray, which publishes each new stream safely.  It's replaced by a larger one, grown geometrically,
+    // only while holding randomStreamsLock.
+    volatile AtomicReferenceArray randomStreams = new AtomicReferenceArray(0);
+    // Lock for building random streams
+    Object randomStreamsLock = new boolean[1];  // an array is a unique, serializable object
         
     SimState(long seed, MersenneTwisterFast random, Schedule schedule)
         {
@@ -88,6 +100,93 @@ public class SimState implements java.io.Serializable
         seed = (int) seed;  // force to 32 bits since that's what MTF will be using anyway
         random = new MersenneTwisterFast(seed);
         this.seed = seed;
+        resetRandomStreams();
+        }
+        
+    /** Returns random stream number <i>index</i> (which must be >= 0), creating it if necessary.  
+        A random stream is an independent random number generator, seeded from a combination of the SimState's 
+        seed and the index, and primed.  It does not draw anything from the SimState's main random number generator.
+        Thus a given stream produces the same sequence of numbers for a given seed no matter when, or from what thread, it was
+        first requested, and independent of anything else going on in the model.
+        
+        <p>Random streams are meant for multithreaded models: give each worker thread (or each agent) its own stream, by 
+        index, and it can draw random numbers without locking on the main generator.  A stream is no more synchronized than 
+        the main generator is, so you must not use the same stream from two threads at once.  Once created, fetching a stream 
+        does not lock.
+        
+        <p>Random streams are checkpointed along with the SimState.  They are discarded and rebuilt from scratch by start() and 
+        setSeed(...).  Note that if you constructed the SimState with your own random number generator rather than a seed, 
+        the seed is a bogus value (0), and so all such SimStates will have the same streams.  */
+    public MersenneTwisterFast getRandomStream(int index)
+        {
+        if (index < 0)
+            throw new IllegalArgumentException("Random stream index must be >= 0: " + index);
+        AtomicReferenceArray streams = randomStreams;
+        if (index < streams.length())
+            {
+            MersenneTwisterFast stream = (MersenneTwisterFast)(streams.get(index));
+            if (stream != null) return stream;
+            }
+            
+        synchronized(randomStreamsLock)
+            {
+            streams = randomStreams;
+            if (index >= streams.length())
+                {
+                // grow geometrically, so creating streams one by one doesn't copy the array each time
+                streams = copyRandomStreams(streams, Math.max(index + 1, streams.length() * 2));
+                randomStreams = streams;
+                }
+            MersenneTwisterFast stream = (MersenneTwisterFast)(streams.get(index));
+            if (stream == null)  // else someone beat us to it
+                {
+                stream = createRandomStream(seed, 0, index);
+                streams.set(index, stream);
+                }
+            return stream;
+            }
+        }
+        
+    /** Creates random streams 0 through num-1 in one go if they don't already exist, so they may be fetched later without
+        ever having to lock.  */
+    public void buildRandomStreams(int num)
+        {
+        if (num <= 0) return;
+        synchronized(randomStreamsLock)
+            {
+            // fill a new array completely, then publish it once
+            AtomicReferenceArray streams = copyRandomStreams(randomStreams, Math.max(num, randomStreams.length()));
+            for(int i = 0; i < num; i++)
+                if (streams.get(i) == null)
+                    streams.set(i, createRandomStream(seed, 0, i));
+            randomStreams = streams;
+            }
+        }
+        
+    static AtomicReferenceArray copyRandomStreams(AtomicReferenceArray streams, int length)
+        {
+        AtomicReferenceArray newStreams = new AtomicReferenceArray(length);
+        for(int i = 0; i < streams.length(); i++)
+            newStreams.set(i, streams.get(i));
+        return newStreams;
+        }
+        
+    /** Discards all random streams so they will be rebuilt from the seed when next requested. */
+    void resetRandomStreams()
+        {
+        synchronized(randomStreamsLock)
+            {
+            randomStreams = new AtomicReferenceArray(0);
+            }
+        }
+
+    /** Builds and primes a generator from the given seed, family, and index.  Different families let different parts
+        of MASON (such as the Schedule when it steps in parallel) have their own streams which don't collide with getRandomStream(...). */
+    static MersenneTwisterFast createRandomStream(long seed, int family, int index)
+        {
+        // MersenneTwisterFast's array seeding mixes all of these words into its state, so streams differing only in 
+        // family or index are unrelated to one another and to new MersenneTwisterFast(seed)
+        return primeGenerator(new MersenneTwisterFast(new int[] { (int) seed, (int)(seed >>> 32), family, index, 0x6A09E667 }));
         }
                 
     /** Primes the generator.  Mersenne Twister seeds its first 624 numbers using a basic
@@ -103,6 +202,22 @@ public class SimState implements java.io.Serializable
         return generator;
         }
 
+    /** Prepares the SimState to be run again from scratch with a new seed, reusing what it can from its last run.
+        start() is called immediately afterwards.  ParameterSweep calls this between jobs when it reuses a SimState (the
+        default): thousands of short jobs can then spend their time running rather than allocating.  The default version
+        just sets the seed (see setSeed(...)).  The Schedule keeps its storage when start() resets it.
+        
+        <p>To reuse your fields, have start() reset those it built last time rather than build new ones, for example
+        <tt>if (yard == null) yard = new Continuous2D(1.0, 100, 100); else yard.reset();</tt>.  Continuous2D, SparseGrid2D,
+        DoubleGrid2D, IntGrid2D, ObjectGrid2D, Network, and others have reset() methods which empty them but keep their storage.
+        This works whether or not reset(...) was called, as when the GUI restarts a model.  Override this method for
+        anything which only makes sense between sweep jobs, such as setting aside agents to be reinitialized and reused
+        by the next start().  If you do, call super.reset(seed). */
+    public void reset(long seed)
+        {
+        setSeed(seed);
+        }
+
     /** Called immediately prior to starting the simulation, or in-between
         simulation runs.  This gives you a chance to set up initially,
         or reset from the last simulation run. The default version simply
@@ -111,6 +226,8 @@ public class SimState implements java.io.Serializable
         {
         // prime the generator so it's got better statistial properties
         random = primeGenerator(random);
+        // rebuild random streams as needed
+        resetRandomStreams();
         // just in case
         cleanupAsynchronous();
         // reset schedule
@@ -241,25 +358,59 @@ public class SimState implements java.io.Serializable
         for(int x=0;x<len;x++) b[x].resume(true);
         }
 
+    /** Checkpoints are written with Java serialization through a GZIPOutputStream (the default). */
+    public static final int CHECKPOINT_FORMAT_GZIP = 0;
+    /** Checkpoints are written to a sim.util.CheckpointOutputStream, compressed quickly in parallel chunks. */
+    public static final int CHECKPOINT_FORMAT_FAST = 1;
+    /** Checkpoints are written to a sim.util.CheckpointOutputStream, without compression. */
+    public static final int CHECKPOINT_FORMAT_UNCOMPRESSED = 2;
+
+    // how we write checkpoints.  This isn't part of the state of the model, so it's transient.
+    transient int checkpointFormat = CHECKPOINT_FORMAT_GZIP;
+
+    /** Returns how checkpoints are written: CHECKPOINT_FORMAT_GZIP (the default), CHECKPOINT_FORMAT_FAST, or CHECKPOINT_FORMAT_UNCOMPRESSED. */
+    public int getCheckpointFormat() { return checkpointFormat; }
+
+    /** Sets how checkpoints are written: CHECKPOINT_FORMAT_GZIP (the default), CHECKPOINT_FORMAT_FAST, or CHECKPOINT_FORMAT_UNCOMPRESSED.
+        The fast formats are much quicker for large simulations (see sim.util.CheckpointOutputStream), but can't be read by versions
+        of MASON which predate them.  readFromCheckpoint(...) reads all the formats.  The setting is not itself checkpointed. */
+    public void setCheckpointFormat(int format)
+        {
+        if (format < CHECKPOINT_FORMAT_GZIP || format > CHECKPOINT_FORMAT_UNCOMPRESSED)
+            throw new IllegalArgumentException("Unknown checkpoint format " + format);
+        checkpointFormat = format;
+        }
+
     /** Serializes out the SimState, and the entire simulation state (not including the graphical interfaces)
-        to the provided stream. Calls preCheckpoint() before and postCheckpoint() afterwards.
-        Throws an IOException if the stream becomes invalid (prematurely closes, etc.).  Does not close or flush
+        to the provided stream, in the format given by getCheckpointFormat(). Calls preCheckpoint() before and postCheckpoint() afterwards.
+        Throws an IOException if the stream becomes invalid (prematurely closes, etc.).  Does not close
         the stream. */
     public void writeToCheckpoint(OutputStream stream) throws IOException
         {
         preCheckpoint();
 
-        GZIPOutputStream g = 
-            new GZIPOutputStream(
-                new BufferedOutputStream(stream));
+        if (checkpointFormat != CHECKPOINT_FORMAT_GZIP)
+            {
+            sim.util.CheckpointOutputStream s = 
+                new sim.util.CheckpointOutputStream(stream, 
+                    checkpointFormat == CHECKPOINT_FORMAT_FAST ? Deflater.BEST_SPEED : Deflater.NO_COMPRESSION, null);
+            s.writeObject(this);
+            s.finish();
+            }
+        else
+            {
+            GZIPOutputStream g = 
+                new GZIPOutputStream(
+                    new BufferedOutputStream(stream));
 
-        ObjectOutputStream s = 
-            new ObjectOutputStream(g);
+            ObjectOutputStream s = 
+                new ObjectOutputStream(g);
             
-        s.writeObject(this);
-        s.flush();
-        g.finish();  // need to force out the gzip stream AND manually flush it.  Java's annoying.  Took a while to find this bug...
-        g.flush();
+            s.writeObject(this);
+            s.flush();
+            g.finish();  // need to force out the gzip stream AND manually flush it.  Java's annoying.  Took a while to find this bug...
+            g.flush();
+            }
         postCheckpoint();
         }
     
@@ -282,10 +433,13 @@ public class SimState implements java.io.Serializable
             }
         }
     
-    /** Creates a SimState from checkpoint.  If an exception is raised, it is printed and null is returned. */
+    /** Creates a SimState from checkpoint, which may also be a delta checkpoint written by a DeltaCheckpointer.
+        If an exception is raised, it is printed and null is returned. */
     public static SimState readFromCheckpoint(File file)
         {
         try {
+            if (DeltaCheckpointer.isDelta(file))
+                return DeltaCheckpointer.readFromCheckpoint(file);
             FileInputStream f = new FileInputStream(file);
             SimState state = readFromCheckpoint(f);
             f.close();
@@ -294,7 +448,8 @@ public class SimState implements java.io.Serializable
         catch(Exception e) { e.printStackTrace(); return null; }
         }
 
-    /** Creates and returns a new SimState object read in from the provided stream.  Calls awakeFromCheckpoint().
+    /** Creates and returns a new SimState object read in from the provided stream, in any of the checkpoint formats
+        (see setCheckpointFormat(...)).  Calls awakeFromCheckpoint().
         Throws an IOException if the stream becomes invalid (prematurely closes etc.).  Throws a ClassNotFoundException
         if a serialized object is not found in the CLASSPATH and thus cannot be created.  Throws an OptionalDataException
         if the stream is corrupted.  Throws a ClassCastException if the top-level object is not actually a SimState.
@@ -302,10 +457,12 @@ public class SimState implements java.io.Serializable
     public static SimState readFromCheckpoint(InputStream stream)
         throws IOException, ClassNotFoundException, OptionalDataException, ClassCastException
         {
+        BufferedInputStream b = new BufferedInputStream(stream);
         ObjectInputStream s = 
+            sim.util.CheckpointInputStream.isCheckpoint(b) ?
+            new sim.util.CheckpointInputStream(b) :
             new ObjectInputStream(
-                new GZIPInputStream (
-                    new BufferedInputStream(stream)));
+                new GZIPInputStream (b));
         SimState state = (SimState) (s.readObject());
         state.awakeFromCheckpoint();
         return state;
@@ -434,7 +591,9 @@ public class SimState implements java.io.Serializable
                 "Format:           java " + generator.simulationClass().getName() + " \\\n" +
                 "                       [-help] [-repeat R] [-parallel P] [-seed S] \\\n" +
                 "                       [-until U] [-for F] [-time T] [-docheckpoint D] \\\n" +
-                "                       [-checkpointname N] [-checkpoint C] [-quiet] \n\n" +
+                "                       [-checkpointname N] [-checkpointformat F] \\\n" +
+                "                       [-asynccheckpoint S] [-deltacheckpoint K] \\\n" +
+                "                       [-checkpoint C] [-quiet] \n\n" +
                 "-help             Shows this message and exits.\n\n" +
                 "-repeat R         Long value > 0: Runs R jobs.  Unless overridden by a\n" +
                 "                  checkpoint recovery (see -checkpoint), the random seed for\n" +
@@ -474,6 +633,23 @@ public class SimState implements java.io.Serializable
                 "                  Default: " + 
                 generator.simulationClass().getName().substring(generator.simulationClass().getName().lastIndexOf(".") + 1) + 
                 "\n\n" + 
+                "-checkpointformat F\n" +
+                "                  String: how to write checkpoints (see -docheckpoint): gzip,\n" +
+                "                  fast (quickly compressed in parallel), or uncompressed.\n" +
+                "                  Checkpoints in any format can be loaded with -checkpoint.\n" +
+                "                  Default: gzip\n\n" +
+                "-asynccheckpoint S\n" +
+                "                  Int value > 0: write checkpoints (see -docheckpoint) in the\n" +
+                "                  background while the simulation continues, holding at most\n" +
+                "                  S uncompressed snapshots of the simulation in memory at once.\n" +
+                "                  Default: the simulation waits while each checkpoint is written.\n\n" +
+                "-deltacheckpoint K\n" +
+                "                  Int value >= 0: after each full checkpoint (see -docheckpoint),\n" +
+                "                  write up to K delta checkpoints holding only the changes since\n" +
+                "                  the checkpoint before.  Loading a delta with -checkpoint needs\n" +
+                "                  the checkpoints before it, back to the last full one.  Cannot\n" +
+                "                  be combined with -asynccheckpoint or a gzip -checkpointformat.\n" +
+                "                  Default: every checkpoint is a full one.\n\n" +
                 "-checkpoint C     String: loads the simulation from file C, recovering the job\n" +
                 "                  number and the seed.  If the checkpointed simulation was begun\n" +
                 "                  on the command line but was passed through the GUI for a while\n" +
@@ -557,6 +733,17 @@ public class SimState implements java.io.Serializable
         
         final String checkpointName = argumentForKey("-checkpointname", args);
 
+        int _cformat = CHECKPOINT_FORMAT_GZIP;
+        String cformat_s = argumentForKey("-checkpointformat", args);
+        if (cformat_s != null)
+            {
+            if (cformat_s.equalsIgnoreCase("gzip")) _cformat = CHECKPOINT_FORMAT_GZIP;
+            else if (cformat_s.equalsIgnoreCase("fast")) _cformat = CHECKPOINT_FORMAT_FAST;
+            else if (cformat_s.equalsIgnoreCase("uncompressed")) _cformat = CHECKPOINT_FORMAT_UNCOMPRESSED;
+            else throw new RuntimeException("Invalid checkpoint format: " + cformat_s + ", must be gzip, fast, or uncompressed");
+            }
+        final int cformat = _cformat;
+
         long _cmod = 0;
         String cmod_s = argumentForKey("-docheckpoint", args);
         if (cmod_s != null)
@@ -570,6 +757,38 @@ public class SimState implements java.io.Serializable
                 throw new RuntimeException("Invalid checkpoint modulo: " + cmod_s + ", must be a positive integer");
                 }
         final long cmod = _cmod;
+
+        int _asyncCheckpoints = 0;
+        String async_s = argumentForKey("-asynccheckpoint", args);
+        if (async_s != null)
+            try
+                {
+                _asyncCheckpoints = Integer.parseInt(async_s);
+                if (_asyncCheckpoints <= 0) throw new Exception();
+                }
+            catch (Exception e)
+                {
+                throw new RuntimeException("Invalid asynchronous checkpoint value: " + async_s + ", must be a positive integer");
+                }
+        final int asyncCheckpoints = _asyncCheckpoints;
+
+        int _deltaCheckpoints = -1;
+        String delta_s = argumentForKey("-deltacheckpoint", args);
+        if (delta_s != null)
+            try
+                {
+                _deltaCheckpoints = Integer.parseInt(delta_s);
+                if (_deltaCheckpoints < 0) throw new Exception();
+                }
+            catch (Exception e)
+                {
+                throw new RuntimeException("Invalid delta checkpoint value: " + delta_s + ", must be an integer >= 0");
+                }
+        final int deltaCheckpoints = _deltaCheckpoints;
+        if (deltaCheckpoints >= 0 && asyncCheckpoints > 0)
+            throw new RuntimeException("-deltacheckpoint and -asynccheckpoint cannot be used together");
+        if (deltaCheckpoints >= 0 && cformat == CHECKPOINT_FORMAT_GZIP && cformat_s != null)
+            throw new RuntimeException("-deltacheckpoint cannot write gzip checkpoints: use -checkpointformat fast or uncompressed");
         
         long _repeat = 1;
         String repeat_s = argumentForKey("-repeat", args);
@@ -627,6 +846,14 @@ public class SimState implements java.io.Serializable
                     long time = time_init - 1;
                     long job = thread * repeat;
                     long seed = seed_init + job;  // initially anyway
+                    final AsynchronousCheckpointer checkpointer = (asyncCheckpoints > 0 ? new AsynchronousCheckpointer(asyncCheckpoints) : null);
+                    DeltaCheckpointer _deltaCheckpointer = null;
+                    if (deltaCheckpoints >= 0)
+                        {
+                        _deltaCheckpointer = new DeltaCheckpointer();
+                        _deltaCheckpointer.setMaxDeltas(deltaCheckpoints);
+                        }
+                    final DeltaCheckpointer deltaCheckpointer = _deltaCheckpointer;
                     for(long rep = 0 ; rep < repeat; rep++)
                         {
                         SimState state = null;
@@ -662,6 +889,7 @@ public class SimState implements java.io.Serializable
                             if (!quiet) printlnSynchronized("Job: " + state.job() + " Seed: " + state.seed());
                             state.start();
                             }
+                        state.setCheckpointFormat(cformat);
                         
                         NumberFormat rateFormat = NumberFormat.getInstance();
                         rateFormat.setMaximumFractionDigits(5);
@@ -706,10 +934,22 @@ public class SimState implements java.io.Serializable
                                     id = state.getClass().getName().substring(state.getClass().getName().lastIndexOf(".") + 1);
                                 String s = "" + steps + "." + state.job() +  "." + id  + ".checkpoint";
                                 if (!quiet) printlnSynchronized("Job " + job + ": " + "Checkpointing to file: " + s);
-                                state.writeToCheckpoint(new File(s));
+                                if (checkpointer != null)
+                                    {
+                                    try { checkpointer.checkpoint(state, new File(s), null); }
+                                    catch (IOException e) { e.printStackTrace(); }
+                                    }
+                                else if (deltaCheckpointer != null)
+                                    {
+                                    try { deltaCheckpointer.writeToCheckpoint(state, new File(s)); }
+                                    catch (IOException e) { e.printStackTrace(); }
+                                    }
+                                else state.writeToCheckpoint(new File(s));
                                 }
                             }
                                 
+                        if (checkpointer != null) checkpointer.finish();
+                        if (deltaCheckpointer != null) deltaCheckpointer.reset();  // the next job starts its own chain
                         state.finish();
                         
                         if (retval) 
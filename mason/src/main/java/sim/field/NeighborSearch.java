@@ -0,0 +1,474 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field;
+import sim.util.*;
+import java.util.concurrent.*;
+
+/**
+   NeighborSearch answers "for every object, which objects are within distance <i>d</i> of it?" in one pass,
+   rather than by calling a field's neighborhood lookup once per object.  You load it with a snapshot of a
+   field's objects and their locations (typically by calling Continuous2D.loadNeighborSearch(...) or
+   SparseGrid2D.loadNeighborSearch(...)), and then either visit every pair of neighbors with
+   visitPairs(...), or compute every object's neighbors with computeNeighbors(...) and then look them up by
+   object or by index.
+
+   <p>When loaded, the objects are sorted (by a counting sort) into square buckets at least <i>d</i> wide,
+   and their coordinates are kept alongside them in flat arrays.  Each bucket is compared only against itself
+   and four of its eight neighboring buckets (the ones to the right, and the one above), so every pair of objects
+   is considered exactly once and the distance between them is computed only once.  Buckets can be processed
+   in parallel, in vertical stripes, on a ForkJoinPool.
+
+   <p>Distances are either EUCLIDEAN or MAX (Chebyshev, that is, the maximum of the x and y distances, as used by
+   SparseGrid2D's "max distance" lookups), and are inclusive: objects exactly <i>d</i> apart are neighbors.  An
+   object is never its own neighbor.  If the search is toroidal, coordinates must lie within [0, width) and
+   [0, height), and distances are measured the short way around.
+
+   <p>A NeighborSearch holds on to its arrays, so if you reuse it every timestep it will allocate nothing once
+   it has grown large enough.  Neighbor lists are a snapshot: they do not change if objects are later moved in the
+   field.  The neighbors of each object are listed in no particular order.
+*/
+
+public class NeighborSearch implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    public static final int EUCLIDEAN = 0;
+    public static final int MAX = 1;
+
+    /** Called once for each pair of neighbors.  When pairs are visited in parallel, visit(...) may be
+        called from several threads at once. */
+    public interface Visitor
+        {
+        public void visit(Object a, Object b);
+        }
+
+    // staging, filled by add(...)
+    Object[] addedObjects = new Object[0];
+    double[] addedXs = new double[0];
+    double[] addedYs = new double[0];
+    int[] addedBuckets = new int[0];
+
+    // the snapshot, sorted by bucket
+    Object[] objects = new Object[0];
+    double[] xs = new double[0];
+    double[] ys = new double[0];
+    int size;
+    int[] bucketStart = new int[1];  // objects in bucket b are at bucketStart[b] ... bucketStart[b+1]-1
+    int bucketsX;
+    int bucketsY;
+
+    double distance;
+    int metric;
+    boolean toroidal;
+    double width;
+    double height;
+
+    // neighbors of object i are neighbors[neighborStart[i]] ... neighbors[neighborStart[i+1]-1]
+    int[] neighborStart = new int[1];
+    int[] neighbors = new int[0];
+    boolean neighborsComputed;
+    IdentityOpenMap indices;  // built lazily by getIndex(...)
+
+    Stripe[] stripes = new Stripe[0];
+    transient ForkJoinPool pool = null;  // null means the common pool.  Not serialized.
+
+    /** Returns the ForkJoinPool used for parallel searches, or null if the common pool is used. */
+    public ForkJoinPool getForkJoinPool() { return pool; }
+    /** Sets the ForkJoinPool used for parallel searches.  Pass in null to use the common pool (the default). */
+    public void setForkJoinPool(ForkJoinPool pool) { this.pool = pool; }
+
+    /** Empties the NeighborSearch and prepares it for loading with add(...) and then build().  The width and height
+        are only used if the search is toroidal. */
+    public void begin(double distance, int metric, boolean toroidal, double width, double height)
+        {
+        if (metric != EUCLIDEAN && metric != MAX)
+            throw new IllegalArgumentException("Unknown metric " + metric);
+        if (distance < 0 || distance != distance)
+            throw new IllegalArgumentException("Distance must be >= 0: " + distance);
+        if (toroidal && !(width > 0 && height > 0 && width < Double.POSITIVE_INFINITY && height < Double.POSITIVE_INFINITY))
+            throw new IllegalArgumentException("Toroidal searches need a finite, positive width and height");
+        this.distance = distance;
+        this.metric = metric;
+        this.toroidal = toroidal;
+        this.width = width;
+        this.height = height;
+        size = 0;
+        neighborsComputed = false;
+        indices = null;
+        }
+
+    /** Adds an object to the NeighborSearch.  Call this after begin(...) and before build(). */
+    public void add(Object obj, double x, double y)
+        {
+        if (size == addedObjects.length)
+            {
+            int len = size * 2 + 16;
+            Object[] o = new Object[len]; System.arraycopy(addedObjects, 0, o, 0, size); addedObjects = o;
+            double[] ax = new double[len]; System.arraycopy(addedXs, 0, ax, 0, size); addedXs = ax;
+            double[] ay = new double[len]; System.arraycopy(addedYs, 0, ay, 0, size); addedYs = ay;
+            addedBuckets = new int[len];
+            }
+        addedObjects[size] = obj;
+        addedXs[size] = x;
+        addedYs[size] = y;
+        size++;
+        }
+
+    // the number of buckets along an axis of the given extent
+    int buckets(double extent, double span, int limit)
+        {
+        double n = (toroidal ? Math.floor(extent / span) : Math.ceil(extent / span));
+        if (!(n >= 1)) n = 1;  // also catches NaN
+        if (n > limit) n = limit;
+        // a toroidal axis with two buckets would compare them twice, so we just use one
+        if (toroidal && n < 3) n = 1;
+        return (int) n;
+        }
+
+    /** Sorts the objects added since begin(...) into buckets.  Call this before visitPairs(...) or computeNeighbors(...). */
+    public void build()
+        {
+        final int size = this.size;
+        final double[] ax = addedXs;
+        final double[] ay = addedYs;
+
+        // determine the region.  Non-toroidal regions are just the bounding box of the objects.
+        double minX = 0, minY = 0, extentX = width, extentY = height;
+        if (!toroidal)
+            {
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            minX = Double.POSITIVE_INFINITY; minY = Double.POSITIVE_INFINITY;
+            for(int i = 0; i < size; i++)
+                {
+                if (ax[i] < minX) minX = ax[i];
+                if (ax[i] > maxX) maxX = ax[i];
+                if (ay[i] < minY) minY = ay[i];
+                if (ay[i] > maxY) maxY = ay[i];
+                }
+            if (size == 0) { minX = maxX = minY = maxY = 0; }
+            extentX = maxX - minX;
+            extentY = maxY - minY;
+            }
+
+        // buckets must be at least 'distance' wide, so that neighbors are never more than one bucket apart.
+        // We also don't want vastly more buckets than objects.
+        double span = (distance > 0 ? distance : 1);
+        int limit = Math.max(16, size * 2);
+        bucketsX = buckets(extentX, span, limit);
+        bucketsY = buckets(extentY, span, Math.max(1, limit / bucketsX));
+        final int bucketsX = this.bucketsX;
+        final int bucketsY = this.bucketsY;
+        final double bucketWidth = (toroidal ? width / bucketsX : Math.max(span, extentX / bucketsX));
+        final double bucketHeight = (toroidal ? height / bucketsY : Math.max(span, extentY / bucketsY));
+
+        // count
+        final int numBuckets = bucketsX * bucketsY;
+        if (bucketStart.length < numBuckets + 1) bucketStart = new int[numBuckets + 1];
+        final int[] bucketStart = this.bucketStart;
+        java.util.Arrays.fill(bucketStart, 0, numBuckets + 1, 0);
+        final int[] ab = addedBuckets;
+        for(int i = 0; i < size; i++)
+            {
+            int bx = (int)((ax[i] - minX) / bucketWidth);
+            int by = (int)((ay[i] - minY) / bucketHeight);
+            if (bx >= bucketsX) bx = bucketsX - 1;
+            else if (bx < 0) bx = 0;
+            if (by >= bucketsY) by = bucketsY - 1;
+            else if (by < 0) by = 0;
+            int b = bx * bucketsY + by;
+            ab[i] = b;
+            bucketStart[b + 1]++;
+            }
+        for(int b = 0; b < numBuckets; b++)
+            bucketStart[b + 1] += bucketStart[b];
+
+        // distribute.  We temporarily use bucketStart[b] as the insertion point for bucket b, which shifts
+        // it to where bucket b+1 begins; then we shift everything back.
+        if (objects.length < size)
+            {
+            objects = new Object[addedObjects.length];
+            xs = new double[addedObjects.length];
+            ys = new double[addedObjects.length];
+            }
+        final Object[] objects = this.objects;
+        final double[] xs = this.xs;
+        final double[] ys = this.ys;
+        final Object[] ao = addedObjects;
+        for(int i = 0; i < size; i++)
+            {
+            int j = bucketStart[ab[i]]++;
+            objects[j] = ao[i];
+            xs[j] = ax[i];
+            ys[j] = ay[i];
+            ao[i] = null;  // let GC
+            }
+        for(int b = numBuckets; b > 0; b--)
+            bucketStart[b] = bucketStart[b - 1];
+        bucketStart[0] = 0;
+        for(int i = size; i < objects.length && objects[i] != null; i++)
+            objects[i] = null;  // let GC
+        }
+
+    /** Returns the number of objects loaded. */
+    public int size() { return size; }
+
+    /** Returns the object at the given index.  Indexes are assigned by build(), and run from 0 to size() - 1. */
+    public Object getObject(int index) { return objects[index]; }
+
+    /** Returns the index of the given object, or -1 if it's not loaded.  The first call after each build()
+        builds an identity table of all the objects, so if you're iterating through all the objects, it's
+        faster to go by index. */
+    public int getIndex(Object obj)
+        {
+        if (indices == null)
+            {
+            indices = new IdentityOpenMap(size);
+            for(int i = 0; i < size; i++)
+                indices.put(objects[i], Integer.valueOf(i));
+            }
+        Integer i = (Integer)(indices.get(obj));
+        return (i == null ? -1 : i.intValue());
+        }
+
+    /** Calls the visitor once for every pair of neighbors.  If parallel is true, stripes of buckets are
+        processed at the same time on the ForkJoinPool, and your visitor must be threadsafe. */
+    public void visitPairs(Visitor visitor, boolean parallel)
+        {
+        search(visitor, parallel);
+        }
+
+    /** Computes the neighbors of every object, after which you can call getNumNeighbors(...), getNeighbor(...),
+        and getNeighbors(...).  If parallel is true, stripes of buckets are searched at the same time on the
+        ForkJoinPool. */
+    public void computeNeighbors(boolean parallel)
+        {
+        int numStripes = search(null, parallel);
+
+        // count the degrees
+        final int size = this.size;
+        if (neighborStart.length < size + 1) neighborStart = new int[size + 1];
+        final int[] neighborStart = this.neighborStart;
+        java.util.Arrays.fill(neighborStart, 0, size + 1, 0);
+        int total = 0;
+        for(int s = 0; s < numStripes; s++)
+            {
+            final int[] pairs = stripes[s].pairs;
+            final int n = stripes[s].numPairs * 2;
+            for(int i = 0; i < n; i++)
+                neighborStart[pairs[i] + 1]++;
+            total += n;
+            }
+        for(int i = 0; i < size; i++)
+            neighborStart[i + 1] += neighborStart[i];
+
+        // fill them in, using the same shifting trick as in build()
+        if (neighbors.length < total) neighbors = new int[total];
+        final int[] neighbors = this.neighbors;
+        for(int s = 0; s < numStripes; s++)
+            {
+            final int[] pairs = stripes[s].pairs;
+            final int n = stripes[s].numPairs * 2;
+            for(int i = 0; i < n; i += 2)
+                {
+                int a = pairs[i];
+                int b = pairs[i + 1];
+                neighbors[neighborStart[a]++] = b;
+                neighbors[neighborStart[b]++] = a;
+                }
+            }
+        for(int i = size; i > 0; i--)
+            neighborStart[i] = neighborStart[i - 1];
+        neighborStart[0] = 0;
+        neighborsComputed = true;
+        }
+
+    void checkNeighbors()
+        {
+        if (!neighborsComputed) throw new IllegalStateException("computeNeighbors(...) has not been called since the NeighborSearch was built");
+        }
+
+    /** Returns the number of neighbors of the object at the given index. */
+    public int getNumNeighbors(int index)
+        {
+        checkNeighbors();
+        return neighborStart[index + 1] - neighborStart[index];
+        }
+
+    /** Returns the which'th neighbor of the object at the given index. */
+    public Object getNeighbor(int index, int which)
+        {
+        checkNeighbors();
+        return objects[neighbors[neighborStart[index] + which]];
+        }
+
+    /** Places the neighbors of the object at the given index into the result Bag (clearing it first), or into a new Bag
+        if result is null, and returns it. */
+    public Bag getNeighbors(int index, Bag result)
+        {
+        checkNeighbors();
+        if (result == null) result = new Bag();
+        else result.clear();
+        final int end = neighborStart[index + 1];
+        for(int i = neighborStart[index]; i < end; i++)
+            result.add(objects[neighbors[i]]);
+        return result;
+        }
+
+    /** Places the neighbors of the given object into the result Bag (clearing it first), or into a new Bag
+        if result is null, and returns it.  If the object is not loaded, the Bag is returned empty. */
+    public Bag getNeighbors(Object obj, Bag result)
+        {
+        int index = getIndex(obj);
+        if (index < 0)
+            {
+            if (result == null) result = new Bag();
+            else result.clear();
+            return result;
+            }
+        return getNeighbors(index, result);
+        }
+
+    // runs the search, either calling the visitor or, if it's null, recording pairs in the stripes.
+    // Returns the number of stripes used.
+    int search(Visitor visitor, boolean parallel)
+        {
+        ForkJoinPool pool = this.pool;
+        if (parallel && pool == null) pool = ForkJoinPool.commonPool();
+        int numStripes = 1;
+        if (parallel && bucketsX > 1)
+            numStripes = Math.min(bucketsX, pool.getParallelism() * 4);
+
+        if (stripes.length < numStripes)
+            {
+            Stripe[] s = new Stripe[numStripes];
+            System.arraycopy(stripes, 0, s, 0, stripes.length);
+            for(int i = stripes.length; i < numStripes; i++)
+                s[i] = new Stripe();
+            stripes = s;
+            }
+
+        for(int i = 0; i < numStripes; i++)
+            {
+            Stripe s = stripes[i];
+            s.reinitialize();
+            s.start = (int)(((long) bucketsX * i) / numStripes);
+            s.end = (int)(((long) bucketsX * (i + 1)) / numStripes);
+            s.visitor = visitor;
+            s.numPairs = 0;
+            }
+
+        if (numStripes == 1) stripes[0].compute();
+        else pool.invoke(new Stripes(numStripes));
+        for(int i = 0; i < numStripes; i++)
+            stripes[i].visitor = null;
+        return numStripes;
+        }
+
+    // submits all the stripes and waits for them
+    class Stripes extends RecursiveAction
+        {
+        private static final long serialVersionUID = 1;
+        int numStripes;
+        Stripes(int numStripes) { this.numStripes = numStripes; }
+        protected void compute()
+            {
+            Stripe[] s = new Stripe[numStripes];
+            System.arraycopy(stripes, 0, s, 0, numStripes);
+            invokeAll(s);
+            }
+        }
+
+    // the bucket offsets, other than (0, 0), that each bucket is compared against
+    static final int[] OFFSET_X = new int[] { 0, 1, 1, 1 };
+    static final int[] OFFSET_Y = new int[] { 1, -1, 0, 1 };
+
+    // a vertical stripe of bucket columns from start (inclusive) to end (exclusive)
+    class Stripe extends RecursiveAction
+        {
+        private static final long serialVersionUID = 1;
+        int start;
+        int end;
+        Visitor visitor;
+        int[] pairs = new int[0];  // pairs of indices, stored as pairs[2k], pairs[2k+1]
+        int numPairs;
+
+        void pair(int a, int b)
+            {
+            if (visitor != null) { visitor.visit(objects[a], objects[b]); return; }
+            int n = numPairs * 2;
+            if (n + 2 > pairs.length)
+                {
+                int[] p = new int[pairs.length * 2 + 32];
+                System.arraycopy(pairs, 0, p, 0, n);
+                pairs = p;
+                }
+            pairs[n] = a;
+            pairs[n + 1] = b;
+            numPairs++;
+            }
+
+        protected void compute()
+            {
+            final int bucketsX = NeighborSearch.this.bucketsX;
+            final int bucketsY = NeighborSearch.this.bucketsY;
+            final int[] bucketStart = NeighborSearch.this.bucketStart;
+            for(int bx = start; bx < end; bx++)
+                for(int by = 0; by < bucketsY; by++)
+                    {
+                    final int b = bx * bucketsY + by;
+                    final int s0 = bucketStart[b];
+                    final int e0 = bucketStart[b + 1];
+                    if (s0 == e0) continue;
+
+                    // pairs within the bucket
+                    for(int i = s0; i < e0; i++)
+                        for(int j = i + 1; j < e0; j++)
+                            if (near(i, j)) pair(i, j);
+
+                    // pairs with neighboring buckets
+                    for(int o = 0; o < OFFSET_X.length; o++)
+                        {
+                        int nx = bx + OFFSET_X[o];
+                        int ny = by + OFFSET_Y[o];
+                        if (toroidal)
+                            {
+                            // a single-bucket axis has no neighbors along it
+                            if ((OFFSET_X[o] != 0 && bucketsX == 1) || (OFFSET_Y[o] != 0 && bucketsY == 1)) continue;
+                            if (nx >= bucketsX) nx = 0;
+                            if (ny >= bucketsY) ny = 0;
+                            else if (ny < 0) ny = bucketsY - 1;
+                            }
+                        else if (nx >= bucketsX || ny >= bucketsY || ny < 0) continue;
+                        final int nb = nx * bucketsY + ny;
+                        final int s1 = bucketStart[nb];
+                        final int e1 = bucketStart[nb + 1];
+                        for(int i = s0; i < e0; i++)
+                            for(int j = s1; j < e1; j++)
+                                if (near(i, j)) pair(i, j);
+                        }
+                    }
+            }
+        }
+
+    // returns true if objects i and j are within the distance of one another
+    final boolean near(int i, int j)
+        {
+        double dx = xs[j] - xs[i];
+        double dy = ys[j] - ys[i];
+        if (toroidal)
+            {
+            if (dx * 2 > width) dx -= width;
+            else if (dx * 2 < -width) dx += width;
+            if (dy * 2 > height) dy -= height;
+            else if (dy * 2 < -height) dy += height;
+            }
+        if (metric == EUCLIDEAN)
+            return dx * dx + dy * dy <= distance * distance;
+        else
+            return (dx <= distance && dx >= -distance && dy <= distance && dy >= -distance);
+        }
+    }
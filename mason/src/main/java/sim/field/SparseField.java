@@ -48,6 +48,17 @@ import java.util.*;
     (Int2D, Integer, String, etc.), or warn the user to never modify the location object he
     provides as a key.
     
+    <p><b>Choosing the Hash Tables.</b>  By default, the hash tables are java.util.HashMaps built by buildMap(...).
+    These allocate an Entry object per element, and hash locations by calling their hashCode() and equals() methods.
+    For fields with millions of objects, this is most of the memory and much of the time spent in setObjectLocation(...).
+    If you call <tt>setMapType(OPEN_ADDRESSING_MAPS)</tt>, the field will instead map objects to their locations with
+    an sim.util.IdentityOpenMap, and locations to their objects with a sim.util.LocationOpenMap, which packs
+    2D integer locations into longs.  Both use open addressing and store no Entry objects.
+    The catch is that objects are then compared by pointer rather than by equals(), which is the right thing
+    for nearly all agents, but not if your objects are value types which override equals().  See Continuous2D's
+    main(...) method for a comparison of the two.  Subclasses can also plug in their own tables by overriding
+    buildObjectMap(...) and buildLocationMap(...).
+    
     <p><b>Computational Complexity.</b>  Adding a new object to a location is O(1).  Changing
     an object's location, or removing the object, is O(M), where M is the number of objects
     currently located at the object's old location.  Scanning through all objects is O(N) and fast,
@@ -110,14 +121,19 @@ public abstract class SparseField implements java.io.Serializable
 
     /** LocationAndIndex objects (locations and indexes into the allObjects array) hashed by Object.  Ideally you would
         store only immutable or hash-by-pointer objects, el se they'll get lost in the HashMap. */
-    public Map locationAndIndexHash = buildMap(ANY_SIZE);
+    public Map locationAndIndexHash = buildObjectMap(ANY_SIZE);
 
     /** Bags of objects hashed by location.  Do not rely on these bags always being the same objects. */
-    public Map objectHash = buildMap(ANY_SIZE);
+    public Map objectHash = buildLocationMap(ANY_SIZE);
 
     /** All the objects in the sparse field.  For fast scans.  Do not rely on this bag always being the same object. */
     public Bag allObjects = new Bag();
     
+    // Emptied location Bags and LocationAndIndexes left over from reset(), to be reused by setObjectLocation(...).
+    // These are null until reset() is first called.
+    transient Bag spareBags = null;
+    transient Bag spareLocationAndIndexes = null;
+    
     /** Pass this into buildMap to indicate that it should make a map of any size it likes. */
     public static final int ANY_SIZE = 0;
     /** Creates a Map which is a copy of another. By default, HashMap is used. */
@@ -129,14 +145,68 @@ public abstract class SparseField implements java.io.Serializable
         else return new HashMap(size);
         }
 
+    /** Pass this into setMapType to use java.util.HashMaps built by buildMap(...) (the default). */
+    public static final int HASH_MAPS = 0;
+    /** Pass this into setMapType to use open-addressing tables: IdentityOpenMap for objects, LocationOpenMap for locations. */
+    public static final int OPEN_ADDRESSING_MAPS = 1;
+    
+    int mapType = HASH_MAPS;
+    
+    /** Returns the kind of hash tables the field uses, either HASH_MAPS (the default) or OPEN_ADDRESSING_MAPS. */
+    public int getMapType() { return mapType; }
+    
+    /** Sets the kind of hash tables the field uses, either HASH_MAPS (the default) or OPEN_ADDRESSING_MAPS,
+        and copies the existing contents into new tables of that kind.  This is cheapest to do immediately after
+        constructing the field, while it's still empty. */
+    public void setMapType(int type)
+        {
+        if (type != HASH_MAPS && type != OPEN_ADDRESSING_MAPS)
+            throw new IllegalArgumentException("Unknown map type " + type);
+        mapType = type;
+        locationAndIndexHash = copyInto(buildObjectMap(locationAndIndexHash.size()), locationAndIndexHash);
+        objectHash = copyInto(buildLocationMap(objectHash.size()), objectHash);
+        }
+        
+    /** Copies the contents of one map into another, returning the other. */
+    protected static Map copyInto(Map to, Map from)
+        {
+        to.putAll(from);
+        return to;
+        }
+
+    /** Creates a map, keyed by the objects in the field, of the provided size (or any size it likes if ANY_SIZE is passed in).
+        By default, this calls buildMap(size), or if the map type is OPEN_ADDRESSING_MAPS, builds an IdentityOpenMap. */
+    public Map buildObjectMap(int size)
+        {
+        if (mapType == OPEN_ADDRESSING_MAPS) return new IdentityOpenMap(size);
+        else return buildMap(size);
+        }
+        
+    /** Creates a map, keyed by locations in the field, of the provided size (or any size it likes if ANY_SIZE is passed in).
+        By default, this calls buildMap(size), or if the map type is OPEN_ADDRESSING_MAPS, builds a LocationOpenMap. */
+    public Map buildLocationMap(int size)
+        {
+        if (mapType == OPEN_ADDRESSING_MAPS) return new LocationOpenMap(size);
+        else return buildMap(size);
+        }
+
     protected SparseField() { }
         
     protected SparseField(SparseField other)
         {
         removeEmptyBags = other.removeEmptyBags;
         replaceLargeBags = other.replaceLargeBags;
-        locationAndIndexHash = buildMap(other.locationAndIndexHash);
-        objectHash = buildMap(other.objectHash);
+        mapType = other.mapType;
+        if (mapType == HASH_MAPS)
+            {
+            locationAndIndexHash = buildMap(other.locationAndIndexHash);
+            objectHash = buildMap(other.objectHash);
+            }
+        else
+            {
+            locationAndIndexHash = copyInto(buildObjectMap(other.locationAndIndexHash.size()), other.locationAndIndexHash);
+            objectHash = copyInto(buildLocationMap(other.objectHash.size()), other.objectHash);
+            }
         allObjects = new Bag(other.allObjects);
         }
         
@@ -260,13 +330,41 @@ public abstract class SparseField implements java.io.Serializable
         just make a brand new Sparse Field and let the garbage collector do its magic. */
     public Bag clear()
         {
-        locationAndIndexHash = buildMap(ANY_SIZE);
-        objectHash = buildMap(ANY_SIZE);
+        locationAndIndexHash = buildObjectMap(ANY_SIZE);
+        objectHash = buildLocationMap(ANY_SIZE);
         Bag retval = allObjects;
         allObjects = new Bag();
         return retval;
         }
     
+    /** Deletes everything, like clear(), but keeps the field's storage so it can be filled again without much allocation:
+        the maps and the allObjects bag are emptied rather than replaced, and the Bags which held objects at each location,
+        and the LocationAndIndex records of each object, are set aside to be reused as objects are added again.  This is meant
+        for a model which runs many short simulations in a row, such as a ParameterSweep, and refills its fields in start()
+        each time.  Unlike clear(), the objects aren't returned. */
+    public void reset()
+        {
+        if (spareBags == null) { spareBags = new Bag(); spareLocationAndIndexes = new Bag(); }
+        final Object[] objs = allObjects.objs;
+        final int len = allObjects.numObjs;
+        for(int i = 0; i < len; i++)
+            {
+            LocationAndIndex lai = (LocationAndIndex)(locationAndIndexHash.get(objs[i]));
+            Bag bag = lai.otherObjectsAtLocation;
+            if (bag.numObjs > 0)  // several objects may share the same bag, so set it aside only once
+                {
+                bag.clear();
+                spareBags.add(bag);
+                }
+            lai.location = null;
+            lai.otherObjectsAtLocation = null;
+            spareLocationAndIndexes.add(lai);
+            }
+        locationAndIndexHash.clear();
+        objectHash.clear();
+        allObjects.clear();
+        }
+
     /** Removes an object if it exists.  Returns its location, or null if the object didn't exist. */
     public Object remove(final Object obj)
         {
@@ -344,7 +442,14 @@ public abstract class SparseField implements java.io.Serializable
             allObjects.add(obj);
             
             // put object into locationAndIndexHash, with bag index and location
-            locationAndIndexHash.put(obj, lai = new LocationAndIndex(location, allObjects.numObjs - 1));    // HASH
+            if (spareLocationAndIndexes != null && spareLocationAndIndexes.numObjs > 0)  // reuse one left over from reset()
+                {
+                lai = (LocationAndIndex)(spareLocationAndIndexes.pop());
+                lai.location = location;
+                lai.index = allObjects.numObjs - 1;
+                }
+            else lai = new LocationAndIndex(location, allObjects.numObjs - 1);
+            locationAndIndexHash.put(obj, lai);                                 // HASH
             }
 
         // put into objectHash
@@ -354,6 +459,7 @@ public abstract class SparseField implements java.io.Serializable
             {
             // add a bag.  Possibly reuse
             if (canUse != null) canUse.clear();  // clean out and get rid of the cockroaches
+            else if (spareBags != null && spareBags.numObjs > 0) canUse = (Bag)(spareBags.pop());  // already empty
             else canUse = new Bag(INITIAL_BAG_SIZE);
             canUse.add(obj);
             objectHash.put(location, objs = canUse);                        // MAYBE HASH
@@ -431,6 +537,126 @@ public abstract class SparseField implements java.io.Serializable
             };
         }
 
+    /** Writes the SparseField.  Normally this is just default serialization, but when writing to a CheckpointOutputStream,
+        rather than writing out the hash tables we write each location followed by the objects there (and their indexes
+        in allObjects), and rebuild the tables when reading.  This preserves the order of the objects in allObjects and at
+        each location, so the simulation continues exactly as it would have. */
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException
+        {
+        if (!(out instanceof CheckpointOutputStream))
+            {
+            out.defaultWriteObject();
+            return;
+            }
+        
+        java.io.ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("removeEmptyBags", removeEmptyBags);
+        fields.put("replaceLargeBags", replaceLargeBags);
+        fields.put("mapType", mapType);
+        out.writeFields();  // the tables and allObjects are left null
+        
+        out.writeInt(allObjects.numObjs);
+        out.writeInt(objectHash.size());
+        for(Iterator i = objectHash.entrySet().iterator(); i.hasNext(); )
+            {
+            Map.Entry entry = (Map.Entry)(i.next());
+            writeLocation(out, entry.getKey());
+            Bag objs = (Bag)(entry.getValue());
+            out.writeInt(objs.numObjs);
+            for(int j = 0; j < objs.numObjs; j++)
+                {
+                out.writeObject(objs.objs[j]);
+                out.writeInt(((LocationAndIndex)(locationAndIndexHash.get(objs.objs[j]))).index);
+                }
+            }
+        }
+
+    private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException
+        {
+        if (!(in instanceof CheckpointInputStream))
+            {
+            in.defaultReadObject();
+            return;
+            }
+        
+        java.io.ObjectInputStream.GetField fields = in.readFields();
+        removeEmptyBags = fields.get("removeEmptyBags", true);
+        replaceLargeBags = fields.get("replaceLargeBags", true);
+        mapType = fields.get("mapType", HASH_MAPS);
+        
+        final int numObjs = in.readInt();
+        final int numLocations = in.readInt();
+        allObjects = new Bag(numObjs);
+        allObjects.numObjs = numObjs;
+        locationAndIndexHash = buildObjectMap(numObjs);
+        objectHash = buildLocationMap(numLocations);
+        for(int i = 0; i < numLocations; i++)
+            {
+            Object location = readLocation(in);
+            final int n = in.readInt();
+            Bag objs = new Bag(Math.max(n, INITIAL_BAG_SIZE));
+            for(int j = 0; j < n; j++)
+                {
+                Object obj = in.readObject();
+                LocationAndIndex lai = new LocationAndIndex(location, in.readInt());
+                lai.otherObjectsAtLocation = objs;
+                allObjects.objs[lai.index] = obj;
+                locationAndIndexHash.put(obj, lai);
+                objs.add(obj);
+                }
+            objectHash.put(location, objs);
+            }
+        }
+    
+    // the common location classes are written as their coordinates
+    static final int LOCATION_OBJECT = 0;
+    static final int LOCATION_INT2D = 1;
+    static final int LOCATION_DOUBLE2D = 2;
+    static final int LOCATION_INT3D = 3;
+    static final int LOCATION_DOUBLE3D = 4;
+    
+    static void writeLocation(java.io.ObjectOutputStream out, Object location) throws java.io.IOException
+        {
+        if (location instanceof Int2D)
+            {
+            Int2D l = (Int2D) location;
+            out.writeByte(LOCATION_INT2D); out.writeInt(l.x); out.writeInt(l.y);
+            }
+        else if (location instanceof Double2D)
+            {
+            Double2D l = (Double2D) location;
+            out.writeByte(LOCATION_DOUBLE2D); out.writeDouble(l.x); out.writeDouble(l.y);
+            }
+        else if (location instanceof Int3D)
+            {
+            Int3D l = (Int3D) location;
+            out.writeByte(LOCATION_INT3D); out.writeInt(l.x); out.writeInt(l.y); out.writeInt(l.z);
+            }
+        else if (location instanceof Double3D)
+            {
+            Double3D l = (Double3D) location;
+            out.writeByte(LOCATION_DOUBLE3D); out.writeDouble(l.x); out.writeDouble(l.y); out.writeDouble(l.z);
+            }
+        else
+            {
+            out.writeByte(LOCATION_OBJECT); out.writeObject(location);
+            }
+        }
+    
+    static Object readLocation(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException
+        {
+        int type = in.readByte();
+        switch(type)
+            {
+            case LOCATION_INT2D: { int x = in.readInt(); int y = in.readInt(); return new Int2D(x, y); }
+            case LOCATION_DOUBLE2D: { double x = in.readDouble(); double y = in.readDouble(); return new Double2D(x, y); }
+            case LOCATION_INT3D: { int x = in.readInt(); int y = in.readInt(); int z = in.readInt(); return new Int3D(x, y, z); }
+            case LOCATION_DOUBLE3D: { double x = in.readDouble(); double y = in.readDouble(); double z = in.readDouble(); return new Double3D(x, y, z); }
+            case LOCATION_OBJECT: return in.readObject();
+            default: throw new java.io.StreamCorruptedException("Unknown SparseField location type " + type);
+            }
+        }
+
     /** Objects stored in SparseField's locationAndIndexHash table.  This class contains
         an Object <i>location</i> and an int <i>index</i>.  index is the position of
         the objects in the allObjects bag. */
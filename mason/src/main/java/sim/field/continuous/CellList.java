@@ -0,0 +1,150 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.continuous;
+
+/**
+   A flat array of cells used by Continuous2D when it has been constructed to use a cell list.  The field's
+   bounds are divided into cells of the field's discretization, and each cell holds its objects together
+   with their x and y coordinates in three parallel arrays.  Cells are addressed by index (x * iHeight + y)
+   rather than by hashing an Int2D, so a neighborhood query is just a walk over a range of array indices,
+   and distances can be computed from the coordinate arrays without looking up each object's location.
+
+   <p>Objects which lie outside the bounds of the field are stored in the nearest border cell.  This
+   keeps queries correct (a query near or beyond the border always includes the border cells), though
+   if you routinely put large numbers of objects far outside the bounds, the border cells will get crowded.
+*/
+
+final class CellList implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    static final int INITIAL_CELL_SIZE = 4;
+
+    final double discretization;
+    final int iWidth;
+    final int iHeight;
+
+    // indexed by cell, each with counts[cell] valid entries.  Cells are allocated lazily.
+    final Object[][] objs;
+    final double[][] xs;
+    final double[][] ys;
+    final int[] counts;
+
+    CellList(double discretization, double width, double height)
+        {
+        this.discretization = discretization;
+        double w = Math.max(1, Math.ceil(width / discretization));
+        double h = Math.max(1, Math.ceil(height / discretization));
+        if (w * h > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Continuous2D of size " + width + " x " + height + " with discretization " +
+                discretization + " is too large for a cell list");
+        iWidth = (int) w;
+        iHeight = (int) h;
+        objs = new Object[iWidth * iHeight][];
+        xs = new double[iWidth * iHeight][];
+        ys = new double[iWidth * iHeight][];
+        counts = new int[iWidth * iHeight];
+        }
+
+    /** Returns the cell column holding the given x coordinate, clamped to the field. */
+    int cellX(double x)
+        {
+        double c = Math.floor(x / discretization);
+        if (c < 0) return 0;                // also catches -Infinity
+        if (c >= iWidth) return iWidth - 1; // also catches Infinity
+        if (c != c) return 0;               // NaN
+        return (int) c;
+        }
+
+    /** Returns the cell row holding the given y coordinate, clamped to the field. */
+    int cellY(double y)
+        {
+        double c = Math.floor(y / discretization);
+        if (c < 0) return 0;
+        if (c >= iHeight) return iHeight - 1;
+        if (c != c) return 0;
+        return (int) c;
+        }
+
+    int cell(double x, double y) { return cellX(x) * iHeight + cellY(y); }
+
+    void add(Object obj, double x, double y)
+        {
+        int cell = cell(x, y);
+        int n = counts[cell];
+        Object[] o = objs[cell];
+        if (o == null)
+            {
+            objs[cell] = new Object[INITIAL_CELL_SIZE];
+            xs[cell] = new double[INITIAL_CELL_SIZE];
+            ys[cell] = new double[INITIAL_CELL_SIZE];
+            }
+        else if (n == o.length)
+            {
+            int len = n * 2;
+            Object[] o2 = new Object[len]; System.arraycopy(o, 0, o2, 0, n); objs[cell] = o2;
+            double[] x2 = new double[len]; System.arraycopy(xs[cell], 0, x2, 0, n); xs[cell] = x2;
+            double[] y2 = new double[len]; System.arraycopy(ys[cell], 0, y2, 0, n); ys[cell] = y2;
+            }
+        objs[cell][n] = obj;
+        xs[cell][n] = x;
+        ys[cell][n] = y;
+        counts[cell] = n + 1;
+        }
+
+    /** Removes the object, which must have been stored at the given (old) coordinates. */
+    void remove(Object obj, double x, double y)
+        {
+        int cell = cell(x, y);
+        int slot = find(cell, obj);
+        if (slot < 0) return;
+        Object[] o = objs[cell];
+        int last = --counts[cell];
+        o[slot] = o[last];
+        xs[cell][slot] = xs[cell][last];
+        ys[cell][slot] = ys[cell][last];
+        o[last] = null;  // let GC
+        }
+
+    /** Moves the object from the given old coordinates to the new ones. */
+    void move(Object obj, double oldX, double oldY, double x, double y)
+        {
+        int cell = cell(oldX, oldY);
+        if (cell == cell(x, y))
+            {
+            int slot = find(cell, obj);
+            if (slot >= 0)
+                {
+                xs[cell][slot] = x;
+                ys[cell][slot] = y;
+                return;
+                }
+            }
+        remove(obj, oldX, oldY);
+        add(obj, x, y);
+        }
+
+    // cells are small, so like Bag.remove(Object) we just scan
+    int find(int cell, Object obj)
+        {
+        Object[] o = objs[cell];
+        int n = counts[cell];
+        for(int i = 0; i < n; i++)
+            if (o[i] == obj) return i;
+        return -1;
+        }
+
+    void clear()
+        {
+        for(int i = 0; i < counts.length; i++)
+            if (counts[i] > 0)
+                {
+                java.util.Arrays.fill(objs[i], 0, counts[i], null);
+                counts[i] = 0;
+                }
+        }
+    }
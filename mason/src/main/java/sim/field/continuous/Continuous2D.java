@@ -82,6 +82,25 @@ import java.util.*;
    Otherwise, width and height are not used.  If your space is bounded, you should set the width and height to
    those bounds.  If it's unbounded, then you should set the width and height to the bounds you would like
    displayed on-screen.
+
+   <p><b>Cell Lists.</b>  If you construct the Continuous2D with <tt>useCellList</tt> set to true, then in addition
+   to its usual hash tables it will keep its objects in a <b>cell list</b>: a flat array of buckets, one per discretized
+   cell within the bounds of the field, each holding its objects alongside their x and y coordinates.
+   getNeighborsWithinDistance(...) and getNeighborsExactlyWithinDistance(...) are then answered by walking a range
+   of array indices rather than by hashing one MutableInt2D per bucket, and the exact versions compute distances from
+   the stored coordinates rather than looking up each candidate's location.  If you pass in a result Bag large
+   enough to hold the answer, these queries allocate nothing.  The cost is an additional bucket update every time
+   an object moves, and memory proportional to the number of cells in the field, so the cell list is best for
+   bounded (or toroidal) fields which are reasonably densely populated, such as Flockers.  The results are the
+   same as without the cell list, though possibly in a different order.  Objects placed outside the bounds of the
+   field are kept in the nearest border cell.
+
+   <p><b>K-D Trees.</b>  If you call <tt>setUsesKDTree(true)</tt>, the Continuous2D will also maintain a k-d tree
+   of its objects.  getNearestNeighbors(...) will then return exactly the <tt>atLeastThisMany</tt> nearest objects
+   (nearest first), toroidally if you like, in time which depends on neither the discretization nor how clustered
+   the objects are; and if there is no cell list, getNeighborsWithinDistance(...) and getNeighborsExactlyWithinDistance(...)
+   will be answered from the tree as well.  Moving an object refits the tree in O(log n); adding or removing one,
+   or moving about as many objects as there are in the field, causes the tree to be rebuilt at the next query.
 */
 
 public /*strictfp*/ class Continuous2D extends SparseField implements SparseField2D
@@ -89,20 +108,31 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
     private static final long serialVersionUID = 1;
 
     /** Where we store the Double2D values hashed by object */
-    public Map doubleLocationHash = buildMap(ANY_SIZE);
+    public Map doubleLocationHash = buildObjectMap(ANY_SIZE);
     
     public double width;
     public double height;
     
     /** Do not change this unless you have completely cleared the Continuous2D, or things will be lost in the hash. */
     public double discretization;
-        
+
+    /** The cell list, or null if we're not using one. */
+    CellList cellList;
+
     /** Provide expected bounds on the SparseContinuous2D */
     public Continuous2D(final double discretization, double width, double height)
+        {
+        this(discretization, width, height, false);
+        }
+
+    /** Provide expected bounds on the SparseContinuous2D, and state whether neighborhood queries should
+        be answered from a cell list. */
+    public Continuous2D(final double discretization, double width, double height, boolean useCellList)
         {
         this.discretization = discretization;
         this.width = width;
         this.height = height;
+        if (useCellList) cellList = new CellList(discretization, width, height);
         }
 
     public Continuous2D(Continuous2D other)
@@ -111,6 +141,58 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
         discretization = other.discretization;
         width = other.width;
         height = other.height;
+        doubleLocationHash = copyInto(buildObjectMap(other.doubleLocationHash.size()), other.doubleLocationHash);
+        if (other.cellList != null)
+            {
+            cellList = new CellList(discretization, width, height);
+            Object[] objs = allObjects.objs;
+            int numObjs = allObjects.numObjs;
+            for(int i = 0; i < numObjs; i++)
+                {
+                Double2D loc = getObjectLocation(objs[i]);
+                cellList.add(objs[i], loc.x, loc.y);
+                }
+            }
+        if (other.kdTree != null) setUsesKDTree(true);
+        }
+
+    /** Returns true if the Continuous2D answers neighborhood queries from a cell list. */
+    public boolean getUsesCellList() { return cellList != null; }
+
+    /** The k-d tree, or null if we're not using one. */
+    KDTree kdTree;
+
+    /** Returns true if the Continuous2D maintains a k-d tree for nearest-neighbor queries. */
+    public boolean getUsesKDTree() { return kdTree != null; }
+
+    /** Sets whether the Continuous2D maintains a k-d tree for nearest-neighbor queries. */
+    public void setUsesKDTree(boolean val)
+        {
+        if (!val) kdTree = null;
+        else if (kdTree == null) kdTree = new KDTree(2, new double[] { width, height });
+        }
+
+    // returns the k-d tree, first rebuilding it if need be
+    KDTree kdTree()
+        {
+        KDTree tree = kdTree;
+        if (tree.dirty)
+            synchronized(tree)
+                {
+                if (tree.dirty)
+                    {
+                    Object[] objs = allObjects.objs;
+                    int numObjs = allObjects.numObjs;
+                    tree.begin(numObjs);
+                    for(int i = 0; i < numObjs; i++)
+                        {
+                        Double2D loc = getObjectLocation(objs[i]);
+                        tree.add(objs[i], loc.x, loc.y, 0);
+                        }
+                    tree.build();
+                    }
+                }
+        return tree;
         }
 
     public final Double2D getObjectLocation(Object obj)
@@ -142,30 +224,98 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
     
     public final boolean setObjectLocation(Object obj, final Double2D location)
         {
+        // If the object is staying in the same discretized cell, which is the common case for small movements,
+        // we needn't touch the location tables nor build a new Int2D: just update its exact location.
+        if (location != null)
+            {
+            LocationAndIndex lai = (LocationAndIndex)(locationAndIndexHash.get(obj));
+            if (lai != null)
+                {
+                Int2D cell = (Int2D)(lai.getLocation());
+                if (cell.x == (int) Math.floor(location.x / discretization) && 
+                    cell.y == (int) Math.floor(location.y / discretization))
+                    {
+                    assert sim.util.LocationLog.it(this, cell);
+                    Double2D old = (Double2D)(doubleLocationHash.put(obj, location));
+                    if (cellList != null) cellList.move(obj, old.x, old.y, location.x, location.y);
+                    if (kdTree != null) kdTree.move(obj, location.x, location.y, 0);
+                    return true;
+                    }
+                }
+            }
+            
         boolean result = super.setObjectLocation(obj, discretize(location));
-        if (result) doubleLocationHash.put(obj,location);
+        if (result)
+            {
+            Double2D old = (Double2D)(doubleLocationHash.put(obj,location));
+            if (cellList != null)
+                {
+                if (old == null) cellList.add(obj, location.x, location.y);
+                else cellList.move(obj, old.x, old.y, location.x, location.y);
+                }
+            if (kdTree != null)
+                {
+                if (old == null) kdTree.dirty = true;
+                else kdTree.move(obj, location.x, location.y, 0);
+                }
+            }
         return result;
         }
-    
+
     public void reshape(double width, double height)
     	{
     	this.width = width;
     	this.height = height;
     	clear();
+    	if (cellList != null) cellList = new CellList(discretization, width, height);
+    	if (kdTree != null) kdTree = new KDTree(2, new double[] { width, height });
     	}
-        
+
     public final Bag clear()
         {
-        doubleLocationHash = buildMap(ANY_SIZE);
+        doubleLocationHash = buildObjectMap(ANY_SIZE);
+        if (cellList != null) cellList.clear();
+        if (kdTree != null) kdTree.dirty = true;
         return super.clear();
         }
+
+    /** Deletes everything but keeps the field's storage for reuse.  See SparseField.reset(). */
+    public void reset()
+        {
+        doubleLocationHash.clear();
+        if (cellList != null) cellList.clear();
+        if (kdTree != null) kdTree.dirty = true;
+        super.reset();
+        }
+        
+    public void setMapType(int type)
+        {
+        super.setMapType(type);
+        doubleLocationHash = copyInto(buildObjectMap(doubleLocationHash.size()), doubleLocationHash);
+        }
         
     public final Object remove(final Object obj)
         {
         Object result = super.remove(obj);
-        doubleLocationHash.remove(obj);
+        Double2D old = (Double2D)(doubleLocationHash.remove(obj));
+        if (cellList != null && old != null) cellList.remove(obj, old.x, old.y);
+        if (kdTree != null && old != null) kdTree.dirty = true;
         return result;
         }
+
+    /** Removes objects at the given discretized location, and returns a bag of them, or null of no objects are at that location. */
+    public Bag removeObjectsAtLocation(final Object location)
+        {
+        Bag objs = super.removeObjectsAtLocation(location);
+        if (objs != null)
+            for(int i = 0; i < objs.numObjs; i++)
+                {
+                Double2D old = (Double2D)(doubleLocationHash.remove(objs.objs[i]));
+                if (cellList != null && old != null) cellList.remove(objs.objs[i], old.x, old.y);
+                }
+        if (kdTree != null && objs != null) kdTree.dirty = true;
+        return objs;
+        }
     
     /** Get the width */
     public double getWidth() { return width; }
@@ -298,9 +448,29 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
        set 'nonPointObjects' to true.  If you want the distance to be radial -- that is, the region searched will be a circle centered at the position,
        set 'radial' to true (almost always you want this).  If you want the region searched to be a rectangle centered at the position, set
        'radial' to be false.  Returns a bag of items.  If 'result' is provided, clears that Bag and reuses it.
+       
+       <p>If the Continuous2D uses a k-d tree, then toroidal may be true, and for point objects the Bag will contain exactly
+       the 'atLeastThisMany' nearest items (or all of them, if there are fewer), nearest first.
     */
     public Bag getNearestNeighbors(Double2D position, int atLeastThisMany, final boolean toroidal, final boolean nonPointObjects, boolean radial, Bag result)
         {
+        if (kdTree != null)
+            {
+            if (result == null) result = new Bag(atLeastThisMany);
+            else result.clear();
+            KDTree tree = kdTree();
+            double[] q = (toroidal ? new double[] { tx(position.x), ty(position.y) } : new double[] { position.x, position.y });
+            int metric = (radial ? KDTree.EUCLIDEAN : KDTree.MAX);
+            double farthest = tree.nearest(q, atLeastThisMany, toroidal, metric, result);
+            if (nonPointObjects && result.numObjs > 0)
+                {
+                // anything whose location is within a discretization of the farthest neighbor's distance might overlap it
+                result.clear();
+                tree.within(q, Math.sqrt(farthest) + discretization, toroidal, metric, true, result);
+                }
+            return result;
+            }
+            
         if (toroidal) throw new InternalError("Toroidal not presently supported in getNearestNeighbors");
         if (result == null) result = new Bag(atLeastThisMany);
         else result.clear();
@@ -530,6 +700,24 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
     public Bag getNeighborsExactlyWithinDistance(final Double2D position, final double distance, final boolean toroidal, 
         final boolean radial, final boolean inclusive, Bag result)
         {
+        if (cellList != null)
+            {
+            Double2D pos = position;
+            if (toroidal && (pos.x >= width || pos.y >= height || pos.x < 0 || pos.y < 0))
+                pos = new Double2D(tx(pos.x), ty(pos.y));
+            if (result != null) result.clear();
+            else result = new Bag(1);
+            return cellListNeighbors(pos, distance, toroidal, true, radial, inclusive, result);
+            }
+
+        if (kdTree != null)
+            {
+            if (result != null) result.clear();
+            else result = new Bag(1);
+            double[] q = (toroidal ? new double[] { tx(position.x), ty(position.y) } : new double[] { position.x, position.y });
+            return kdTree().within(q, distance, toroidal, radial ? KDTree.EUCLIDEAN : KDTree.MAX, inclusive, result);
+            }
+
         result = getNeighborsWithinDistance(position, distance, toroidal, false, result);
         int numObjs = result.numObjs;
         Object[] objs = result.objs;
@@ -743,6 +931,13 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
         if (result!=null) result.clear();
         else result = new Bag(expectedBagSize);
         Bag temp;
+
+        if (cellList != null)
+            return cellListNeighbors(position, nonPointObjects ? distance + discretization : distance, toroidal, false, true, true, result);
+
+        if (kdTree != null)
+            return kdTree().within(new double[] { position.x, position.y }, nonPointObjects ? distance + discretization : distance, 
+                toroidal, KDTree.MAX, true, result);
     
         MutableInt2D speedyMutableInt2D = new MutableInt2D();
 
@@ -856,6 +1051,139 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
         return result;
         }
         
+    /** Loads all the objects in the field into a NeighborSearch, ready to find every pair of objects within the given
+        (Euclidean) distance of one another.  If the result is provided, it is reused, else a new one is created.
+        If toroidal is true, then locations are wrapped to within the field before they are loaded. */
+    public NeighborSearch loadNeighborSearch(final double distance, final boolean toroidal, NeighborSearch result)
+        {
+        if (result == null) result = new NeighborSearch();
+        result.begin(distance, NeighborSearch.EUCLIDEAN, toroidal, width, height);
+        if (cellList != null)
+            {
+            // no hash lookups needed
+            final int[] counts = cellList.counts;
+            for(int cell = 0; cell < counts.length; cell++)
+                {
+                final int n = counts[cell];
+                final Object[] objs = cellList.objs[cell];
+                final double[] xs = cellList.xs[cell];
+                final double[] ys = cellList.ys[cell];
+                for(int i = 0; i < n; i++)
+                    {
+                    if (toroidal) result.add(objs[i], tx(xs[i]), ty(ys[i]));
+                    else result.add(objs[i], xs[i], ys[i]);
+                    }
+                }
+            }
+        else
+            {
+            final Object[] objs = allObjects.objs;
+            final int numObjs = allObjects.numObjs;
+            for(int i = 0; i < numObjs; i++)
+                {
+                Double2D loc = getObjectLocation(objs[i]);
+                if (toroidal) result.add(objs[i], tx(loc.x), ty(loc.y));
+                else result.add(objs[i], loc.x, loc.y);
+                }
+            }
+        result.build();
+        return result;
+        }
+
+    /** Computes, for every object in the field, all the objects EXACTLY within the given distance of it (inclusive,
+        measured using a circle, and not including the object itself), and returns them in a NeighborSearch.
+        This is much faster than calling getNeighborsExactlyWithinDistance(...) once for each object: the field is
+        scanned once, bucket by bucket, and the distance between each pair of objects is computed only once.
+        If parallel is true, the scan is split up among the threads of a ForkJoinPool.  If the result is provided,
+        it is reused, else a new one is created.  Afterwards, call <tt>result.getNeighbors(object, bag)</tt> to get
+        the neighbors of a given object. */
+    public NeighborSearch getAllNeighborsExactlyWithinDistance(final double distance, final boolean toroidal, final boolean parallel, NeighborSearch result)
+        {
+        result = loadNeighborSearch(distance, toroidal, result);
+        result.computeNeighbors(parallel);
+        return result;
+        }
+
+    // Adds to the result all objects in the cell list whose cells overlap the square of the given distance around
+    // the position.  If exact is true, then only objects exactly within the distance (per radial and inclusive)
+    // are added.  Allocates nothing unless the result has to grow.
+    Bag cellListNeighbors(final Double2D position, final double distance, final boolean toroidal,
+        final boolean exact, final boolean radial, final boolean inclusive, final Bag result)
+        {
+        final CellList cellList = this.cellList;
+        final int iWidth = cellList.iWidth;
+        final int iHeight = cellList.iHeight;
+        final double px = position.x;
+        final double py = position.y;
+
+        // Each dimension has one range of cells, or two if a toroidal query wraps around.
+        // The second range is empty unless its start is <= its end.
+        int xa0, xa1, xb0 = 0, xb1 = -1;
+        int ya0, ya1, yb0 = 0, yb1 = -1;
+
+        double lo = px - distance;
+        double hi = px + distance;
+        if (toroidal && hi - lo >= width) { xa0 = 0; xa1 = iWidth - 1; }
+        else if (toroidal && lo < 0) { xa0 = cellList.cellX(lo + width); xa1 = iWidth - 1; xb1 = cellList.cellX(hi); }
+        else if (toroidal && hi >= width) { xa0 = cellList.cellX(lo); xa1 = iWidth - 1; xb1 = cellList.cellX(hi - width); }
+        else { xa0 = cellList.cellX(lo); xa1 = cellList.cellX(hi); }
+        if (xb1 >= xa0) { xa0 = 0; xa1 = iWidth - 1; xb1 = -1; }  // the two ranges overlap: just do everything, once
+
+        lo = py - distance;
+        hi = py + distance;
+        if (toroidal && hi - lo >= height) { ya0 = 0; ya1 = iHeight - 1; }
+        else if (toroidal && lo < 0) { ya0 = cellList.cellY(lo + height); ya1 = iHeight - 1; yb1 = cellList.cellY(hi); }
+        else if (toroidal && hi >= height) { ya0 = cellList.cellY(lo); ya1 = iHeight - 1; yb1 = cellList.cellY(hi - height); }
+        else { ya0 = cellList.cellY(lo); ya1 = cellList.cellY(hi); }
+        if (yb1 >= ya0) { ya0 = 0; ya1 = iHeight - 1; yb1 = -1; }
+
+        final double distsq = distance * distance;
+        for(int xr = 0; xr < 2; xr++)
+            {
+            final int x0 = (xr == 0 ? xa0 : xb0);
+            final int x1 = (xr == 0 ? xa1 : xb1);
+            for(int yr = 0; yr < 2; yr++)
+                {
+                final int y0 = (yr == 0 ? ya0 : yb0);
+                final int y1 = (yr == 0 ? ya1 : yb1);
+                for(int x = x0; x <= x1; x++)
+                    for(int y = y0; y <= y1; y++)
+                        {
+                        final int cell = x * iHeight + y;
+                        final int n = cellList.counts[cell];
+                        if (n == 0) continue;
+                        final Object[] objs = cellList.objs[cell];
+                        if (!exact)
+                            {
+                            for(int i = 0; i < n; i++) result.add(objs[i]);
+                            continue;
+                            }
+                        final double[] xs = cellList.xs[cell];
+                        final double[] ys = cellList.ys[cell];
+                        for(int i = 0; i < n; i++)
+                            {
+                            double dx = (toroidal ? tdx(xs[i], px) : xs[i] - px);
+                            double dy = (toroidal ? tdy(ys[i], py) : ys[i] - py);
+                            if (radial)
+                                {
+                                double d = dx * dx + dy * dy;
+                                if (d > distsq || (!inclusive && d >= distsq)) continue;
+                                }
+                            else
+                                {
+                                if (dx < 0) dx = -dx;
+                                if (dy < 0) dy = -dy;
+                                if ((dx > distance || dy > distance) ||
+                                    (!inclusive && (dx >= distance || dy >= distance))) continue;
+                                }
+                            result.add(objs[i]);
+                            }
+                        }
+                }
+            }
+        return result;
+        }
+
     // used internally in getNeighborsWithinDistance.  Note similarity to
     // AbstractGrid2D's tx method
     final int toroidal(final int x, final int width) 
@@ -956,5 +1284,3 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
         return bag;
         }
     }
-
-
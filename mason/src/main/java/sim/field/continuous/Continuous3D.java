@@ -71,6 +71,12 @@ import java.util.*;
    <p>Continuous3D objects have a width and a height, but this is <b>only used</b> in computing toroidal
    (wrap-around) situations.  If you don't care about toroidal features, then you can completely disregard
    the width and height.
+
+   <p><b>K-D Trees.</b>  If you call <tt>setUsesKDTree(true)</tt>, the Continuous3D will also maintain a k-d tree
+   of its objects, from which getNeighborsWithinDistance(...), getNeighborsExactlyWithinDistance(...), and
+   getNearestNeighbors(...) are answered in time which depends on neither the discretization nor how clustered the
+   objects are.  Moving an object refits the tree in O(log n); adding or removing one, or moving about as many
+   objects as there are in the field, causes the tree to be rebuilt at the next query.
 */
 
 public /*strictfp*/ class Continuous3D extends SparseField implements SparseField3D
@@ -78,7 +84,7 @@ public /*strictfp*/ class Continuous3D extends SparseField implements SparseFiel
     private static final long serialVersionUID = 1;
 
     /** Where we store the Double3D values hashed by object */
-    public Map doubleLocationHash = buildMap(ANY_SIZE);
+    public Map doubleLocationHash = buildObjectMap(ANY_SIZE);
     
     public double width;
     public double height;
@@ -100,6 +106,46 @@ public /*strictfp*/ class Continuous3D extends SparseField implements SparseFiel
         width = other.width;
         height = other.height;
         length = other.length;
+        doubleLocationHash = copyInto(buildObjectMap(other.doubleLocationHash.size()), other.doubleLocationHash);
+        if (other.kdTree != null) setUsesKDTree(true);
+        }
+
+    /** The k-d tree, or null if we're not using one. */
+    KDTree kdTree;
+
+    /** Returns true if the Continuous3D maintains a k-d tree for neighborhood queries. */
+    public boolean getUsesKDTree() { return kdTree != null; }
+
+    /** Sets whether the Continuous3D maintains a k-d tree for neighborhood queries. */
+    public void setUsesKDTree(boolean val)
+        {
+        if (!val) kdTree = null;
+        else if (kdTree == null) kdTree = new KDTree(3, new double[] { width, height, length });
+        }
+
+    // returns the k-d tree, first rebuilding it if need be
+    KDTree kdTree()
+        {
+        KDTree tree = kdTree;
+        if (tree.dirty)
+            synchronized(tree)
+                {
+                if (tree.dirty) load(tree);
+                }
+        return tree;
+        }
+
+    void load(KDTree tree)
+        {
+        Object[] objs = allObjects.objs;
+        int numObjs = allObjects.numObjs;
+        tree.begin(numObjs);
+        for(int i = 0; i < numObjs; i++)
+            {
+            Double3D loc = getObjectLocation(objs[i]);
+            tree.add(objs[i], loc.x, loc.y, loc.z);
+            }
+        tree.build();
         }
 
     public final Double3D getObjectLocation(Object obj)
@@ -129,22 +175,59 @@ public /*strictfp*/ class Continuous3D extends SparseField implements SparseFiel
     public final boolean setObjectLocation(Object obj, final Double3D location)
         {
         boolean result = super.setObjectLocation(obj, discretize(location));
-        if (result) doubleLocationHash.put(obj,location);
+        if (result)
+            {
+            Object old = doubleLocationHash.put(obj,location);
+            if (kdTree != null)
+                {
+                if (old == null) kdTree.dirty = true;
+                else kdTree.move(obj, location.x, location.y, location.z);
+                }
+            }
         return result;
         }
         
     public final Bag clear()
         {
-        doubleLocationHash = buildMap(ANY_SIZE);
+        doubleLocationHash = buildObjectMap(ANY_SIZE);
+        if (kdTree != null) kdTree.dirty = true;
         return super.clear();
         }
+
+    /** Deletes everything but keeps the field's storage for reuse.  See SparseField.reset(). */
+    public void reset()
+        {
+        doubleLocationHash.clear();
+        if (kdTree != null) kdTree.dirty = true;
+        super.reset();
+        }
+        
+    public void setMapType(int type)
+        {
+        super.setMapType(type);
+        doubleLocationHash = copyInto(buildObjectMap(doubleLocationHash.size()), doubleLocationHash);
+        }
         
     public final Object remove(final Object obj)
         {
         Object result = super.remove(obj);
         doubleLocationHash.remove(obj);
+        if (kdTree != null && result != null) kdTree.dirty = true;
         return result;
         }
+
+    /** Removes objects at the given discretized location, and returns a bag of them, or null of no objects are at that location. */
+    public Bag removeObjectsAtLocation(final Object location)
+        {
+        Bag objs = super.removeObjectsAtLocation(location);
+        if (objs != null)
+            {
+            for(int i = 0; i < objs.numObjs; i++)
+                doubleLocationHash.remove(objs.objs[i]);
+            if (kdTree != null) kdTree.dirty = true;
+            }
+        return objs;
+        }
  
 
     /** Get the width */
@@ -410,6 +493,13 @@ public /*strictfp*/ class Continuous3D extends SparseField implements SparseFiel
     public Bag getNeighborsExactlyWithinDistance(final Double3D position, final double distance, final boolean toroidal, 
         final boolean radial, final boolean inclusive, Bag result)
         {
+        if (kdTree != null)
+            {
+            if (result != null) result.clear();
+            else result = new Bag(1);
+            return kdTree().within(query(position, toroidal), distance, toroidal, radial ? KDTree.EUCLIDEAN : KDTree.MAX, inclusive, result);
+            }
+            
         result = getNeighborsWithinDistance(position, distance, toroidal, false, result);
         int numObjs = result.numObjs;
         Object[] objs = result.objs;
@@ -627,6 +717,10 @@ public /*strictfp*/ class Continuous3D extends SparseField implements SparseFiel
         if (result!=null) result.clear();
         else result = new Bag(expectedBagSize);
         Bag temp;
+        
+        if (kdTree != null)
+            return kdTree().within(query(position, toroidal), nonPointObjects ? distance + discretization : distance,
+                toroidal, KDTree.MAX, true, result);
     
         MutableInt3D speedyMutableInt3D = new MutableInt3D();  // a little faster (local)
 
@@ -867,6 +961,46 @@ public /*strictfp*/ class Continuous3D extends SparseField implements SparseFiel
 
     public final Double3D getDimensions() { return new Double3D(width, height, length); }
 
+    // the position as an array for the k-d tree, wrapped if toroidal
+    double[] query(Double3D position, boolean toroidal)
+        {
+        if (toroidal) return new double[] { tx(position.x), ty(position.y), tz(position.z) };
+        else return new double[] { position.x, position.y, position.z };
+        }
+
+    /**
+       Returns the 'atLeastThisMany' items closest to a given 'position' (or all of them, if there are fewer), nearest first.
+       If objects are non-point and may overlap into another discretization cell, set 'nonPointObjects' to true, and
+       additional objects whose locations lie within one discretization beyond the farthest of them will be included as well.
+       If you want the distance to be radial -- that is, measured as a sphere centered at the position -- set 'radial' to true
+       (almost always you want this).  If you want it to be measured as a cube, set 'radial' to be false.  If 'toroidal' is true,
+       distances are measured toroidally.  If 'result' is provided, clears that Bag and reuses it.
+       
+       <p>This is answered from the k-d tree.  If the Continuous3D doesn't use one, a k-d tree is built just for this query,
+       which takes O(n lg n) time, so if you make many such queries, you should call setUsesKDTree(true).
+    */
+    public Bag getNearestNeighbors(Double3D position, int atLeastThisMany, final boolean toroidal, final boolean nonPointObjects, boolean radial, Bag result)
+        {
+        if (result == null) result = new Bag(atLeastThisMany);
+        else result.clear();
+        KDTree tree;
+        if (kdTree != null) tree = kdTree();
+        else
+            {
+            tree = new KDTree(3, new double[] { width, height, length });
+            load(tree);
+            }
+        double[] q = query(position, toroidal);
+        int metric = (radial ? KDTree.EUCLIDEAN : KDTree.MAX);
+        double farthest = tree.nearest(q, atLeastThisMany, toroidal, metric, result);
+        if (nonPointObjects && result.numObjs > 0)
+            {
+            result.clear();
+            tree.within(q, Math.sqrt(farthest) + discretization, toroidal, metric, true, result);
+            }
+        return result;
+        }
+
     /** Returns the object location as a Double3D, or as null if there is no such object. */
     public Double3D getObjectLocationAsDouble3D(Object obj)
         {
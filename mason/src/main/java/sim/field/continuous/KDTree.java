@@ -0,0 +1,413 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.continuous;
+import sim.util.*;
+
+/**
+   A k-d tree over the objects in a Continuous2D or Continuous3D, used to answer nearest-neighbor and
+   distance queries in time independent of the field's discretization.
+
+   <p>The tree is built by recursively splitting the objects at the median of the widest dimension of their
+   bounding box, down to leaves of at most LEAF_SIZE objects.  Each node stores the bounding box of its objects.
+   When an object merely moves, we update its coordinates and refit the boxes along the path from its leaf
+   to the root, which is O(log n) and keeps queries correct; but the tree's quality degrades as objects wander
+   away from where they were when it was built.  So after the field has seen as many moves as it has objects
+   (about one timestep's worth in most models), or after any object has been added or removed, the tree is
+   marked dirty and the field rebuilds it from scratch at the next query.
+
+   <p>Queries allocate only their results and a little scratch space, and don't modify the tree (other
+   than the rebuild, which the field synchronizes on the tree), so several threads may query at once.
+*/
+
+final class KDTree implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    static final int LEAF_SIZE = 8;
+    static final int EUCLIDEAN = 0;
+    static final int MAX = 1;
+
+    final int dims;
+    final double[] bounds;      // for toroidal distances
+
+    Object[] objs = new Object[0];
+    double[] pts = new double[0];   // coordinates of object i are pts[i * dims] ... pts[i * dims + dims - 1]
+    int size;
+
+    // nodes.  Node 0 is the root.  A leaf has left == -1.
+    int[] nodeLo = new int[0];
+    int[] nodeHi = new int[0];
+    int[] nodeLeft = new int[0];
+    int[] nodeRight = new int[0];
+    double[] boxMin = new double[0];
+    double[] boxMax = new double[0];
+    int numNodes;
+
+    IdentityOpenMap slots = new IdentityOpenMap();      // object -> Integer index into objs
+    volatile boolean dirty = true;
+    int movesSinceBuild;
+
+    int[] path = new int[64];  // scratch for move(...), which like all field modifications isn't threadsafe
+
+    KDTree(int dims, double[] bounds)
+        {
+        this.dims = dims;
+        this.bounds = bounds;
+        }
+
+    /** Empties the tree and prepares it to be reloaded with add(...) and then build(). */
+    void begin(int expectedSize)
+        {
+        if (objs.length < expectedSize)
+            {
+            objs = new Object[expectedSize];
+            pts = new double[expectedSize * dims];
+            }
+        else java.util.Arrays.fill(objs, null);   // let GC
+        size = 0;
+        }
+
+    void add(Object obj, double x, double y, double z)
+        {
+        if (size == objs.length)
+            {
+            Object[] o = new Object[size * 2 + 16];
+            System.arraycopy(objs, 0, o, 0, size);
+            objs = o;
+            double[] p = new double[o.length * dims];
+            System.arraycopy(pts, 0, p, 0, size * dims);
+            pts = p;
+            }
+        objs[size] = obj;
+        int d = size * dims;
+        pts[d] = x;
+        pts[d + 1] = y;
+        if (dims > 2) pts[d + 2] = z;
+        size++;
+        }
+
+    void build()
+        {
+        int maxNodes = 2 * (size / LEAF_SIZE + 1) * 2 + 1;
+        if (nodeLo.length < maxNodes)
+            {
+            nodeLo = new int[maxNodes];
+            nodeHi = new int[maxNodes];
+            nodeLeft = new int[maxNodes];
+            nodeRight = new int[maxNodes];
+            boxMin = new double[maxNodes * dims];
+            boxMax = new double[maxNodes * dims];
+            }
+        numNodes = 0;
+        build(0, size);
+
+        slots = new IdentityOpenMap(size);
+        for(int i = 0; i < size; i++)
+            slots.put(objs[i], Integer.valueOf(i));
+        dirty = false;
+        movesSinceBuild = 0;
+        }
+
+    // builds the node for objects lo ... hi-1, returning its index
+    int build(int lo, int hi)
+        {
+        int node = numNodes++;
+        nodeLo[node] = lo;
+        nodeHi[node] = hi;
+        computeBox(node);
+        if (hi - lo <= LEAF_SIZE)
+            {
+            nodeLeft[node] = -1;
+            nodeRight[node] = -1;
+            return node;
+            }
+
+        // split the widest dimension at its median
+        int dim = 0;
+        double widest = -1;
+        for(int d = 0; d < dims; d++)
+            {
+            double w = boxMax[node * dims + d] - boxMin[node * dims + d];
+            if (w > widest) { widest = w; dim = d; }
+            }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, dim);
+        nodeLeft[node] = build(lo, mid);
+        nodeRight[node] = build(mid, hi);
+        return node;
+        }
+
+    // computes the node's box from its objects
+    void computeBox(int node)
+        {
+        final int dims = this.dims;
+        final int b = node * dims;
+        for(int d = 0; d < dims; d++)
+            {
+            boxMin[b + d] = Double.POSITIVE_INFINITY;
+            boxMax[b + d] = Double.NEGATIVE_INFINITY;
+            }
+        final int hi = nodeHi[node];
+        for(int i = nodeLo[node]; i < hi; i++)
+            for(int d = 0; d < dims; d++)
+                {
+                double v = pts[i * dims + d];
+                if (v < boxMin[b + d]) boxMin[b + d] = v;
+                if (v > boxMax[b + d]) boxMax[b + d] = v;
+                }
+        }
+
+    // recomputes the node's box: from its objects if it's a leaf, else from its children's boxes
+    void refit(int node)
+        {
+        if (nodeLeft[node] < 0) { computeBox(node); return; }
+        final int dims = this.dims;
+        final int b = node * dims;
+        final int l = nodeLeft[node] * dims;
+        final int r = nodeRight[node] * dims;
+        for(int d = 0; d < dims; d++)
+            {
+            boxMin[b + d] = Math.min(boxMin[l + d], boxMin[r + d]);
+            boxMax[b + d] = Math.max(boxMax[l + d], boxMax[r + d]);
+            }
+        }
+
+    void swap(int i, int j)
+        {
+        Object o = objs[i]; objs[i] = objs[j]; objs[j] = o;
+        final int dims = this.dims;
+        for(int d = 0; d < dims; d++)
+            {
+            double t = pts[i * dims + d];
+            pts[i * dims + d] = pts[j * dims + d];
+            pts[j * dims + d] = t;
+            }
+        }
+
+    // quickselect: rearranges lo ... hi (inclusive) so that position k holds the value that would be there if sorted on dim
+    void select(int lo, int hi, int k, int dim)
+        {
+        final int dims = this.dims;
+        while(hi > lo)
+            {
+            // median of three pivot
+            int m = (lo + hi) >>> 1;
+            if (pts[m * dims + dim] < pts[lo * dims + dim]) swap(m, lo);
+            if (pts[hi * dims + dim] < pts[lo * dims + dim]) swap(hi, lo);
+            if (pts[hi * dims + dim] < pts[m * dims + dim]) swap(hi, m);
+            double pivot = pts[m * dims + dim];
+            int i = lo;
+            int j = hi;
+            while(i <= j)
+                {
+                while(pts[i * dims + dim] < pivot) i++;
+                while(pts[j * dims + dim] > pivot) j--;
+                if (i <= j) { swap(i, j); i++; j--; }
+                }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return;
+            }
+        }
+
+    /** Updates the location of an object which was already in the tree, refitting its ancestors' boxes. */
+    void move(Object obj, double x, double y, double z)
+        {
+        if (dirty) return;
+        Integer slot = (Integer)(slots.get(obj));
+        if (slot == null) { dirty = true; return; }
+        int i = slot.intValue();
+        int p = i * dims;
+        pts[p] = x;
+        pts[p + 1] = y;
+        if (dims > 2) pts[p + 2] = z;
+
+        // find the path to the leaf holding i
+        int depth = 0;
+        int node = 0;
+        while(true)
+            {
+            if (depth == path.length)
+                {
+                int[] p2 = new int[depth * 2];
+                System.arraycopy(path, 0, p2, 0, depth);
+                path = p2;
+                }
+            path[depth++] = node;
+            if (nodeLeft[node] < 0) break;
+            node = (i < nodeHi[nodeLeft[node]] ? nodeLeft[node] : nodeRight[node]);
+            }
+        // refit from the bottom up
+        for(int d = depth - 1; d >= 0; d--)
+            refit(path[d]);
+
+        if (++movesSinceBuild > size) dirty = true;
+        }
+
+    // the squared distance along one dimension from q to the interval [lo, hi], considering wrap-around if toroidal
+    double boxGap(double q, double lo, double hi, boolean toroidal, double bound)
+        {
+        double g = (q < lo ? lo - q : (q > hi ? q - hi : 0));
+        if (toroidal && g > 0)
+            {
+            double g2 = (q + bound < lo ? lo - q - bound : (q + bound > hi ? q + bound - hi : 0));
+            if (g2 < g) g = g2;
+            double g3 = (q - bound < lo ? lo - q + bound : (q - bound > hi ? q - bound - hi : 0));
+            if (g3 < g) g = g3;
+            }
+        return g * g;
+        }
+
+    // the squared distance from the query to the node's box
+    double boxDistance(int node, double[] q, boolean toroidal, int metric)
+        {
+        final int b = node * dims;
+        double sum = 0;
+        for(int d = 0; d < dims; d++)
+            {
+            double g = boxGap(q[d], boxMin[b + d], boxMax[b + d], toroidal, bounds[d]);
+            if (metric == EUCLIDEAN) sum += g;
+            else if (g > sum) sum = g;
+            }
+        return sum;
+        }
+
+    // the squared distance from the query to object i
+    double distance(int i, double[] q, boolean toroidal, int metric)
+        {
+        final int p = i * dims;
+        double sum = 0;
+        for(int d = 0; d < dims; d++)
+            {
+            double g = pts[p + d] - q[d];
+            if (toroidal)
+                {
+                double bound = bounds[d];
+                if (g * 2 > bound) g -= bound;
+                else if (g * 2 < -bound) g += bound;
+                }
+            g = g * g;
+            if (metric == EUCLIDEAN) sum += g;
+            else if (g > sum) sum = g;
+            }
+        return sum;
+        }
+
+    /** Adds to the result all objects within the given distance of the query point.  */
+    Bag within(double[] q, double distance, boolean toroidal, int metric, boolean inclusive, Bag result)
+        {
+        if (size > 0) within(0, q, distance * distance, toroidal, metric, inclusive, result);
+        return result;
+        }
+
+    void within(int node, double[] q, double distsq, boolean toroidal, int metric, boolean inclusive, Bag result)
+        {
+        if (boxDistance(node, q, toroidal, metric) > distsq) return;
+        if (nodeLeft[node] >= 0)
+            {
+            within(nodeLeft[node], q, distsq, toroidal, metric, inclusive, result);
+            within(nodeRight[node], q, distsq, toroidal, metric, inclusive, result);
+            return;
+            }
+        final int hi = nodeHi[node];
+        for(int i = nodeLo[node]; i < hi; i++)
+            {
+            double d = distance(i, q, toroidal, metric);
+            if (d < distsq || (inclusive && d == distsq))
+                result.add(objs[i]);
+            }
+        }
+
+    /** Adds to the result the k objects nearest the query point (or all of them, if there are fewer than k),
+        nearest first, and returns the squared distance to the farthest of them, or 0 if none. */
+    double nearest(double[] q, int k, boolean toroidal, int metric, Bag result)
+        {
+        if (k <= 0 || size == 0) return 0;
+        Nearest heap = new Nearest(Math.min(k, size));
+        nearest(0, q, heap, toroidal, metric);
+
+        // pull them out farthest-first, filling the result from the back
+        double farthest = heap.d[0];
+        int start = result.numObjs;
+        int n = heap.size;
+        for(int i = 0; i < n; i++) result.add(null);
+        for(int i = n - 1; i >= 0; i--)
+            {
+            result.objs[start + i] = objs[heap.i[0]];
+            heap.pop();
+            }
+        return farthest;
+        }
+
+    void nearest(int node, double[] q, Nearest heap, boolean toroidal, int metric)
+        {
+        if (heap.size == heap.d.length && boxDistance(node, q, toroidal, metric) >= heap.d[0]) return;
+        if (nodeLeft[node] >= 0)
+            {
+            int l = nodeLeft[node];
+            int r = nodeRight[node];
+            // closer child first
+            if (boxDistance(l, q, toroidal, metric) <= boxDistance(r, q, toroidal, metric))
+                { nearest(l, q, heap, toroidal, metric); nearest(r, q, heap, toroidal, metric); }
+            else
+                { nearest(r, q, heap, toroidal, metric); nearest(l, q, heap, toroidal, metric); }
+            return;
+            }
+        final int hi = nodeHi[node];
+        for(int i = nodeLo[node]; i < hi; i++)
+            {
+            double d = distance(i, q, toroidal, metric);
+            if (heap.size < heap.d.length) heap.push(d, i);
+            else if (d < heap.d[0]) { heap.pop(); heap.push(d, i); }
+            }
+        }
+
+    // a fixed-size max-heap of (squared distance, index) pairs
+    static class Nearest
+        {
+        double[] d;
+        int[] i;
+        int size;
+
+        Nearest(int k) { d = new double[k]; i = new int[k]; }
+
+        void push(double dist, int index)
+            {
+            int c = size++;
+            while(c > 0)
+                {
+                int p = (c - 1) >>> 1;
+                if (d[p] >= dist) break;
+                d[c] = d[p];
+                i[c] = i[p];
+                c = p;
+                }
+            d[c] = dist;
+            i[c] = index;
+            }
+
+        void pop()
+            {
+            int n = --size;
+            double dist = d[n];
+            int index = i[n];
+            int c = 0;
+            while(true)
+                {
+                int child = c * 2 + 1;
+                if (child >= n) break;
+                if (child + 1 < n && d[child + 1] > d[child]) child++;
+                if (d[child] <= dist) break;
+                d[c] = d[child];
+                i[c] = i[child];
+                c = child;
+                }
+            d[c] = dist;
+            i[c] = index;
+            }
+        }
+    }
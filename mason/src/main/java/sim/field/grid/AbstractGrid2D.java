@@ -41,7 +41,43 @@ public abstract class AbstractGrid2D implements Grid2D
     
     public final int getHeight() { return height; }
     
-    public void reshape(int width, int height) { this.width = width; this.height = height; }
+    public void reshape(int width, int height) { this.width = width; this.height = height; markAllDirty(); }
+    
+    /** Tracks the tiles of the grid which have changed, or null if we're not tracking changes. */
+    protected DirtyTiles dirtyTiles;
+
+    /** Turns dirty-tile tracking on or off.  When it is on, set(...) and the whole-grid modification methods
+        record which tiles of the grid have changed in getDirtyTiles(), so portrayals and the like can process just
+        those tiles.  Turning tracking on marks the whole grid as dirty.  See DirtyTiles for more information. */
+    public void setTracksDirtyTiles(boolean val)
+        {
+        if (!val) dirtyTiles = null;
+        else if (dirtyTiles == null) dirtyTiles = new DirtyTiles(width, height);
+        }
+
+    /** Returns true if dirty-tile tracking is on. */
+    public boolean getTracksDirtyTiles() { return dirtyTiles != null; }
+
+    /** Returns the dirty-tile tracker, or null if dirty-tile tracking is off. */
+    public DirtyTiles getDirtyTiles() { return dirtyTiles; }
+
+    /** Marks location (x,y) as changed, if dirty-tile tracking is on.  Call this if you have changed the location
+        by modifying the field array directly. */
+    public final void markDirty(final int x, final int y)
+        {
+        if (dirtyTiles != null) dirtyTiles.mark(x, y);
+        }
+
+    /** Marks the whole grid as changed, if dirty-tile tracking is on.  Call this if you have changed the grid
+        by modifying the field array directly. */
+    public final void markAllDirty()
+        {
+        final DirtyTiles dirtyTiles = this.dirtyTiles;
+        if (dirtyTiles == null) return;
+        if (dirtyTiles.width != width || dirtyTiles.height != height)      // we were resized
+            dirtyTiles.reshape(width, height);
+        else dirtyTiles.markAll();
+        }
     
     public Map buildMap(Map other) { return new HashMap(other); }
     public Map buildMap(int size) 
@@ -977,4 +1013,30 @@ return true;
 */
     protected boolean isDistributed() { return false; }
 
+    /** Calls the visitor on each location in the given Neighborhood around (x,y), without filling any IntBags.  This visits the
+        same locations as the equivalent get...Locations(...) method, though not necessarily in the same order, except that it never visits
+        a location twice even if the neighborhood wraps around onto itself.  See Neighborhood for the details. */
+    public void visitLocations( final Neighborhood neighborhood, final int x, final int y, int mode, Neighborhood.Visitor visitor )
+        {
+        neighborhood.visit(x, y, width, height, mode, visitor);
+        }
+
+    /** Calls the visitor on each location within the Moore neighborhood of (x,y).  See visitLocations(...) and getMooreLocations(...). */
+    public void visitMooreLocations( final int x, final int y, final int dist, int mode, boolean includeOrigin, Neighborhood.Visitor visitor )
+        {
+        Neighborhood.get(Neighborhood.MOORE, dist, includeOrigin).visit(x, y, width, height, mode, visitor);
+        }
+
+    /** Calls the visitor on each location within the von Neumann neighborhood of (x,y).  See visitLocations(...) and getVonNeumannLocations(...). */
+    public void visitVonNeumannLocations( final int x, final int y, final int dist, int mode, boolean includeOrigin, Neighborhood.Visitor visitor )
+        {
+        Neighborhood.get(Neighborhood.VON_NEUMANN, dist, includeOrigin).visit(x, y, width, height, mode, visitor);
+        }
+
+    /** Calls the visitor on each location within the hexagonal neighborhood of (x,y).  See visitLocations(...) and getHexagonalLocations(...). */
+    public void visitHexagonalLocations( final int x, final int y, final int dist, int mode, boolean includeOrigin, Neighborhood.Visitor visitor )
+        {
+        Neighborhood.get(Neighborhood.HEXAGONAL, dist, includeOrigin).visit(x, y, width, height, mode, visitor);
+        }
+
     }
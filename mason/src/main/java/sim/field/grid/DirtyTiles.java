@@ -0,0 +1,148 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+import sim.util.*;
+
+/**
+   Tracks which square tiles of a 2D grid have changed, so that a portrayal can redraw, or a synchronization or
+   serialization mechanism can ship, only the parts of the grid which have been modified.
+
+   <p>You don't usually create a DirtyTiles yourself: instead you call <tt>setTracksDirtyTiles(true)</tt> on a DoubleGrid2D,
+   IntGrid2D, or ObjectGrid2D.  Thereafter the grid's set(...) method marks the tile holding the location as dirty, and
+   its whole-grid methods (setTo(...), add(...), multiply(...), replaceAll(...), and so on) mark every tile as dirty.
+   <b>If you modify the grid's field array directly, as MASON often encourages you to, you must call markDirty(x,y) or
+   markAllDirty() on the grid yourself.</b>
+
+   <p><b>Epochs</b>  Several parties may be interested in the changes to the same grid (say, two displays and a synchronizer),
+   and each needs to know what has changed since <i>it</i> last looked.  So rather than a single bitmap which someone would have to
+   clear, each tile holds the <i>epoch</i> in which it was last changed.  A consumer remembers an epoch number, initially 0.
+   When it wants to process changes, it calls nextEpoch() to start a new epoch (so further changes are stamped with a newer epoch
+   and will be seen next time), processes every tile which isDirty(tileX, tileY, since) its remembered epoch, and then remembers the
+   epoch nextEpoch() returned.  Since all tiles start out stamped with epoch 0, a consumer's first look sees every tile as dirty.
+
+   <p>Marking a tile is a single array store, so tracking costs very little.  However DirtyTiles is not synchronized: you should
+   look at the changes between steps (as portrayals do), not while other threads are modifying the grid.
+*/
+
+public class DirtyTiles implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The default tile size, which is 16x16 locations. */
+    public static final int DEFAULT_TILE_SIZE = 16;
+
+    int shift;
+    int width;
+    int height;
+    int tilesWide;
+    int tilesHigh;
+    long[] stamps;
+    long epoch = 0;
+
+    /** Builds a DirtyTiles for a grid of the given width and height, with the given tile size, which is rounded up to a power of two. */
+    public DirtyTiles(int width, int height, int tileSize)
+        {
+        if (tileSize < 1)
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        shift = 0;
+        while((1 << shift) < tileSize) shift++;
+        reshape(width, height);
+        }
+
+    /** Builds a DirtyTiles for a grid of the given width and height, with the default tile size. */
+    public DirtyTiles(int width, int height)
+        {
+        this(width, height, DEFAULT_TILE_SIZE);
+        }
+
+    /** Changes the size of the underlying grid.  All tiles are marked as dirty. */
+    public void reshape(int width, int height)
+        {
+        this.width = width;
+        this.height = height;
+        tilesWide = ((width - 1) >> shift) + 1;
+        tilesHigh = ((height - 1) >> shift) + 1;
+        if (width == 0) tilesWide = 0;
+        if (height == 0) tilesHigh = 0;
+        stamps = new long[tilesWide * tilesHigh];
+        markAll();
+        }
+
+    /** Returns the width and height of each tile. */
+    public int getTileSize() { return 1 << shift; }
+
+    /** Returns the number of tiles across the width of the grid. */
+    public int getTilesWide() { return tilesWide; }
+
+    /** Returns the number of tiles across the height of the grid. */
+    public int getTilesHigh() { return tilesHigh; }
+
+    /** Returns the current epoch.  Changes made now are stamped with this epoch. */
+    public long getEpoch() { return epoch; }
+
+    /** Starts a new epoch and returns it.  Changes made from now on are stamped with the new epoch.  */
+    public long nextEpoch() { return ++epoch; }
+
+    /** Marks the tile holding location (x,y) as changed in the current epoch. */
+    public final void mark(final int x, final int y)
+        {
+        stamps[(x >> shift) * tilesHigh + (y >> shift)] = epoch;
+        }
+
+    /** Marks every tile overlapping the rectangle from (x0, y0) inclusive to (x1, y1) exclusive as changed in the current epoch.
+        The rectangle is clipped to the grid. */
+    public void mark(int x0, int y0, int x1, int y1)
+        {
+        if (x0 < 0) x0 = 0;
+        if (y0 < 0) y0 = 0;
+        if (x1 > width) x1 = width;
+        if (y1 > height) y1 = height;
+        if (x0 >= x1 || y0 >= y1) return;
+        final int ty0 = y0 >> shift;
+        final int ty1 = (y1 - 1) >> shift;
+        for(int tx = x0 >> shift; tx <= (x1 - 1) >> shift; tx++)
+            java.util.Arrays.fill(stamps, tx * tilesHigh + ty0, tx * tilesHigh + ty1 + 1, epoch);
+        }
+
+    /** Marks every tile as changed in the current epoch. */
+    public void markAll()
+        {
+        java.util.Arrays.fill(stamps, epoch);
+        }
+
+    /** Returns true if the given tile has changed in or after the given epoch. */
+    public boolean isDirty(int tileX, int tileY, long since)
+        {
+        return stamps[tileX * tilesHigh + tileY] >= since;
+        }
+
+    /** Returns true if any tile has changed in or after the given epoch. */
+    public boolean isDirty(long since)
+        {
+        final long[] stamps = this.stamps;
+        for(int i = 0; i < stamps.length; i++)
+            if (stamps[i] >= since) return true;
+        return false;
+        }
+
+    /** Places into tileX and tileY, clearing them first, the coordinates of each tile changed in or after the given epoch,
+        and returns the number of such tiles.  Tile (tx, ty) covers the locations from (tx * getTileSize(), ty * getTileSize())
+        inclusive to ((tx + 1) * getTileSize(), (ty + 1) * getTileSize()) exclusive, clipped to the grid. */
+    public int getDirtyTiles(long since, IntBag tileX, IntBag tileY)
+        {
+        tileX.clear();
+        tileY.clear();
+        final long[] stamps = this.stamps;
+        for(int i = 0; i < stamps.length; i++)
+            if (stamps[i] >= since)
+                {
+                tileX.add(i / tilesHigh);
+                tileY.add(i % tilesHigh);
+                }
+        return tileX.numObjs;
+        }
+    }
@@ -58,6 +58,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
     public final void set(final int x, final int y, final double val)
         {
         field[x][y] = val;
+        if (dirtyTiles != null) dirtyTiles.mark(x, y);
         }
     
     /** Returns the element at location (x,y) */
@@ -92,9 +93,17 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] = thisMuch;
                 }
             }
+        markAllDirty();
         return this;
         }
 
+    /** Sets all the locations in the grid to 0, keeping the grid's storage so it can be refilled.  This is meant
+        for a model which runs many short simulations in a row, such as a ParameterSweep, and refills its fields in start() each time. */
+    public void reset()
+        {
+        setTo(0.0);
+        }
+
     /** Sets the grid to a copy of the provided array, which must be rectangular. */
     public DoubleGrid2D setTo(double[][] field)
         {
@@ -126,6 +135,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
             for (int i = 0; i < w; i++)
                 this.field[i] = (double[]) field[i].clone();
             }
+        markAllDirty();
         return this;
         }
 
@@ -159,6 +169,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
             for(int x =0 ; x < width; x++)
                 System.arraycopy(values.field[x],0,field[x],0,height);
             }
+        markAllDirty();
         return this;
         }
 
@@ -314,6 +325,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                         fieldx[y] = toNoMoreThanThisMuch;
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -345,6 +357,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                         fieldx[y] = toNoLowerThanThisMuch;
                 }
             }
+        markAllDirty();
         return this;
         }
     
@@ -375,6 +388,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] += withThisMuch;
                 }
             }
+        markAllDirty();
         return this;
         }
         
@@ -408,6 +422,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] += ofieldx[y];
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -441,6 +456,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] += ofieldx[y];
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -471,6 +487,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] *= byThisMuch;
                 }
             }
+        markAllDirty();
         return this;
 
         }
@@ -506,6 +523,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] *= ofieldx[y];
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -539,6 +557,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] *= ofieldx[y];
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -567,6 +586,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] = /*Strict*/Math.floor(fieldx[y]);
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -595,6 +615,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] = /*Strict*/Math.ceil(fieldx[y]);
                 }
             }
+        markAllDirty();
         return this;
         }
     
@@ -626,6 +647,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
 
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -655,6 +677,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] = /*Strict*/Math.rint(fieldx[y]);
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -691,6 +714,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         }
 
 
@@ -1239,5 +1263,73 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
         }
 
 
+    /** Visits a location and the value stored there.  See visitNeighbors(...). */
+    public interface Visitor
+        {
+        public void visit(int x, int y, double value);
+        }
 
+    /**
+     * Calls the visitor on each location in the given Neighborhood around (X,Y), along with the value at that location.
+     * This visits the same locations as the equivalent get...Neighbors(...) method, though not necessarily in the same order
+     * (except where a small toroidal grid makes the neighborhood wrap around onto itself: see Neighborhood),
+     * but builds no Bags and (for all but absurdly large toroidal neighborhoods) allocates nothing.
+     * Since the grid has no locations outside of its bounds, Grid2D.UNBOUNDED is treated like Grid2D.BOUNDED.
+     */
+    public void visitNeighbors( final Neighborhood neighborhood, final int x, final int y, final int mode, final Visitor visitor )
+        {
+        final int width = this.width;
+        final int height = this.height;
+        neighborhood.check(x, y, width, height, mode);
+        final double[][] field = this.field;
+        final int[] xo = neighborhood.getXOffsets(x);
+        final int[] yo = neighborhood.getYOffsets(x);
+        if (mode == TOROIDAL)
+            {
+            if (!neighborhood.fits(width, height))
+                {
+                neighborhood.visitWrapped(x, y, width, height, new Neighborhood.Visitor()
+                    {
+                    public void visit(int xx, int yy) { visitor.visit(xx, yy, field[xx][yy]); }
+                    });
+                return;
+                }
+            for(int i = 0; i < xo.length; i++)
+                {
+                int xx = x + xo[i];
+                int yy = y + yo[i];
+                if (xx < 0) xx += width; else if (xx >= width) xx -= width;
+                if (yy < 0) yy += height; else if (yy >= height) yy -= height;
+                visitor.visit(xx, yy, field[xx][yy]);
+                }
+            }
+        else
+            {
+            for(int i = 0; i < xo.length; i++)
+                {
+                final int xx = x + xo[i];
+                final int yy = y + yo[i];
+                if (xx >= 0 && xx < width && yy >= 0 && yy < height)
+                    visitor.visit(xx, yy, field[xx][yy]);
+                }
+            }
+        }
+
+    /** Calls the visitor on each location, and the value there, within the Moore neighborhood of (X,Y).  See visitNeighbors(...) and getMooreNeighbors(...). */
+    public void visitMooreNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, Visitor visitor )
+        {
+        visitNeighbors(Neighborhood.get(Neighborhood.MOORE, dist, includeOrigin), x, y, mode, visitor);
+        }
+
+    /** Calls the visitor on each location, and the value there, within the von Neumann neighborhood of (X,Y).  See visitNeighbors(...) and getVonNeumannNeighbors(...). */
+    public void visitVonNeumannNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, Visitor visitor )
+        {
+        visitNeighbors(Neighborhood.get(Neighborhood.VON_NEUMANN, dist, includeOrigin), x, y, mode, visitor);
+        }
+
+    /** Calls the visitor on each location, and the value there, within the hexagonal neighborhood of (X,Y).  See visitNeighbors(...) and getHexagonalNeighbors(...). */
+    public void visitHexagonalNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, Visitor visitor )
+        {
+        visitNeighbors(Neighborhood.get(Neighborhood.HEXAGONAL, dist, includeOrigin), x, y, mode, visitor);
+        }
     }
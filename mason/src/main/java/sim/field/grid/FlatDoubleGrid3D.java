@@ -0,0 +1,502 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+import sim.util.*;
+
+/**
+    A wrapper for a 3D grid of doubles stored in a single one-dimensional array.
+
+    <p>This is the 3D equivalent of FlatDoubleGrid2D: location (x,y,z) is stored at index
+    <tt>(x * height + y) * length + z</tt> of a single double[] of length width * height * length, rather than
+    in a separate array per (x,y) column as DoubleGrid3D does.  See FlatDoubleGrid2D for a discussion of why
+    you might want this.
+
+    <p>You are encouraged to access the array directly, using index(x,y,z) or computing the index yourself.
+    The object implements all of the Grid3D interface and has the same get/set/add/multiply/neighborhood
+    methods as DoubleGrid3D.  You can copy the grid into a DoubleGrid3D for display with copyTo(...) or toDoubleGrid3D().
+*/
+
+public /*strictfp*/ class FlatDoubleGrid3D extends AbstractGrid3D
+    {
+    private static final long serialVersionUID = 1;
+
+    public double[/** (x * height + y) * length + z */] field;
+
+    public double[] getField() { return field; }
+
+    public FlatDoubleGrid3D (int width, int height, int length)
+        {
+        reshape(width, height, length);
+        }
+
+    public FlatDoubleGrid3D (int width, int height, int length, double initialValue)
+        {
+        this(width,height,length);
+        setTo(initialValue);
+        }
+
+    public FlatDoubleGrid3D (FlatDoubleGrid3D values)
+        {
+        setTo(values);
+        }
+
+    public FlatDoubleGrid3D (DoubleGrid3D values)
+        {
+        setTo(values);
+        }
+
+    public FlatDoubleGrid3D(double[][][] values)
+        {
+        setTo(values);
+        }
+
+    protected void reshape(int width, int height, int length)
+        {
+        this.width = width;
+        this.height = height;
+        this.length = length;
+        field = new double[width * height * length];
+        }
+
+    /** Returns the index in the field array of location (x,y,z). */
+    public final int index(final int x, final int y, final int z)
+        {
+        return (x * height + y) * length + z;
+        }
+
+    /** Sets location (x,y,z) to val */
+    public final void set(final int x, final int y, final int z, final double val)
+        {
+        field[(x * height + y) * length + z] = val;
+        }
+
+    /** Returns the element at location (x,y,z) */
+    public final double get(final int x, final int y, final int z)
+        {
+        return field[(x * height + y) * length + z];
+        }
+
+    /** Sets all the locations in the grid the provided element */
+    public final FlatDoubleGrid3D setTo(final double thisMuch)
+        {
+        java.util.Arrays.fill(field, thisMuch);
+        return this;
+        }
+
+    /** Sets the grid to a copy of the provided array, which must be rectangular. */
+    public FlatDoubleGrid3D setTo(final double[][][] field)
+        {
+        if (field == null)
+            throw new RuntimeException("FlatDoubleGrid3D set to null field.");
+        final int w = field.length;
+        int h = 0;
+        int l = 0;
+        if (w != 0)
+            {
+            h = field[0].length;
+            if (h != 0)
+                l = field[0][0].length;
+            }
+        for(int i = 0; i < w; i++)
+            {
+            if (field[i].length != h) // uh oh
+                throw new RuntimeException("FlatDoubleGrid3D initialized with a non-rectangular field.");
+            for(int j = 0; j < h; j++)
+                if (field[i][j].length != l) // uh oh
+                    throw new RuntimeException("FlatDoubleGrid3D initialized with a non-rectangular field.");
+            }
+
+        reshape(w, h, l);
+        for(int x = 0; x < w; x++)
+            for(int y = 0; y < h; y++)
+                System.arraycopy(field[x][y], 0, this.field, (x * h + y) * l, l);
+        return this;
+        }
+
+    /** Changes the dimensions of the grid to be the same as the one provided, then
+        sets all the locations in the grid to the elements at the quivalent locations in the
+        provided grid. */
+    public final FlatDoubleGrid3D setTo(final FlatDoubleGrid3D values)
+        {
+        if (field == null || width != values.width || height != values.height || length != values.length)
+            {
+            width = values.width;
+            height = values.height;
+            length = values.length;
+            field = (double[]) (values.field.clone());
+            }
+        else System.arraycopy(values.field, 0, field, 0, field.length);
+        return this;
+        }
+
+    /** Changes the dimensions of the grid to be the same as the one provided, then
+        sets all the locations in the grid to the elements at the quivalent locations in the
+        provided grid. */
+    public final FlatDoubleGrid3D setTo(final DoubleGrid3D values)
+        {
+        final int w = values.getWidth();
+        final int h = values.getHeight();
+        final int l = values.getLength();
+        if (field == null || width != w || height != h || length != l)
+            reshape(w, h, l);
+        for(int x = 0; x < w; x++)
+            for(int y = 0; y < h; y++)
+                System.arraycopy(values.field[x][y], 0, field, (x * h + y) * l, l);
+        return this;
+        }
+
+    /** Copies the grid into the provided DoubleGrid3D, reshaping it if it is not the same size,
+        and returns it.  This is mostly useful for displaying the grid with the DoubleGrid3D portrayals. */
+    public final DoubleGrid3D copyTo(final DoubleGrid3D values)
+        {
+        final int w = width;
+        final int h = height;
+        final int l = length;
+        if (values.getWidth() != w || values.getHeight() != h || values.getLength() != l)
+            values.reshape(w, h, l);
+        for(int x = 0; x < w; x++)
+            for(int y = 0; y < h; y++)
+                System.arraycopy(field, (x * h + y) * l, values.field[x][y], 0, l);
+        return values;
+        }
+
+    /** Returns a new DoubleGrid3D holding a copy of this grid. */
+    public final DoubleGrid3D toDoubleGrid3D()
+        {
+        return copyTo(new DoubleGrid3D(width, height, length));
+        }
+
+    /** Flattens the grid to a one-dimensional array, storing the elements in row-major order,including duplicates and null values.
+        This is simply a copy of the field.  Returns the grid. */
+    public final double[] toArray()
+        {
+        return (double[]) (field.clone());
+        }
+
+    /** Returns the maximum value stored in the grid */
+    public final double max()
+        {
+        final double[] field = this.field;
+        double max = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < field.length; i++)
+            if (max < field[i]) max = field[i];
+        return max;
+        }
+
+    /** Returns the minimum value stored in the grid */
+    public final double min()
+        {
+        final double[] field = this.field;
+        double min = Double.POSITIVE_INFINITY;
+        for(int i = 0; i < field.length; i++)
+            if (min > field[i]) min = field[i];
+        return min;
+        }
+
+    /** Returns the sum of the values stored in the grid */
+    public final double sum()
+        {
+        final double[] field = this.field;
+        double sum = 0;
+        for(int i = 0; i < field.length; i++)
+            sum += field[i];
+        return sum;
+        }
+
+    /** Returns the mean value stored in the grid */
+    public final double mean()
+        {
+        return (field.length == 0 ? 0 : sum() / field.length);
+        }
+
+    /** Thresholds the grid so that values greater to <i>toNoMoreThanThisMuch</i> are changed to <i>toNoMoreThanThisMuch</i>.
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid3D upperBound(final double toNoMoreThanThisMuch)
+        {
+        final double[] field = this.field;
+        for(int i = 0; i < field.length; i++)
+            if (field[i] > toNoMoreThanThisMuch)
+                field[i] = toNoMoreThanThisMuch;
+        return this;
+        }
+
+    /** Thresholds the grid so that values smaller than <i>toNoLowerThanThisMuch</i> are changed to <i>toNoLowerThanThisMuch</i>
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid3D lowerBound(final double toNoLowerThanThisMuch)
+        {
+        final double[] field = this.field;
+        for(int i = 0; i < field.length; i++)
+            if (field[i] < toNoLowerThanThisMuch)
+                field[i] = toNoLowerThanThisMuch;
+        return this;
+        }
+
+    /** Sets each value in the grid to that value added to <i>withThisMuch</i>
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid3D add(final double withThisMuch)
+        {
+        if (withThisMuch==0.0) return this;
+        final double[] field = this.field;
+        for(int i = 0; i < field.length; i++)
+            field[i] += withThisMuch;
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value added to the value at the equivalent location in the provided grid.
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid3D add(final FlatIntGrid3D withThis)
+        {
+        checkBounds(withThis);
+        final double[] field = this.field;
+        final int[] ofield = withThis.field;
+        for(int i = 0; i < field.length; i++)
+            field[i] += ofield[i];
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value added to the value at the equivalent location in the provided grid.
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid3D add(final FlatDoubleGrid3D withThis)
+        {
+        checkBounds(withThis);
+        final double[] field = this.field;
+        final double[] ofield = withThis.field;
+        for(int i = 0; i < field.length; i++)
+            field[i] += ofield[i];
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value plus <i>scale</i> times the value at the equivalent location
+        in the provided grid (the classic "axpy" operation).  This is handy for blending or decaying one grid into another
+        in a single pass.  Returns the modified grid.
+    */
+    public final FlatDoubleGrid3D add(final FlatDoubleGrid3D withThis, final double scale)
+        {
+        checkBounds(withThis);
+        final double[] field = this.field;
+        final double[] ofield = withThis.field;
+        for(int i = 0; i < field.length; i++)
+            field[i] += ofield[i] * scale;
+        return this;
+        }
+
+    /** Sets each value in the grid to that value multiplied <i>byThisMuch</i>
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid3D multiply(final double byThisMuch)
+        {
+        if (byThisMuch==1.0) return this;
+        final double[] field = this.field;
+        for(int i = 0; i < field.length; i++)
+            field[i] *= byThisMuch;
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value multiplied by to the value at the equivalent location in the provided grid.
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid3D multiply(final FlatIntGrid3D withThis)
+        {
+        checkBounds(withThis);
+        final double[] field = this.field;
+        final int[] ofield = withThis.field;
+        for(int i = 0; i < field.length; i++)
+            field[i] *= ofield[i];
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value multiplied by to the value at the equivalent location in the provided grid.
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid3D multiply(final FlatDoubleGrid3D withThis)
+        {
+        checkBounds(withThis);
+        final double[] field = this.field;
+        final double[] ofield = withThis.field;
+        for(int i = 0; i < field.length; i++)
+            field[i] *= ofield[i];
+        return this;
+        }
+
+    /** Sets each value in the grid to floor(value).
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid3D floor()
+        {
+        final double[] field = this.field;
+        for(int i = 0; i < field.length; i++)
+            field[i] = Math.floor(field[i]);
+        return this;
+        }
+
+    /** Sets each value in the grid to ceil(value).
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid3D ceiling()
+        {
+        final double[] field = this.field;
+        for(int i = 0; i < field.length; i++)
+            field[i] = Math.ceil(field[i]);
+        return this;
+        }
+
+    /** Eliminates the decimal portion of each value in the grid (rounds towards zero).
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid3D truncate()
+        {
+        final double[] field = this.field;
+        for(int i = 0; i < field.length; i++)
+            {
+            if (field[i] > 0.0) field[i] = Math.floor(field[i]);
+            else field[i] = Math.ceil(field[i]);
+            }
+        return this;
+        }
+
+    /** Sets each value in the grid to rint(value).  That is, each value
+        is rounded to the closest integer value.  If two integers are the same
+        distance, the value is rounded to the even integer.
+        Returns the modified grid.
+    */
+    public final FlatDoubleGrid3D rint()
+        {
+        final double[] field = this.field;
+        for(int i = 0; i < field.length; i++)
+            field[i] = Math.rint(field[i]);
+        return this;
+        }
+
+    /**
+     * Replace instances of one value to another.
+     * @param from any element that matches this value will be replaced
+     * @param to with this value
+     */
+    public final void replaceAll(final double from, final double to)
+        {
+        final double[] field = this.field;
+        for(int i = 0; i < field.length; i++)
+            if (field[i] == from)
+                field[i] = to;
+        }
+
+    void checkBounds(final AbstractGrid3D other)
+        {
+        if (other.width != width || other.height != height || other.length != length)
+            throw new IllegalArgumentException("Grid of size " + other.width + " x " + other.height + " x " + other.length +
+                " does not match this grid's size of " + width + " x " + height + " x " + length);
+        }
+
+
+    /**
+     * Gets all neighbors of a location that satisfy max( abs(x-X) , abs(y-Y), abs(z-Z) ) <= dist.  This region forms a
+     * cube 2*dist+1 cells across, centered at (X,Y,Z).  If dist==1, this is equivalent to the so-called "Moore Neighborhood"
+     * (the 26 neighbors surrounding (X,Y,Z)), plus (X,Y,Z) itself.
+     * Places each x, y, and z value of these locations in the provided IntBags xPos, yPos, and zPos, clearing the bags first.
+     * Then places into the result DoubleBag the values at each of these locations, clearing it first.
+     * Returns the result DoubleBag.  null may be passed in for the various bags, though it is more efficient
+     * to pass in a 'scratch bag' for each one.
+     *
+     * <p>See DoubleGrid3D.getMooreNeighbors(...) for a description of the modes.
+     */
+    public DoubleBag getMooreNeighbors( final int x, final int y, final int z, final int dist, int mode, boolean includeOrigin, DoubleBag result, IntBag xPos, IntBag yPos, IntBag zPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+        if( zPos == null )
+            zPos = new IntBag();
+
+        getMooreLocations( x, y, z, dist, mode, includeOrigin, xPos, yPos, zPos );
+        return getObjectsAtLocations(xPos,yPos,zPos,result);
+        }
+
+    /**
+     * Gets all neighbors of a location that satisfy abs(x-X) + abs(y-Y) + abs(z-Z) <= dist.  This region forms an
+     * octahedron 2*dist+1 cells from point to opposite point inclusive, centered at (X,Y,Z).  If dist==1 this is
+     * equivalent to the so-called "Von-Neumann Neighborhood" (the six neighbors above, below, left, right, front, and
+     * back of (X,Y,Z)), plus (X,Y,Z) itself.
+     * Places each x, y, and z value of these locations in the provided IntBags xPos, yPos, and zPos, clearing the bags first.
+     * Then places into the result DoubleBag the values at each of these locations, clearing it first.
+     * Returns the result DoubleBag.  null may be passed in for the various bags, though it is more efficient
+     * to pass in a 'scratch bag' for each one.
+     *
+     * <p>See DoubleGrid3D.getVonNeumannNeighbors(...) for a description of the modes.
+     */
+    public DoubleBag getVonNeumannNeighbors( final int x, final int y, final int z, final int dist, int mode, boolean includeOrigin, DoubleBag result, IntBag xPos, IntBag yPos, IntBag zPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+        if( zPos == null )
+            zPos = new IntBag();
+
+        getVonNeumannLocations( x, y, z, dist, mode, includeOrigin, xPos, yPos, zPos );
+        return getObjectsAtLocations(xPos,yPos,zPos,result);
+        }
+
+    public DoubleBag getRadialNeighbors( final int x, final int y, final int z, final double dist, int mode, boolean includeOrigin, DoubleBag result, IntBag xPos, IntBag yPos, IntBag zPos )
+        {
+        return getRadialNeighbors(x, y, z, dist, mode, includeOrigin, Grid3D.ANY, true, result, xPos, yPos, zPos);
+        }
+
+    public DoubleBag getRadialNeighbors( final int x, final int y, final int z, final double dist, int mode, boolean includeOrigin, int measurementRule, boolean closed, DoubleBag result, IntBag xPos, IntBag yPos, IntBag zPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+        if( zPos == null )
+            zPos = new IntBag();
+
+        getRadialLocations( x, y, z, dist, mode, includeOrigin, measurementRule, closed, xPos, yPos, zPos );
+        return getObjectsAtLocations(xPos,yPos,zPos,result);
+        }
+
+    /* For each <xPos,yPos,zPos> location, puts the value at that location into the result DoubleBag.  Returns the result DoubleBag.
+       If the provided result DoubleBag is null, one will be created and returned. */
+    DoubleBag getObjectsAtLocations(final IntBag xPos, final IntBag yPos, final IntBag zPos, DoubleBag result)
+        {
+        if (result==null) result = new DoubleBag();
+        else result.clear();
+
+        final double[] field = this.field;
+        final int height = this.height;
+        final int length = this.length;
+        final int[] xs = xPos.objs;
+        final int[] ys = yPos.objs;
+        final int[] zs = zPos.objs;
+        for( int i = 0 ; i < xPos.numObjs ; i++ )
+            {
+            assert sim.util.LocationLog.it(this, new Int3D(xs[i],ys[i],zs[i]));
+            result.add( field[(xs[i] * height + ys[i]) * length + zs[i]] );
+            }
+        return result;
+        }
+
+    public DoubleBag getMooreNeighbors( int x, int y, int z, int dist, int mode, boolean includeOrigin )
+        {
+        return getMooreNeighbors(x, y, z, dist, mode, includeOrigin, null, null, null, null);
+        }
+
+    public DoubleBag getVonNeumannNeighbors( int x, int y, int z, int dist, int mode, boolean includeOrigin )
+        {
+        return getVonNeumannNeighbors(x, y, z, dist, mode, includeOrigin, null, null, null, null);
+        }
+
+    public DoubleBag getRadialNeighbors( final int x, final int y, final int z, final double dist, int mode, boolean includeOrigin)
+        {
+        return getRadialNeighbors(x, y, z, dist, mode, includeOrigin, null, null, null, null);
+        }
+    }
@@ -0,0 +1,431 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+import sim.util.*;
+
+/**
+    A wrapper for a 2D grid of ints stored in a single one-dimensional array.
+
+    <p>This is the int equivalent of FlatDoubleGrid2D: location (x,y) is stored at index <tt>x * height + y</tt>
+    of a single int[] of length width * height, rather than in a separate array per column as IntGrid2D does.
+    See FlatDoubleGrid2D for a discussion of why you might want this.
+
+    <p>You are encouraged to access the array directly, using index(x,y) or computing the index yourself.
+    The object implements all of the Grid2D interface and has the same get/set/add/multiply/neighborhood
+    methods as IntGrid2D.  Since the portrayals and inspectors expect an IntGrid2D, you can copy the
+    grid into one for display with copyTo(...) or toIntGrid2D().
+*/
+
+public /*strictfp*/ class FlatIntGrid2D extends AbstractGrid2D
+    {
+    private static final long serialVersionUID = 1;
+
+    public int[/** x * height + y */] field;
+
+    public int[] getField() { return field; }
+
+    public FlatIntGrid2D (int width, int height)
+        {
+        this.width = width;
+        this.height = height;
+        field = new int[width * height];
+        }
+
+    public FlatIntGrid2D (int width, int height, int initialValue)
+        {
+        this(width,height);
+        setTo(initialValue);
+        }
+
+    public FlatIntGrid2D (FlatIntGrid2D values)
+        {
+        setTo(values);
+        }
+
+    public FlatIntGrid2D (IntGrid2D values)
+        {
+        setTo(values);
+        }
+
+    public FlatIntGrid2D(int[][] values)
+        {
+        setTo(values);
+        }
+
+    public void reshape(int width, int height)
+        {
+        super.reshape(width, height);
+        field = new int[width * height];
+        }
+
+    /** Returns the index in the field array of location (x,y). */
+    public final int index(final int x, final int y)
+        {
+        return x * height + y;
+        }
+
+    /** Sets location (x,y) to val */
+    public final void set(final int x, final int y, final int val)
+        {
+        field[x * height + y] = val;
+        if (dirtyTiles != null) dirtyTiles.mark(x, y);
+        }
+
+    /** Returns the element at location (x,y) */
+    public final int get(final int x, final int y)
+        {
+        return field[x * height + y];
+        }
+
+    /** Sets all the locations in the grid the provided element */
+    public final FlatIntGrid2D setTo(final int thisMuch)
+        {
+        java.util.Arrays.fill(field, thisMuch);
+        markAllDirty();
+        return this;
+        }
+
+    /** Sets the grid to a copy of the provided array, which must be rectangular. */
+    public FlatIntGrid2D setTo(final int[][] field)
+        {
+        if (field == null)
+            throw new RuntimeException("FlatIntGrid2D set to null field.");
+        final int w = field.length;
+        int h = 0;
+        if (w != 0) h = field[0].length;
+        for(int i = 0; i < w; i++)
+            if (field[i].length != h) // uh oh
+                throw new RuntimeException("FlatIntGrid2D initialized with a non-rectangular field.");
+
+        width = w;
+        height = h;
+        this.field = new int[w * h];
+        for(int x = 0; x < w; x++)
+            System.arraycopy(field[x], 0, this.field, x * h, h);
+        markAllDirty();
+        return this;
+        }
+
+    /** Changes the dimensions of the grid to be the same as the one provided, then
+        sets all the locations in the grid to the elements at the quivalent locations in the
+        provided grid. */
+    public final FlatIntGrid2D setTo(final FlatIntGrid2D values)
+        {
+        if (field == null || width != values.width || height != values.height)
+            {
+            width = values.width;
+            height = values.height;
+            field = (int[]) (values.field.clone());
+            }
+        else System.arraycopy(values.field, 0, field, 0, field.length);
+        markAllDirty();
+        return this;
+        }
+
+    /** Changes the dimensions of the grid to be the same as the one provided, then
+        sets all the locations in the grid to the elements at the quivalent locations in the
+        provided grid. */
+    public final FlatIntGrid2D setTo(final IntGrid2D values)
+        {
+        final int w = values.getWidth();
+        final int h = values.getHeight();
+        if (field == null || width != w || height != h)
+            {
+            width = w;
+            height = h;
+            field = new int[w * h];
+            }
+        for(int x = 0; x < w; x++)
+            System.arraycopy(values.field[x], 0, field, x * h, h);
+        markAllDirty();
+        return this;
+        }
+
+    /** Copies the grid into the provided IntGrid2D, reshaping it if it is not the same size,
+        and returns it.  This is mostly useful for displaying the grid with the IntGrid2D portrayals. */
+    public final IntGrid2D copyTo(final IntGrid2D values)
+        {
+        final int w = width;
+        final int h = height;
+        if (values.getWidth() != w || values.getHeight() != h)
+            values.reshape(w, h);
+        for(int x = 0; x < w; x++)
+            System.arraycopy(field, x * h, values.field[x], 0, h);
+        return values;
+        }
+
+    /** Returns a new IntGrid2D holding a copy of this grid. */
+    public final IntGrid2D toIntGrid2D()
+        {
+        return copyTo(new IntGrid2D(width, height));
+        }
+
+    /** Flattens the grid to a one-dimensional array, storing the elements in row-major order,including duplicates and null values.
+        This is simply a copy of the field.  Returns the grid. */
+    public final int[] toArray()
+        {
+        return (int[]) (field.clone());
+        }
+
+    /** Returns the maximum value stored in the grid */
+    public final int max()
+        {
+        final int[] field = this.field;
+        int max = Integer.MIN_VALUE;
+        for(int i = 0; i < field.length; i++)
+            if (max < field[i]) max = field[i];
+        return max;
+        }
+
+    /** Returns the minimum value stored in the grid */
+    public final int min()
+        {
+        final int[] field = this.field;
+        int min = Integer.MAX_VALUE;
+        for(int i = 0; i < field.length; i++)
+            if (min > field[i]) min = field[i];
+        return min;
+        }
+
+    /** Returns the sum of the values stored in the grid */
+    public final long sum()
+        {
+        final int[] field = this.field;
+        long sum = 0;
+        for(int i = 0; i < field.length; i++)
+            sum += field[i];
+        return sum;
+        }
+
+    /** Returns the mean value stored in the grid */
+    public final double mean()
+        {
+        return (field.length == 0 ? 0 : sum() / (double) field.length);
+        }
+
+    /** Thresholds the grid so that values greater to <i>toNoMoreThanThisMuch</i> are changed to <i>toNoMoreThanThisMuch</i>.
+        Returns the modified grid.
+    */
+    public final FlatIntGrid2D upperBound(final int toNoMoreThanThisMuch)
+        {
+        final int[] field = this.field;
+        for(int i = 0; i < field.length; i++)
+            if (field[i] > toNoMoreThanThisMuch)
+                field[i] = toNoMoreThanThisMuch;
+        markAllDirty();
+        return this;
+        }
+
+    /** Thresholds the grid so that values smaller than <i>toNoLowerThanThisMuch</i> are changed to <i>toNoLowerThanThisMuch</i>
+        Returns the modified grid.
+    */
+    public final FlatIntGrid2D lowerBound(final int toNoLowerThanThisMuch)
+        {
+        final int[] field = this.field;
+        for(int i = 0; i < field.length; i++)
+            if (field[i] < toNoLowerThanThisMuch)
+                field[i] = toNoLowerThanThisMuch;
+        markAllDirty();
+        return this;
+        }
+
+    /** Sets each value in the grid to that value added to <i>withThisMuch</i>
+        Returns the modified grid.
+    */
+    public final FlatIntGrid2D add(final int withThisMuch)
+        {
+        if (withThisMuch==0) return this;
+        final int[] field = this.field;
+        for(int i = 0; i < field.length; i++)
+            field[i] += withThisMuch;
+        markAllDirty();
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value added to the value at the equivalent location in the provided grid.
+        Returns the modified grid.
+    */
+    public final FlatIntGrid2D add(final FlatIntGrid2D withThis)
+        {
+        checkBounds(withThis);
+        final int[] field = this.field;
+        final int[] ofield = withThis.field;
+        for(int i = 0; i < field.length; i++)
+            field[i] += ofield[i];
+        markAllDirty();
+        return this;
+        }
+
+    /** Sets each value in the grid to that value multiplied <i>byThisMuch</i>
+        Returns the modified grid.
+    */
+    public final FlatIntGrid2D multiply(final int byThisMuch)
+        {
+        if (byThisMuch==1) return this;
+        final int[] field = this.field;
+        for(int i = 0; i < field.length; i++)
+            field[i] *= byThisMuch;
+        markAllDirty();
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value multiplied by to the value at the equivalent location in the provided grid.
+        Returns the modified grid.
+    */
+    public final FlatIntGrid2D multiply(final FlatIntGrid2D withThis)
+        {
+        checkBounds(withThis);
+        final int[] field = this.field;
+        final int[] ofield = withThis.field;
+        for(int i = 0; i < field.length; i++)
+            field[i] *= ofield[i];
+        markAllDirty();
+        return this;
+        }
+
+    /**
+     * Replace instances of one value to another.
+     * @param from any element that matches this value will be replaced
+     * @param to with this value
+     */
+    public final void replaceAll(final int from, final int to)
+        {
+        final int[] field = this.field;
+        for(int i = 0; i < field.length; i++)
+            if (field[i] == from)
+                field[i] = to;
+        markAllDirty();
+        }
+
+    void checkBounds(final AbstractGrid2D other)
+        {
+        if (other.width != width || other.height != height)
+            throw new IllegalArgumentException("Grid of size " + other.width + " x " + other.height +
+                " does not match this grid's size of " + width + " x " + height);
+        }
+
+
+    /**
+     * Gets all neighbors of a location that satisfy max( abs(x-X) , abs(y-Y) ) <= dist, This region forms a
+     * square 2*dist+1 cells across, centered at (X,Y).  If dist==1, this
+     * is equivalent to the so-called "Moore Neighborhood" (the eight neighbors surrounding (X,Y)), plus (X,Y) itself.
+     * Places each x and y value of these locations in the provided IntBags xPos and yPos, clearing the bags first.
+     * Then places into the result IntBag the values at each of these locations, clearing it first.
+     * Returns the result IntBag.  null may be passed in for the various bags, though it is more efficient
+     * to pass in a 'scratch bag' for each one.
+     *
+     * <p>See IntGrid2D.getMooreNeighbors(...) for a description of the modes.
+     */
+    public IntBag getMooreNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, IntBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getMooreLocations( x, y, dist, mode, includeOrigin, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    /**
+     * Gets all neighbors of a location that satisfy abs(x-X) + abs(y-Y) <= dist.  This region forms a diamond
+     * 2*dist+1 cells from point to opposite point inclusive, centered at (X,Y).  If dist==1 this is
+     * equivalent to the so-called "Von-Neumann Neighborhood" (the four neighbors above, below, left, and right of (X,Y)),
+     * plus (X,Y) itself.  Places each x and y value of these locations in the provided IntBags xPos and yPos, clearing the bags first.
+     * Then places into the result IntBag the values at each of these locations, clearing it first.
+     * Returns the result IntBag.  null may be passed in for the various bags, though it is more efficient
+     * to pass in a 'scratch bag' for each one.
+     *
+     * <p>See IntGrid2D.getVonNeumannNeighbors(...) for a description of the modes.
+     */
+    public IntBag getVonNeumannNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, IntBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getVonNeumannLocations( x, y, dist, mode, includeOrigin, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    /**
+     * Gets all neighbors located within the hexagon centered at (X,Y) and 2*dist+1 cells from point to opposite point
+     * inclusive.  If dist==1, this is equivalent to the six neighbors immediately surrounding (X,Y),
+     * plus (X,Y) itself.  Places each x and y value of these locations in the provided IntBags xPos and yPos, clearing the bags first.
+     * Then places into the result IntBag the values at each of these locations, clearing it first.
+     * Returns the result IntBag.  null may be passed in for the various bags, though it is more efficient
+     * to pass in a 'scratch bag' for each one.
+     *
+     * <p>See IntGrid2D.getHexagonalNeighbors(...) for a description of the modes.
+     */
+    public IntBag getHexagonalNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, IntBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getHexagonalLocations( x, y, dist, mode, includeOrigin, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    public IntBag getRadialNeighbors( final int x, final int y, final double dist, int mode, boolean includeOrigin, IntBag result, IntBag xPos, IntBag yPos )
+        {
+        return getRadialNeighbors(x, y, dist, mode, includeOrigin, Grid2D.ANY, true, result, xPos, yPos);
+        }
+
+    public IntBag getRadialNeighbors( final int x, final int y, final double dist, int mode, boolean includeOrigin,  int measurementRule, boolean closed,  IntBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getRadialLocations( x, y, dist, mode, includeOrigin, measurementRule, closed, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    /* For each <xPos,yPos> location, puts the value at that location into the result IntBag.  Returns the result IntBag.
+       If the provided result IntBag is null, one will be created and returned. */
+    IntBag getObjectsAtLocations(final IntBag xPos, final IntBag yPos, IntBag result)
+        {
+        if (result==null) result = new IntBag();
+        else result.clear();
+
+        final int[] field = this.field;
+        final int height = this.height;
+        final int[] xs = xPos.objs;
+        final int[] ys = yPos.objs;
+        for( int i = 0 ; i < xPos.numObjs ; i++ )
+            {
+            assert sim.util.LocationLog.it(this, new Int2D(xs[i],ys[i]));
+            result.add( field[xs[i] * height + ys[i]] );
+            }
+        return result;
+        }
+
+    public IntBag getMooreNeighbors( int x, int y, int dist, int mode, boolean includeOrigin )
+        {
+        return getMooreNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+
+    public IntBag getVonNeumannNeighbors( int x, int y, int dist, int mode, boolean includeOrigin )
+        {
+        return getVonNeumannNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+
+    public IntBag getHexagonalNeighbors( int x, int y, int dist, int mode, boolean includeOrigin )
+        {
+        return getHexagonalNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+
+    public IntBag getRadialNeighbors( final int x, final int y, final double dist, int mode, boolean includeOrigin)
+        {
+        return getRadialNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+    }
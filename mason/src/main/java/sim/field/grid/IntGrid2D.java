@@ -57,6 +57,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
         {
         assert sim.util.LocationLog.it(this, new Int2D(x,y));
         field[x][y] = val;
+        if (dirtyTiles != null) dirtyTiles.mark(x, y);
         }
     
     /** Returns the element at location (x,y) */
@@ -95,9 +96,17 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
 
+    /** Sets all the locations in the grid to 0, keeping the grid's storage so it can be refilled.  This is meant
+        for a model which runs many short simulations in a row, such as a ParameterSweep, and refills its fields in start() each time. */
+    public void reset()
+        {
+        setTo(0);
+        }
+
     /** Sets the grid to a copy of the provided array, which must be rectangular. */
     public IntGrid2D setTo(int[][] field)
         {
@@ -128,6 +137,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
             for(int i = 0; i < w; i++)
                 this.field[i] = (int[]) field[i].clone();
             }
+        markAllDirty();
         return this;
         }
 
@@ -172,6 +182,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                 }
             }
 
+        markAllDirty();
         return this;
         }
 
@@ -353,6 +364,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -390,6 +402,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -427,6 +440,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
         
@@ -467,6 +481,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -504,6 +519,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
     
@@ -544,6 +560,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
         
@@ -581,6 +598,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         }
 
 
@@ -932,5 +950,73 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
         }
 
 
+    /** Visits a location and the value stored there.  See visitNeighbors(...). */
+    public interface Visitor
+        {
+        public void visit(int x, int y, int value);
+        }
 
+    /**
+     * Calls the visitor on each location in the given Neighborhood around (X,Y), along with the value at that location.
+     * This visits the same locations as the equivalent get...Neighbors(...) method, though not necessarily in the same order
+     * (except where a small toroidal grid makes the neighborhood wrap around onto itself: see Neighborhood),
+     * but builds no Bags and (for all but absurdly large toroidal neighborhoods) allocates nothing.
+     * Since the grid has no locations outside of its bounds, Grid2D.UNBOUNDED is treated like Grid2D.BOUNDED.
+     */
+    public void visitNeighbors( final Neighborhood neighborhood, final int x, final int y, final int mode, final Visitor visitor )
+        {
+        final int width = this.width;
+        final int height = this.height;
+        neighborhood.check(x, y, width, height, mode);
+        final int[][] field = this.field;
+        final int[] xo = neighborhood.getXOffsets(x);
+        final int[] yo = neighborhood.getYOffsets(x);
+        if (mode == TOROIDAL)
+            {
+            if (!neighborhood.fits(width, height))
+                {
+                neighborhood.visitWrapped(x, y, width, height, new Neighborhood.Visitor()
+                    {
+                    public void visit(int xx, int yy) { visitor.visit(xx, yy, field[xx][yy]); }
+                    });
+                return;
+                }
+            for(int i = 0; i < xo.length; i++)
+                {
+                int xx = x + xo[i];
+                int yy = y + yo[i];
+                if (xx < 0) xx += width; else if (xx >= width) xx -= width;
+                if (yy < 0) yy += height; else if (yy >= height) yy -= height;
+                visitor.visit(xx, yy, field[xx][yy]);
+                }
+            }
+        else
+            {
+            for(int i = 0; i < xo.length; i++)
+                {
+                final int xx = x + xo[i];
+                final int yy = y + yo[i];
+                if (xx >= 0 && xx < width && yy >= 0 && yy < height)
+                    visitor.visit(xx, yy, field[xx][yy]);
+                }
+            }
+        }
+
+    /** Calls the visitor on each location, and the value there, within the Moore neighborhood of (X,Y).  See visitNeighbors(...) and getMooreNeighbors(...). */
+    public void visitMooreNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, Visitor visitor )
+        {
+        visitNeighbors(Neighborhood.get(Neighborhood.MOORE, dist, includeOrigin), x, y, mode, visitor);
+        }
+
+    /** Calls the visitor on each location, and the value there, within the von Neumann neighborhood of (X,Y).  See visitNeighbors(...) and getVonNeumannNeighbors(...). */
+    public void visitVonNeumannNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, Visitor visitor )
+        {
+        visitNeighbors(Neighborhood.get(Neighborhood.VON_NEUMANN, dist, includeOrigin), x, y, mode, visitor);
+        }
+
+    /** Calls the visitor on each location, and the value there, within the hexagonal neighborhood of (X,Y).  See visitNeighbors(...) and getHexagonalNeighbors(...). */
+    public void visitHexagonalNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, Visitor visitor )
+        {
+        visitNeighbors(Neighborhood.get(Neighborhood.HEXAGONAL, dist, includeOrigin), x, y, mode, visitor);
+        }
     }
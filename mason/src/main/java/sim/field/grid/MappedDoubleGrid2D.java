@@ -0,0 +1,453 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+import java.io.*;
+import java.nio.*;
+import sim.util.*;
+
+/**
+    A 2D grid of doubles stored in a memory-mapped file rather than on the heap.  See MappedGrid2D for a description
+    of the modes and the file format.
+
+    <p>The object implements all of the Grid2D interface and has the same get/set/setTo/bounds/add/multiply/neighborhood
+    methods as DoubleGrid2D, but it has no field array, as its values aren't in one.  Use get(...) and set(...) instead, or copy
+    the grid (or a window of it) into a DoubleGrid2D with copyTo(...) to display it or to work on it intensively.
+    Whole-grid operations go through the file a tile at a time, so as to touch each page just once.
+
+    <p>To create a grid file from data you already have, use MappedDoubleGrid2D(file, values), then flush() it; afterwards,
+    any number of processes may map it READ_ONLY or PRIVATE with MappedDoubleGrid2D(file, mode).
+*/
+
+public /*strictfp*/ class MappedDoubleGrid2D extends MappedGrid2D
+    {
+    private static final long serialVersionUID = 1;
+
+    transient DoubleBuffer[] views;
+
+    /** Maps an existing grid file in the given mode: READ_ONLY, READ_WRITE, or PRIVATE. */
+    public MappedDoubleGrid2D(File file, int mode) throws IOException
+        {
+        super(file, mode, TYPE_DOUBLE);
+        }
+
+    /** Creates a new grid file of the given dimensions, filled with zeros, replacing any existing file, and maps it READ_WRITE. */
+    public MappedDoubleGrid2D(File file, int width, int height) throws IOException
+        {
+        super(file, width, height, TYPE_DOUBLE);
+        }
+
+    /** Creates a new grid file of the given dimensions, filled with the given value, replacing any existing file, and maps it READ_WRITE. */
+    public MappedDoubleGrid2D(File file, int width, int height, double initialValue) throws IOException
+        {
+        this(file, width, height);
+        setTo(initialValue);
+        }
+
+    /** Creates a new grid file holding a copy of the given grid, replacing any existing file, and maps it READ_WRITE. */
+    public MappedDoubleGrid2D(File file, DoubleGrid2D values) throws IOException
+        {
+        this(file, values.getWidth(), values.getHeight());
+        setTo(values);
+        }
+
+    byte getType() { return TYPE_DOUBLE; }
+
+    void buildViews()
+        {
+        views = new DoubleBuffer[regions.length];
+        for(int i = 0; i < regions.length; i++)
+            views[i] = regions[i].asDoubleBuffer();
+        }
+
+    /** Sets location (x,y) to val */
+    public final void set(final int x, final int y, final double val)
+        {
+        final long c = cell(x, y);
+        views[(int)(c >>> regionShift)].put((int)c & regionMask, val);
+        changed(x, y);
+        }
+
+    /** Returns the element at location (x,y) */
+    public final double get(final int x, final int y)
+        {
+        final long c = cell(x, y);
+        return views[(int)(c >>> regionShift)].get((int)c & regionMask);
+        }
+
+    // the whole-grid operations
+    static final int SET = 0;
+    static final int ADD = 1;
+    static final int MULTIPLY = 2;
+    static final int UPPER_BOUND = 3;
+    static final int LOWER_BOUND = 4;
+    static final int FLOOR = 5;
+    static final int CEILING = 6;
+    static final int TRUNCATE = 7;
+    static final int RINT = 8;
+    static final int REPLACE = 9;
+    static final int MAX = 10;
+    static final int MIN = 11;
+    static final int SUM = 12;
+
+    // Performs the operation on every cell, a tile at a time, and returns the result if it's a reduction
+    double apply(final int op, final double a, final double b)
+        {
+        double result = (op == MAX ? Double.NEGATIVE_INFINITY : op == MIN ? Double.POSITIVE_INFINITY : 0);
+        final int tilesHigh = this.tilesHigh;
+        final int numTiles = tilesWide * tilesHigh;
+        for(int t = 0; t < numTiles; t++)
+            {
+            final long start = (long)t << TILE_CELLS_SHIFT;
+            final DoubleBuffer view = views[(int)(start >>> regionShift)];
+            final int base = (int)start & regionMask;
+            final int w = Math.min(TILE_SIZE, width - (t / tilesHigh) * TILE_SIZE);
+            final int h = Math.min(TILE_SIZE, height - (t % tilesHigh) * TILE_SIZE);
+            for(int i = 0; i < w; i++)
+                {
+                final int col = base + (i << TILE_SHIFT);
+                for(int j = col; j < col + h; j++)
+                    {
+                    final double v = view.get(j);
+                    switch(op)
+                        {
+                        case SET: view.put(j, a); break;
+                        case ADD: view.put(j, v + a); break;
+                        case MULTIPLY: view.put(j, v * a); break;
+                        case UPPER_BOUND: if (v > a) view.put(j, a); break;
+                        case LOWER_BOUND: if (v < a) view.put(j, a); break;
+                        case FLOOR: view.put(j, Math.floor(v)); break;
+                        case CEILING: view.put(j, Math.ceil(v)); break;
+                        case TRUNCATE: view.put(j, v > 0.0 ? Math.floor(v) : Math.ceil(v)); break;
+                        case RINT: view.put(j, Math.rint(v)); break;
+                        case REPLACE: if (v == a) view.put(j, b); break;
+                        case MAX: if (result < v) result = v; break;
+                        case MIN: if (result > v) result = v; break;
+                        case SUM: result += v; break;
+                        }
+                    }
+                }
+            }
+        if (op < MAX) changedAll();
+        return result;
+        }
+
+    /** Sets all the locations in the grid the provided element */
+    public final MappedDoubleGrid2D setTo(final double thisMuch)
+        {
+        apply(SET, thisMuch, 0);
+        return this;
+        }
+
+    /** Sets all the locations in the grid to the elements at the equivalent locations in the provided grid.
+        If the grid is not the same size, it is reshaped first, which only a READ_WRITE grid may be. */
+    public final MappedDoubleGrid2D setTo(final DoubleGrid2D values)
+        {
+        if (values.width != width || values.height != height)
+            reshape(values.width, values.height);
+        final double[][] field = values.field;
+        for(int x = 0; x < width; x++)
+            {
+            final double[] fieldx = field[x];
+            for(int y = 0; y < height; y++)
+                {
+                final long c = cell(x, y);
+                views[(int)(c >>> regionShift)].put((int)c & regionMask, fieldx[y]);
+                }
+            }
+        changedAll();
+        return this;
+        }
+
+    /** Copies the grid into the provided DoubleGrid2D, reshaping it if it is not the same size, and returns it. */
+    public final DoubleGrid2D copyTo(final DoubleGrid2D values)
+        {
+        if (values.getWidth() != width || values.getHeight() != height)
+            values.reshape(width, height);
+        return copyTo(values, 0, 0);
+        }
+
+    /** Copies into the provided DoubleGrid2D the window of this grid of the same size as it, with its top-left corner at (x, y),
+        and returns it.  This lets you work on a part of a huge grid with the speed of a DoubleGrid2D. */
+    public final DoubleGrid2D copyTo(final DoubleGrid2D values, final int x, final int y)
+        {
+        final int w = values.getWidth();
+        final int h = values.getHeight();
+        if (x < 0 || y < 0 || x + w > width || y + h > height)
+            throw new IllegalArgumentException("Window " + w + " x " + h + " at (" + x + ", " + y + ") does not fit in grid of size " + width + " x " + height);
+        final double[][] field = values.field;
+        for(int i = 0; i < w; i++)
+            {
+            final double[] fieldi = field[i];
+            for(int j = 0; j < h; j++)
+                {
+                final long c = cell(x + i, y + j);
+                fieldi[j] = views[(int)(c >>> regionShift)].get((int)c & regionMask);
+                }
+            }
+        values.markAllDirty();  // we wrote its field directly, so portrayals tracking dirty tiles must redraw it
+        return values;
+        }
+
+    /** Returns a new DoubleGrid2D holding a copy of this grid. */
+    public final DoubleGrid2D toDoubleGrid2D()
+        {
+        return copyTo(new DoubleGrid2D(width, height));
+        }
+
+    /** Flattens the grid to a one-dimensional array, storing the elements in the same order as DoubleGrid2D.toArray().
+        This of course puts the whole grid on the heap. */
+    public final double[] toArray()
+        {
+        if ((long)width * height > Integer.MAX_VALUE)
+            throw new RuntimeException("Grid of size " + width + " x " + height + " is too large for an array");
+        final double[] vals = new double[width * height];
+        int i = 0;
+        for(int x = 0; x < width; x++)
+            for(int y = 0; y < height; y++)
+                vals[i++] = get(x, y);
+        return vals;
+        }
+
+    /** Returns the maximum value stored in the grid */
+    public final double max() { return apply(MAX, 0, 0); }
+
+    /** Returns the minimum value stored in the grid */
+    public final double min() { return apply(MIN, 0, 0); }
+
+    /** Returns the sum of the values stored in the grid */
+    public final double sum() { return apply(SUM, 0, 0); }
+
+    /** Returns the mean value stored in the grid */
+    public final double mean()
+        {
+        final long count = (long)width * height;
+        return (count == 0 ? 0 : sum() / count);
+        }
+
+    /** Thresholds the grid so that values greater to <i>toNoMoreThanThisMuch</i> are changed to <i>toNoMoreThanThisMuch</i>.
+        Returns the modified grid.
+    */
+    public final MappedDoubleGrid2D upperBound(final double toNoMoreThanThisMuch)
+        {
+        apply(UPPER_BOUND, toNoMoreThanThisMuch, 0);
+        return this;
+        }
+
+    /** Thresholds the grid so that values smaller than <i>toNoLowerThanThisMuch</i> are changed to <i>toNoLowerThanThisMuch</i>
+        Returns the modified grid.
+    */
+    public final MappedDoubleGrid2D lowerBound(final double toNoLowerThanThisMuch)
+        {
+        apply(LOWER_BOUND, toNoLowerThanThisMuch, 0);
+        return this;
+        }
+
+    /** Sets each value in the grid to that value added to <i>withThisMuch</i>
+        Returns the modified grid.
+    */
+    public final MappedDoubleGrid2D add(final double withThisMuch)
+        {
+        if (withThisMuch==0.0) return this;
+        apply(ADD, withThisMuch, 0);
+        return this;
+        }
+
+    /** Sets each value in the grid to that value multiplied <i>byThisMuch</i>
+        Returns the modified grid.
+    */
+    public final MappedDoubleGrid2D multiply(final double byThisMuch)
+        {
+        if (byThisMuch==1.0) return this;
+        apply(MULTIPLY, byThisMuch, 0);
+        return this;
+        }
+
+    /** Sets each value in the grid to floor(value).
+        Returns the modified grid.
+    */
+    public final MappedDoubleGrid2D floor()
+        {
+        apply(FLOOR, 0, 0);
+        return this;
+        }
+
+    /** Sets each value in the grid to ceil(value).
+        Returns the modified grid.
+    */
+    public final MappedDoubleGrid2D ceiling()
+        {
+        apply(CEILING, 0, 0);
+        return this;
+        }
+
+    /** Eliminates the decimal portion of each value in the grid (rounds towards zero).
+        Returns the modified grid.
+    */
+    public final MappedDoubleGrid2D truncate()
+        {
+        apply(TRUNCATE, 0, 0);
+        return this;
+        }
+
+    /** Sets each value in the grid to rint(value).  That is, each value
+        is rounded to the closest integer value.  If two integers are the same
+        distance, the value is rounded to the even integer.
+        Returns the modified grid.
+    */
+    public final MappedDoubleGrid2D rint()
+        {
+        apply(RINT, 0, 0);
+        return this;
+        }
+
+    /**
+     * Replace instances of one value to another.
+     * @param from any element that matches this value will be replaced
+     * @param to with this value
+     */
+    public final void replaceAll(final double from, final double to)
+        {
+        apply(REPLACE, from, to);
+        }
+
+    void writeTile(ObjectOutputStream out, int tile) throws IOException
+        {
+        final long start = (long)tile << TILE_CELLS_SHIFT;
+        final DoubleBuffer view = views[(int)(start >>> regionShift)].duplicate();
+        ((Buffer)view).position((int)start & regionMask);  // Buffer, for Java 8
+        final double[] vals = new double[TILE_CELLS];
+        view.get(vals);
+        out.writeObject(vals);
+        }
+
+    void readTile(ObjectInputStream in, int tile) throws IOException, ClassNotFoundException
+        {
+        final long start = (long)tile << TILE_CELLS_SHIFT;
+        final DoubleBuffer view = views[(int)(start >>> regionShift)].duplicate();
+        ((Buffer)view).position((int)start & regionMask);  // Buffer, for Java 8
+        view.put((double[])(in.readObject()));
+        }
+
+
+    /**
+     * Gets all neighbors of a location that satisfy max( abs(x-X) , abs(y-Y) ) <= dist, This region forms a
+     * square 2*dist+1 cells across, centered at (X,Y).  If dist==1, this
+     * is equivalent to the so-called "Moore Neighborhood" (the eight neighbors surrounding (X,Y)), plus (X,Y) itself.
+     * Places each x and y value of these locations in the provided IntBags xPos and yPos, clearing the bags first.
+     * Then places into the result DoubleBag the values at each of these locations, clearing it first.
+     * Returns the result DoubleBag.  null may be passed in for the various bags, though it is more efficient
+     * to pass in a 'scratch bag' for each one.
+     *
+     * <p>See DoubleGrid2D.getMooreNeighbors(...) for a description of the modes.
+     */
+    public DoubleBag getMooreNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, DoubleBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getMooreLocations( x, y, dist, mode, includeOrigin, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    /**
+     * Gets all neighbors of a location that satisfy abs(x-X) + abs(y-Y) <= dist.  This region forms a diamond
+     * 2*dist+1 cells from point to opposite point inclusive, centered at (X,Y).  If dist==1 this is
+     * equivalent to the so-called "Von-Neumann Neighborhood" (the four neighbors above, below, left, and right of (X,Y)),
+     * plus (X,Y) itself.  Places each x and y value of these locations in the provided IntBags xPos and yPos, clearing the bags first.
+     * Then places into the result DoubleBag the values at each of these locations, clearing it first.
+     * Returns the result DoubleBag.  null may be passed in for the various bags, though it is more efficient
+     * to pass in a 'scratch bag' for each one.
+     *
+     * <p>See DoubleGrid2D.getVonNeumannNeighbors(...) for a description of the modes.
+     */
+    public DoubleBag getVonNeumannNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, DoubleBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getVonNeumannLocations( x, y, dist, mode, includeOrigin, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    /**
+     * Gets all neighbors located within the hexagon centered at (X,Y) and 2*dist+1 cells from point to opposite point
+     * inclusive.  If dist==1, this is equivalent to the six neighbors immediately surrounding (X,Y),
+     * plus (X,Y) itself.  Places each x and y value of these locations in the provided IntBags xPos and yPos, clearing the bags first.
+     * Then places into the result DoubleBag the values at each of these locations, clearing it first.
+     * Returns the result DoubleBag.  null may be passed in for the various bags, though it is more efficient
+     * to pass in a 'scratch bag' for each one.
+     *
+     * <p>See DoubleGrid2D.getHexagonalNeighbors(...) for a description of the modes.
+     */
+    public DoubleBag getHexagonalNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, DoubleBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getHexagonalLocations( x, y, dist, mode, includeOrigin, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    public DoubleBag getRadialNeighbors( final int x, final int y, final double dist, int mode, boolean includeOrigin, DoubleBag result, IntBag xPos, IntBag yPos )
+        {
+        return getRadialNeighbors(x, y, dist, mode, includeOrigin, Grid2D.ANY, true, result, xPos, yPos);
+        }
+
+    public DoubleBag getRadialNeighbors( final int x, final int y, final double dist, int mode, boolean includeOrigin,  int measurementRule, boolean closed,  DoubleBag result, IntBag xPos, IntBag yPos )
+        {
+        if( xPos == null )
+            xPos = new IntBag();
+        if( yPos == null )
+            yPos = new IntBag();
+
+        getRadialLocations( x, y, dist, mode, includeOrigin, measurementRule, closed, xPos, yPos );
+        return getObjectsAtLocations(xPos,yPos,result);
+        }
+
+    /* For each <xPos,yPos> location, puts the value at that location into the result DoubleBag.  Returns the result DoubleBag.
+       If the provided result DoubleBag is null, one will be created and returned. */
+    DoubleBag getObjectsAtLocations(final IntBag xPos, final IntBag yPos, DoubleBag result)
+        {
+        if (result==null) result = new DoubleBag();
+        else result.clear();
+
+        final int[] xs = xPos.objs;
+        final int[] ys = yPos.objs;
+        for( int i = 0 ; i < xPos.numObjs ; i++ )
+            {
+            assert sim.util.LocationLog.it(this, new Int2D(xs[i],ys[i]));
+            result.add( get(xs[i], ys[i]) );
+            }
+        return result;
+        }
+
+    public DoubleBag getMooreNeighbors( int x, int y, int dist, int mode, boolean includeOrigin )
+        {
+        return getMooreNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+
+    public DoubleBag getVonNeumannNeighbors( int x, int y, int dist, int mode, boolean includeOrigin )
+        {
+        return getVonNeumannNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+
+    public DoubleBag getHexagonalNeighbors( int x, int y, int dist, int mode, boolean includeOrigin )
+        {
+        return getHexagonalNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+
+    public DoubleBag getRadialNeighbors( final int x, final int y, final double dist, int mode, boolean includeOrigin)
+        {
+        return getRadialNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
+        }
+    }
@@ -0,0 +1,310 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+   The superclass of MappedDoubleGrid2D and MappedIntGrid2D: 2D grids whose values are stored not on the Java heap
+   but in a file, which is memory-mapped (with FileChannel.map(...)) so that the operating system pages the values in and
+   out as they are used.
+
+   <p>A 40000 x 40000 grid of doubles takes 12.8GB, more than fits on the heap of most machines; several such GIS layers fit
+   on no heap at all.  But a memory-mapped grid uses no heap for its values, however large it is, and is "loaded" instantly:
+   only those parts of the file which are actually read are brought into memory, and the operating system is free to drop them again
+   when memory runs short.  Better still, every process which maps the same file shares the same pages of memory, so the many
+   simulations of a parameter sweep running on one machine can share a single copy of a large static landscape.
+
+   <p><b>Modes.</b>  A grid is mapped in one of three modes:
+   <ul>
+   <li>READ_ONLY: the grid may not be changed; set(...) and the like will throw a ReadOnlyBufferException.  This is the mode for static layers.
+   <li>READ_WRITE: changes are written back to the file (eventually, or at once if you call flush()), and are seen by other processes
+   mapping the file READ_ONLY or READ_WRITE.
+   <li>PRIVATE: changes are seen only by this grid, and never written to the file.  The operating system copies a page of the file
+   only when it is first changed, so a slowly-changing layer costs only the memory of the parts which have changed.  This is the mode
+   to use when each simulation in a sweep modifies its own copy of a shared layer.  (Java requires that you have permission to write
+   to the file, though it's never written to.)
+   </ul>
+
+   <p><b>Layout.</b>  The file begins with a header of HEADER_LENGTH bytes (giving the type of value, the width and height of the grid, and
+   so on), followed by the values, in square tiles of TILE_SIZE x TILE_SIZE cells.  The cells of a tile are contiguous in the file, so
+   that nearby cells, whether in the same row or the same column, are likely to be in the same page; the grid is padded at its right and bottom
+   edges to whole tiles.  Files of more than 1GB are mapped as several regions, since a single mapping can be at most 2GB.
+
+   <p><b>Checkpointing.</b>  A mapped grid is serialized as the name of its file and its mode, not its values.  When it is
+   deserialized, the file is mapped again, so it must still be there.  A READ_ONLY grid is thus restored exactly.  A PRIVATE
+   grid also writes the tiles which it has changed, and so is restored exactly too.  But a READ_WRITE grid's values <i>are</i> its file, which
+   will have changed since the checkpoint was written.
+
+   <p>Since the portrayals and many other classes expect a DoubleGrid2D or IntGrid2D with a field array, you can copy all or part of
+   a mapped grid into one with copyTo(...).
+*/
+
+public abstract class MappedGrid2D extends AbstractGrid2D
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The grid may not be changed. */
+    public static final int READ_ONLY = 0;
+    /** Changes to the grid are written to the file. */
+    public static final int READ_WRITE = 1;
+    /** Changes to the grid are private to it, and are not written to the file. */
+    public static final int PRIVATE = 2;
+
+    /** The first bytes of a mapped grid file. */
+    public static final byte[] MAGIC = { 'M', 'A', 'S', 'O', 'N', 'M', 'A', 'P' };
+    /** The version of the file format. */
+    public static final int VERSION = 1;
+    /** The length of the file header in bytes.  The values begin immediately after. */
+    public static final int HEADER_LENGTH = 64;
+    /** The width and height of a tile, in cells. */
+    public static final int TILE_SIZE = 64;
+
+    static final int TILE_SHIFT = 6;
+    static final int TILE_MASK = TILE_SIZE - 1;
+    static final int TILE_CELLS_SHIFT = 2 * TILE_SHIFT;
+    static final int TILE_CELLS = 1 << TILE_CELLS_SHIFT;
+    static final int MAX_REGION_BYTES_SHIFT = 30;  // 1GB per region
+
+    static final byte TYPE_DOUBLE = 'D';
+    static final byte TYPE_INT = 'I';
+
+    final String filename;
+    final int mode;
+    int tilesWide;
+    int tilesHigh;
+
+    // the number of cells in each region (but the last) is 1 << regionShift
+    transient int regionShift;
+    transient int regionMask;
+    transient MappedByteBuffer[] regions;
+
+    // the tiles which have been changed, if we're PRIVATE, else null
+    transient boolean[] modified;
+
+    /** Maps an existing grid file in the given mode. */
+    MappedGrid2D(File file, int mode, byte type) throws IOException
+        {
+        if (mode < READ_ONLY || mode > PRIVATE)
+            throw new IllegalArgumentException("Unknown mode " + mode);
+        this.filename = file.getAbsolutePath();
+        this.mode = mode;
+        map(type);
+        }
+
+    /** Creates a new grid file of the given dimensions, filled with zeros, and maps it READ_WRITE. */
+    MappedGrid2D(File file, int width, int height, byte type) throws IOException
+        {
+        this.filename = file.getAbsolutePath();
+        this.mode = READ_WRITE;
+        create(width, height, type);
+        map(type);
+        }
+
+    /** Returns the file holding the grid. */
+    public File getFile() { return new File(filename); }
+
+    /** Returns the grid's mode: READ_ONLY, READ_WRITE, or PRIVATE. */
+    public int getMode() { return mode; }
+
+    /** If the grid is READ_WRITE, forces any changes to be written out to the file.  Otherwise does nothing. */
+    public void flush()
+        {
+        if (mode != READ_WRITE) return;
+        for(int i = 0; i < regions.length; i++)
+            regions[i].force();
+        }
+
+    /** Changes the dimensions of the grid, and sets all its values to zero, by re-creating its file.  Only a READ_WRITE grid may be reshaped. */
+    public void reshape(int width, int height)
+        {
+        if (mode != READ_WRITE)
+            throw new RuntimeException("Only a READ_WRITE mapped grid may be reshaped.");
+        try
+            {
+            regions = null;
+            create(width, height, getType());
+            map(getType());
+            }
+        catch (IOException e)
+            {
+            throw new RuntimeException("Could not reshape mapped grid file " + filename, e);
+            }
+        markAllDirty();
+        }
+
+    abstract byte getType();
+
+    static int getTypeLength(byte type) { return (type == TYPE_DOUBLE ? 8 : 4); }
+
+    // Writes a new file with the given dimensions, all zeros
+    void create(int width, int height, byte type) throws IOException
+        {
+        if (width < 0 || height < 0)
+            throw new IllegalArgumentException("Invalid dimensions " + width + " x " + height);
+        final long tiles = (long)((width + TILE_MASK) >> TILE_SHIFT) * ((height + TILE_MASK) >> TILE_SHIFT);
+        if (tiles > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Grid of size " + width + " x " + height + " is too large");
+        final RandomAccessFile f = new RandomAccessFile(filename, "rw");
+        try
+            {
+            f.setLength(0);  // zero out any old values
+            f.setLength(HEADER_LENGTH + (tiles << TILE_CELLS_SHIFT) * getTypeLength(type));
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.put(MAGIC);
+            header.putInt(VERSION);
+            header.put(type);
+            header.put((byte)(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0));
+            header.put((byte)TILE_SHIFT);
+            header.put((byte)0);
+            header.putInt(width);
+            header.putInt(height);
+            f.seek(0);
+            f.write(header.array());
+            }
+        finally
+            {
+            f.close();
+            }
+        }
+
+    // Reads the header and maps the file
+    void map(byte type) throws IOException
+        {
+        // Java insists on a writable channel for PRIVATE mappings, though nothing is written
+        final RandomAccessFile f = new RandomAccessFile(filename, mode == READ_ONLY ? "r" : "rw");
+        try
+            {
+            final byte[] h = new byte[HEADER_LENGTH];
+            f.readFully(h);
+            final ByteBuffer header = ByteBuffer.wrap(h);
+            final byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!java.util.Arrays.equals(magic, MAGIC))
+                throw new IOException("Not a mapped grid file: " + filename);
+            final int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unknown mapped grid file version " + version + " in " + filename);
+            if (header.get() != type)
+                throw new IOException("Mapped grid file " + filename + " holds the wrong type of values");
+            final ByteOrder order = (header.get() == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+            if (header.get() != TILE_SHIFT)
+                throw new IOException("Mapped grid file " + filename + " has the wrong tile size");
+            header.get();
+            width = header.getInt();
+            height = header.getInt();
+            tilesWide = (width + TILE_MASK) >> TILE_SHIFT;
+            tilesHigh = (height + TILE_MASK) >> TILE_SHIFT;
+
+            final int typeLength = getTypeLength(type);
+            final long cells = (long)tilesWide * tilesHigh << TILE_CELLS_SHIFT;
+            if (f.length() < HEADER_LENGTH + cells * typeLength)
+                throw new IOException("Mapped grid file " + filename + " is too short");
+            regionShift = MAX_REGION_BYTES_SHIFT - (typeLength == 8 ? 3 : 2);
+            regionMask = (1 << regionShift) - 1;
+            final int numRegions = (int)((cells + regionMask) >>> regionShift);
+            final FileChannel.MapMode m = (mode == READ_ONLY ? FileChannel.MapMode.READ_ONLY :
+                mode == READ_WRITE ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.PRIVATE);
+            final FileChannel channel = f.getChannel();
+            regions = new MappedByteBuffer[numRegions];
+            for(int i = 0; i < numRegions; i++)
+                {
+                final long start = (long)i << regionShift;
+                final long length = Math.min(cells - start, 1L << regionShift);
+                regions[i] = channel.map(m, HEADER_LENGTH + start * typeLength, length * typeLength);
+                regions[i].order(order);
+                }
+            buildViews();
+            modified = (mode == PRIVATE ? new boolean[tilesWide * tilesHigh] : null);
+            }
+        finally
+            {
+            f.close();  // the mappings stay valid
+            }
+        }
+
+    // builds the typed views of the regions
+    abstract void buildViews();
+
+    /** Returns the index of the tile holding location (x,y). */
+    final int tile(final int x, final int y)
+        {
+        return (x >> TILE_SHIFT) * tilesHigh + (y >> TILE_SHIFT);
+        }
+
+    /** Returns the position of location (x,y) among all the cells in the file. */
+    final long cell(final int x, final int y)
+        {
+        return ((long)((x >> TILE_SHIFT) * tilesHigh + (y >> TILE_SHIFT)) << TILE_CELLS_SHIFT) | ((x & TILE_MASK) << TILE_SHIFT) | (y & TILE_MASK);
+        }
+
+    // marks the tile as changed, if we're PRIVATE, and the location as dirty
+    final void changed(final int x, final int y)
+        {
+        if (modified != null) modified[tile(x, y)] = true;
+        if (dirtyTiles != null) dirtyTiles.mark(x, y);
+        }
+
+    // marks the whole grid as changed, if we're PRIVATE, and as dirty
+    final void changedAll()
+        {
+        if (modified != null) java.util.Arrays.fill(modified, true);
+        markAllDirty();
+        }
+
+    void checkBounds(final AbstractGrid2D other)
+        {
+        if (other.width != width || other.height != height)
+            throw new IllegalArgumentException("Grid of size " + other.width + " x " + other.height +
+                " does not match this grid's size of " + width + " x " + height);
+        }
+
+    // writes out the values of one tile
+    abstract void writeTile(ObjectOutputStream out, int tile) throws IOException;
+
+    // reads in the values of one tile
+    abstract void readTile(ObjectInputStream in, int tile) throws IOException, ClassNotFoundException;
+
+    private void writeObject(ObjectOutputStream out) throws IOException
+        {
+        out.defaultWriteObject();
+        if (mode == PRIVATE)
+            {
+            int count = 0;
+            for(int i = 0; i < modified.length; i++)
+                if (modified[i]) count++;
+            out.writeInt(count);
+            for(int i = 0; i < modified.length; i++)
+                if (modified[i])
+                    {
+                    out.writeInt(i);
+                    writeTile(out, i);
+                    }
+            }
+        }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+        {
+        in.defaultReadObject();
+        final int width = this.width;
+        final int height = this.height;
+        map(getType());
+        if (this.width != width || this.height != height)
+            throw new InvalidObjectException("Mapped grid file " + filename + " has changed size");
+        if (mode == PRIVATE)
+            {
+            final int count = in.readInt();
+            for(int i = 0; i < count; i++)
+                {
+                final int tile = in.readInt();
+                readTile(in, tile);
+                modified[tile] = true;
+                }
+            }
+        }
+    }
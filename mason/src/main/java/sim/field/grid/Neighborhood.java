@@ -0,0 +1,243 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+import sim.util.*;
+
+/**
+   A precomputed table of the (dx, dy) offsets making up a Moore, von Neumann, or hexagonal neighborhood
+   of a given distance, for use in visiting neighborhoods without filling any Bags.
+
+   <p>The usual neighborhood methods, such as getMooreNeighbors(...), compute the neighborhood's locations
+   afresh on each call, load them into xPos and yPos IntBags, then load the neighbors themselves into a result Bag,
+   which the caller then loops over again.  When this is done for every agent at every step (as in Schelling
+   or AntsForage), it can easily be the dominant cost of the model.  Instead, the visit...(...) methods in AbstractGrid2D,
+   DoubleGrid2D, IntGrid2D, ObjectGrid2D, and SparseGrid2D look up a Neighborhood (which is computed once and cached)
+   and walk its offsets directly, calling a visitor you provide with each location (and each value or object there).
+   Nothing is allocated per call in the common case.
+
+   <p>The locations visited are those the equivalent get...Locations(...) method would produce, including the treatment of
+   the origin and of toroidal, bounded, and unbounded modes, but the <i>order</i> in which they are visited may differ.
+   There are two exceptions.  First, in unbounded mode, getHexagonalLocations(...) drops locations whose x lies outside the grid,
+   whereas a hexagonal Neighborhood does not.  Second, if a toroidal neighborhood is so large that it wraps around onto itself
+   (on a small grid, say), a Neighborhood visits each distinct location exactly once, and never visits the origin unless it is
+   included.  The get...Locations(...) methods do not always manage this.  In particular, when getMooreLocations(...) wraps
+   vertically all the way around a grid, it returns some wrapped locations more than once (and removes only one copy of the origin)
+   if the grid is wider than it is tall, and leaves out some rows if the grid is taller than it is wide.  So in this case the
+   Neighborhood may visit fewer locations than the get...Locations(...) method returns, or more.  Wrapped neighborhoods
+   are rare and not recommended anyway, and they require some temporary storage to be allocated.
+
+   <p>Hexagonal neighborhoods differ depending on whether x is even or odd, so they hold two tables: see getXOffsets(x)
+   and getYOffsets(x).  For the other neighborhoods these are the same table regardless of x.
+*/
+
+public class Neighborhood implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    public static final int MOORE = 0;
+    public static final int VON_NEUMANN = 1;
+    public static final int HEXAGONAL = 2;
+
+    /** Neighborhoods of distances less than this are cached by get(...). */
+    public static final int CACHE_SIZE = 32;
+
+    /** Visits a location. */
+    public interface Visitor
+        {
+        public void visit(int x, int y);
+        }
+
+    static final Neighborhood[][] cache = new Neighborhood[6][CACHE_SIZE];
+
+    final int type;
+    final int dist;
+    final boolean includeOrigin;
+    final int[] xOffsets;       // for even x
+    final int[] yOffsets;
+    final int[] oddXOffsets;    // for odd x
+    final int[] oddYOffsets;
+    final int xSpan;            // the number of distinct dx values, etc.
+    final int ySpan;
+
+    /** Returns the neighborhood of the given type (MOORE, VON_NEUMANN, or HEXAGONAL) and distance.  Small neighborhoods are
+        cached, so calling this function repeatedly is cheap.  */
+    public static Neighborhood get(int type, int dist, boolean includeOrigin)
+        {
+        if (dist < CACHE_SIZE && dist >= 0 && type >= MOORE && type <= HEXAGONAL)
+            {
+            int index = type * 2 + (includeOrigin ? 1 : 0);
+            Neighborhood n = cache[index][dist];
+            if (n == null)  // benign race: all fields are final, so at worst we build the same table twice
+                n = cache[index][dist] = new Neighborhood(type, dist, includeOrigin);
+            return n;
+            }
+        return new Neighborhood(type, dist, includeOrigin);
+        }
+
+    /** Builds a neighborhood of the given type (MOORE, VON_NEUMANN, or HEXAGONAL) and distance.  Usually you'd call get(...) instead. */
+    public Neighborhood(int type, int dist, boolean includeOrigin)
+        {
+        if (type < MOORE || type > HEXAGONAL)
+            throw new RuntimeException("Neighborhood type must be Neighborhood.MOORE, Neighborhood.VON_NEUMANN, or Neighborhood.HEXAGONAL");
+        if (dist < 0)
+            throw new RuntimeException( "Distance must be positive" );
+        this.type = type;
+        this.dist = dist;
+        this.includeOrigin = includeOrigin;
+
+        // We compute the offsets by asking a big enough bounded grid for the locations around a point in its middle,
+        // so we get exactly the same locations as the get...Locations(...) methods would.  The center must be even
+        // for the even table and odd for the odd one, since hexagonal neighborhoods depend on it.
+        final int size = 4 * dist + 4;
+        AbstractGrid2D grid = new AbstractGrid2D() { };
+        grid.width = size;
+        grid.height = size;
+        IntBag xPos = new IntBag();
+        IntBag yPos = new IntBag();
+
+        final int center = 2 * dist + 2;  // even
+        locations(grid, center, center, xPos, yPos);
+        xOffsets = offsets(xPos, center);
+        yOffsets = offsets(yPos, center);
+        if (type == HEXAGONAL)
+            {
+            locations(grid, center + 1, center, xPos, yPos);
+            oddXOffsets = offsets(xPos, center + 1);
+            oddYOffsets = offsets(yPos, center);
+            }
+        else
+            {
+            oddXOffsets = xOffsets;
+            oddYOffsets = yOffsets;
+            }
+        xSpan = Math.max(span(xOffsets), span(oddXOffsets));
+        ySpan = Math.max(span(yOffsets), span(oddYOffsets));
+        }
+
+    void locations(AbstractGrid2D grid, int x, int y, IntBag xPos, IntBag yPos)
+        {
+        if (type == MOORE) grid.getMooreLocations(x, y, dist, Grid2D.BOUNDED, includeOrigin, xPos, yPos);
+        else if (type == VON_NEUMANN) grid.getVonNeumannLocations(x, y, dist, Grid2D.BOUNDED, includeOrigin, xPos, yPos);
+        else grid.getHexagonalLocations(x, y, dist, Grid2D.BOUNDED, includeOrigin, xPos, yPos);
+        }
+
+    static int[] offsets(IntBag pos, int center)
+        {
+        int[] offsets = new int[pos.numObjs];
+        for(int i = 0; i < offsets.length; i++)
+            offsets[i] = pos.objs[i] - center;
+        return offsets;
+        }
+
+    static int span(int[] offsets)
+        {
+        if (offsets.length == 0) return 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for(int i = 0; i < offsets.length; i++)
+            {
+            if (offsets[i] < min) min = offsets[i];
+            if (offsets[i] > max) max = offsets[i];
+            }
+        return max - min + 1;
+        }
+
+    /** Returns MOORE, VON_NEUMANN, or HEXAGONAL. */
+    public int getType() { return type; }
+
+    public int getDistance() { return dist; }
+
+    public boolean getIncludesOrigin() { return includeOrigin; }
+
+    /** Returns the x offsets of the neighborhood around a location with the given x coordinate.  Do not modify this array. */
+    public int[] getXOffsets(int x) { return (x & 1) == 0 ? xOffsets : oddXOffsets; }
+
+    /** Returns the y offsets of the neighborhood around a location with the given x coordinate.  Do not modify this array. */
+    public int[] getYOffsets(int x) { return (x & 1) == 0 ? yOffsets : oddYOffsets; }
+
+    /** Returns true if the neighborhood, wrapped around a toroidal grid of the given size, would not overlap itself.
+        In this case each location in the neighborhood can be wrapped simply by adding or subtracting the width or height once. */
+    public boolean fits(int width, int height)
+        {
+        return xSpan <= width && ySpan <= height;
+        }
+
+    // checks the mode and center in the same way that the get...Locations(...) methods do
+    void check(int x, int y, int width, int height, int mode)
+        {
+        if (mode != Grid2D.BOUNDED && mode != Grid2D.UNBOUNDED && mode != Grid2D.TOROIDAL)
+            throw new RuntimeException("Mode must be either Grid2D.BOUNDED, Grid2D.UNBOUNDED, or Grid2D.TOROIDAL");
+        if (mode != Grid2D.BOUNDED && (x < 0 || x >= width || y < 0 || y >= height))
+            throw new RuntimeException( "Invalid initial position" );
+        if (mode == Grid2D.TOROIDAL && type == HEXAGONAL && height % 2 == 1)
+            throw new RuntimeException( "toroidal hexagonal environment should have even heights" );
+        }
+
+    /** Calls the visitor on each location in the neighborhood around (x,y) in a grid of the given width and height,
+        in one of the modes Grid2D.BOUNDED, Grid2D.UNBOUNDED, or Grid2D.TOROIDAL. */
+    public void visit(int x, int y, int width, int height, int mode, Visitor visitor)
+        {
+        check(x, y, width, height, mode);
+        final int[] xo = getXOffsets(x);
+        final int[] yo = getYOffsets(x);
+        if (mode == Grid2D.TOROIDAL)
+            {
+            if (!fits(width, height))
+                {
+                visitWrapped(x, y, width, height, visitor);
+                return;
+                }
+            for(int i = 0; i < xo.length; i++)
+                {
+                int xx = x + xo[i];
+                int yy = y + yo[i];
+                if (xx < 0) xx += width; else if (xx >= width) xx -= width;
+                if (yy < 0) yy += height; else if (yy >= height) yy -= height;
+                visitor.visit(xx, yy);
+                }
+            }
+        else if (mode == Grid2D.BOUNDED)
+            {
+            for(int i = 0; i < xo.length; i++)
+                {
+                final int xx = x + xo[i];
+                final int yy = y + yo[i];
+                if (xx >= 0 && xx < width && yy >= 0 && yy < height)
+                    visitor.visit(xx, yy);
+                }
+            }
+        else
+            {
+            for(int i = 0; i < xo.length; i++)
+                visitor.visit(x + xo[i], y + yo[i]);
+            }
+        }
+
+    // The neighborhood wraps around onto itself, so we have to remove duplicates.  We pack each wrapped location into
+    // a long and sort them.  Note that the origin may be reached by wrapping even if includeOrigin is false: like
+    // the get...Locations(...) methods, we remove it in that case.
+    void visitWrapped(int x, int y, int width, int height, Visitor visitor)
+        {
+        final int[] xo = getXOffsets(x);
+        final int[] yo = getYOffsets(x);
+        long[] keys = new long[xo.length];
+        for(int i = 0; i < xo.length; i++)
+            {
+            int xx = (x + xo[i]) % width; if (xx < 0) xx += width;
+            int yy = (y + yo[i]) % height; if (yy < 0) yy += height;
+            keys[i] = (((long) xx) << 32) | yy;
+            }
+        java.util.Arrays.sort(keys);
+        final long origin = (((long) x) << 32) | y;
+        for(int i = 0; i < keys.length; i++)
+            {
+            if (i > 0 && keys[i] == keys[i - 1]) continue;
+            if (!includeOrigin && keys[i] == origin) continue;
+            visitor.visit((int)(keys[i] >>> 32), (int)(keys[i] & 0xFFFFFFFFL));
+            }
+        }
+    }
@@ -54,6 +54,7 @@ public class ObjectGrid2D extends AbstractGrid2D
         {
         assert sim.util.LocationLog.it(this, new Int2D(x,y));
         field[x][y] = val;
+        if (dirtyTiles != null) dirtyTiles.mark(x, y);
         }
 
     /** Returns the element at location (x,y) */
@@ -97,9 +98,17 @@ public class ObjectGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
 
+    /** Sets all the locations in the grid to null, like clear(), but without gathering the objects into a Bag, keeping the grid's storage so it can be refilled.  This is meant
+        for a model which runs many short simulations in a row, such as a ParameterSweep, and refills its fields in start() each time. */
+    public void reset()
+        {
+        setTo((Object)null);
+        }
+
     /** Sets the grid to a copy of the provided array, which must be rectangular.  <b>WARNING:
         this may conflict with setTo(Object) -- make sure you have casted properly.  */
     public ObjectGrid2D setTo(Object[][] field)
@@ -132,6 +141,7 @@ public class ObjectGrid2D extends AbstractGrid2D
             for (int i = 0; i < w; i++)
                 this.field[i] = (Object[]) field[i].clone();
             }
+        markAllDirty();
         return this;
         }
 
@@ -231,6 +241,7 @@ public class ObjectGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return bag;
         }
 
@@ -275,6 +286,7 @@ public class ObjectGrid2D extends AbstractGrid2D
             for(int x =0 ; x < width; x++)
                 System.arraycopy(ofield[x],0,field[x],0,height);
             }
+        markAllDirty();
         return this;
         }
 
@@ -332,6 +344,7 @@ public class ObjectGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         }
 
 
@@ -1020,7 +1033,74 @@ public class ObjectGrid2D extends AbstractGrid2D
         }
 
 
+    /** Visits a location and the object stored there.  See visitNeighbors(...). */
+    public interface Visitor
+        {
+        public void visit(int x, int y, Object obj);
+        }
+
+    /**
+     * Calls the visitor on each location in the given Neighborhood around (X,Y), along with the object at that location.
+     * This visits the same locations as the equivalent get...Neighbors(...) method, though not necessarily in the same order
+     * (except where a small toroidal grid makes the neighborhood wrap around onto itself: see Neighborhood),
+     * but builds no Bags and (for all but absurdly large toroidal neighborhoods) allocates nothing.
+     * Since the grid has no locations outside of its bounds, Grid2D.UNBOUNDED is treated like Grid2D.BOUNDED.  As with
+     * getMooreNeighbors(...) etc., locations holding null are skipped.
+     */
+    public void visitNeighbors( final Neighborhood neighborhood, final int x, final int y, final int mode, final Visitor visitor )
+        {
+        final int width = this.width;
+        final int height = this.height;
+        neighborhood.check(x, y, width, height, mode);
+        final Object[][] field = this.field;
+        final int[] xo = neighborhood.getXOffsets(x);
+        final int[] yo = neighborhood.getYOffsets(x);
+        if (mode == TOROIDAL)
+            {
+            if (!neighborhood.fits(width, height))
+                {
+                neighborhood.visitWrapped(x, y, width, height, new Neighborhood.Visitor()
+                    {
+                    public void visit(int xx, int yy) { Object obj = field[xx][yy]; if (obj != null) visitor.visit(xx, yy, obj); }
+                    });
+                return;
+                }
+            for(int i = 0; i < xo.length; i++)
+                {
+                int xx = x + xo[i];
+                int yy = y + yo[i];
+                if (xx < 0) xx += width; else if (xx >= width) xx -= width;
+                if (yy < 0) yy += height; else if (yy >= height) yy -= height;
+                { final Object obj = field[xx][yy]; if (obj != null) visitor.visit(xx, yy, obj); }
+                }
+            }
+        else
+            {
+            for(int i = 0; i < xo.length; i++)
+                {
+                final int xx = x + xo[i];
+                final int yy = y + yo[i];
+                if (xx >= 0 && xx < width && yy >= 0 && yy < height)
+                    { final Object obj = field[xx][yy]; if (obj != null) visitor.visit(xx, yy, obj); }
+                }
+            }
+        }
 
+    /** Calls the visitor on each location, and the object there, within the Moore neighborhood of (X,Y).  See visitNeighbors(...) and getMooreNeighbors(...). */
+    public void visitMooreNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, Visitor visitor )
+        {
+        visitNeighbors(Neighborhood.get(Neighborhood.MOORE, dist, includeOrigin), x, y, mode, visitor);
+        }
 
+    /** Calls the visitor on each location, and the object there, within the von Neumann neighborhood of (X,Y).  See visitNeighbors(...) and getVonNeumannNeighbors(...). */
+    public void visitVonNeumannNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, Visitor visitor )
+        {
+        visitNeighbors(Neighborhood.get(Neighborhood.VON_NEUMANN, dist, includeOrigin), x, y, mode, visitor);
+        }
 
+    /** Calls the visitor on each location, and the object there, within the hexagonal neighborhood of (X,Y).  See visitNeighbors(...) and getHexagonalNeighbors(...). */
+    public void visitHexagonalNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, Visitor visitor )
+        {
+        visitNeighbors(Neighborhood.get(Neighborhood.HEXAGONAL, dist, includeOrigin), x, y, mode, visitor);
+        }
     }
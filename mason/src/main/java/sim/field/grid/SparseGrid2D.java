@@ -1389,12 +1389,127 @@ public class SparseGrid2D extends SparseField implements Grid2D, SparseField2D
         return getRadialNeighbors(x, y, dist, mode, includeOrigin, null, null, null);
         }
 
+    /** Loads all the objects in the field into a NeighborSearch, ready to find every pair of objects whose locations
+        are within the given max (Moore) distance of one another.  If the result is provided, it is reused, else a new one
+        is created.  If toroidal is true, then locations are wrapped to within the field before they are loaded. */
+    public NeighborSearch loadNeighborSearch(final int dist, final boolean toroidal, NeighborSearch result)
+        {
+        if (result == null) result = new NeighborSearch();
+        result.begin(dist, NeighborSearch.MAX, toroidal, width, height);
+        // one hash iteration per location rather than one lookup per object
+        Iterator i = objectHash.entrySet().iterator();
+        while(i.hasNext())
+            {
+            Map.Entry entry = (Map.Entry)(i.next());
+            Int2D loc = (Int2D)(entry.getKey());
+            Bag objs = (Bag)(entry.getValue());
+            int x = (toroidal ? tx(loc.x) : loc.x);
+            int y = (toroidal ? ty(loc.y) : loc.y);
+            for(int j = 0; j < objs.numObjs; j++)
+                result.add(objs.objs[j], x, y);
+            }
+        result.build();
+        return result;
+        }
+
+    /** Computes, for every object in the field, all the other objects whose locations are within the given max (Moore)
+        distance of its own location, including other objects at the same location, and returns them in a NeighborSearch.
+        This is much faster than calling getMooreNeighbors(...) once for each object, as the field is scanned once and each
+        pair of objects is considered only once.  If parallel is true, the scan is split up among the threads of a ForkJoinPool.
+        If the result is provided, it is reused, else a new one is created.  Afterwards, call <tt>result.getNeighbors(object, bag)</tt>
+        to get the neighbors of a given object. */
+    public NeighborSearch getAllNeighborsMaxDistance(final int dist, final boolean toroidal, final boolean parallel, NeighborSearch result)
+        {
+        result = loadNeighborSearch(dist, toroidal, result);
+        result.computeNeighbors(parallel);
+        return result;
+        }
+
 
 
 
 
 
     public final Double2D getDimensions() { return new Double2D(width, height); }
-    }
 
 
+    /** Visits a location and an object stored there.  See visitNeighbors(...). */
+    public interface Visitor
+        {
+        public void visit(int x, int y, Object obj);
+        }
+
+    /**
+     * Calls the visitor on each object at each location in the given Neighborhood around (X,Y), along with its location.
+     * This visits the same locations as the equivalent get...Neighbors(...) method, though not necessarily in the same order
+     * (except where a small toroidal grid makes the neighborhood wrap around onto itself: see Neighborhood),
+     * but builds no Bags: each location is looked up directly and its objects are handed to the visitor.
+     * You should not add objects to, remove objects from, or move objects in the field while visiting.
+     */
+    public void visitNeighbors( final Neighborhood neighborhood, final int x, final int y, final int mode, final Visitor visitor )
+        {
+        final int width = this.width;
+        final int height = this.height;
+        neighborhood.check(x, y, width, height, mode);
+        final MutableInt2D key = new MutableInt2D();
+        final int[] xo = neighborhood.getXOffsets(x);
+        final int[] yo = neighborhood.getYOffsets(x);
+        if (mode == TOROIDAL && !neighborhood.fits(width, height))
+            {
+            neighborhood.visitWrapped(x, y, width, height, new Neighborhood.Visitor()
+                {
+                public void visit(int xx, int yy) { visitObjectsAt(xx, yy, key, visitor); }
+                });
+            return;
+            }
+        for(int i = 0; i < xo.length; i++)
+            {
+            int xx = x + xo[i];
+            int yy = y + yo[i];
+            if (mode == TOROIDAL)
+                {
+                if (xx < 0) xx += width; else if (xx >= width) xx -= width;
+                if (yy < 0) yy += height; else if (yy >= height) yy -= height;
+                }
+            else if (mode == BOUNDED && (xx < 0 || xx >= width || yy < 0 || yy >= height))
+                continue;
+            visitObjectsAt(xx, yy, key, visitor);
+            }
+        }
+
+    void visitObjectsAt(int x, int y, MutableInt2D key, Visitor visitor)
+        {
+        key.x = x;
+        key.y = y;
+        Bag b = (Bag)(objectHash.get(key));
+        if (b == null) return;
+        final Object[] objs = b.objs;
+        final int numObjs = b.numObjs;
+        for(int i = 0; i < numObjs; i++)
+            visitor.visit(x, y, objs[i]);
+        }
+
+    /** Calls the visitor on each object, and its location, within the Moore neighborhood of (X,Y).  See visitNeighbors(...) and getMooreNeighbors(...). */
+    public void visitMooreNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, Visitor visitor )
+        {
+        visitNeighbors(Neighborhood.get(Neighborhood.MOORE, dist, includeOrigin), x, y, mode, visitor);
+        }
+
+    /** Calls the visitor on each object, and its location, within the von Neumann neighborhood of (X,Y).  See visitNeighbors(...) and getVonNeumannNeighbors(...). */
+    public void visitVonNeumannNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, Visitor visitor )
+        {
+        visitNeighbors(Neighborhood.get(Neighborhood.VON_NEUMANN, dist, includeOrigin), x, y, mode, visitor);
+        }
+
+    /** Calls the visitor on each object, and its location, within the hexagonal neighborhood of (X,Y).  See visitNeighbors(...) and getHexagonalNeighbors(...). */
+    public void visitHexagonalNeighbors( final int x, final int y, final int dist, int mode, boolean includeOrigin, Visitor visitor )
+        {
+        visitNeighbors(Neighborhood.get(Neighborhood.HEXAGONAL, dist, includeOrigin), x, y, mode, visitor);
+        }
+
+    /** Calls the visitor on each location within the given Neighborhood around (x,y), without filling any IntBags.  See Neighborhood.visit(...). */
+    public void visitLocations( final Neighborhood neighborhood, final int x, final int y, int mode, Neighborhood.Visitor visitor )
+        {
+        neighborhood.visit(x, y, width, height, mode, visitor);
+        }
+    }
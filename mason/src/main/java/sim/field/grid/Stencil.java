@@ -0,0 +1,570 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+import java.util.concurrent.*;
+
+/**
+   A linear stencil (convolution kernel) which can be applied to a DoubleGrid2D, DoubleGrid3D, FlatDoubleGrid2D, or
+   FlatDoubleGrid3D.  Applying the stencil sets each location in a destination grid to the weighted sum of the
+   neighboring locations in a source grid.  This is the core of diffusion, blurring, Laplacians, Game-of-Life style
+   neighbor counts, and so on.  For example, HeatBugs' evaporate-and-diffuse step is a 3x3 stencil of ones followed by a
+   little arithmetic on the sum, which you can get from Stencil.diffusion2D(evaporationRate, diffusionRate).
+
+   <p>A 2D stencil is constructed from a rectangular double[dx][dy] array of weights, each dimension of odd size, with
+   the center of the array corresponding to the location being computed.  Thus a 3x3 stencil's weight at [0][0] applies
+   to the location (x-1,y-1), and its weight at [1][1] applies to (x,y) itself.  A 3D stencil is constructed likewise from
+   a double[dx][dy][dz] array.  Zero weights are skipped entirely, so sparse stencils (such as von Neumann neighborhoods) are cheap.
+
+   <p>The stencil may be applied in one of two modes.  In Grid2D.TOROIDAL mode, the grid wraps around.  In Grid2D.BOUNDED
+   mode (or Grid2D.UNBOUNDED, which is treated the same way), neighbors which fall outside the grid are ignored, as if they were zero.
+
+   <p><b>Double Buffering</b>  The source and destination grids must be different objects (or at least different arrays).
+   The usual pattern is to keep a scratch grid of the same size around and call step(grid, scratch, mode), which applies the stencil
+   from grid into scratch, then swaps the two grids' underlying arrays, so that grid holds the new values and scratch holds the
+   old ones.  No copying is done.
+
+   <p><b>Tiling and Parallelism</b>  The grid is processed in tiles of a few columns by a few thousand cells along the innermost
+   (contiguous) dimension, so that the source columns a tile needs stay in cache while the tile is computed.  Within a tile,
+   each weight of the stencil is applied as a separate simple loop along the column, which the JIT can unroll and vectorize;
+   only the cells near the ends of each column, which may need to wrap around or be clipped, are computed one at a time.
+   By default, tiles are handed to a ForkJoinPool (the common pool unless you set your own with setForkJoinPool(...)), so
+   large grids are diffused across all available cores.  Every location is computed independently and in the same order
+   regardless of which thread does it, so the results are identical whether or not the stencil is run in parallel.  Grids
+   with fewer cells than getMinParallelSize() are done in the calling thread.
+
+   <p><b>Order of Operations</b>  Each location's weighted sum is added up in the order of the weights array: by x, then y,
+   then z.  The diffusion stencils add up their neighbors and finish the computation exactly as sim.app.heatbugs.Diffuser does,
+   so their results are bitwise identical to Diffuser's, not just close.
+*/
+
+public class Stencil implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The number of columns (2D) or (x,y) lines (3D) in a tile. */
+    public static final int TILE_LINES = 16;
+    /** The number of cells along each column in a tile. */
+    public static final int TILE_LENGTH = 2048;
+    /** By default, grids with fewer cells than this are done in the calling thread.  See setMinParallelSize(...). */
+    public static final int MIN_PARALLEL_SIZE = 4096;
+
+    int dimensions;
+    int rx;
+    int ry;
+    int rz;
+
+    // The non-zero weights.  termLine is the index of the term's neighboring column (2D) or (x,y) line (3D), that is,
+    // (dx + rx) in 2D or (dx + rx) * (2 * ry + 1) + (dy + ry) in 3D.  termOffset is the term's offset along the column.
+    int[] termLine;
+    int[] termOffset;
+    double[] termWeight;
+    // the offset along the column (y in 2D, z in 3D), the "radius" of the stencil along the column
+    int along;
+    
+    // If divisor isn't 0, each location is set not to its weighted sum but to
+    // evaporationRate * (value + diffusionRate * (sum / divisor - value)), computed just as Diffuser does.
+    double divisor = 0;
+    double evaporationRate;
+    double diffusionRate;
+
+    boolean usesForkJoin = true;
+    int minParallelSize = MIN_PARALLEL_SIZE;
+    transient ForkJoinPool pool = null;  // null means the common pool.  Not serialized.
+
+    /** Builds a 2D stencil from the given weights, which must be rectangular and have odd dimensions. */
+    public Stencil(double[][] weights)
+        {
+        if (weights == null || weights.length == 0 || weights.length % 2 == 0)
+            throw new IllegalArgumentException("Stencil weights must have an odd, nonzero width");
+        int h = weights[0].length;
+        if (h % 2 == 0)
+            throw new IllegalArgumentException("Stencil weights must have an odd, nonzero height");
+        for(int i = 0; i < weights.length; i++)
+            if (weights[i].length != h)
+                throw new IllegalArgumentException("Stencil weights must be rectangular");
+
+        dimensions = 2;
+        rx = weights.length / 2;
+        ry = h / 2;
+        rz = 0;
+        along = ry;
+        int count = 0;
+        for(int i = 0; i < weights.length; i++)
+            for(int j = 0; j < h; j++)
+                if (weights[i][j] != 0) count++;
+        termLine = new int[count];
+        termOffset = new int[count];
+        termWeight = new double[count];
+        count = 0;
+        for(int i = 0; i < weights.length; i++)
+            for(int j = 0; j < h; j++)
+                if (weights[i][j] != 0)
+                    {
+                    termLine[count] = i;
+                    termOffset[count] = j - ry;
+                    termWeight[count] = weights[i][j];
+                    count++;
+                    }
+        }
+
+    /** Builds a 3D stencil from the given weights, which must be rectangular and have odd dimensions. */
+    public Stencil(double[][][] weights)
+        {
+        if (weights == null || weights.length == 0 || weights.length % 2 == 0)
+            throw new IllegalArgumentException("Stencil weights must have an odd, nonzero width");
+        int h = weights[0].length;
+        if (h % 2 == 0)
+            throw new IllegalArgumentException("Stencil weights must have an odd, nonzero height");
+        int l = weights[0][0].length;
+        if (l % 2 == 0)
+            throw new IllegalArgumentException("Stencil weights must have an odd, nonzero length");
+        for(int i = 0; i < weights.length; i++)
+            {
+            if (weights[i].length != h)
+                throw new IllegalArgumentException("Stencil weights must be rectangular");
+            for(int j = 0; j < h; j++)
+                if (weights[i][j].length != l)
+                    throw new IllegalArgumentException("Stencil weights must be rectangular");
+            }
+
+        dimensions = 3;
+        rx = weights.length / 2;
+        ry = h / 2;
+        rz = l / 2;
+        along = rz;
+        int count = 0;
+        for(int i = 0; i < weights.length; i++)
+            for(int j = 0; j < h; j++)
+                for(int k = 0; k < l; k++)
+                    if (weights[i][j][k] != 0) count++;
+        termLine = new int[count];
+        termOffset = new int[count];
+        termWeight = new double[count];
+        count = 0;
+        for(int i = 0; i < weights.length; i++)
+            for(int j = 0; j < h; j++)
+                for(int k = 0; k < l; k++)
+                    if (weights[i][j][k] != 0)
+                        {
+                        termLine[count] = i * h + j;
+                        termOffset[count] = k - rz;
+                        termWeight[count] = weights[i][j][k];
+                        count++;
+                        }
+        }
+
+    /** Returns a 3x3 stencil which computes, for each location, evaporationRate * (value + diffusionRate * (average - value)),
+        where <i>average</i> is the mean of the location and its eight Moore neighbors.  This is the diffusion used in HeatBugs,
+        and gives bitwise the same results as sim.app.heatbugs.Diffuser in TOROIDAL mode.  We don't fold the rates into the
+        weights, as that would round differently. */
+    public static Stencil diffusion2D(double evaporationRate, double diffusionRate)
+        {
+        double[][] weights = new double[3][3];
+        for(int i = 0; i < 3; i++)
+            java.util.Arrays.fill(weights[i], 1.0);
+        Stencil stencil = new Stencil(weights);
+        stencil.setDiffusion(9.0, evaporationRate, diffusionRate);
+        return stencil;
+        }
+
+    /** Returns a 3x3x3 stencil which computes, for each location, evaporationRate * (value + diffusionRate * (average - value)),
+        where <i>average</i> is the mean of the location and its 26 Moore neighbors. */
+    public static Stencil diffusion3D(double evaporationRate, double diffusionRate)
+        {
+        double[][][] weights = new double[3][3][3];
+        for(int i = 0; i < 3; i++)
+            for(int j = 0; j < 3; j++)
+                java.util.Arrays.fill(weights[i][j], 1.0);
+        Stencil stencil = new Stencil(weights);
+        stencil.setDiffusion(27.0, evaporationRate, diffusionRate);
+        return stencil;
+        }
+        
+    void setDiffusion(double divisor, double evaporationRate, double diffusionRate)
+        {
+        this.divisor = divisor;
+        this.evaporationRate = evaporationRate;
+        this.diffusionRate = diffusionRate;
+        }
+
+    /** Returns 2 or 3, the dimensionality of the stencil. */
+    public int getDimensions() { return dimensions; }
+
+    /** Returns whether the stencil is applied in parallel using a ForkJoinPool (the default). */
+    public boolean getUsesForkJoin() { return usesForkJoin; }
+    /** Sets whether the stencil is applied in parallel using a ForkJoinPool. */
+    public void setUsesForkJoin(boolean val) { usesForkJoin = val; }
+
+    /** Returns the number of cells below which a grid is done in the calling thread rather than in parallel.
+        The default is MIN_PARALLEL_SIZE. */
+    public int getMinParallelSize() { return minParallelSize; }
+    /** Sets the number of cells below which a grid is done in the calling thread rather than in parallel.  Handing tiles
+        to other threads has some overhead, so for small grids and cheap stencils it may not pay.  Pass in 0 to always use the
+        ForkJoinPool (if there is more than one tile). */
+    public void setMinParallelSize(int val) { minParallelSize = Math.max(0, val); }
+
+    /** Returns the ForkJoinPool used to apply the stencil in parallel, or null if the common pool is used. */
+    public ForkJoinPool getForkJoinPool() { return pool; }
+    /** Sets the ForkJoinPool used to apply the stencil in parallel.  Pass in null to use the common pool (the default).
+        The pool is not serialized: after a checkpoint is loaded, the common pool is used until you set another one. */
+    public void setForkJoinPool(ForkJoinPool pool) { this.pool = pool; }
+
+
+    /** Sets each location in <i>to</i> to the stencil applied to <i>from</i>.  The grids must be the same size and must not
+        share arrays.  Returns <i>to</i>. */
+    public DoubleGrid2D apply(DoubleGrid2D from, DoubleGrid2D to, int mode)
+        {
+        check(2, from, to, from.width, from.height, to.width, to.height);
+        int w = from.width;
+        apply(from.field, new int[w], to.field, new int[w], w, from.height, new int[] { w, 1 }, mode);
+        to.markAllDirty();
+        return to;
+        }
+
+    /** Sets each location in <i>to</i> to the stencil applied to <i>from</i>.  The grids must be the same size and must not
+        share arrays.  Returns <i>to</i>. */
+    public FlatDoubleGrid2D apply(FlatDoubleGrid2D from, FlatDoubleGrid2D to, int mode)
+        {
+        check(2, from.field, to.field, from.width, from.height, to.width, to.height);
+        int w = from.width;
+        int h = from.height;
+        double[][] src = new double[w][];
+        double[][] dst = new double[w][];
+        int[] offsets = new int[w];
+        for(int x = 0; x < w; x++)
+            {
+            src[x] = from.field;
+            dst[x] = to.field;
+            offsets[x] = x * h;
+            }
+        apply(src, offsets, dst, offsets, w, h, new int[] { w, 1 }, mode);
+        to.markAllDirty();
+        return to;
+        }
+
+    /** Sets each location in <i>to</i> to the stencil applied to <i>from</i>.  The grids must be the same size and must not
+        share arrays.  Returns <i>to</i>. */
+    public DoubleGrid3D apply(DoubleGrid3D from, DoubleGrid3D to, int mode)
+        {
+        check(3, from, to, from.width, from.height, to.width, to.height);
+        if (from.length != to.length)
+            throw new IllegalArgumentException("Stencil applied between grids of different sizes");
+        int w = from.width;
+        int h = from.height;
+        double[][] src = new double[w * h][];
+        double[][] dst = new double[w * h][];
+        for(int x = 0; x < w; x++)
+            {
+            System.arraycopy(from.field[x], 0, src, x * h, h);
+            System.arraycopy(to.field[x], 0, dst, x * h, h);
+            }
+        int[] offsets = new int[w * h];
+        apply(src, offsets, dst, offsets, w * h, from.length, new int[] { w, h }, mode);
+        return to;
+        }
+
+    /** Sets each location in <i>to</i> to the stencil applied to <i>from</i>.  The grids must be the same size and must not
+        share arrays.  Returns <i>to</i>. */
+    public FlatDoubleGrid3D apply(FlatDoubleGrid3D from, FlatDoubleGrid3D to, int mode)
+        {
+        check(3, from.field, to.field, from.width, from.height, to.width, to.height);
+        if (from.length != to.length)
+            throw new IllegalArgumentException("Stencil applied between grids of different sizes");
+        int w = from.width;
+        int h = from.height;
+        int l = from.length;
+        double[][] src = new double[w * h][];
+        double[][] dst = new double[w * h][];
+        int[] offsets = new int[w * h];
+        for(int i = 0; i < w * h; i++)
+            {
+            src[i] = from.field;
+            dst[i] = to.field;
+            offsets[i] = i * l;
+            }
+        apply(src, offsets, dst, offsets, w * h, l, new int[] { w, h }, mode);
+        return to;
+        }
+
+    /** Applies the stencil from <i>grid</i> into <i>scratch</i>, then swaps the two grids' arrays, so that <i>grid</i>
+        holds the result and <i>scratch</i> holds the previous values.  Returns <i>grid</i>. */
+    public DoubleGrid2D step(DoubleGrid2D grid, DoubleGrid2D scratch, int mode)
+        {
+        apply(grid, scratch, mode);
+        double[][] temp = grid.field;
+        grid.field = scratch.field;
+        scratch.field = temp;
+        grid.markAllDirty();
+        return grid;
+        }
+
+    /** Applies the stencil from <i>grid</i> into <i>scratch</i>, then swaps the two grids' arrays, so that <i>grid</i>
+        holds the result and <i>scratch</i> holds the previous values.  Returns <i>grid</i>. */
+    public FlatDoubleGrid2D step(FlatDoubleGrid2D grid, FlatDoubleGrid2D scratch, int mode)
+        {
+        apply(grid, scratch, mode);
+        double[] temp = grid.field;
+        grid.field = scratch.field;
+        scratch.field = temp;
+        grid.markAllDirty();
+        return grid;
+        }
+
+    /** Applies the stencil from <i>grid</i> into <i>scratch</i>, then swaps the two grids' arrays, so that <i>grid</i>
+        holds the result and <i>scratch</i> holds the previous values.  Returns <i>grid</i>. */
+    public DoubleGrid3D step(DoubleGrid3D grid, DoubleGrid3D scratch, int mode)
+        {
+        apply(grid, scratch, mode);
+        double[][][] temp = grid.field;
+        grid.field = scratch.field;
+        scratch.field = temp;
+        return grid;
+        }
+
+    /** Applies the stencil from <i>grid</i> into <i>scratch</i>, then swaps the two grids' arrays, so that <i>grid</i>
+        holds the result and <i>scratch</i> holds the previous values.  Returns <i>grid</i>. */
+    public FlatDoubleGrid3D step(FlatDoubleGrid3D grid, FlatDoubleGrid3D scratch, int mode)
+        {
+        apply(grid, scratch, mode);
+        double[] temp = grid.field;
+        grid.field = scratch.field;
+        scratch.field = temp;
+        return grid;
+        }
+
+    void check(int dimensions, Object from, Object to, int fromWidth, int fromHeight, int toWidth, int toHeight)
+        {
+        if (this.dimensions != dimensions)
+            throw new IllegalArgumentException("A " + this.dimensions + "D Stencil cannot be applied to a " + dimensions + "D grid");
+        if (from == to)
+            throw new IllegalArgumentException("Stencil cannot be applied from a grid into itself");
+        if (fromWidth != toWidth || fromHeight != toHeight)
+            throw new IllegalArgumentException("Stencil applied between grids of different sizes");
+        }
+
+
+    /*
+      Internally we treat both 2D and 3D grids as a collection of numLines "lines" (x columns in 2D, (x,y) columns in 3D),
+      each a run of n contiguous doubles starting at offsets[line] in lines[line].  shape is {width, height} of the lines:
+      {width, 1} in 2D and {width, height} in 3D.
+    */
+
+    void apply(double[][] src, int[] srcOffsets, double[][] dst, int[] dstOffsets, int numLines, int n, int[] shape, int mode)
+        {
+        if (numLines == 0 || n == 0) return;
+        for(int i = 0; i < numLines; i++)
+            if (src[i] == dst[i] && srcOffsets[i] == dstOffsets[i])
+                throw new IllegalArgumentException("Stencil cannot be applied from a grid into itself");
+
+        Tiles tiles = new Tiles(src, srcOffsets, dst, dstOffsets, numLines, n, shape, mode == Grid2D.TOROIDAL);
+        int numTiles = tiles.lineBlocks * tiles.alongBlocks;
+        if (!usesForkJoin || numTiles == 1 || (long) numLines * n < minParallelSize)
+            {
+            tiles.compute(0, numTiles);
+            }
+        else
+            {
+            ForkJoinPool p = (pool == null ? ForkJoinPool.commonPool() : pool);
+            int grain = Math.max(1, numTiles / (p.getParallelism() * 8));
+            p.invoke(new Task(tiles, 0, numTiles, grain));
+            }
+        }
+
+    class Tiles
+        {
+        final double[][] src;
+        final int[] srcOffsets;
+        final double[][] dst;
+        final int[] dstOffsets;
+        final int numLines;
+        final int n;
+        final int width;
+        final int height;
+        final boolean toroidal;
+        final int lineBlocks;
+        final int alongBlocks;
+        final int lineRy;    // in 2D the lines are only neighbors in x
+        final int centerLine;    // the index of the location's own line among its neighbors
+
+        Tiles(double[][] src, int[] srcOffsets, double[][] dst, int[] dstOffsets, int numLines, int n, int[] shape, boolean toroidal)
+            {
+            this.src = src;
+            this.srcOffsets = srcOffsets;
+            this.dst = dst;
+            this.dstOffsets = dstOffsets;
+            this.numLines = numLines;
+            this.n = n;
+            this.width = shape[0];
+            this.height = shape[1];
+            this.toroidal = toroidal;
+            lineRy = (dimensions == 2 ? 0 : ry);
+            centerLine = rx * (2 * lineRy + 1) + lineRy;
+            lineBlocks = (numLines + TILE_LINES - 1) / TILE_LINES;
+            alongBlocks = (n + TILE_LENGTH - 1) / TILE_LENGTH;
+            }
+
+        // computes tiles [start, end).  Tiles are numbered line-block-major, so a run of
+        // tiles handed to one thread covers neighboring lines.
+        void compute(int start, int end)
+            {
+            final int numNeighbors = (2 * rx + 1) * (2 * lineRy + 1);
+            final double[][] cols = new double[numNeighbors][];
+            final int[] colOffsets = new int[numNeighbors];
+            for(int t = start; t < end; t++)
+                {
+                int lineBlock = t / alongBlocks;
+                int alongBlock = t % alongBlocks;
+                int lo = alongBlock * TILE_LENGTH;
+                int hi = Math.min(n, lo + TILE_LENGTH);
+                int lastLine = Math.min(numLines, (lineBlock + 1) * TILE_LINES);
+                for(int line = lineBlock * TILE_LINES; line < lastLine; line++)
+                    {
+                    gather(line, cols, colOffsets);
+                    computeLine(cols, colOffsets, dst[line], dstOffsets[line], lo, hi);
+                    }
+                }
+            }
+
+        // loads the neighboring source lines of the given line into cols, or null if they're out of bounds
+        void gather(int line, double[][] cols, int[] colOffsets)
+            {
+            final int x = line / height;
+            final int y = line % height;
+            int k = 0;
+            for(int dx = -rx; dx <= rx; dx++)
+                {
+                int xx = x + dx;
+                boolean xIn = (xx >= 0 && xx < width);
+                if (!xIn && toroidal) { xx = xx % width; if (xx < 0) xx += width; xIn = true; }
+                for(int dy = -lineRy; dy <= lineRy; dy++)
+                    {
+                    int yy = y + dy;
+                    boolean yIn = (yy >= 0 && yy < height);
+                    if (!yIn && toroidal) { yy = yy % height; if (yy < 0) yy += height; yIn = true; }
+                    if (xIn && yIn)
+                        {
+                        int l = xx * height + yy;
+                        cols[k] = src[l];
+                        colOffsets[k] = srcOffsets[l];
+                        }
+                    else cols[k] = null;
+                    k++;
+                    }
+                }
+            }
+
+        void computeLine(final double[][] cols, final int[] colOffsets, final double[] out, final int outOffset, final int lo, final int hi)
+            {
+            final int n = this.n;
+            final int r = along;
+            final int[] termLine = Stencil.this.termLine;
+            final int[] termOffset = Stencil.this.termOffset;
+            final double[] termWeight = Stencil.this.termWeight;
+            final int numTerms = termWeight.length;
+
+            // the interior, where no term wraps around or falls off the end of the line
+            final int inLo = Math.max(lo, r);
+            final int inHi = Math.min(hi, n - r);
+            if (inLo < inHi)
+                {
+                boolean first = true;
+                for(int t = 0; t < numTerms; t++)
+                    {
+                    final double[] c = cols[termLine[t]];
+                    if (c == null) continue;
+                    final double w = termWeight[t];
+                    final int shift = colOffsets[termLine[t]] + termOffset[t] - outOffset;
+                    if (first)
+                        {
+                        for(int i = outOffset + inLo; i < outOffset + inHi; i++)
+                            out[i] = w * c[i + shift];
+                        first = false;
+                        }
+                    else
+                        {
+                        for(int i = outOffset + inLo; i < outOffset + inHi; i++)
+                            out[i] += w * c[i + shift];
+                        }
+                    }
+                if (first)  // nothing at all in range
+                    java.util.Arrays.fill(out, outOffset + inLo, outOffset + inHi, 0.0);
+                }
+
+            // the two ends, one cell at a time
+            final int end1 = Math.min(hi, r);
+            for(int i = lo; i < end1; i++)
+                out[outOffset + i] = computeCell(cols, colOffsets, i);
+            for(int i = Math.max(Math.max(lo, n - r), end1); i < hi; i++)
+                out[outOffset + i] = computeCell(cols, colOffsets, i);
+            
+            // turn the sums into evaporated, diffused values, with the same operations in the same order as Diffuser
+            if (divisor != 0)
+                {
+                final double[] c = cols[centerLine];
+                final int shift = colOffsets[centerLine] - outOffset;
+                final double divisor = Stencil.this.divisor;
+                final double evaporationRate = Stencil.this.evaporationRate;
+                final double diffusionRate = Stencil.this.diffusionRate;
+                for(int i = outOffset + lo; i < outOffset + hi; i++)
+                    {
+                    final double value = c[i + shift];
+                    out[i] = evaporationRate * (value + diffusionRate * (out[i] / divisor - value));
+                    }
+                }
+            }
+
+        double computeCell(final double[][] cols, final int[] colOffsets, final int i)
+            {
+            final int n = this.n;
+            double sum = 0;
+            boolean first = true;  // start from the first term rather than adding it to 0, just as the interior does
+            for(int t = 0; t < termWeight.length; t++)
+                {
+                final double[] c = cols[termLine[t]];
+                if (c == null) continue;
+                int j = i + termOffset[t];
+                if (j < 0 || j >= n)
+                    {
+                    if (!toroidal) continue;
+                    j = j % n;
+                    if (j < 0) j += n;
+                    }
+                if (first) { sum = termWeight[t] * c[colOffsets[termLine[t]] + j]; first = false; }
+                else sum += termWeight[t] * c[colOffsets[termLine[t]] + j];
+                }
+            return sum;
+            }
+        }
+
+    static class Task extends RecursiveAction
+        {
+        private static final long serialVersionUID = 1;
+        final Tiles tiles;
+        final int start;
+        final int end;
+        final int grain;
+
+        Task(Tiles tiles, int start, int end, int grain)
+            {
+            this.tiles = tiles;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+            }
+
+        protected void compute()
+            {
+            if (end - start <= grain)
+                tiles.compute(start, end);
+            else
+                {
+                int mid = (start + end) >>> 1;
+                invokeAll(new Task(tiles, start, mid, grain), new Task(tiles, mid, end, grain));
+                }
+            }
+        }
+    }
@@ -107,6 +107,8 @@ public class Edge implements java.io.Serializable, Comparable
     public void setWeight(double weight)
         {
         info = new Double(weight);
+        Network o = owner;
+        if (o != null) o.snapshot = null;
         }
 
     /**
@@ -140,7 +142,7 @@ public class Edge implements java.io.Serializable, Comparable
         }
 
     public Object getInfo() { return info; }
-    public void setInfo(Object val) { info = val; }
+    public void setInfo(Object val) { info = val; Network o = owner; if (o != null) o.snapshot = null; }
 
     public String toString()
         {
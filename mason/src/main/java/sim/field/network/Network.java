@@ -41,7 +41,10 @@ import java.util.*;
     and changes just the <b>contents</b> of the edge info objects and the node object contents, you might consider first 
     getting an adjacency list for the Network with getAdjacencyList(...), or an adjacency matrix with getAdjacencyMatrix(...)
     or getMultigraphAdjacencyMatrix(...).  But remember that as soon as the topology changes (adding/deleting a node or edge),
-    the adjacency list is invalid, and you need to request another one.
+    the adjacency list is invalid, and you need to request another one.  For whole-graph algorithms on large networks,
+    getSnapshot() provides a cached, array-based (compressed sparse row) version of the graph: see NetworkSnapshot.
+    If instead you want to keep statistics up to date as the network changes, register a NetworkListener with addListener(...):
+    it is told about each node and edge added or removed.
     
     <p><b>Computational Complexity.</b>  Adding a node or an edge is O(1).  Removing an edge is O(1).  Removing a node is O(m), where
     m is the total number of edges in and out of the node.  Removing all nodes is O(1) and fast.  Getting the in-edges or out-edges for a node
@@ -109,8 +112,8 @@ public class Network implements java.io.Serializable
     /** Resets the network, clearing it of nodes and edges. */
     public void reset(boolean directed)
         {
+        this.directed = directed;  // before clear(), so listeners rebuilding see the new direction
         clear();
-        this.directed = directed;
         }
                         
     /** Hashes Network.IndexOutIn structures by Node.  These structures
@@ -125,6 +128,91 @@ public class Network implements java.io.Serializable
     // returned instead of null for those methods which require a guarantee that the returned Bag should never be touched.
     final Bag emptyBag = new Bag();
 
+    // IndexOutIns and emptied edge Bags left over from reset(), to be reused.  These are null until reset() is first called.
+    transient Bag spareIndexOutIns = null;
+    transient Bag spareEdgeBags = null;
+
+    // the cached snapshot, or null if the topology has changed since we last made one
+    transient NetworkSnapshot snapshot;
+
+    /** Returns a NetworkSnapshot of the network, which lays out its topology in compact arrays suitable for whole-graph
+        algorithms.  The snapshot is cached, and the same one is returned until the topology of the network changes.
+        Building a snapshot is an O(#nodes + #edges) operation.  */
+    public NetworkSnapshot getSnapshot()
+        {
+        NetworkSnapshot s = snapshot;
+        if (s == null)
+            s = snapshot = new NetworkSnapshot(this);
+        return s;
+        }
+
+    /** Discards the cached NetworkSnapshot, if any.  The Network does this itself whenever you change its topology through its methods,
+        but you must call this method if you modify allNodes or indexOutInHash directly, or change the weights of edges in place.  */
+    public void invalidateSnapshot()
+        {
+        snapshot = null;
+        }
+
+    // the NetworkListeners, or null if there are none
+    Bag listeners = null;
+
+    /** Adds a NetworkListener, which will be told about each subsequent change to the topology of the network.
+        See NetworkListener for what is reported and when. */
+    public void addListener(NetworkListener listener)
+        {
+        if (listeners == null) listeners = new Bag();
+        listeners.add(listener);
+        }
+
+    /** Removes a NetworkListener.  Returns false if it wasn't registered. */
+    public boolean removeListener(NetworkListener listener)
+        {
+        if (listeners == null) return false;
+        boolean result = listeners.removeNondestructively(listener);
+        if (listeners.numObjs == 0) listeners = null;
+        return result;
+        }
+
+    void fireNodeAdded(Object node)
+        {
+        final Bag listeners = this.listeners;
+        if (listeners == null) return;
+        for(int i = 0; i < listeners.numObjs; i++)
+            ((NetworkListener)(listeners.objs[i])).nodeAdded(this, node);
+        }
+
+    void fireNodeRemoved(Object node)
+        {
+        final Bag listeners = this.listeners;
+        if (listeners == null) return;
+        for(int i = 0; i < listeners.numObjs; i++)
+            ((NetworkListener)(listeners.objs[i])).nodeRemoved(this, node);
+        }
+
+    void fireEdgeAdded(Edge edge)
+        {
+        final Bag listeners = this.listeners;
+        if (listeners == null) return;
+        for(int i = 0; i < listeners.numObjs; i++)
+            ((NetworkListener)(listeners.objs[i])).edgeAdded(this, edge);
+        }
+
+    void fireEdgeRemoved(Edge edge)
+        {
+        final Bag listeners = this.listeners;
+        if (listeners == null) return;
+        for(int i = 0; i < listeners.numObjs; i++)
+            ((NetworkListener)(listeners.objs[i])).edgeRemoved(this, edge);
+        }
+
+    void fireNetworkChanged()
+        {
+        final Bag listeners = this.listeners;
+        if (listeners == null) return;
+        for(int i = 0; i < listeners.numObjs; i++)
+            ((NetworkListener)(listeners.objs[i])).networkChanged(this);
+        }
+
     /** Creates and returns an adjacency list.  If you're doing lots of operations (especially network traversals)
         which won't effect the topology of the network, an adjacency list structure might be more efficient for you to access rather than lots of
         calls to getEdgesIn() and getEdgesOut() etc.  Building the list is an O(#edges) operation.
@@ -369,8 +457,16 @@ public class Network implements java.io.Serializable
         if( indexOutInHash.get( node ) != null ) // if the object already exists
             return;
         allNodes.add( node );
-        IndexOutIn ioih = new IndexOutIn( allNodes.numObjs-1, null, null );
+        IndexOutIn ioih;
+        if (spareIndexOutIns != null && spareIndexOutIns.numObjs > 0)  // reuse one left over from reset()
+            {
+            ioih = (IndexOutIn)(spareIndexOutIns.pop());
+            ioih.index = allNodes.numObjs-1;
+            }
+        else ioih = new IndexOutIn( allNodes.numObjs-1, null, null );
         indexOutInHash.put( node, ioih );
+        snapshot = null;
+        fireNodeAdded(node);
         }
 
     /** Add an edge, storing info as the edge's associated information object. 
@@ -406,13 +502,13 @@ public class Network implements java.io.Serializable
         if( outNode.out == null )
             {
             if(directed)
-                outNode.out = new Bag();
+                outNode.out = newEdgeBag();
             else
                 {
                 if(outNode.in!=null)
                     outNode.out = outNode.in;
                 else
-                    outNode.out = outNode.in = new Bag();
+                    outNode.out = outNode.in = newEdgeBag();
                 }
             }
         outNode.out.add( edge );
@@ -427,17 +523,19 @@ public class Network implements java.io.Serializable
         if( inNode.in == null )
             {
             if(directed)
-                inNode.in = new Bag();
+                inNode.in = newEdgeBag();
             else
                 {
                 if(inNode.out!=null)
                     inNode.in = inNode.out;
                 else
-                    inNode.in = inNode.out = new Bag();
+                    inNode.in = inNode.out = newEdgeBag();
                 }
             }
         inNode.in.add( edge );
         edge.indexTo = inNode.in.numObjs-1;
+        snapshot = null;
+        fireEdgeAdded(edge);
         }
 
     /** Removes the given edge, then changes its from, to, and info values to the provided ones,
@@ -469,6 +567,7 @@ public class Network implements java.io.Serializable
         if (edge.owner != this)
             return null;
         edge.owner = null;
+        snapshot = null;
         // we'll do an extraneous hash if this is being called from removeNode...
         
         // remove the edge from the "out" node's "out" bag
@@ -522,6 +621,7 @@ public class Network implements java.io.Serializable
                 else throw new InternalError("This shouldn't ever happen: #2");
                 }
             }
+        fireEdgeRemoved(edge);
         // return the edge
         return edge;
         }
@@ -540,6 +640,8 @@ public class Network implements java.io.Serializable
             if (ioi.out != null)
                 ioi.out.clear();
             }
+        snapshot = null;
+        fireNetworkChanged();
         }
 
     /** Removes a node, deleting all incoming and outgoing edges from the Field as well.  Returns the node,
@@ -572,6 +674,8 @@ public class Network implements java.io.Serializable
                 
         // finally, delete the ioi
         indexOutInHash.remove(node);
+        snapshot = null;
+        fireNodeRemoved(node);
 
         // return the node
         return node;
@@ -584,9 +688,43 @@ public class Network implements java.io.Serializable
         indexOutInHash = buildMap(ANY_SIZE);
         Bag retval = allNodes;
         allNodes = new Bag();
+        snapshot = null;
+        fireNetworkChanged();
         return retval;
         }
     
+    /** Removes all nodes and edges, like clear(), but keeps the Network's storage so it can be filled again without much
+        allocation: the hash and the allNodes bag are emptied rather than replaced, and each node's IndexOutIn and edge Bags
+        are set aside to be reused as nodes and edges are added again.  This is meant for a model which runs many short
+        simulations in a row, such as a ParameterSweep, and rebuilds its Network in start() each time.  Unlike clear(),
+        the nodes aren't returned. */
+    public void reset()
+        {
+        if (spareIndexOutIns == null) { spareIndexOutIns = new Bag(); spareEdgeBags = new Bag(); }
+        final Object[] objs = allNodes.objs;
+        final int len = allNodes.numObjs;
+        for(int i = 0; i < len; i++)
+            {
+            IndexOutIn ioi = (IndexOutIn)(indexOutInHash.get(objs[i]));
+            if (ioi.out != null) { ioi.out.clear(); spareEdgeBags.add(ioi.out); }
+            if (ioi.in != null && ioi.in != ioi.out) { ioi.in.clear(); spareEdgeBags.add(ioi.in); }  // undirected nodes share one bag
+            ioi.in = ioi.out = null;
+            spareIndexOutIns.add(ioi);
+            }
+        indexOutInHash.clear();
+        allNodes.clear();
+        snapshot = null;
+        fireNetworkChanged();
+        }
+
+    // Returns an empty Bag for a node's edges, reusing one left over from reset() if there is one
+    Bag newEdgeBag()
+        {
+        if (spareEdgeBags != null && spareEdgeBags.numObjs > 0)
+            return (Bag)(spareEdgeBags.pop());
+        return new Bag();
+        }
+    
     /** Synonym for clear(), here only for backward-compatibility.
         Removes all nodes, deleting all edges from the Field as well.  Returns the nodes as a Bag, which you
         are free to modify as it's no longer used internally by the Network. */
@@ -673,6 +811,7 @@ public class Network implements java.io.Serializable
     public void reverseAllEdges()
         {
         if(!directed) return;//that was quick
+        snapshot = null;
         int n = allNodes.numObjs;
         Iterator i = indexOutInHash.values().iterator();
         for(int k=0;k<n;k++)
@@ -695,6 +834,7 @@ public class Network implements java.io.Serializable
                     e.indexTo = tmpI;
                     }
             }
+        fireNetworkChanged();
         }
     
     
@@ -0,0 +1,42 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.network;
+
+/**
+   Is told about changes to the topology of a Network.  Register a NetworkListener with network.addListener(...).
+
+   <p>NetworkListeners are meant for maintaining statistics or indexes incrementally, as the network changes,
+   rather than recomputing them from scratch every step.  Each method is called <i>after</i> the change has been
+   made, so the network is already in its new state.  When a node is removed, edgeRemoved(...) is first called for each of its edges,
+   then nodeRemoved(...) is called.  When an edge is added between nodes which are not yet in the network, nodeAdded(...) is first
+   called for each of them, then edgeAdded(...) is called.  A removed Edge still holds its from(), to(), and info.
+
+   <p>Wholesale changes (clear(), reset(...), removeAllEdges(), and reverseAllEdges()) are not reported
+   edge by edge: instead networkChanged(...) is called, and the listener should rebuild whatever it maintains from
+   the network.  Changing an Edge's info or weight is not a change in topology, and is not reported.
+
+   <p>The listeners are stored in the Network, and so are serialized (and checkpointed) with it.  Thus listeners should be
+   Serializable, unless you will never serialize the network.  Listeners must not modify the network.
+*/
+
+public interface NetworkListener
+    {
+    /** Called after a node has been added to the network. */
+    public void nodeAdded(Network network, Object node);
+
+    /** Called after a node has been removed from the network.  Its edges have already been removed (and reported). */
+    public void nodeRemoved(Network network, Object node);
+
+    /** Called after an edge has been added to the network. */
+    public void edgeAdded(Network network, Edge edge);
+
+    /** Called after an edge has been removed from the network. */
+    public void edgeRemoved(Network network, Edge edge);
+
+    /** Called after the network has been changed wholesale (for example, cleared).  The listener should rebuild from scratch. */
+    public void networkChanged(Network network);
+    }
@@ -0,0 +1,148 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.network;
+import sim.util.*;
+
+/**
+   An immutable, array-based picture of the topology of a Network, in compressed sparse row (CSR) form
+   for the outgoing edges and compressed sparse column (CSC) form for the incoming edges.  You get one by calling
+   network.getSnapshot().
+
+   <p>Whole-graph algorithms (shortest paths, centrality, clustering and so on) which walk the Network directly
+   must do a hash lookup to find each node's edges, and another to find the index of the node at the far end of
+   each edge.  A NetworkSnapshot does all that once, and lays the graph out as a few flat int and double arrays
+   which can be scanned in tight loops.  Nodes are identified by their index in the Network's allNodes bag.
+
+   <p>The outgoing edges of node <i>i</i> occupy positions <tt>outStart[i]</tt> through <tt>outStart[i+1] - 1</tt>
+   of the outNeighbors, outEdges, and outWeights arrays.  outNeighbors holds the index of the node at the other end of
+   each edge, outEdges holds the Edge itself, and outWeights holds its getWeight().  The incoming edges are laid out the same
+   way in inStart, inNeighbors, inEdges, and inWeights.  The edges of each node appear in the same order as they do in the Network's
+   getEdgesOut(...) and getEdgesIn(...) Bags.  If the network is undirected, the in-arrays are the very same arrays as the out-arrays,
+   and each edge appears twice, once for each of its nodes (a self-loop appears twice for the same node, just as it does
+   in the Network).  For example, to sum the weights of the edges leaving every node:
+
+   <pre><tt>
+   NetworkSnapshot s = network.getSnapshot();
+   for(int i = 0; i &lt; s.numNodes; i++)
+       for(int k = s.outStart[i]; k &lt; s.outStart[i + 1]; k++)
+           sum[i] += s.outWeights[k];
+   </tt></pre>
+
+   <p>The Network caches its snapshot and discards it as soon as its topology changes (through addNode(), addEdge(), removeEdge(),
+   removeNode(), clear(), reverseAllEdges(), and so on), or when an Edge's setInfo(...) or setWeight(...) method is called.
+   It cannot notice if you modify its allNodes bag or indexOutInHash directly, nor if you change an edge's weight in place
+   (say, by modifying a MutableDouble stored as its info).  In these cases, call network.invalidateSnapshot().
+   Do not modify the arrays.
+
+   <p>outWeights and inWeights are the weights as they were when the snapshot was taken: use them only if you know the
+   weights haven't changed in place since then.  For this reason the statistics which take a Network (such as those in
+   NetworkStatistics) don't rely on them, but ask each edge for its weight afresh.
+*/
+
+public class NetworkSnapshot implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** Whether the network was directed. */
+    public final boolean directed;
+    /** The number of nodes. */
+    public final int numNodes;
+    /** The number of edges, as reported by NetworkStatistics.getNumberActualEdges(...): in an undirected network
+        this is half the length of the outNeighbors array. */
+    public final int numEdges;
+    /** The nodes, in the same order as the allNodes bag. */
+    public final Object[] nodes;
+
+    /** Where each node's outgoing edges start.  Of length numNodes + 1. */
+    public final int[] outStart;
+    /** The index of the node at the other end of each outgoing edge. */
+    public final int[] outNeighbors;
+    /** Each outgoing edge. */
+    public final Edge[] outEdges;
+    /** The weight of each outgoing edge, when the snapshot was taken. */
+    public final double[] outWeights;
+
+    /** Where each node's incoming edges start.  Of length numNodes + 1.  The same as outStart if the network is undirected. */
+    public final int[] inStart;
+    /** The index of the node at the other end of each incoming edge.  The same as outNeighbors if the network is undirected. */
+    public final int[] inNeighbors;
+    /** Each incoming edge.  The same as outEdges if the network is undirected. */
+    public final Edge[] inEdges;
+    /** The weight of each incoming edge, when the snapshot was taken.  The same as outWeights if the network is undirected. */
+    public final double[] inWeights;
+
+    /** Builds a snapshot of the given network.  Ordinarily you'd call network.getSnapshot() instead, which caches the result. */
+    public NetworkSnapshot(Network network)
+        {
+        directed = network.isDirected();
+        final Bag allNodes = network.allNodes;
+        numNodes = allNodes.numObjs;
+        nodes = new Object[numNodes];
+        System.arraycopy(allNodes.objs, 0, nodes, 0, numNodes);
+
+        // look up each node's IndexOutIn just once
+        final Network.IndexOutIn[] ioi = new Network.IndexOutIn[numNodes];
+        for(int i = 0; i < numNodes; i++)
+            ioi[i] = (Network.IndexOutIn)(network.indexOutInHash.get(nodes[i]));
+
+        outStart = new int[numNodes + 1];
+        for(int i = 0; i < numNodes; i++)
+            outStart[i + 1] = outStart[i] + (ioi[i].out == null ? 0 : ioi[i].out.numObjs);
+        outNeighbors = new int[outStart[numNodes]];
+        outEdges = new Edge[outStart[numNodes]];
+        outWeights = new double[outStart[numNodes]];
+        fill(network, ioi, true, outNeighbors, outEdges, outWeights);
+
+        if (directed)
+            {
+            inStart = new int[numNodes + 1];
+            for(int i = 0; i < numNodes; i++)
+                inStart[i + 1] = inStart[i] + (ioi[i].in == null ? 0 : ioi[i].in.numObjs);
+            inNeighbors = new int[inStart[numNodes]];
+            inEdges = new Edge[inStart[numNodes]];
+            inWeights = new double[inStart[numNodes]];
+            fill(network, ioi, false, inNeighbors, inEdges, inWeights);
+            numEdges = outNeighbors.length;
+            }
+        else
+            {
+            inStart = outStart;
+            inNeighbors = outNeighbors;
+            inEdges = outEdges;
+            inWeights = outWeights;
+            numEdges = outNeighbors.length / 2;
+            }
+        }
+
+    void fill(Network network, Network.IndexOutIn[] ioi, boolean out, int[] neighbors, Edge[] edges, double[] weights)
+        {
+        int k = 0;
+        for(int i = 0; i < numNodes; i++)
+            {
+            final Bag b = (out ? ioi[i].out : ioi[i].in);
+            if (b == null) continue;
+            final Object node = nodes[i];
+            final Object[] objs = b.objs;
+            final int n = b.numObjs;
+            for(int j = 0; j < n; j++)
+                {
+                final Edge e = (Edge)(objs[j]);
+                edges[k] = e;
+                weights[k] = e.getWeight();
+                // this is getNodeIndex without the function call
+                neighbors[k] = ((Network.IndexOutIn)(network.indexOutInHash.get(e.getOtherNode(node)))).index;
+                k++;
+                }
+            }
+        }
+
+    /** Returns the number of outgoing edges of the node with the given index. */
+    public int getOutDegree(int node) { return outStart[node + 1] - outStart[node]; }
+
+    /** Returns the number of incoming edges of the node with the given index. */
+    public int getInDegree(int node) { return inStart[node + 1] - inStart[node]; }
+    }
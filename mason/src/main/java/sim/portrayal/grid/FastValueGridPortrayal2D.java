@@ -27,6 +27,11 @@ import sim.util.gui.ColorMap;
    <p>If your grid does change but only occasionally, you can also use this technique as well; just manually call reset() 
    whenever the grid changes to inform the FastValueGridPortrayal2D that it needs to re-compute the buffer.  reset() is threadsafe.
 
+   <p>If your grid changes, but only in a few places each step, turn on dirty-tile tracking in the grid with
+   <tt>setTracksDirtyTiles(true)</tt>.  Then when drawing with a buffer, FastValueGridPortrayal2D will recompute only the
+   parts of the buffer which have changed since it last drew.  If you change the settings of the ColorMap (rather than setting
+   a new one), call setDirtyField(true) so the whole buffer is recomputed.
+
    <h3>Important Note on Drawing Methods</h3>
 
    FastValueGridPortrayal2D can draw a grid in two ways.  First, it can draw each of the rects individually ("USE_BUFFER").  Second, it can create a bitmap the size of the grid (one pixel per grid location), poke the colors into the bitmap, then stretch the bitmap over the area and draw it ("DONT_USE_BUFFER").  You can specify the method by calling the <b>setBuffering()</b> method; optionally you can just let FastValueGridPortrayal2D guess which to use ("DEFAULT").  But you should know what you're doing, as methods can be <i>much</i> faster than each other depending on the situation.  Use the following as guides
@@ -103,6 +108,33 @@ public class FastValueGridPortrayal2D extends ValueGridPortrayal2D
     BufferedImage buffer;
     WritableRaster raster;
     int[] data = new int[0];
+    
+    // If the grid is tracking dirty tiles, we only reload the tiles in the clip which have changed since the epoch
+    // in which we last loaded them, provided that the grid, its tracker, and our map are the same ones we last drew with.
+    // Tiles outside the clip keep their old epochs, so they're reloaded when they're next drawn.
+    long[] tileEpochs = new long[0];
+    Object lastField;
+    ColorMap lastMap;
+    DirtyTiles lastTiles;
+
+    // loads the buffer from (sx, sy) inclusive to (ex, ey) exclusive.  Exactly one of doubleField and intField is non-null.
+    void loadBuffer(int sx, int sy, int ex, int ey, double[][] doubleField, int[][] intField)
+        {
+        final ColorMap map = this.map;
+        int[] data = this.data;  // reuse
+        if (data.length < (ex-sx)*(ey-sy))  // setDataElements only reads as much as it needs
+            data = this.data = new int[(ex-sx)*(ey-sy)];
+        int i = 0;
+        if (doubleField != null)
+            for(int y=sy;y<ey;y++)
+                for(int x=sx;x<ex;x++)
+                    data[i++] = map.getRGB(doubleField[x][y]);
+        else
+            for(int y=sy;y<ey;y++)
+                for(int x=sx;x<ex;x++)
+                    data[i++] = map.getRGB(intField[x][y]);
+        raster.setDataElements(sx,sy,ex-sx,ey-sy,data);
+        }
 
     // Should draw itself within the box from (0,0) to (1,1)
     public void draw(Object object, Graphics2D graphics, DrawInfo2D info)
@@ -174,7 +206,37 @@ public class FastValueGridPortrayal2D extends ValueGridPortrayal2D
             //_buffer = buffer;
             //}
 
-            if (newBuffer || !immutableField || isDirtyField())  // we have to load the buffer
+            final DirtyTiles tiles = ((AbstractGrid2D) field).getDirtyTiles();
+            if (tiles != null && !immutableField)  // load only the tiles in the clip which have changed since we last loaded them
+                {
+                final int tileSize = tiles.getTileSize();
+                final int tilesWide = tiles.getTilesWide();
+                final int tilesHigh = tiles.getTilesHigh();
+                if (newBuffer || isDirtyField() || field != lastField || map != lastMap || tiles != lastTiles ||
+                    tileEpochs.length != tilesWide * tilesHigh)
+                    tileEpochs = new long[tilesWide * tilesHigh];  // everything
+                final long[] tileEpochs = this.tileEpochs;
+                final long epoch = tiles.nextEpoch();
+                lastField = field;
+                lastMap = map;
+                lastTiles = tiles;
+
+                if (endx > maxX) endx = maxX;
+                if (endy > maxY) endy = maxY;
+                if( startx < 0 ) startx = 0;
+                if( starty < 0 ) starty = 0;
+                if (endx > startx && endy > starty)  // could be otherwise if drawing off-screen...
+                    for(int tx = startx / tileSize; tx <= (endx - 1) / tileSize; tx++)
+                        for(int ty = starty / tileSize; ty <= (endy - 1) / tileSize; ty++)
+                            if (tiles.isDirty(tx, ty, tileEpochs[tx * tilesHigh + ty]))
+                                {
+                                final int sx = tx * tileSize;
+                                final int sy = ty * tileSize;
+                                loadBuffer(sx, sy, Math.min(sx + tileSize, maxX), Math.min(sy + tileSize, maxY), doubleField, intField);
+                                tileEpochs[tx * tilesHigh + ty] = epoch;
+                                }
+                }
+            else if (newBuffer || !immutableField || isDirtyField())  // we have to load the buffer
                 {
                 if (endx > maxX) endx = maxX;
                 if (endy > maxY) endy = maxY;
@@ -192,24 +254,8 @@ public class FastValueGridPortrayal2D extends ValueGridPortrayal2D
                     startx = 0; starty = 0; endx = maxX; endy = maxY;
                     }
 
-                final ColorMap map = this.map;
-            
                 if (ex-sx > 0 && ey-sy > 0)  // could be otherwise if drawing off-screen...
-                    {
-                    int[] data = this.data;  // reuse
-                    if (data.length != (ex-sx)*(ey-sy)) 
-                        data = this.data = new int[(ex-sx)*(ey-sy)];
-                    int i = 0;
-                    if (isDoubleGrid2D)
-                        for(int y=sy;y<ey;y++)
-                            for(int x=sx;x<ex;x++)
-                                data[i++] = map.getRGB(doubleField[x][y]);
-                    else
-                        for(int y=sy;y<ey;y++)
-                            for(int x=sx;x<ex;x++)
-                                data[i++] = map.getRGB(intField[x][y]);
-                    raster.setDataElements(sx,sy,ex-sx,ey-sy,data);
-                    }
+                    loadBuffer(sx, sy, ex, ey, doubleField, intField);
                 }
                 
             // MacOS X 10.3 Panther has a bug which resets the clip, YUCK
@@ -33,6 +33,7 @@ public class TimeSeriesChartingPropertyInspector extends ChartingPropertyInspect
     {
     XYSeries chartSeries = null;
     XYSeries aggregateSeries = new XYSeries("ChartingPropertyInspector.temp", false);
+    Properties.DoubleGetter getter = null;  // reads numbers and booleans directly, if the properties aren't volatile
 
     protected boolean validChartGenerator(ChartGenerator generator) { return generator instanceof TimeSeriesChartGenerator; }
 
@@ -73,6 +74,8 @@ public class TimeSeriesChartingPropertyInspector extends ChartingPropertyInspect
                 }
                         
             chartSeries = new XYSeries( properties.getName(index), false );
+            if (!properties.isVolatile())
+                getter = properties.getDoubleGetter(index);
 
             // add our series
             seriesAttributes = ((TimeSeriesChartGenerator)generator).addSeries(chartSeries, new SeriesChangeListener()
@@ -127,7 +130,7 @@ public class TimeSeriesChartingPropertyInspector extends ChartingPropertyInspect
         GlobalAttributes globalAttributes = getGlobalAttributes();
                 
         // FIRST, load the aggregate series with the items
-        aggregateSeries.add(time, d = valueFor(properties.getValue(index)), false);
+        aggregateSeries.add(time, d = (getter != null ? getter.get() : valueFor(properties.getValue(index))), false);
         int len = aggregateSeries.getItemCount();
                                         
         // SECOND, determine if it's time to dump stuff into the main series
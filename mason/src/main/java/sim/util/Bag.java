@@ -548,4 +548,18 @@ public class Bag implements java.util.Collection, java.io.Serializable, Cloneabl
             canRemove = false;
             }
         }
+    
+    /** Writes the Bag.  Normally this is just default serialization, but when writing to a
+        CheckpointOutputStream, we leave out the unused space at the end of the array. */
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException
+        {
+        if (out instanceof CheckpointOutputStream && objs.length > numObjs)
+            {
+            java.io.ObjectOutputStream.PutField fields = out.putFields();
+            fields.put("objs", java.util.Arrays.copyOf(objs, numObjs));
+            fields.put("numObjs", numObjs);
+            out.writeFields();
+            }
+        else out.defaultWriteObject();
+        }
     }
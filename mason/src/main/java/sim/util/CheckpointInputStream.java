@@ -0,0 +1,186 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util;
+import java.io.*;
+import java.nio.*;
+import java.util.zip.*;
+
+/**
+   An ObjectInputStream which reads checkpoints written by a CheckpointOutputStream.  See CheckpointOutputStream for
+   a description of the format.  Chunks are decompressed and checked against their checksums one at a time as they are needed,
+   so the checkpoint is never held in memory all at once.
+*/
+
+public class CheckpointInputStream extends ObjectInputStream
+    {
+    // reused by BulkArray to convert bytes to arrays
+    final byte[] scratch = new byte[8192];
+    final ByteBuffer scratchBuffer = ByteBuffer.wrap(scratch).order(ByteOrder.LITTLE_ENDIAN);
+
+    /** Creates a CheckpointInputStream reading from the given stream, which must begin with CheckpointOutputStream.MAGIC. */
+    public CheckpointInputStream(InputStream in) throws IOException
+        {
+        this(in, true);
+        }
+
+    CheckpointInputStream(InputStream in, boolean framed) throws IOException
+        {
+        super(framed ? new ChunkInputStream(in) : in);
+        enableResolveObject(true);
+        }
+
+    /** Creates a CheckpointInputStream which reads objects written by CheckpointOutputStream.createUnframed(...), that is,
+        without MAGIC, chunks, compression, or checksums. */
+    public static CheckpointInputStream createUnframed(InputStream in) throws IOException
+        {
+        return new CheckpointInputStream(in, false);
+        }
+
+    /** Returns a stream which reads the chunks written by a CheckpointOutputStream (or CheckpointOutputStream.createChunkStream(...))
+        from in, checks them, decompresses them, and returns their contents: the serialized objects as written by a
+        CheckpointOutputStream.createUnframed(...) stream.  Closing the returned stream closes in as well. */
+    public static InputStream createChunkStream(InputStream in) throws IOException
+        {
+        return new ChunkInputStream(in);
+        }
+
+    protected Object resolveObject(Object obj) throws IOException
+        {
+        if (obj instanceof CheckpointOutputStream.BulkArray)
+            return ((CheckpointOutputStream.BulkArray)obj).array;
+        return obj;
+        }
+
+    /** Returns true if the stream begins with CheckpointOutputStream.MAGIC.  The stream must support mark() and reset(),
+        and is reset to where it was. */
+    public static boolean isCheckpoint(InputStream in) throws IOException
+        {
+        final byte[] magic = CheckpointOutputStream.MAGIC;
+        in.mark(magic.length);
+        try
+            {
+            for(int i = 0; i < magic.length; i++)
+                if (in.read() != (magic[i] & 0xFF))
+                    return false;
+            return true;
+            }
+        finally
+            {
+            in.reset();
+            }
+        }
+
+
+    // Reads the chunks in order, checks them, and hands out their contents.
+    static class ChunkInputStream extends InputStream
+        {
+        final DataInputStream in;
+        final Inflater inflater = new Inflater(true);
+        final CRC32 crc = new CRC32();
+        byte[] buffer;          // the current chunk
+        int length = 0;         // its length
+        int pos = 0;            // how much of it we've handed out
+        byte[] compressed = new byte[0];
+        boolean done = false;
+
+        ChunkInputStream(InputStream in) throws IOException
+            {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            final byte[] magic = CheckpointOutputStream.MAGIC;
+            final byte[] header = new byte[magic.length];
+            this.in.readFully(header);
+            if (!java.util.Arrays.equals(header, magic))
+                throw new StreamCorruptedException("Not a MASON checkpoint stream");
+            final int version = this.in.readInt();
+            if (version != CheckpointOutputStream.VERSION)
+                throw new StreamCorruptedException("Unknown checkpoint stream version " + version);
+            final int chunkSize = this.in.readInt();
+            if (chunkSize <= 0)
+                throw new StreamCorruptedException("Invalid chunk size " + chunkSize);
+            buffer = new byte[chunkSize];
+            }
+
+        // loads the next chunk, returning false at the end of the stream
+        boolean next() throws IOException
+            {
+            if (done) return false;
+            final int rawLength = in.readInt();
+            if (rawLength == 0) { done = true; return false; }
+            final int dataLength = in.readInt();
+            final int method = in.readByte();
+            final int checksum = in.readInt();
+            if (rawLength < 0 || rawLength > buffer.length || dataLength < 0)
+                throw new StreamCorruptedException("Invalid chunk length " + rawLength);
+
+            if (method == CheckpointOutputStream.STORED)
+                {
+                if (dataLength != rawLength)
+                    throw new StreamCorruptedException("Invalid stored chunk length " + dataLength);
+                in.readFully(buffer, 0, rawLength);
+                }
+            else if (method == CheckpointOutputStream.DEFLATED)
+                {
+                if (compressed.length < dataLength) compressed = new byte[dataLength];
+                in.readFully(compressed, 0, dataLength);
+                inflater.reset();
+                inflater.setInput(compressed, 0, dataLength);
+                try
+                    {
+                    int n = 0;
+                    while(n < rawLength && !inflater.finished())
+                        {
+                        final int r = inflater.inflate(buffer, n, rawLength - n);
+                        if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                        n += r;
+                        }
+                    if (n != rawLength)
+                        throw new StreamCorruptedException("Chunk inflated to " + n + " bytes rather than " + rawLength);
+                    }
+                catch (DataFormatException e)
+                    {
+                    throw new StreamCorruptedException("Corrupt chunk: " + e.getMessage());
+                    }
+                }
+            else throw new StreamCorruptedException("Unknown chunk compression method " + method);
+
+            crc.reset();
+            crc.update(buffer, 0, rawLength);
+            if ((int)crc.getValue() != checksum)
+                throw new StreamCorruptedException("Chunk checksum mismatch");
+            length = rawLength;
+            pos = 0;
+            return true;
+            }
+
+        public int read() throws IOException
+            {
+            if (pos == length && !next()) return -1;
+            return buffer[pos++] & 0xFF;
+            }
+
+        public int read(byte[] b, int off, int len) throws IOException
+            {
+            if (len == 0) return 0;
+            if (pos == length && !next()) return -1;
+            final int n = Math.min(len, length - pos);
+            System.arraycopy(buffer, pos, b, off, n);
+            pos += n;
+            return n;
+            }
+
+        public int available()
+            {
+            return length - pos;
+            }
+
+        public void close() throws IOException
+            {
+            inflater.end();
+            in.close();
+            }
+        }
+    }
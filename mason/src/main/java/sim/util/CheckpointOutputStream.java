@@ -0,0 +1,376 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+   An ObjectOutputStream for writing large checkpoints quickly.  Read them back with a CheckpointInputStream.
+
+   <p>The usual way to checkpoint a simulation is Java serialization through a GZIPOutputStream (see SimState.writeToCheckpoint(...)).
+   For very large simulations this is slow, mostly for three reasons: gzip compresses at a fairly high level, in a single thread;
+   Java serialization writes primitive arrays (such as the columns of a DoubleGrid2D) one element at a time; and some of MASON's own
+   structures write out much more than they need to (unused space at the end of Bags and Heaps, or the hash tables of SparseFields,
+   which can be rebuilt from their contents).  A CheckpointOutputStream is still an ObjectOutputStream, so your own classes
+   are serialized exactly as usual, but it differs in three ways:
+
+   <ul>
+   <li>The stream is cut into chunks (by default of 1MB), each of which is compressed separately by a Deflater at a low compression level
+   (by default Deflater.BEST_SPEED), or not compressed at all, and written out as soon as it's done.  Chunks are compressed in parallel
+   in a ForkJoinPool (by default, the common pool), with only a few in memory at a time.
+   <li>Primitive arrays (of doubles, ints, longs, floats, shorts, and chars) of more than a few elements are written in bulk.  They are
+   still shared properly: if two objects refer to the same array, they will do so again when the checkpoint is read back in.
+   <li>Bag, IntBag, DoubleBag, Heap (and thus the Schedule), and SparseField (and thus SparseGrid2D, Continuous2D, and so on)
+   notice that they are being written to a CheckpointOutputStream and write a compact form of themselves.
+   </ul>
+
+   <p>A class of your own can do the same in its writeObject(...) and readObject(...) methods, by checking whether the stream is an
+   instanceof CheckpointOutputStream or CheckpointInputStream.
+
+   <p>The format begins with the bytes of MAGIC, so a reader can tell it apart from a gzipped checkpoint (see SimState.readFromCheckpoint(...)).
+   It is followed by a sequence of chunks, each with its length, its compression method, and a CRC32 checksum of its contents.
+   The stream must be closed, or finish() called, to write out the last chunk and the end marker.
+*/
+
+public class CheckpointOutputStream extends ObjectOutputStream
+    {
+    /** The first bytes of every stream. */
+    public static final byte[] MAGIC = { 'M', 'A', 'S', 'O', 'N', 'C', 'K', 'P' };
+    /** The version of the format. */
+    public static final int VERSION = 1;
+    /** The default size of a chunk. */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    /** Primitive arrays at least this long are written in bulk. */
+    public static final int MIN_BULK_LENGTH = 32;
+
+    static final int STORED = 0;
+    static final int DEFLATED = 1;
+
+    final ChunkOutputStream chunks;
+
+    // reused by BulkArray to convert arrays to bytes
+    final byte[] scratch = new byte[8192];
+    final ByteBuffer scratchBuffer = ByteBuffer.wrap(scratch).order(ByteOrder.LITTLE_ENDIAN);
+
+    /** Creates a CheckpointOutputStream writing to the given stream, compressing at Deflater.BEST_SPEED in the common ForkJoinPool. */
+    public CheckpointOutputStream(OutputStream out) throws IOException
+        {
+        this(out, Deflater.BEST_SPEED, null);
+        }
+
+    /** Creates a CheckpointOutputStream writing to the given stream, compressing at the given level (from Deflater.NO_COMPRESSION
+        to Deflater.BEST_COMPRESSION) in the given ForkJoinPool, or in the common pool if pool is null.  */
+    public CheckpointOutputStream(OutputStream out, int compressionLevel, ForkJoinPool pool) throws IOException
+        {
+        this(new ChunkOutputStream(out, compressionLevel, DEFAULT_CHUNK_SIZE, pool));
+        }
+
+    CheckpointOutputStream(ChunkOutputStream chunks) throws IOException
+        {
+        this(chunks, chunks);
+        }
+
+    CheckpointOutputStream(OutputStream out, ChunkOutputStream chunks) throws IOException
+        {
+        super(out);
+        this.chunks = chunks;
+        enableReplaceObject(true);
+        }
+
+    /** Creates a CheckpointOutputStream which writes its objects to the given stream directly, without MAGIC, chunks, compression,
+        or checksums.  This is for tools (such as sim.engine.DeltaCheckpointer) which process the serialized objects themselves and
+        then write them out with createChunkStream(...).  Read them back with CheckpointInputStream.createUnframed(...). */
+    public static CheckpointOutputStream createUnframed(OutputStream out) throws IOException
+        {
+        return new CheckpointOutputStream(out, null);
+        }
+
+    /** Returns a stream which cuts whatever is written to it into chunks and compresses them at the given level
+        in the given ForkJoinPool (or the common pool if pool is null), just as a CheckpointOutputStream does with its objects, and
+        writes them to out.  If you write to it the bytes written by a createUnframed(...) stream, the result is an ordinary checkpoint
+        stream.  You must close the returned stream to write out the last chunk and the end marker: this closes out as well. */
+    public static OutputStream createChunkStream(OutputStream out, int compressionLevel, ForkJoinPool pool) throws IOException
+        {
+        return new ChunkOutputStream(out, compressionLevel, DEFAULT_CHUNK_SIZE, pool);
+        }
+
+    protected Object replaceObject(Object obj) throws IOException
+        {
+        return BulkArray.replace(obj);
+        }
+
+    /** Writes out everything written so far, and the end marker, but does not close the underlying stream.
+        Nothing more may be written afterwards. */
+    public void finish() throws IOException
+        {
+        flush();
+        if (chunks != null) chunks.finish();
+        }
+
+    public void close() throws IOException
+        {
+        finish();
+        if (chunks != null) chunks.close();
+        else super.close();
+        }
+
+    /** Copies a stream written by a CheckpointOutputStream (at any compression level) from in to out, checking each chunk
+        and recompressing it at the given level in the given ForkJoinPool, or in the common pool if pool is null.
+        This is much faster than reading the objects in and writing them out again.  Does not close either stream. */
+    public static void recompress(InputStream in, OutputStream out, int compressionLevel, ForkJoinPool pool) throws IOException
+        {
+        final CheckpointInputStream.ChunkInputStream chunksIn = new CheckpointInputStream.ChunkInputStream(in);
+        try
+            {
+            final ChunkOutputStream chunksOut = new ChunkOutputStream(out, compressionLevel, chunksIn.buffer.length, pool);
+            while(chunksIn.next())
+                chunksOut.write(chunksIn.buffer, 0, chunksIn.length);
+            chunksOut.finish();
+            }
+        finally
+            {
+            chunksIn.inflater.end();
+            }
+        }
+
+
+    // Stands in for a primitive array in the object stream, and writes it out in bulk.  The stream gives the
+    // BulkArray a handle in place of the array, so other references to the same array refer to it as well, and
+    // CheckpointInputStream.resolveObject(...) turns it back into the array (including for those other references).
+    static class BulkArray implements Externalizable
+        {
+        private static final long serialVersionUID = 1;
+
+        Object array;
+
+        public BulkArray() { }  // for Externalizable
+
+        BulkArray(Object array) { this.array = array; }
+
+        static Object replace(Object obj)
+            {
+            if (obj instanceof double[] && ((double[])obj).length >= MIN_BULK_LENGTH) return new BulkArray(obj);
+            if (obj instanceof int[] && ((int[])obj).length >= MIN_BULK_LENGTH) return new BulkArray(obj);
+            if (obj instanceof long[] && ((long[])obj).length >= MIN_BULK_LENGTH) return new BulkArray(obj);
+            if (obj instanceof float[] && ((float[])obj).length >= MIN_BULK_LENGTH) return new BulkArray(obj);
+            if (obj instanceof short[] && ((short[])obj).length >= MIN_BULK_LENGTH) return new BulkArray(obj);
+            if (obj instanceof char[] && ((char[])obj).length >= MIN_BULK_LENGTH) return new BulkArray(obj);
+            return obj;
+            }
+
+        public void writeExternal(ObjectOutput out) throws IOException
+            {
+            final CheckpointOutputStream s = (CheckpointOutputStream)out;
+            final byte[] scratch = s.scratch;
+            final ByteBuffer buffer = s.scratchBuffer;
+            final Object array = this.array;
+            char type;
+            int length;
+            int size;
+            if (array instanceof double[]) { type = 'D'; length = ((double[])array).length; size = 8; }
+            else if (array instanceof int[]) { type = 'I'; length = ((int[])array).length; size = 4; }
+            else if (array instanceof long[]) { type = 'J'; length = ((long[])array).length; size = 8; }
+            else if (array instanceof float[]) { type = 'F'; length = ((float[])array).length; size = 4; }
+            else if (array instanceof short[]) { type = 'S'; length = ((short[])array).length; size = 2; }
+            else { type = 'C'; length = ((char[])array).length; size = 2; }
+            out.writeByte(type);
+            out.writeInt(length);
+
+            final int perPass = scratch.length / size;
+            for(int off = 0; off < length; off += perPass)
+                {
+                final int n = Math.min(perPass, length - off);
+                buffer.clear();
+                switch(type)
+                    {
+                    case 'D': buffer.asDoubleBuffer().put((double[])array, off, n); break;
+                    case 'I': buffer.asIntBuffer().put((int[])array, off, n); break;
+                    case 'J': buffer.asLongBuffer().put((long[])array, off, n); break;
+                    case 'F': buffer.asFloatBuffer().put((float[])array, off, n); break;
+                    case 'S': buffer.asShortBuffer().put((short[])array, off, n); break;
+                    default: buffer.asCharBuffer().put((char[])array, off, n); break;
+                    }
+                out.write(scratch, 0, n * size);
+                }
+            }
+
+        public void readExternal(ObjectInput in) throws IOException
+            {
+            final CheckpointInputStream s = (CheckpointInputStream)in;
+            final byte[] scratch = s.scratch;
+            final ByteBuffer buffer = s.scratchBuffer;
+            final char type = (char)in.readByte();
+            final int length = in.readInt();
+            final int size;
+            switch(type)
+                {
+                case 'D': array = new double[length]; size = 8; break;
+                case 'I': array = new int[length]; size = 4; break;
+                case 'J': array = new long[length]; size = 8; break;
+                case 'F': array = new float[length]; size = 4; break;
+                case 'S': array = new short[length]; size = 2; break;
+                case 'C': array = new char[length]; size = 2; break;
+                default: throw new StreamCorruptedException("Unknown bulk array type " + type);
+                }
+
+            final int perPass = scratch.length / size;
+            for(int off = 0; off < length; off += perPass)
+                {
+                final int n = Math.min(perPass, length - off);
+                in.readFully(scratch, 0, n * size);
+                buffer.clear();
+                switch(type)
+                    {
+                    case 'D': buffer.asDoubleBuffer().get((double[])array, off, n); break;
+                    case 'I': buffer.asIntBuffer().get((int[])array, off, n); break;
+                    case 'J': buffer.asLongBuffer().get((long[])array, off, n); break;
+                    case 'F': buffer.asFloatBuffer().get((float[])array, off, n); break;
+                    case 'S': buffer.asShortBuffer().get((short[])array, off, n); break;
+                    default: buffer.asCharBuffer().get((char[])array, off, n); break;
+                    }
+                }
+            }
+        }
+
+
+    // Cuts the stream into chunks, compresses them (in parallel if it can), and writes them out in order.
+    static class ChunkOutputStream extends OutputStream
+        {
+        final DataOutputStream out;
+        final int level;
+        final ForkJoinPool pool;
+        final int maxPending;
+        final ArrayDeque pending = new ArrayDeque();  // ForkJoinTasks returning the framed chunks, in order
+        byte[] buffer;
+        int pos = 0;
+        boolean finished = false;
+
+        ChunkOutputStream(OutputStream out, int level, int chunkSize, ForkJoinPool pool) throws IOException
+            {
+            if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+                throw new IllegalArgumentException("Invalid compression level " + level);
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.level = level;
+            this.pool = (pool == null ? ForkJoinPool.commonPool() : pool);
+            // no point in handing chunks to other threads if there's no compressing to do, or nobody to do it
+            maxPending = (level == Deflater.NO_COMPRESSION || this.pool.getParallelism() < 2 ? 0 : this.pool.getParallelism() * 2);
+            buffer = new byte[chunkSize];
+            this.out.write(MAGIC);
+            this.out.writeInt(VERSION);
+            this.out.writeInt(chunkSize);
+            }
+
+        public void write(int b) throws IOException
+            {
+            if (pos == buffer.length) emit();
+            buffer[pos++] = (byte)b;
+            }
+
+        public void write(byte[] b, int off, int len) throws IOException
+            {
+            while(len > 0)
+                {
+                if (pos == buffer.length) emit();
+                final int n = Math.min(len, buffer.length - pos);
+                System.arraycopy(b, off, buffer, pos, n);
+                pos += n;
+                off += n;
+                len -= n;
+                }
+            }
+
+        // sends off the current chunk, if there's anything in it
+        void emit() throws IOException
+            {
+            if (finished) throw new IOException("Stream already finished");
+            if (pos == 0) return;
+            final byte[] chunk = buffer;
+            final int length = pos;
+            buffer = new byte[chunk.length];
+            pos = 0;
+            if (maxPending == 0)
+                {
+                out.write(frame(chunk, length, level));
+                return;
+                }
+            pending.addLast(pool.submit(new Callable()
+                {
+                public Object call() { return frame(chunk, length, level); }
+                }));
+            while(pending.size() > maxPending)
+                writePending();
+            }
+
+        void writePending() throws IOException
+            {
+            try
+                {
+                out.write((byte[])(((ForkJoinTask)(pending.removeFirst())).get()));
+                }
+            catch (InterruptedException e) { throw new InterruptedIOException(); }
+            catch (ExecutionException e) { throw new IOException(e.getCause()); }
+            }
+
+        // Compresses a chunk and returns it with its header: raw length, stored length, method, and CRC32 of the raw bytes
+        static byte[] frame(byte[] chunk, int length, int level)
+            {
+            final CRC32 crc = new CRC32();
+            crc.update(chunk, 0, length);
+            byte[] data = null;
+            int dataLength = 0;
+            int method = STORED;
+            if (level != Deflater.NO_COMPRESSION)
+                {
+                final Deflater deflater = new Deflater(level, true);
+                deflater.setInput(chunk, 0, length);
+                deflater.finish();
+                data = new byte[length];  // if it doesn't fit in this, it's not worth compressing
+                dataLength = deflater.deflate(data);
+                if (deflater.finished()) method = DEFLATED;
+                deflater.end();
+                }
+            if (method == STORED) { data = chunk; dataLength = length; }
+
+            final byte[] result = new byte[13 + dataLength];
+            final ByteBuffer b = ByteBuffer.wrap(result);
+            b.putInt(length);
+            b.putInt(dataLength);
+            b.put((byte)method);
+            b.putInt((int)crc.getValue());
+            b.put(data, 0, dataLength);
+            return result;
+            }
+
+        public void flush() throws IOException
+            {
+            if (finished) return;
+            emit();
+            while(!pending.isEmpty())
+                writePending();
+            out.flush();
+            }
+
+        void finish() throws IOException
+            {
+            if (finished) return;
+            flush();
+            out.writeInt(0);  // end marker
+            out.flush();
+            finished = true;
+            buffer = null;
+            }
+
+        public void close() throws IOException
+            {
+            finish();
+            out.close();
+            }
+        }
+    }
@@ -266,4 +266,19 @@ public class Heap implements java.io.Serializable
         return new Heap(combinedKeys, combinedObjects);
         }
     
+    
+    /** Writes the Heap.  Normally this is just default serialization, but when writing to a
+        CheckpointOutputStream, we leave out the unused space at the end of the arrays. */
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException
+        {
+        if (out instanceof CheckpointOutputStream && keys.length > numElem)
+            {
+            java.io.ObjectOutputStream.PutField fields = out.putFields();
+            fields.put("keys", java.util.Arrays.copyOf(keys, numElem));
+            fields.put("objects", java.util.Arrays.copyOf(objects, numElem));
+            fields.put("numElem", numElem);
+            out.writeFields();
+            }
+        else out.defaultWriteObject();
+        }
     }
@@ -0,0 +1,251 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util;
+import java.util.*;
+
+/**
+   IdentityOpenMap is a Map which compares its keys by pointer (==) rather than by equals(),
+   like java.util.IdentityHashMap, and which stores its keys and values directly in two parallel arrays
+   using open addressing with linear probing.  Unlike HashMap it allocates no Entry objects, so
+   it uses about a third of the memory, and put(...) on an existing key allocates nothing at all.
+
+   <p>IdentityOpenMap is used by SparseField (and its subclasses) for the tables which map
+   objects to their locations, when the field is set to use OPEN_ADDRESSING_MAPS.
+
+   <p>The Map views (keySet(), values(), entrySet()) are read-only snapshots-in-progress: their iterators
+   do not support remove(), and you should not modify the map while iterating over them.  Null keys are not permitted.
+*/
+
+public class IdentityOpenMap extends AbstractMap implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    // the tables are rebuilt on deserialization, since identity hash codes change
+    transient Object[] keys;
+    transient Object[] values;
+    transient int size;
+    transient int mask;
+    transient int threshold;
+
+    static final int MIN_CAPACITY = 16;
+
+    public IdentityOpenMap()
+        {
+        this(0);
+        }
+
+    /** Creates an IdentityOpenMap which can hold at least the given number of elements without growing. */
+    public IdentityOpenMap(int expectedSize)
+        {
+        allocate(capacityFor(expectedSize));
+        }
+
+    /** Creates an IdentityOpenMap holding the same mappings as the given map. */
+    public IdentityOpenMap(Map other)
+        {
+        this(other.size());
+        putAll(other);
+        }
+
+    static int capacityFor(int expectedSize)
+        {
+        int capacity = MIN_CAPACITY;
+        // we keep the load factor at or below 1/2
+        while(capacity < expectedSize * 2 && capacity < (1 << 30)) capacity <<= 1;
+        return capacity;
+        }
+
+    void allocate(int capacity)
+        {
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        threshold = capacity / 2;
+        }
+
+    static int hash(Object key, int mask)
+        {
+        int h = System.identityHashCode(key);
+        // identity hash codes are poorly distributed in their low bits on some VMs
+        h ^= (h >>> 16);
+        h *= 0x85EBCA6B;
+        h ^= (h >>> 13);
+        return h & mask;
+        }
+
+    // returns the slot holding key, or the empty slot where it would go
+    int slot(Object key)
+        {
+        Object[] keys = this.keys;
+        int mask = this.mask;
+        int i = hash(key, mask);
+        while(true)
+            {
+            Object k = keys[i];
+            if (k == key || k == null) return i;
+            i = (i + 1) & mask;
+            }
+        }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    public boolean containsKey(Object key)
+        {
+        if (key == null) return false;
+        return keys[slot(key)] != null;
+        }
+
+    public Object get(Object key)
+        {
+        if (key == null) return null;
+        // inlined slot(...) since this is the hottest method
+        Object[] keys = this.keys;
+        int mask = this.mask;
+        int i = hash(key, mask);
+        while(true)
+            {
+            Object k = keys[i];
+            if (k == key) return values[i];
+            if (k == null) return null;
+            i = (i + 1) & mask;
+            }
+        }
+
+    public Object put(Object key, Object value)
+        {
+        if (key == null) throw new NullPointerException("IdentityOpenMap does not permit null keys");
+        int i = slot(key);
+        if (keys[i] != null)
+            {
+            Object old = values[i];
+            values[i] = value;
+            return old;
+            }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > threshold) resize(keys.length * 2);
+        return null;
+        }
+
+    public Object remove(Object key)
+        {
+        if (key == null) return null;
+        int i = slot(key);
+        if (keys[i] == null) return null;
+        Object old = values[i];
+        delete(i);
+        return old;
+        }
+
+    // removes slot i, then shifts later members of its probe sequence back so we need no tombstones
+    void delete(int i)
+        {
+        Object[] keys = this.keys;
+        Object[] values = this.values;
+        int mask = this.mask;
+        keys[i] = null;
+        values[i] = null;
+        size--;
+        int j = i;
+        while(true)
+            {
+            j = (j + 1) & mask;
+            Object k = keys[j];
+            if (k == null) return;
+            int home = hash(k, mask);
+            // can k move back to i?  Only if its home is not in (i, j] cyclically
+            if ((j > i) ? (home <= i || home > j) : (home <= i && home > j))
+                {
+                keys[i] = k;
+                values[i] = values[j];
+                keys[j] = null;
+                values[j] = null;
+                i = j;
+                }
+            }
+        }
+
+    void resize(int capacity)
+        {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        Object[] keys = this.keys;
+        Object[] values = this.values;
+        int mask = this.mask;
+        for(int j = 0; j < oldKeys.length; j++)
+            {
+            Object k = oldKeys[j];
+            if (k != null)
+                {
+                int i = hash(k, mask);
+                while(keys[i] != null) i = (i + 1) & mask;
+                keys[i] = k;
+                values[i] = oldValues[j];
+                }
+            }
+        }
+
+    public void clear()
+        {
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        size = 0;
+        }
+
+    public Set entrySet()
+        {
+        return new AbstractSet()
+            {
+            public int size() { return size; }
+            public Iterator iterator()
+                {
+                return new Iterator()
+                    {
+                    int next = advance(0);
+                    int advance(int i)
+                        {
+                        while(i < keys.length && keys[i] == null) i++;
+                        return i;
+                        }
+                    public boolean hasNext() { return next < keys.length; }
+                    public Object next()
+                        {
+                        if (next >= keys.length) throw new NoSuchElementException();
+                        final int i = next;
+                        next = advance(next + 1);
+                        return new AbstractMap.SimpleImmutableEntry(keys[i], values[i]);
+                        }
+                    public void remove() { throw new UnsupportedOperationException("Remove not supported in IdentityOpenMap iterators"); }
+                    };
+                }
+            };
+        }
+
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException
+        {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for(int i = 0; i < keys.length; i++)
+            if (keys[i] != null)
+                {
+                out.writeObject(keys[i]);
+                out.writeObject(values[i]);
+                }
+        }
+
+    private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException
+        {
+        in.defaultReadObject();
+        int n = in.readInt();
+        allocate(capacityFor(n));
+        for(int i = 0; i < n; i++)
+            put(in.readObject(), in.readObject());
+        }
+    }
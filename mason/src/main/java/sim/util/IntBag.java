@@ -388,4 +388,18 @@ public class IntBag implements java.io.Serializable, Cloneable, Indexed
         {
         return Integer.TYPE;
         }
+    
+    /** Writes the IntBag.  Normally this is just default serialization, but when writing to a
+        CheckpointOutputStream, we leave out the unused space at the end of the array. */
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException
+        {
+        if (out instanceof CheckpointOutputStream && objs.length > numObjs)
+            {
+            java.io.ObjectOutputStream.PutField fields = out.putFields();
+            fields.put("objs", java.util.Arrays.copyOf(objs, numObjs));
+            fields.put("numObjs", numObjs);
+            out.writeFields();
+            }
+        else out.defaultWriteObject();
+        }
     }
@@ -0,0 +1,357 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util;
+import java.util.*;
+
+/**
+   LocationOpenMap is a Map tuned for 2D integer locations as keys.  Any key which equals() an Int2D
+   (that is, an Int2D, a MutableInt2D, or a Double2D or MutableDouble2D with integer coordinates) is packed into
+   a single long and stored, along with its value, directly in two parallel arrays using open addressing with
+   linear probing.  No Entry objects or key objects are retained, and lookups never call hashCode() or equals().
+   Keys of any other kind are stored in an ordinary HashMap on the side.
+
+   <p>Because the key objects themselves aren't retained, the keys returned by keySet() and entrySet() for
+   packed keys are always new Int2Ds, regardless of what kind of object was used in put(...).  They are equal
+   to the originals.
+
+   <p>LocationOpenMap is used by SparseField (and its subclasses) for the tables which map locations to
+   the objects at those locations, when the field is set to use OPEN_ADDRESSING_MAPS.
+
+   <p>The Map views (keySet(), values(), entrySet()) do not support removal via their iterators,
+   and you should not modify the map while iterating over them.
+*/
+
+public class LocationOpenMap extends AbstractMap implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    // stands in for null values, so that a null in values[] means an empty slot
+    static final Object NULL = new Object() { public String toString() { return "null"; } };
+
+    long[] keys;
+    transient Object[] values;  // written by hand, since NULL is not serializable
+    int size;
+    int mask;
+    int threshold;
+
+    // keys which can't be packed
+    HashMap other = null;
+
+    static final int MIN_CAPACITY = 16;
+
+    public LocationOpenMap()
+        {
+        this(0);
+        }
+
+    /** Creates a LocationOpenMap which can hold at least the given number of packed keys without growing. */
+    public LocationOpenMap(int expectedSize)
+        {
+        int capacity = MIN_CAPACITY;
+        // we keep the load factor at or below 1/2
+        while(capacity < expectedSize * 2 && capacity < (1 << 30)) capacity <<= 1;
+        allocate(capacity);
+        }
+
+    /** Creates a LocationOpenMap holding the same mappings as the given map. */
+    public LocationOpenMap(Map other)
+        {
+        this(other.size());
+        putAll(other);
+        }
+
+    void allocate(int capacity)
+        {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        threshold = capacity / 2;
+        }
+
+    /** Packs the given x and y coordinates into a single long, the same way LocationOpenMap does internally. */
+    public static long pack(int x, int y)
+        {
+        return (((long)x) << 32) | (y & 0xFFFFFFFFL);
+        }
+
+    /** Returns the x coordinate of a packed location. */
+    public static int unpackX(long key) { return (int)(key >> 32); }
+
+    /** Returns the y coordinate of a packed location. */
+    public static int unpackY(long key) { return (int)key; }
+
+    // returns true if the key can be packed, and stores the packed key in packed[0]
+    static boolean packable(Object key, long[] packed)
+        {
+        if (key instanceof Int2D)
+            {
+            Int2D k = (Int2D)key;
+            packed[0] = pack(k.x, k.y);
+            return true;
+            }
+        else if (key instanceof MutableInt2D)
+            {
+            MutableInt2D k = (MutableInt2D)key;
+            packed[0] = pack(k.x, k.y);
+            return true;
+            }
+        else if (key instanceof Double2D)
+            {
+            Double2D k = (Double2D)key;
+            return packable(k.x, k.y, packed);
+            }
+        else if (key instanceof MutableDouble2D)
+            {
+            MutableDouble2D k = (MutableDouble2D)key;
+            return packable(k.x, k.y, packed);
+            }
+        else return false;
+        }
+
+    static boolean packable(double x, double y, long[] packed)
+        {
+        int ix = (int)x;
+        int iy = (int)y;
+        if (ix != x || iy != y) return false;  // also catches NaN and out-of-range values
+        packed[0] = pack(ix, iy);
+        return true;
+        }
+
+    static int hash(long key, int mask)
+        {
+        // the murmur3 64-bit finalizer
+        key ^= (key >>> 33);
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= (key >>> 33);
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= (key >>> 33);
+        return ((int)key) & mask;
+        }
+
+    // returns the slot holding key, or the empty slot where it would go
+    int slot(long key)
+        {
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        int mask = this.mask;
+        int i = hash(key, mask);
+        while(values[i] != null && keys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+        }
+
+    /** Returns the value stored under the location (x, y), or null if there is none.  This
+        does not require you to build an Int2D. */
+    public Object get(int x, int y)
+        {
+        int i = slot(pack(x, y));
+        Object v = values[i];
+        return (v == NULL ? null : v);
+        }
+
+    /** Stores the value under the location (x, y), returning the previous value, if any.  This
+        does not require you to build an Int2D. */
+    public Object put(int x, int y, Object value)
+        {
+        return putPacked(pack(x, y), value);
+        }
+
+    /** Removes the value stored under the location (x, y), returning it, or null if there was none.  This
+        does not require you to build an Int2D. */
+    public Object remove(int x, int y)
+        {
+        return removePacked(pack(x, y));
+        }
+
+    Object putPacked(long key, Object value)
+        {
+        if (value == null) value = NULL;
+        int i = slot(key);
+        Object old = values[i];
+        values[i] = value;
+        if (old != null) return (old == NULL ? null : old);
+        keys[i] = key;
+        if (++size > threshold) resize(keys.length * 2);
+        return null;
+        }
+
+    Object removePacked(long key)
+        {
+        int i = slot(key);
+        Object old = values[i];
+        if (old == null) return null;
+        delete(i);
+        return (old == NULL ? null : old);
+        }
+
+    // removes slot i, then shifts later members of its probe sequence back so we need no tombstones
+    void delete(int i)
+        {
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        int mask = this.mask;
+        values[i] = null;
+        size--;
+        int j = i;
+        while(true)
+            {
+            j = (j + 1) & mask;
+            if (values[j] == null) return;
+            long k = keys[j];
+            int home = hash(k, mask);
+            // can k move back to i?  Only if its home is not in (i, j] cyclically
+            if ((j > i) ? (home <= i || home > j) : (home <= i && home > j))
+                {
+                keys[i] = k;
+                values[i] = values[j];
+                values[j] = null;
+                i = j;
+                }
+            }
+        }
+
+    void resize(int capacity)
+        {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        int mask = this.mask;
+        for(int j = 0; j < oldKeys.length; j++)
+            {
+            if (oldValues[j] != null)
+                {
+                long k = oldKeys[j];
+                int i = hash(k, mask);
+                while(values[i] != null) i = (i + 1) & mask;
+                keys[i] = k;
+                values[i] = oldValues[j];
+                }
+            }
+        }
+
+    public int size() { return size + (other == null ? 0 : other.size()); }
+
+    public boolean isEmpty() { return size() == 0; }
+
+    public boolean containsKey(Object key)
+        {
+        long[] packed = new long[1];
+        if (packable(key, packed)) return values[slot(packed[0])] != null;
+        return other != null && other.containsKey(key);
+        }
+
+    public Object get(Object key)
+        {
+        if (key instanceof Int2D)  // the overwhelmingly common case
+            {
+            Int2D k = (Int2D)key;
+            return get(k.x, k.y);
+            }
+        long[] packed = new long[1];
+        if (packable(key, packed))
+            {
+            Object v = values[slot(packed[0])];
+            return (v == NULL ? null : v);
+            }
+        return (other == null ? null : other.get(key));
+        }
+
+    public Object put(Object key, Object value)
+        {
+        if (key instanceof Int2D)  // the overwhelmingly common case
+            {
+            Int2D k = (Int2D)key;
+            return putPacked(pack(k.x, k.y), value);
+            }
+        long[] packed = new long[1];
+        if (packable(key, packed))
+            return putPacked(packed[0], value);
+        if (other == null) other = new HashMap();
+        return other.put(key, value);
+        }
+
+    public Object remove(Object key)
+        {
+        if (key instanceof Int2D)  // the overwhelmingly common case
+            {
+            Int2D k = (Int2D)key;
+            return removePacked(pack(k.x, k.y));
+            }
+        long[] packed = new long[1];
+        if (packable(key, packed))
+            return removePacked(packed[0]);
+        return (other == null ? null : other.remove(key));
+        }
+
+    public void clear()
+        {
+        Arrays.fill(values, null);
+        size = 0;
+        other = null;
+        }
+
+    public Set entrySet()
+        {
+        return new AbstractSet()
+            {
+            public int size() { return LocationOpenMap.this.size(); }
+            public Iterator iterator()
+                {
+                final Iterator others = (other == null ? null : other.entrySet().iterator());
+                return new Iterator()
+                    {
+                    int next = advance(0);
+                    int advance(int i)
+                        {
+                        while(i < values.length && values[i] == null) i++;
+                        return i;
+                        }
+                    public boolean hasNext() { return next < values.length || (others != null && others.hasNext()); }
+                    public Object next()
+                        {
+                        if (next >= values.length)
+                            {
+                            if (others == null) throw new NoSuchElementException();
+                            return others.next();
+                            }
+                        final int i = next;
+                        next = advance(next + 1);
+                        Object v = values[i];
+                        return new AbstractMap.SimpleImmutableEntry(new Int2D(unpackX(keys[i]), unpackY(keys[i])), (v == NULL ? null : v));
+                        }
+                    public void remove() { throw new UnsupportedOperationException("Remove not supported in LocationOpenMap iterators"); }
+                    };
+                }
+            };
+        }
+
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException
+        {
+        out.defaultWriteObject();
+        for(int i = 0; i < values.length; i++)
+            out.writeObject(values[i] == NULL ? new NullValue() : values[i]);
+        }
+
+    private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException
+        {
+        in.defaultReadObject();
+        values = new Object[keys.length];
+        for(int i = 0; i < values.length; i++)
+            {
+            Object v = in.readObject();
+            values[i] = (v instanceof NullValue ? NULL : v);
+            }
+        }
+
+    // stands in for NULL in the serialized form
+    static class NullValue implements java.io.Serializable
+        {
+        private static final long serialVersionUID = 1;
+        }
+    }
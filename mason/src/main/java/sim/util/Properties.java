@@ -171,6 +171,49 @@ public abstract class Properties implements java.io.Serializable
     /** Returns the Class (or for primitive objects, the primitive TYPE) of the property at the given index. */
     public abstract Class getType(int index);
 
+    /** Reads a single numerical or boolean property as a double, without boxing it.  Obtain one with getDoubleGetter(...). */
+    public interface DoubleGetter
+        {
+        /** Returns the current value of the property.  Booleans are returned as 1 (true) or 0 (false). */
+        public double get();
+        }
+
+    /** Returns a DoubleGetter for the property at the given index, or null if the property isn't a number or a boolean
+        (boxed or not) or the index is out of the range [0 ... numProperties() - 1 ].  Obtain the DoubleGetter once
+        and call it as often as you like: this is meant for code which reads the same property over and over, such as charts and sweeps.
+        If the Properties is volatile, the DoubleGetter may no longer refer to the same property once the properties have changed.
+        
+        <p>By default the DoubleGetter just calls getValue(index) and unboxes the result; SimpleProperties overrides this to
+        call the property's get method directly. */
+    public DoubleGetter getDoubleGetter(final int index)
+        {
+        if (index < 0 || index >= numProperties()) return null;
+        Class type = getTypeConversion(getType(index));
+        if (type == Boolean.TYPE)
+            {
+            return new DoubleGetter()
+                {
+                public double get()
+                    {
+                    Object val = getValue(index);
+                    return (val instanceof Boolean ? (((Boolean)val).booleanValue() ? 1 : 0) : Double.NaN);
+                    }
+                };
+            }
+        else if (type == Byte.TYPE || type == Short.TYPE || type == Integer.TYPE || type == Long.TYPE || type == Float.TYPE || type == Double.TYPE)
+            {
+            return new DoubleGetter()
+                {
+                public double get()
+                    {
+                    Object val = getValue(index);
+                    return (val instanceof Number ? ((Number)val).doubleValue() : Double.NaN);
+                    }
+                };
+            }
+        else return null;
+        }
+
     protected abstract Object _setValue(int index, Object value);
 
     /** Sets the current value of the property.  Simple values (byte, int, etc.)
@@ -7,6 +7,7 @@
 package sim.util;
 import java.util.*;
 import java.lang.reflect.*;
+import java.lang.invoke.*;
 
 // stars down the side maintain formatting
 /**
@@ -766,6 +767,103 @@ public class SimpleProperties extends Properties implements java.io.Serializable
             }
         }
     
+    /** Returns a DoubleGetter for the property at the given index, or null if the property isn't a number or a boolean.
+        If the property's get method returns a primitive number or boolean, the DoubleGetter calls it directly, as compiled code,
+        rather than through reflection, and doesn't box the result.  Otherwise (for example, if the method returns an Integer
+        or its class isn't public) the DoubleGetter reads the property through getValue(index) as usual.  Either way, if the
+        get method throws an exception, the DoubleGetter prints it and returns NaN. */
+    public DoubleGetter getDoubleGetter(int index)
+        {
+        if (auxillary!=null) return auxillary.getDoubleGetter(index);
+        if (index < 0 || index >= numProperties()) return null;
+        Method method = (Method)(getMethods.get(index));
+        Class type = method.getReturnType();
+        if (type.isPrimitive() && type != Character.TYPE)
+            {
+            try
+                {
+                return compileDoubleGetter(method, object);
+                }
+            catch (Throwable e)
+                {
+                // fall through to reflection
+                }
+            }
+        return super.getDoubleGetter(index);
+        }
+    
+    static double booleanToDouble(boolean val) { return val ? 1 : 0; }
+
+    // Builds a DoubleGetter which calls the given get method on the given object.  If possible we spin
+    // a class implementing DoubleGetter which calls the method directly (just as a lambda would), converting
+    // its result to a double.  LambdaMetafactory can't convert booleans, so for them, or if it fails, we call
+    // a MethodHandle bound to the object and adapted to return a double.
+    static DoubleGetter compileDoubleGetter(Method method, Object object) throws Throwable
+        {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        final MethodHandle handle = lookup.unreflect(method);
+        final Class type = method.getReturnType();
+        final MethodType doubleType = MethodType.methodType(Double.TYPE);
+        
+        if (type != Boolean.TYPE)
+            {
+            try
+                {
+                CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+                    MethodType.methodType(DoubleGetter.class, method.getDeclaringClass()),
+                    doubleType, handle, doubleType);
+                return new CompiledDoubleGetter((DoubleGetter)(site.getTarget().invoke(object)));
+                }
+            catch (Throwable e)
+                {
+                // fall through to a MethodHandle
+                }
+            }
+        
+        MethodHandle bound = handle.bindTo(object);
+        if (type == Boolean.TYPE)
+            bound = MethodHandles.filterReturnValue(bound, 
+                lookup.findStatic(SimpleProperties.class, "booleanToDouble", MethodType.methodType(Double.TYPE, Boolean.TYPE)));
+        else bound = bound.asType(doubleType);
+        final MethodHandle getter = bound;
+        return new DoubleGetter()
+            {
+            public double get()
+                {
+                try
+                    {
+                    return (double)getter.invokeExact();
+                    }
+                catch (Error e) { throw e; }
+                catch (Throwable e)
+                    {
+                    e.printStackTrace();
+                    return Double.NaN;
+                    }
+                }
+            };
+        }
+
+    // Wraps the DoubleGetter spun by LambdaMetafactory, which calls the get method directly, so that if the method
+    // throws an exception we print it and return NaN, just as getValue(index) does (returning null) for the reflective getter.
+    static class CompiledDoubleGetter implements DoubleGetter
+        {
+        final DoubleGetter getter;
+        CompiledDoubleGetter(DoubleGetter getter) { this.getter = getter; }
+        public double get()
+            {
+            try
+                {
+                return getter.get();
+                }
+            catch (Exception e)
+                {
+                e.printStackTrace();
+                return Double.NaN;
+                }
+            }
+        }
+
     protected Object _setValue(int index, Object value)
         {
         if (auxillary!=null) return auxillary.setValue(index,value);  // I think this is right
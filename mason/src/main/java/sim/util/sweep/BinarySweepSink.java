@@ -0,0 +1,194 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import java.io.*;
+import java.nio.*;
+import java.util.zip.GZIPInputStream;
+
+/** A SweepSink which writes its rows in a compact typed binary format, stored in column blocks.
+    Each Buffer is written as one block, with the values of each column stored together, so writing a block is
+    mostly a bulk copy of arrays, and a reader interested in only a few columns can skip over the rest.
+    All numbers are big-endian, as in DataOutputStream.
+
+    <p>The format is:
+    
+    <ul>
+    <li>The header: the long MAGIC, the int VERSION, the int number of value columns, and the name of each value column as written by DataOutputStream.writeUTF(...).
+    <li>Zero or more blocks: the int number of rows <i>n</i> (greater than zero), then <i>n</i> int job numbers, <i>n</i> int trial numbers, <i>n</i> long seeds,
+    and then for each value column in turn, <i>n</i> doubles.
+    <li>The trailer: the int 0.
+    </ul>
+
+    <p>Use a BinarySweepSink.Reader to read the file back in.  Running <tt>java sim.util.sweep.BinarySweepSink <i>file</i></tt> prints the
+    file as CSV, in the same form as CSVSweepSink writes.
+*/
+
+public class BinarySweepSink extends SweepSink
+    {
+    /** The first eight bytes of every file: "MASONSWP" */
+    public static final long MAGIC = 0x4D41534F4E535750L;
+    public static final int VERSION = 1;
+
+    public BinarySweepSink(OutputStream out)
+        {
+        super(out);
+        }
+
+    protected byte[] encodeHeader(String[] columnNames) throws IOException
+        {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeLong(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(columnNames.length);
+        for(int i = 0; i < columnNames.length; i++)
+            header.writeUTF(columnNames[i]);
+        header.close();
+        return bytes.toByteArray();
+        }
+
+    protected int encodeRows(Buffer buffer) throws IOException
+        {
+        final int n = buffer.numRows;
+        final int length = 4 + n * (4 + 4 + 8 + 8 * buffer.values.length);
+        final ByteBuffer b = ByteBuffer.wrap(buffer.ensureBytes(length));
+        b.putInt(n);
+        b.asIntBuffer().put(buffer.jobs, 0, n);
+        ((java.nio.Buffer)b).position(b.position() + 4 * n);
+        b.asIntBuffer().put(buffer.trials, 0, n);
+        ((java.nio.Buffer)b).position(b.position() + 4 * n);
+        b.asLongBuffer().put(buffer.seeds, 0, n);
+        ((java.nio.Buffer)b).position(b.position() + 8 * n);
+        for(int c = 0; c < buffer.values.length; c++)
+            {
+            b.asDoubleBuffer().put(buffer.values[c], 0, n);
+            ((java.nio.Buffer)b).position(b.position() + 8 * n);
+            }
+        return length;
+        }
+
+    protected byte[] encodeTrailer() throws IOException
+        {
+        return new byte[4];  // the int 0
+        }
+
+
+    /** Reads a file written by a BinarySweepSink, one block at a time. */
+    public static class Reader
+        {
+        final DataInputStream in;
+        final String[] columnNames;
+        int numRows = 0;
+        int[] jobs = new int[0];
+        int[] trials = new int[0];
+        long[] seeds = new long[0];
+        double[][] values;
+        boolean done = false;
+
+        /** Reads the header from the given stream.  Throws an IOException if it isn't a BinarySweepSink file. */
+        public Reader(InputStream in) throws IOException
+            {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            if (this.in.readLong() != MAGIC)
+                throw new IOException("Not a binary sweep file");
+            final int version = this.in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unknown binary sweep file version " + version);
+            columnNames = new String[this.in.readInt()];
+            for(int i = 0; i < columnNames.length; i++)
+                columnNames[i] = this.in.readUTF();
+            values = new double[columnNames.length][0];
+            }
+
+        /** Returns the names of the value columns. */
+        public String[] getColumnNames() { return columnNames; }
+
+        /** Reads the next block, and returns false if there are no more blocks. */
+        public boolean nextBlock() throws IOException
+            {
+            if (done) return false;
+            numRows = in.readInt();
+            if (numRows == 0) { done = true; return false; }
+            if (numRows < 0) throw new IOException("Invalid block size " + numRows);
+            if (jobs.length < numRows)
+                {
+                jobs = new int[numRows];
+                trials = new int[numRows];
+                seeds = new long[numRows];
+                for(int c = 0; c < values.length; c++)
+                    values[c] = new double[numRows];
+                }
+
+            final byte[] bytes = new byte[numRows * 8];
+            final ByteBuffer b = ByteBuffer.wrap(bytes);
+            in.readFully(bytes, 0, numRows * 4);
+            b.asIntBuffer().get(jobs, 0, numRows);
+            in.readFully(bytes, 0, numRows * 4);
+            b.asIntBuffer().get(trials, 0, numRows);
+            in.readFully(bytes, 0, numRows * 8);
+            b.asLongBuffer().get(seeds, 0, numRows);
+            for(int c = 0; c < values.length; c++)
+                {
+                in.readFully(bytes, 0, numRows * 8);
+                b.asDoubleBuffer().get(values[c], 0, numRows);
+                }
+            return true;
+            }
+
+        /** Returns the number of rows in the current block. */
+        public int getNumRows() { return numRows; }
+
+        /** Returns the job numbers of the current block.  The array may be longer than getNumRows(). */
+        public int[] getJobs() { return jobs; }
+
+        /** Returns the trial numbers of the current block.  The array may be longer than getNumRows(). */
+        public int[] getTrials() { return trials; }
+
+        /** Returns the seeds of the current block.  The array may be longer than getNumRows(). */
+        public long[] getSeeds() { return seeds; }
+
+        /** Returns the values of the given column in the current block.  The array may be longer than getNumRows(). */
+        public double[] getColumn(int column) { return values[column]; }
+
+        public void close() throws IOException
+            {
+            in.close();
+            }
+        }
+
+
+    /** Prints a binary sweep file, which may be gzipped, as CSV. */
+    public static void main(String[] args) throws IOException
+        {
+        if (args.length != 1)
+            {
+            System.err.println("Format:   java sim.util.sweep.BinarySweepSink [binary sweep file]");
+            return;
+            }
+        InputStream in = new FileInputStream(args[0]);
+        if (args[0].endsWith(ParameterSweep.GZIP_POSTFIX))
+            in = new GZIPInputStream(in);
+        Reader reader = new Reader(in);
+        CSVSweepSink csv = new CSVSweepSink(new BufferedOutputStream(System.out));
+        csv.open(reader.getColumnNames());
+        SweepSink.Buffer buffer = csv.newBuffer();
+        double[] row = new double[reader.getColumnNames().length];
+        while(reader.nextBlock())
+            {
+            for(int r = 0; r < reader.getNumRows(); r++)
+                {
+                for(int c = 0; c < row.length; c++)
+                    row[c] = reader.getColumn(c)[r];
+                buffer.addRow(reader.getJobs()[r], reader.getTrials()[r], reader.getSeeds()[r], row);
+                }
+            }
+        buffer.flush();
+        reader.close();
+        csv.close();
+        }
+    }
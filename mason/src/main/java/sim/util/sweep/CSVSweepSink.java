@@ -0,0 +1,54 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import java.io.*;
+
+/** A SweepSink which writes its rows as comma-separated text, one row per line, preceded by a line of column names:
+
+    <p><tt>job, trial, rng, <i>column</i>, <i>column</i>, ...</tt>
+
+    <p>Each block of rows is formatted into a single StringBuilder, so there is no String built per row or per value.
+*/
+
+public class CSVSweepSink extends SweepSink
+    {
+    public CSVSweepSink(OutputStream out)
+        {
+        super(out);
+        }
+
+    protected byte[] encodeHeader(String[] columnNames) throws IOException
+        {
+        StringBuilder header = new StringBuilder();
+        header.append("job, trial, rng");
+        for(int i = 0; i < columnNames.length; i++)
+            header.append(", ").append(columnNames[i]);
+        header.append('\n');
+        return header.toString().getBytes("UTF-8");
+        }
+
+    protected int encodeRows(Buffer buffer) throws IOException
+        {
+        final StringBuilder builder = new StringBuilder(buffer.bytes.length);
+        final double[][] values = buffer.values;
+        for(int r = 0; r < buffer.numRows; r++)
+            {
+            builder.append(buffer.jobs[r]).append(", ").append(buffer.trials[r]).append(", ").append(buffer.seeds[r]);
+            for(int c = 0; c < values.length; c++)
+                builder.append(", ").append(values[c][r]);
+            builder.append('\n');
+            }
+
+        // everything is ASCII, so we can copy the chars straight over
+        final int length = builder.length();
+        final byte[] bytes = buffer.ensureBytes(length);
+        for(int i = 0; i < length; i++)
+            bytes[i] = (byte)builder.charAt(i);
+        return length;
+        }
+    }
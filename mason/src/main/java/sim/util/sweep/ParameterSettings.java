@@ -31,6 +31,18 @@ public class ParameterSettings
     public static final String THREADS_P = "threads";
     public static final String SEED_P = "seed";
     public static final String OUT_P = "out";
+    public static final String FORMAT_P = "format";
+    public static final String FLUSH_P = "flush";
+    public static final String PORT_P = "port";
+    public static final String WORKERS_P = "workers";
+    public static final String TIMEOUT_P = "timeout";
+    public static final String RETRIES_P = "retries";
+    public static final String STRATEGY_P = "strategy";
+    public static final String COMBINATION_SAMPLES_P = "samples";
+    public static final String MIN_TRIALS_P = "mintrials";
+    public static final String PRECISION_P = "precision";
+    public static final String CONFIDENCE_P = "confidence";
+    public static final String REUSE_P = "reuse";
     
     public Properties p;
     public int index;
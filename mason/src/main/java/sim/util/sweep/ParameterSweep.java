@@ -11,6 +11,7 @@ import sim.engine.*;
 import java.io.*;
 import java.util.*;
 import sim.util.*;
+import sim.util.distribution.Probability;
 import ec.util.*;
 import java.util.zip.GZIPOutputStream;
 
@@ -18,8 +19,18 @@ public class ParameterSweep
     {
     public static final String GZIP_POSTFIX = ".gz";
     
-    // Output stream to dump resuts 
-    PrintWriter printWriter;
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_BINARY = "binary";
+    
+    /** Every combination of the divisions of each independent variable (the default) */
+    public static final String STRATEGY_GRID = "grid";
+    /** A Latin hypercube sample of the independent variables */
+    public static final String STRATEGY_LATIN_HYPERCUBE = "lhs";
+    /** Points of a Sobol sequence over the independent variables */
+    public static final String STRATEGY_SOBOL = "sobol";
+    
+    // Where we dump results
+    SweepSink sink;
     
     // Independent Variables
     String indNames[];
@@ -39,12 +50,42 @@ public class ParameterSweep
     int numSteps;
     int mod;
     long baseSeed = 100;
+    boolean reuse = true;   // if true, each thread reuses one SimState for all its jobs via reset(...), else it builds one per job
+    
+    // Sampling and trial allocation
+    String strategy = STRATEGY_GRID;
+    int numCombinationSamples;  // the number of combinations for STRATEGY_LATIN_HYPERCUBE and STRATEGY_SOBOL (not numSamples(), the samples per row)
+    int minTrials;          // if less than numTrials, a combination gets no more trials once its confidence intervals are tight
+    double precision;       // how tight: the largest half-width of a confidence interval, relative to its mean
+    double confidence;      // the confidence level of the intervals
+
+    // Distributed sweeps (see SweepCoordinator)
+    ParameterDatabase db;
+    int port = -1;          // if -1, and there are no workers, the sweep is run in threads in this JVM
+    int numWorkers = 0;     // the number of worker processes to launch locally
+    int timeout = 60000;    // milliseconds without word from a worker before it's considered dead
+    int retries = 3;        // how often a job is retried after its worker has died or the job has failed
     
     // This is an arraylist of arraylists of doubles, recursively generated, for each combination of values of our independent variables
     ArrayList<ArrayList<Double>> allIndependentVariableValueCombinations = new ArrayList<ArrayList<Double>>();
     
     public ParameterSweep(ParameterDatabase db) throws ClassNotFoundException
         {
+        this(db, null);
+        }
+
+    /** Creates a ParameterSweep which writes its results to the given sink.  If sink is null, a sink is created
+        and its file opened as specified by the database (see createSink(...)). */
+    public ParameterSweep(ParameterDatabase db, SweepSink sink) throws ClassNotFoundException
+        {
+        this(db, sink, true);
+        }
+
+    // Workers don't write results themselves, so they have no sink
+    ParameterSweep(ParameterDatabase db, SweepSink sink, boolean openSink) throws ClassNotFoundException
+        {
+        this.db = db;
+
         // Load class
         String modelPath = ((String)(db.getStringWithDefault(new Parameter(ParameterSettings.MODEL_P), null, ""))).replace("/",".");
         if (modelPath == null) throw new RuntimeException("No valid model provided.");
@@ -55,17 +96,29 @@ public class ParameterSweep
         indNames = ((String)(db.getStringWithDefault(new Parameter(ParameterSettings.INDEPENDENT_P), null, ""))).split("\\s");
         indMinValues = db.getDoublesUnconstrained(new Parameter(ParameterSettings.MIN_P), null, indNames.length);
         indMaxValues = db.getDoublesUnconstrained(new Parameter(ParameterSettings.MAX_P), null, indNames.length);
-        double[] d = db.getDoubles(new Parameter(ParameterSettings.DIVISIONS_P), null, 1, indNames.length);
         if (indNames.length == 0) throw new RuntimeException("must have at least one independent variable");
         if (indMinValues == null) throw new RuntimeException("min is invalid or not the same length as independent");
         if (indMaxValues == null) throw new RuntimeException("max is invalid or not the same length as independent");
-        if (d == null) throw new RuntimeException("divisions is invalid, less than 1, or not the same length as independent");
-        indDivisions = new int[d.length];
-        for(int i = 0; i < d.length; i++)
+        strategy = db.getStringWithDefault(new Parameter(ParameterSettings.STRATEGY_P), null, STRATEGY_GRID).trim();
+        if (strategy.equals(STRATEGY_GRID))
+            {
+            double[] d = db.getDoubles(new Parameter(ParameterSettings.DIVISIONS_P), null, 1, indNames.length);
+            if (d == null) throw new RuntimeException("divisions is invalid, less than 1, or not the same length as independent");
+            indDivisions = new int[d.length];
+            for(int i = 0; i < d.length; i++)
+                {
+                indDivisions[i] = (int)d[i];
+                if (indDivisions[i] != d[i]) throw new RuntimeException("division #" + (i + 1) + " is not an integer.");
+                }
+            }
+        else if (strategy.equals(STRATEGY_LATIN_HYPERCUBE) || strategy.equals(STRATEGY_SOBOL))
             {
-            indDivisions[i] = (int)d[i];
-            if (indDivisions[i] != d[i]) throw new RuntimeException("division #" + (i + 1) + " is not an integer.");
+            numCombinationSamples = db.getInt(new Parameter(ParameterSettings.COMBINATION_SAMPLES_P), null, 1);
+            if (numCombinationSamples < 1) throw new RuntimeException("Combination samples must be at least 1.  You have: " + numCombinationSamples);
+            if (strategy.equals(STRATEGY_SOBOL) && indNames.length > SobolSequence.MAX_DIMENSIONS)
+                throw new RuntimeException("Sobol sequences may have at most " + SobolSequence.MAX_DIMENSIONS + " independent variables.  You have: " + indNames.length);
             }
+        else throw new RuntimeException("Invalid strategy.  You have: " + strategy);
         
         // Load dependent vars
         depNames = ((String)(db.getStringWithDefault(new Parameter(ParameterSettings.DEPENDENT_P), null, ""))).split("\\s");
@@ -78,27 +131,30 @@ public class ParameterSweep
         if (numSteps < 0) throw new RuntimeException("Invalid steps value.  You have: " + numSteps);
         numTrials = db.getInt(new Parameter(ParameterSettings.TRIALS_P), null, 1);
         if (numTrials < 1) throw new RuntimeException("Trials must be at least 1.  You have: " + numTrials);
+        minTrials = db.getIntWithDefault(new Parameter(ParameterSettings.MIN_TRIALS_P), null, numTrials);
+        if (minTrials < 2 && minTrials < numTrials) throw new RuntimeException("Min-trials must be at least 2.  You have: " + minTrials);
+        if (minTrials > numTrials) throw new RuntimeException("Min-trials must be no more than trials.  You have: " + minTrials);
+        precision = db.getDoubleWithDefault(new Parameter(ParameterSettings.PRECISION_P), null, 0.05);
+        if (precision < 0) throw new RuntimeException("Precision must be at least 0.  You have: " + precision);
+        confidence = db.getDoubleWithDefault(new Parameter(ParameterSettings.CONFIDENCE_P), null, 0.95);
+        if (confidence <= 0 || confidence >= 1) throw new RuntimeException("Confidence must be between 0 and 1 exclusive.  You have: " + confidence);
         numThreads = db.getInt(new Parameter(ParameterSettings.THREADS_P), null, 1);
         if (numThreads < 1) throw new RuntimeException("Threads must be at least 1.  You have: " + numThreads);
         baseSeed = db.getLong(new Parameter(ParameterSettings.SEED_P), null, 1);
         if (baseSeed < 1) throw new RuntimeException("Seed must be at least 1.  You have: " + baseSeed);
+        reuse = db.getBoolean(new Parameter(ParameterSettings.REUSE_P), null, true);
 
-        try
-            {
-            String filename = db.getStringWithDefault(new Parameter(ParameterSettings.OUT_P), null, "");
-            if (db.getBoolean(new Parameter(ParameterSettings.COMPRESS_P), null, false))
-                {
-                printWriter = new PrintWriter(new GZIPOutputStream(new FileOutputStream(filename + GZIP_POSTFIX)), true);
-                }
-            else 
-                {   
-                printWriter = new PrintWriter(new FileOutputStream(filename), true);
-                }
-            }
-        catch (IOException e)
-            {
-            throw new RuntimeException("Could not open file.", e);
-            }
+        // Load distributed parameters
+        port = db.getIntWithDefault(new Parameter(ParameterSettings.PORT_P), null, -1);
+        if (port < -1 || port > 65535) throw new RuntimeException("Invalid port.  You have: " + port);
+        numWorkers = db.getIntWithDefault(new Parameter(ParameterSettings.WORKERS_P), null, 0);
+        if (numWorkers < 0) throw new RuntimeException("Workers must be at least 0.  You have: " + numWorkers);
+        timeout = db.getIntWithDefault(new Parameter(ParameterSettings.TIMEOUT_P), null, 60000);
+        if (timeout < 1) throw new RuntimeException("Timeout must be at least 1.  You have: " + timeout);
+        retries = db.getIntWithDefault(new Parameter(ParameterSettings.RETRIES_P), null, 3);
+        if (retries < 0) throw new RuntimeException("Retries must be at least 0.  You have: " + retries);
+
+        this.sink = (sink == null && openSink ? createSink(db) : sink);
                 
         SimState simState = newInstance(baseSeed, modelClass);
         sim.util.Properties properties = sim.util.Properties.getProperties(simState);
@@ -119,9 +175,44 @@ public class ParameterSweep
             }
         }  
   
-    Object[] printWriterLock = new Object[0];
-    // the only way we print results: one line at a time 
-    void println(String val) { synchronized(printWriterLock) { printWriter.println(val); } }
+    /** Creates the sink specified by the database: the file named by <tt>out</tt>, gzipped (with GZIP_POSTFIX appended
+        to its name) if <tt>compress</tt> is true, written in the format given by <tt>format</tt>, either FORMAT_CSV (the default) or FORMAT_BINARY.
+        Results are flushed to the file at least every <tt>flush</tt> milliseconds (by default SweepSink.DEFAULT_FLUSH_MILLIS). */
+    public static SweepSink createSink(ParameterDatabase db)
+        {
+        String format = db.getStringWithDefault(new Parameter(ParameterSettings.FORMAT_P), null, FORMAT_CSV).trim();
+        if (!format.equals(FORMAT_CSV) && !format.equals(FORMAT_BINARY))
+            throw new RuntimeException("Invalid format.  You have: " + format);
+        long flush = db.getLongWithDefault(new Parameter(ParameterSettings.FLUSH_P), null, SweepSink.DEFAULT_FLUSH_MILLIS);
+        if (flush < 0) throw new RuntimeException("Flush must be at least 0.  You have: " + flush);
+        try
+            {
+            String filename = db.getStringWithDefault(new Parameter(ParameterSettings.OUT_P), null, "");
+            OutputStream out;
+            if (db.getBoolean(new Parameter(ParameterSettings.COMPRESS_P), null, false))
+                {
+                out = new GZIPOutputStream(new FileOutputStream(filename + GZIP_POSTFIX), 1 << 16, true);  // so flush() really flushes
+                }
+            else 
+                {   
+                out = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16);
+                }
+            SweepSink sink = (format.equals(FORMAT_BINARY) ? (SweepSink)(new BinarySweepSink(out)) : new CSVSweepSink(out));
+            sink.setFlushMillis(flush);
+            return sink;
+            }
+        catch (IOException e)
+            {
+            throw new RuntimeException("Could not open file.", e);
+            }
+        }
+
+    /** Returns true if the jobs are run by worker processes (see SweepCoordinator) rather than by threads in this JVM.
+        This is the case if a port or a number of workers was given. */
+    public boolean isDistributed() { return port != -1 || numWorkers > 0; }
+
+    /** Returns the sink to which results are written. */
+    public SweepSink getSink() { return sink; }
 
     Object[] lock = new Object[0];
     public void printSynchronized(String str)
@@ -134,7 +225,7 @@ public class ParameterSweep
     
         
     boolean running;
-    boolean stop;
+    volatile boolean stop;
     Object runningLock = new Object[0];
     Thread outer;
     public void stop()
@@ -144,6 +235,7 @@ public class ParameterSweep
             if (!running) return;  // already stopped
             stop = true;
             }
+        synchronized(nextJobLock) { nextJobLock.notifyAll(); }  // wake up anyone waiting for a job
         waitUntilStopped();
         }
                 
@@ -160,7 +252,7 @@ public class ParameterSweep
             {
             if (running) return;    // already running
         
-            generateAllIndependentVariableValueCombinations(new ArrayList<Double>());
+            generateCombinations();
                         
             writeFileHeader(); 
             running = true;
@@ -169,62 +261,174 @@ public class ParameterSweep
                 {
                 public void run()
                     {
-                    Thread[] threads = new Thread[numThreads];
-                    for(int i = 0; i < threads.length; i++) 
+                    if (isDistributed())
                         {
-                        threads[i] = new Thread(new Runnable()
-                            {
-                            public void run()
-                                {
-                                SimState simState = null;
-                                sim.util.Properties properties = null;
-                                ParameterSweepSimulationJob job = null;
-                                while ((job = (ParameterSweepSimulationJob)getNextJob()) != null) 
-                                    {
-                                    if (stop) 
-                                        {
-                                        break;
-                                        }
-
-                                    // initialize simstate and properties
-                                    if (simState == null)
-                                        {
-                                        simState = newInstance(job.jobNumber + baseSeed, modelClass);
-                                        properties = sim.util.Properties.getProperties(simState);
-                                        }
-                                    else
-                                        {
-                                        simState.setSeed(job.jobNumber + baseSeed);
-                                        } 
-
-                                    int combination = job.jobNumber / numTrials;  // which variable combination are we doing this time?
-                                    job.run(simState, properties, allIndependentVariableValueCombinations.get(combination));
-                                    }
-                                }
-                            });
-                        threads[i].start();
+                        new SweepCoordinator(ParameterSweep.this).run();
                         }
-                        
-                    for(int i = 0; i<threads.length; i++) 
+                    else
+                        {
+                        runThreads();
+                        }
+                    try
+                        {
+                        sink.close();
+                        }
+                    catch (IOException e)
                         {
-                        try 
+                        printSynchronized("Could not close results file: " + e);
+                        }
+                    synchronized(runningLock) { running = false; }
+                    }
+                });
+            outer.start();
+            }
+        }
+    
+    // runs the jobs in numThreads threads in this JVM
+    void runThreads()
+        {
+        Thread[] threads = new Thread[numThreads];
+        for(int i = 0; i < threads.length; i++) 
+            {
+            threads[i] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    JobRunner runner = new JobRunner();
+                    ParameterSweepSimulationJob job = null;
+                    SweepSink.Buffer buffer = sink.newBuffer();
+                    while ((job = (ParameterSweepSimulationJob)getNextJob()) != null) 
+                        {
+                        if (stop) 
+                            {
+                            break;
+                            }
+
+                        boolean completed = false;
+                        try
+                            {
+                            if (completed = runner.run(job))
+                                buffer.addRow(job.jobNumber, job.trial + 1, job.seed, job.row);
+                            }
+                        catch (IOException e)
                             {
-                            threads[i].join();
+                            printSynchronized("Could not write results of job " + job.jobNumber + ": " + e);
+                            stop = true;
                             }
-                        catch(InterruptedException e)
+                        finally
                             {
-                            // doesn't happen
+                            jobFinished(job, completed);
                             }
                         }
-                    synchronized(printWriterLock) { printWriter.close(); }
-                    synchronized(runningLock) { running = false; }
+                    try
+                        {
+                        buffer.flush();
+                        }
+                    catch (IOException e)
+                        {
+                        printSynchronized("Could not write results: " + e);
+                        }
                     }
                 });
-            outer.start();
+            threads[i].start();
+            }
+            
+        for(int i = 0; i<threads.length; i++) 
+            {
+            try 
+                {
+                threads[i].join();
+                }
+            catch(InterruptedException e)
+                {
+                // doesn't happen
+                }
+            }
+        }
+
+    // Runs jobs one after another in a single thread, reusing the same SimState unless reuse is false
+    class JobRunner
+        {
+        SimState simState = null;
+        sim.util.Properties properties = null;
+        sim.util.Properties.DoubleGetter[] getters = null;
+
+        // Runs the job, leaving its results in job.row.  Returns false if the sweep was stopped first.
+        boolean run(ParameterSweepSimulationJob job)
+            {
+            // initialize simstate and properties
+            if (simState == null || !reuse)
+                {
+                simState = newInstance(job.jobNumber + baseSeed, modelClass);
+                properties = sim.util.Properties.getProperties(simState);
+                getters = getDependentGetters(properties);
+                }
+            else
+                {
+                simState.reset(job.jobNumber + baseSeed);  // start() is called by the job
+                } 
+            return job.run(simState, properties, getters);
             }
         }
     
     
+    // Populates allIndependentVariableValueCombinations according to the strategy, and sets up the job schedule.
+    // This must produce the same combinations every time, since workers build them too.
+    void generateCombinations()
+        {
+        allIndependentVariableValueCombinations.clear();
+        if (strategy.equals(STRATEGY_LATIN_HYPERCUBE))
+            generateLatinHypercube();
+        else if (strategy.equals(STRATEGY_SOBOL))
+            generateSobol();
+        else
+            generateAllIndependentVariableValueCombinations(new ArrayList<Double>());
+        resetJobs();
+        }
+
+    // Populates numCombinationSamples combinations as a Latin hypercube: the range of each independent variable is divided
+    // into numCombinationSamples equal strata, and each stratum is used exactly once, at a random point within it.  The strata
+    // are randomly paired across variables.
+    void generateLatinHypercube()
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(baseSeed);
+        int[][] strata = new int[indNames.length][numCombinationSamples];
+        for(int i = 0; i < strata.length; i++)
+            {
+            for(int j = 0; j < numCombinationSamples; j++)
+                strata[i][j] = j;
+            for(int j = numCombinationSamples - 1; j > 0; j--)         // shuffle
+                {
+                int k = random.nextInt(j + 1);
+                int temp = strata[i][j];
+                strata[i][j] = strata[i][k];
+                strata[i][k] = temp;
+                }
+            }
+        for(int j = 0; j < numCombinationSamples; j++)
+            {
+            ArrayList<Double> combination = new ArrayList<Double>();
+            for(int i = 0; i < strata.length; i++)
+                combination.add(indMinValues[i] + (strata[i][j] + random.nextDouble()) / numCombinationSamples * (indMaxValues[i] - indMinValues[i]));
+            allIndependentVariableValueCombinations.add(combination);
+            }
+        }
+
+    // Populates numCombinationSamples combinations from a Sobol sequence, skipping its first point (the minimum of every variable)
+    void generateSobol()
+        {
+        SobolSequence sobol = new SobolSequence(indNames.length);
+        sobol.next();
+        for(int j = 0; j < numCombinationSamples; j++)
+            {
+            double[] point = sobol.next();
+            ArrayList<Double> combination = new ArrayList<Double>();
+            for(int i = 0; i < point.length; i++)
+                combination.add(indMinValues[i] + point[i] * (indMaxValues[i] - indMinValues[i]));
+            allIndependentVariableValueCombinations.add(combination);
+            }
+        }
+
     // Populate all permutations of settings. Recursive.
     public void generateAllIndependentVariableValueCombinations(ArrayList<Double> current)
         {
@@ -297,6 +501,16 @@ public class ParameterSweep
         }
     
 
+    // Returns getters for the dependent variables, built once per SimState so that recording them each step is a direct call.
+    // A getter is null if its property isn't a number or boolean.
+    sim.util.Properties.DoubleGetter[] getDependentGetters(sim.util.Properties properties)
+        {
+        sim.util.Properties.DoubleGetter[] getters = new sim.util.Properties.DoubleGetter[depIndexes.length];
+        for(int i = 0; i < depIndexes.length; i++)
+            getters[i] = properties.getDoubleGetter(depIndexes[i]);
+        return getters;
+        }
+
     //creates a new simstate with reflection
     public SimState newInstance(long seed, Class c)
         {
@@ -310,32 +524,170 @@ public class ParameterSweep
             }
         }
 
-    // current job count, don't play with this
-    int jobCount = 0;
+    /// JOB SCHEDULE
+    
+    // Jobs are numbered combination * numTrials + trial, so each (combination, trial) always gets the same seed.
+    // If minTrials < numTrials, each combination first gets minTrials trials; after that it gets one more trial at a time,
+    // each only once the previous ones have all finished, until the confidence interval of the mean final value of every
+    // dependent variable has a half-width of no more than precision * |mean|, or it has had numTrials trials.
+    
+    int jobCount = 0;           // jobs issued
+    int inFlight = 0;           // jobs issued but not yet finished
+    int totalJobs = 0;          // the most jobs we'll issue, reduced as combinations converge
+    int firstOpen = 0;          // all combinations before this one have been issued all the trials they'll get
+    int[] issued;               // trials issued for each combination
+    int[] finished;             // trials finished (with or without results) for each combination
+    int[] counts;               // trials with results for each combination
+    double[][] means;           // running means of the final value of each dependent variable for each combination
+    double[][] m2s;             // running sums of squared deviations from the means
+    boolean[] converged;        // combinations which need no more trials
     Object[] nextJobLock = new Object[0];
-    public ParameterSweepSimulationJob getNextJob() 
+    
+    /** Returns true if the number of trials of each combination depends on how quickly its results converge. */
+    public boolean isAdaptive() { return minTrials < numTrials; }
+
+    void resetJobs()
         {
         synchronized(nextJobLock)
             {
-            if (jobCount < allIndependentVariableValueCombinations.size() * numTrials)              // I think this means we're done?
+            int n = allIndependentVariableValueCombinations.size();
+            jobCount = 0;
+            inFlight = 0;
+            totalJobs = n * numTrials;
+            firstOpen = 0;
+            issued = new int[n];
+            finished = new int[n];
+            counts = new int[n];
+            converged = new boolean[n];
+            if (isAdaptive())
                 {
-                int combination = jobCount / numTrials;  // which variable combination are we doing this time?
-                int trial = jobCount % numTrials;  // which trial are we doing this time?
-                ParameterSweepSimulationJob job = new ParameterSweepSimulationJob(allIndependentVariableValueCombinations.get(combination), this, jobCount, trial);
-                printSynchronized("Job " + jobCount);
-                jobCount++;
-                return job;
+                means = new double[n][depNames.length];
+                m2s = new double[n][depNames.length];
                 }
-            else
-                return null;
+            }
+        }
+
+    // Returns true if the combination will get no more trials
+    boolean isClosed(int combination)
+        {
+        return converged[combination] || issued[combination] == numTrials;
+        }
+
+    // Returns a combination which may have another trial now, or -1 if there is none.  Called with nextJobLock held.
+    int nextCombination()
+        {
+        while(firstOpen < issued.length && isClosed(firstOpen)) firstOpen++;
+        // Past firstOpen, the combinations waiting for trials to finish are no more than inFlight, so this is quick
+        for(int c = firstOpen; c < issued.length; c++)
+            {
+            if (isClosed(c)) continue;
+            if (issued[c] < minTrials || finished[c] == issued[c]) return c;
+            }
+        return -1;
+        }
+
+    // Returns the next job if there is one now, else null.
+    ParameterSweepSimulationJob pollNextJob()
+        {
+        synchronized(nextJobLock)
+            {
+            if (issued == null) return null;        // not started
+            int combination = nextCombination();
+            if (combination == -1) return null;
+            int trial = issued[combination]++;
+            int jobNumber = combination * numTrials + trial;
+            ParameterSweepSimulationJob job = newJob(jobNumber, combination, trial);
+            printSynchronized("Job " + jobNumber);
+            jobCount++;
+            inFlight++;
+            return job;
             }
         }
     
+    // Returns true if there are jobs which may be issued, now or once the jobs in flight have finished
+    boolean jobsRemain()
+        {
+        synchronized(nextJobLock)
+            {
+            return issued != null && (inFlight > 0 || nextCombination() != -1);
+            }
+        }
+
+    /** Returns the next job, or null if there are no more, or the sweep has been stopped.  This may wait for other jobs to finish. */
+    public ParameterSweepSimulationJob getNextJob() 
+        {
+        synchronized(nextJobLock)
+            {
+            while(!stop)
+                {
+                ParameterSweepSimulationJob job = pollNextJob();
+                if (job != null) return job;
+                if (inFlight == 0) return null;
+                try { nextJobLock.wait(); }
+                catch (InterruptedException e) { return null; }
+                }
+            return null;
+            }
+        }
+
+    /** Called when a job has finished.  If completed is false, it has no results, because it failed or the sweep was stopped. */
+    void jobFinished(ParameterSweepSimulationJob job, boolean completed)
+        {
+        synchronized(nextJobLock)
+            {
+            int c = job.combination;
+            inFlight--;
+            finished[c]++;
+            if (completed)
+                {
+                counts[c]++;
+                if (isAdaptive()) 
+                    {
+                    // Welford's running mean and variance of the final values
+                    for(int i = 0; i < depNames.length; i++)
+                        {
+                        double value = job.row[job.sampleStart - 4 * depNames.length + 4 * i];
+                        double delta = value - means[c][i];
+                        means[c][i] += delta / counts[c];
+                        m2s[c][i] += delta * (value - means[c][i]);
+                        }
+                    }
+                }
+            if (isAdaptive() && !isClosed(c) && finished[c] == issued[c] && issued[c] >= minTrials && hasConverged(c))
+                {
+                converged[c] = true;
+                totalJobs -= numTrials - issued[c];
+                printSynchronized("Combination " + c + " converged after " + issued[c] + " trials");
+                }
+            nextJobLock.notifyAll();
+            }
+        }
+
+    // Returns true if the confidence intervals of the mean final values of the combination are all tight enough
+    boolean hasConverged(int c)
+        {
+        int n = counts[c];
+        if (n < 2) return false;
+        double t = Probability.studentTInverse(1 - confidence, n - 1);
+        for(int i = 0; i < depNames.length; i++)
+            {
+            double halfWidth = t * Math.sqrt(m2s[c][i] / (n - 1) / n);
+            if (halfWidth > precision * Math.abs(means[c][i])) return false;
+            }
+        return true;
+        }
+
+    // builds the given job
+    ParameterSweepSimulationJob newJob(int jobNumber, int combination, int trial)
+        {
+        return new ParameterSweepSimulationJob(allIndependentVariableValueCombinations.get(combination), this, jobNumber, combination, trial);
+        }
+
     public int getTotalJobs()
         {
         synchronized(nextJobLock)
             {
-            return allIndependentVariableValueCombinations.size() * numTrials;
+            return totalJobs;
             }
         }
         
@@ -347,21 +699,28 @@ public class ParameterSweep
             }
         }
         
+    // the number of samples recorded of each dependent variable
+    int numSamples()
+        {
+        return (mod == 0 ? 0 : numSteps / mod);
+        }
+
+    // the value columns are the independent variables, then four statistics of each dependent variable, then the samples
     void writeFileHeader() 
         {
-        StringBuilder header = new StringBuilder(); 
-        header.append("job, trial, rng");
+        String[] names = new String[indNames.length + depNames.length * (4 + numSamples())];
+        int n = 0;
         for(int i = 0; i < indNames.length; i++) 
             {
-            header.append(", " + indNames[i]);
+            names[n++] = indNames[i];
             }
             
         for (int i = 0; i < depNames.length; i++) 
             {
-            header.append(", " + depNames[i] + "-final");
-            header.append(", " + depNames[i] + "-min");
-            header.append(", " + depNames[i] + "-max");
-            header.append(", " + depNames[i] + "-avg");
+            names[n++] = depNames[i] + "-final";
+            names[n++] = depNames[i] + "-min";
+            names[n++] = depNames[i] + "-max";
+            names[n++] = depNames[i] + "-avg";
             }
                 
         if (mod != 0)
@@ -370,160 +729,173 @@ public class ParameterSweep
                 {
                 for(int i = 0; i < depIndexes.length; i++)
                     {
-                    header.append(", " + depNames[i] + "-" + j); 
+                    names[n++] = depNames[i] + "-" + j; 
                     }
                 }
             }
 
-        println(header.toString());
-        header = null;
-        }
-    }
-
-//nest this and make static
-//
-class ParameterSweepSimulationJob
-    {
-    ArrayList<Double> settings;
-    ParameterSweep sweep;
-    sim.util.Properties properties;
-    StringBuilder builder = new StringBuilder();
-    int jobNumber;
-    int trial;
-
-    double[] curs;
-    double[] mins;
-    double[] maxes;
-    double[] avgs;
-    
-    boolean started = false;
-        
-    public ParameterSweepSimulationJob( ArrayList<Double> settings, ParameterSweep sweep, int jobNumber, int trial)
-        {
-        this.jobNumber = jobNumber;
-        this.trial = trial;
-        this.sweep = sweep;
-        this.settings = settings;
-        avgs = new double[sweep.depIndexes.length];
-        mins = new double[sweep.depIndexes.length];
-        maxes = new double[sweep.depIndexes.length];
-        curs = new double[sweep.depIndexes.length];
+        try
+            {
+            sink.open(names);
+            }
+        catch (IOException e)
+            {
+            throw new RuntimeException("Could not write results file header.", e);
+            }
         }
-    
 
-    public void record(int step, sim.util.Properties properties)
+    // A single run of the model, with one combination of independent variable settings, for one trial
+    static class ParameterSweepSimulationJob
         {
-        for(int i = 0; i < sweep.depIndexes.length; i++)
+        ArrayList<Double> settings;
+        ParameterSweep sweep;
+        sim.util.Properties properties;
+        double[] row;       // the values written to the sink: see ParameterSweep.writeFileHeader()
+        int sampleStart;    // where the samples begin in row
+        int jobNumber;
+        int combination;
+        int trial;
+        long seed;
+
+        double[] curs;
+        double[] mins;
+        double[] maxes;
+        double[] avgs;
+
+        boolean started = false;
+
+        public ParameterSweepSimulationJob( ArrayList<Double> settings, ParameterSweep sweep, int jobNumber, int combination, int trial)
             {
-            double value = getPropertyValueAsDouble(properties, sweep.depIndexes[i]);
-            curs[i] = value;
-            avgs[i] += value;
-            if (mins[i] > value || !started)
-                mins[i] = value;
-            if (maxes[i] < value || !started)
-                maxes[i] = value;
-                        
-            started = true;
+            this.jobNumber = jobNumber;
+            this.combination = combination;
+            this.trial = trial;
+            this.sweep = sweep;
+            this.settings = settings;
+            avgs = new double[sweep.depIndexes.length];
+            mins = new double[sweep.depIndexes.length];
+            maxes = new double[sweep.depIndexes.length];
+            curs = new double[sweep.depIndexes.length];
+            sampleStart = settings.size() + 4 * sweep.depIndexes.length;
+            row = new double[sampleStart + sweep.depIndexes.length * sweep.numSamples()];
+            }
+
 
-            if (sweep.mod != 0 && (step + 1) % sweep.mod == 0)
+        public void record(int step, sim.util.Properties properties, sim.util.Properties.DoubleGetter[] getters)
+            {
+            final boolean sample = (sweep.mod != 0 && (step + 1) % sweep.mod == 0);
+            final int sampleIndex = (sample ? sampleStart + ((step + 1) / sweep.mod - 1) * sweep.depIndexes.length : 0);
+            for(int i = 0; i < sweep.depIndexes.length; i++)
                 {
-                builder.append(value + ", ");
+                double value = (getters[i] != null ? getters[i].get() : getPropertyValueAsDouble(properties, sweep.depIndexes[i]));
+                curs[i] = value;
+                avgs[i] += value;
+                if (mins[i] > value || !started)
+                    mins[i] = value;
+                if (maxes[i] < value || !started)
+                    maxes[i] = value;
+
+                started = true;
+
+                if (sample)
+                    {
+                    row[sampleIndex + i] = value;
+                    }
                 }
             }
-        }
 
-    public void recordFinal(sim.util.Properties properties, long seed, ArrayList<Double> combos)
-        {
-        String str = jobNumber + ", " + (trial + 1) + ", " + seed + ", ";
-        
-        for(int i = 0; i < combos.size(); i++)
+        public void recordFinal(sim.util.Properties properties, long seed)
             {
-            str += (combos.get(i) + ", ");
+            this.seed = seed;
+            int n = 0;
+            for(int i = 0; i < settings.size(); i++)
+                {
+                row[n++] = settings.get(i);
+                }
+
+            // in the same order as the header
+            for(int i = 0; i < sweep.depIndexes.length; i++)
+                {
+                row[n++] = curs[i];
+                row[n++] = mins[i];
+                row[n++] = maxes[i];
+                row[n++] = avgs[i] / sweep.numSteps;
+                }
             }
 
-        for(int i = 0; i < sweep.depIndexes.length; i++)
+        // returns false if the sweep was stopped before the job finished
+        public boolean run(SimState simState, sim.util.Properties properties, sim.util.Properties.DoubleGetter[] getters) 
             {
-            str += (curs[i] + ", " + 
-                (avgs[i] / sweep.numSteps) + ", " + 
-                mins[i] + ", " +
-                maxes[i] + ", ");
+            simState.start();
+            properties = initSweepValuesFromProperties(properties);
+            for(int i = 0; i< sweep.numSteps; i++)
+                {
+                if (sweep.stop)
+                    {
+                    simState.finish();  
+                    return false;
+                    }
+
+                simState.schedule.step(simState);
+                record(i, properties, getters);
+                }
+
+            recordFinal(properties, simState.seed());
+            simState.finish();
+            return true;
             }
-        str = str + builder.toString();
-                        
-        sweep.println(str);
-        }
-    
-    public void run(SimState simState, sim.util.Properties properties, ArrayList<Double> combos) 
-        {
-        simState.start();
-        properties = initSweepValuesFromProperties(properties);
-        for(int i = 0; i< sweep.numSteps; i++)
+
+        sim.util.Properties initSweepValuesFromProperties(sim.util.Properties properties) 
             {
-            if (sweep.stop)
+
+            for(int index = 0; index < sweep.indIndexes.length; index++)
                 {
-                simState.finish();  
-                return;
+                String type = properties.getType(sweep.indIndexes[index]).toString();
+
+                if (type.equals("double")) 
+                    {
+                    properties.setValue(sweep.indIndexes[index], settings.get(index));
+                    }
+                else if (type.equals("int")) 
+                    {
+                    properties.setValue(sweep.indIndexes[index], Integer.valueOf((int)(settings.get(index).doubleValue())));
+                    }
+                else if (type.equals("boolean")) 
+                    {
+                    properties.setValue(sweep.indIndexes[index], Boolean.valueOf(settings.get(index).doubleValue() != 0));
+                    }
+                else
+                    {
+                    //System.err.println("Independent: unsupported type " + properties.getType(src.main.java.sim.util.sweep.indIndexes[index]).toString() +  " on index " + index + " which should be..." + properties.getName(src.main.java.sim.util.sweep.indIndexes[index]));
+                    throw new RuntimeException("Unsupported type");
+                    }
                 }
-                        
-            simState.schedule.step(simState);
-            record(i, properties);
+            return properties;
             }
-      
-        recordFinal(properties, simState.seed(), combos);
-        simState.finish();
-        }
-        
-    sim.util.Properties initSweepValuesFromProperties(sim.util.Properties properties) 
-        {
 
-        for(int index = 0; index < sweep.indIndexes.length; index++)
+        public double getPropertyValueAsDouble(sim.util.Properties properties, int dependentIndex) 
             {
-            String type = properties.getType(sweep.indIndexes[index]).toString();
+            double dValue = 0.0;
+            int propertyIndex = dependentIndex;
+            String type = properties.getType(propertyIndex).toString();
 
             if (type.equals("double")) 
                 {
-                properties.setValue(sweep.indIndexes[index], settings.get(index));
+                dValue = (Double)properties.getValue(propertyIndex);
                 }
             else if (type.equals("int")) 
                 {
-                properties.setValue(sweep.indIndexes[index], Integer.valueOf((int)(settings.get(index).doubleValue())));
+                dValue = ((Integer)properties.getValue(propertyIndex)).doubleValue();
                 }
             else if (type.equals("boolean")) 
                 {
-                properties.setValue(sweep.indIndexes[index], Boolean.valueOf(settings.get(index).doubleValue() != 0));
+                dValue = ((Boolean)properties.getValue(propertyIndex)) ? 1  : 0;
                 }
             else
                 {
-                //System.err.println("Independent: unsupported type " + properties.getType(src.main.java.sim.util.sweep.indIndexes[index]).toString() +  " on index " + index + " which should be..." + properties.getName(src.main.java.sim.util.sweep.indIndexes[index]));
-                throw new RuntimeException("Unsupported type");
+                //System.err.println("Independent: unsupported type " + properties.getType(propertyIndex).toString());
+                System.exit(1);
                 }
+            return dValue;
             }
-        return properties;
-        }
-
-    public double getPropertyValueAsDouble(sim.util.Properties properties, int dependentIndex) 
-        {
-        double dValue = 0.0;
-        int propertyIndex = dependentIndex;
-        String type = properties.getType(propertyIndex).toString();
-
-        if (type.equals("double")) 
-            {
-            dValue = (Double)properties.getValue(propertyIndex);
-            }
-        else if (type.equals("int")) 
-            {
-            dValue = ((Integer)properties.getValue(propertyIndex)).doubleValue();
-            }
-        else if (type.equals("boolean")) 
-            {
-            dValue = ((Boolean)properties.getValue(propertyIndex)) ? 1  : 0;
-            }
-        else
-            {
-            //System.err.println("Independent: unsupported type " + properties.getType(propertyIndex).toString());
-            System.exit(1);
-            }
-        return dValue;
         }
     }
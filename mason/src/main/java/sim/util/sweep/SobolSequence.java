@@ -0,0 +1,101 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+/** Generates the points of a Sobol sequence, a low-discrepancy (quasi-random) sequence which fills the unit hypercube
+    far more evenly than random points do.  Points are generated in Gray code order (Antonov and Saleev), using the primitive
+    polynomials and direction numbers of Joe and Kuo for dimensions 2 and up.  The first point is always the origin, which
+    is usually skipped.  Up to MAX_DIMENSIONS dimensions and 2<sup>31</sup> - 1 points are supported.
+*/
+
+public class SobolSequence
+    {
+    /** The number of bits in each coordinate, and thus the log of the maximum number of points. */
+    static final int BITS = 31;
+    static final double SCALE = 1.0 / (1L << BITS);
+
+    // For dimensions 2 and up: the degree s of the primitive polynomial, its coefficients a, and the initial direction numbers m_1 ... m_s
+    static final int[][] DIRECTIONS =
+        {
+        { 1, 0, 1 },
+        { 2, 1, 1, 3 },
+        { 3, 1, 1, 3, 1 },
+        { 3, 2, 1, 1, 1 },
+        { 4, 1, 1, 1, 3, 3 },
+        { 4, 4, 1, 3, 5, 13 },
+        { 5, 2, 1, 1, 5, 5, 17 },
+        { 5, 4, 1, 1, 5, 5, 5 },
+        { 5, 7, 1, 1, 7, 11, 19 },
+        { 5, 11, 1, 1, 5, 1, 1 },
+        { 5, 13, 1, 1, 1, 3, 11 },
+        { 5, 14, 1, 3, 5, 5, 31 },
+        { 6, 1, 1, 3, 3, 9, 7, 49 },
+        { 6, 13, 1, 1, 1, 15, 21, 21 },
+        { 6, 16, 1, 3, 1, 13, 27, 49 },
+        { 6, 19, 1, 1, 1, 15, 7, 5 },
+        { 6, 22, 1, 3, 1, 15, 13, 25 },
+        { 6, 25, 1, 1, 5, 5, 19, 61 },
+        { 7, 1, 1, 3, 7, 11, 23, 15, 103 },
+        { 7, 4, 1, 3, 7, 13, 13, 15, 69 },
+        };
+
+    /** The largest number of dimensions supported. */
+    public static final int MAX_DIMENSIONS = DIRECTIONS.length + 1;
+
+    final int[][] v;    // direction numbers, by dimension, then bit
+    final int[] x;      // the current point, as integers
+    int index = 0;      // the index of the next point
+
+    public SobolSequence(int dimensions)
+        {
+        if (dimensions < 1 || dimensions > MAX_DIMENSIONS)
+            throw new IllegalArgumentException("Sobol sequences may have between 1 and " + MAX_DIMENSIONS + " dimensions.  You have: " + dimensions);
+        v = new int[dimensions][BITS + 1];      // v[d][0] is unused
+        x = new int[dimensions];
+
+        // The first dimension is the van der Corput sequence: all the m are 1
+        for(int i = 1; i <= BITS; i++)
+            v[0][i] = 1 << (BITS - i);
+
+        for(int d = 1; d < dimensions; d++)
+            {
+            final int[] dir = DIRECTIONS[d - 1];
+            final int s = dir[0];
+            final int a = dir[1];
+            for(int i = 1; i <= s; i++)
+                v[d][i] = dir[i + 1] << (BITS - i);
+            for(int i = s + 1; i <= BITS; i++)
+                {
+                v[d][i] = v[d][i - s] ^ (v[d][i - s] >>> s);
+                for(int k = 1; k < s; k++)
+                    v[d][i] ^= (((a >>> (s - 1 - k)) & 1) * v[d][i - k]);
+                }
+            }
+        }
+
+    /** Returns the number of dimensions. */
+    public int getDimensions() { return x.length; }
+
+    /** Returns the next point, each coordinate in [0, 1).  The first point is the origin. */
+    public double[] next()
+        {
+        if (index == Integer.MAX_VALUE)
+            throw new IllegalStateException("Sobol sequence exhausted");
+        final double[] point = new double[x.length];
+        if (index > 0)
+            {
+            // move to the next point in Gray code order, by flipping the direction number of the lowest zero bit of index - 1
+            final int c = Integer.numberOfTrailingZeros(~(index - 1)) + 1;
+            for(int d = 0; d < x.length; d++)
+                x[d] ^= v[d][c];
+            }
+        for(int d = 0; d < x.length; d++)
+            point[d] = x[d] * SCALE;
+        index++;
+        return point;
+        }
+    }
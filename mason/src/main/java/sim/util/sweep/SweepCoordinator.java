@@ -0,0 +1,322 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/** Runs the jobs of a ParameterSweep in separate worker processes, possibly on other machines, rather than in threads
+    in the sweep's own JVM.  ParameterSweep uses a SweepCoordinator when the <tt>port</tt> or <tt>workers</tt> parameters are given.
+
+    <p>The coordinator listens on the given port (or on any free port if there is none), and launches <tt>workers</tt>
+    SweepWorker processes on this machine, each running <tt>threads</tt> threads.  Further workers may be started on other machines with
+    <tt>java sim.util.sweep.SweepWorker <i>host</i> <i>port</i> <i>threads</i></tt>, and join at any time.  Each worker thread
+    opens its own connection and is sent the sweep's ParameterDatabase, from which it builds the same sweep.
+
+    <p>Jobs are <i>leased</i> to connections one at a time.  The worker runs the job and streams its row of results back, which the
+    coordinator adds to the sweep's SweepSink, and then the connection gets another lease.  While running a job, a worker sends
+    heartbeats.  If a connection closes, or nothing is heard from it for <tt>timeout</tt> milliseconds, the worker is considered dead
+    and its job goes back to be leased again.  Likewise the coordinator sends heartbeats while a connection waits for a job, and a
+    worker which hears nothing from the coordinator for <tt>timeout</tt> milliseconds gives up on it.  A job which has failed more than <tt>retries</tt> times (because its workers died or it threw
+    an exception) is abandoned, and has no row in the results.  Local workers which die while jobs remain are relaunched, each up to
+    <tt>retries</tt> times.
+
+    <p>The coordinator only reads primitive values from workers, but workers deserialize the ParameterDatabase sent to them, so
+    only run workers against coordinators you trust.
+*/
+
+class SweepCoordinator
+    {
+    static final long MAGIC = 0x4D41534F4E575250L;  // "MASONWRP"
+    static final int VERSION = 2;
+
+    // messages from the coordinator
+    static final byte JOB = 1;
+    static final byte DONE = 2;
+    // messages from workers
+    static final byte RESULT = 3;
+    static final byte FAILED = 4;
+    static final byte HEARTBEAT = 5;
+
+    // how often the accepting thread checks whether we're done, in milliseconds
+    static final int POLL_INTERVAL = 1000;
+
+    final ParameterSweep sweep;
+    final LinkedList retry = new LinkedList();  // jobs whose workers died, to be leased again
+    final HashMap failures = new HashMap();     // job number -> number of failures
+    final ArrayList sockets = new ArrayList();  // open connections
+    ServerSocket server;
+
+    SweepCoordinator(ParameterSweep sweep)
+        {
+        this.sweep = sweep;
+        }
+
+    /** Returns the port on which the coordinator is listening, or -1 if it isn't. */
+    int getPort()
+        {
+        return (server == null ? -1 : server.getLocalPort());
+        }
+
+    // Returns the next job to be run, or null if the sweep has been stopped or every job has been completed or abandoned.
+    // Waits if there are no jobs now, but some may come later: because their workers die, or because the sweep
+    // is adaptive and is waiting on results to decide whether more trials are needed.  But if there is still no job
+    // after maxWait milliseconds, returns null anyway, so the caller can send a heartbeat: check isDone() to tell which.
+    synchronized ParameterSweep.ParameterSweepSimulationJob lease(long maxWait)
+        {
+        final long end = System.currentTimeMillis() + maxWait;
+        while(true)
+            {
+            if (sweep.stop) return null;
+            if (!retry.isEmpty())
+                return (ParameterSweep.ParameterSweepSimulationJob)(retry.removeFirst());
+            ParameterSweep.ParameterSweepSimulationJob job = sweep.pollNextJob();
+            if (job != null) return job;
+            if (!sweep.jobsRemain())
+                {
+                notifyAll();
+                return null;
+                }
+            final long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0) return null;
+            try { wait(remaining); }
+            catch (InterruptedException e) { return null; }
+            }
+        }
+
+    synchronized void completed(ParameterSweep.ParameterSweepSimulationJob job)
+        {
+        sweep.jobFinished(job, true);
+        notifyAll();
+        }
+
+    synchronized void failed(ParameterSweep.ParameterSweepSimulationJob job, String reason)
+        {
+        Integer key = Integer.valueOf(job.jobNumber);
+        Integer count = (Integer)(failures.get(key));
+        int n = (count == null ? 1 : count.intValue() + 1);
+        failures.put(key, Integer.valueOf(n));
+        if (sweep.stop) { }  // don't bother
+        else if (n > sweep.retries)
+            {
+            sweep.printSynchronized("Job " + job.jobNumber + " failed " + n + " times and has been abandoned: " + reason);
+            sweep.jobFinished(job, false);
+            }
+        else
+            {
+            sweep.printSynchronized("Job " + job.jobNumber + " failed and will be retried: " + reason);
+            retry.addLast(job);
+            }
+        notifyAll();
+        }
+
+    synchronized boolean isDone()
+        {
+        // jobs waiting to be retried are still in flight as far as the sweep is concerned
+        return sweep.stop || !sweep.jobsRemain();
+        }
+
+    /** Runs the whole sweep, returning when all the jobs have been completed or abandoned, or the sweep has been stopped. */
+    void run()
+        {
+        try
+            {
+            server = new ServerSocket(Math.max(0, sweep.port));
+            server.setSoTimeout(POLL_INTERVAL);
+            }
+        catch (IOException e)
+            {
+            sweep.printSynchronized("Could not listen for workers: " + e);
+            return;
+            }
+        sweep.printSynchronized("Listening for sweep workers on port " + getPort());
+
+        Process[] processes = new Process[sweep.numWorkers];
+        int[] launches = new int[sweep.numWorkers];
+        ArrayList handlers = new ArrayList();
+        while(!isDone())
+            {
+            // relaunch (or launch) local workers
+            int alive = 0;
+            for(int i = 0; i < processes.length; i++)
+                {
+                if (processes[i] == null || !processes[i].isAlive())
+                    {
+                    if (launches[i] <= sweep.retries)
+                        {
+                        if (launches[i] > 0)
+                            sweep.printSynchronized("Local sweep worker " + i + " died, relaunching");
+                        launches[i]++;
+                        try
+                            {
+                            processes[i] = SweepWorker.launch("localhost", getPort(), sweep.numThreads);
+                            }
+                        catch (IOException e)
+                            {
+                            sweep.printSynchronized("Could not launch local sweep worker " + i + ": " + e);
+                            processes[i] = null;
+                            }
+                        }
+                    }
+                if (processes[i] != null && processes[i].isAlive()) alive++;
+                }
+            if (sweep.port == -1 && alive == 0 && numConnections() == 0)
+                {
+                // nobody else knows our port, so nobody else is coming
+                sweep.printSynchronized("All the local sweep workers have died");
+                break;
+                }
+
+            try
+                {
+                final Socket socket = server.accept();
+                Thread thread = new Thread(new Runnable() { public void run() { handle(socket); } });
+                thread.setName("MASON Sweep Connection " + socket.getRemoteSocketAddress());
+                thread.start();
+                handlers.add(thread);
+                }
+            catch (SocketTimeoutException e) { }  // check again
+            catch (IOException e)
+                {
+                sweep.printSynchronized("Could not accept sweep worker: " + e);
+                }
+            }
+
+        try { server.close(); }
+        catch (IOException e) { }  // doesn't matter
+
+        // if we were stopped, or gave up, cut off the workers rather than waiting for their jobs
+        if (!isDone()) sweep.stop = true;
+        if (sweep.stop)
+            {
+            synchronized(this) { notifyAll(); }
+            closeAll();
+            }
+
+        for(int i = 0; i < handlers.size(); i++)
+            {
+            try { ((Thread)(handlers.get(i))).join(); }
+            catch (InterruptedException e) { }  // doesn't happen
+            }
+
+        // the workers quit when they're told we're done
+        for(int i = 0; i < processes.length; i++)
+            {
+            if (processes[i] == null) continue;
+            if (sweep.stop) processes[i].destroy();
+            try { processes[i].waitFor(); }
+            catch (InterruptedException e) { processes[i].destroy(); }
+            }
+        }
+
+    synchronized int numConnections() { return sockets.size(); }
+
+    synchronized void closeAll()
+        {
+        for(int i = 0; i < sockets.size(); i++)
+            {
+            try { ((Socket)(sockets.get(i))).close(); }
+            catch (IOException e) { }  // doesn't matter
+            }
+        }
+
+    // Talks to one worker connection until there are no more jobs or it dies
+    void handle(Socket socket)
+        {
+        synchronized(this) { sockets.add(socket); }
+        SweepSink.Buffer buffer = sweep.sink.newBuffer();
+        ParameterSweep.ParameterSweepSimulationJob job = null;
+        try
+            {
+            socket.setSoTimeout(sweep.timeout);
+            socket.setTcpNoDelay(true);
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (in.readLong() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a sweep worker, or the wrong version");
+            out.writeObject(sweep.db);
+            final int heartbeat = Math.max(1, sweep.timeout / 4);
+            out.writeInt(heartbeat);
+            out.flush();
+
+            while(true)
+                {
+                job = lease(heartbeat);
+                if (job == null)
+                    {
+                    if (isDone()) break;
+                    out.writeByte(HEARTBEAT);   // still waiting for a job, so tell the worker we're alive
+                    out.flush();
+                    continue;
+                    }
+                out.writeByte(JOB);
+                out.writeInt(job.jobNumber);
+                out.writeInt(job.combination);
+                out.writeInt(job.trial);
+                out.flush();
+
+                boolean finished = false;
+                while(!finished)
+                    {
+                    byte message = in.readByte();
+                    if (message == HEARTBEAT) continue;
+                    else if (message == FAILED)
+                        {
+                        String reason = in.readUTF();
+                        failed(job, reason);
+                        job = null;
+                        finished = true;
+                        }
+                    else if (message == RESULT)
+                        {
+                        int jobNumber = in.readInt();
+                        int trial = in.readInt();
+                        long seed = in.readLong();
+                        int length = in.readInt();
+                        if (jobNumber != job.jobNumber || length != job.row.length)
+                            throw new IOException("Wrong result from worker for job " + job.jobNumber);
+                        for(int i = 0; i < length; i++)
+                            job.row[i] = in.readDouble();
+                        try
+                            {
+                            buffer.addRow(jobNumber, trial, seed, job.row);
+                            }
+                        catch (IOException e)
+                            {
+                            sweep.printSynchronized("Could not write results of job " + jobNumber + ": " + e);
+                            sweep.stop = true;
+                            }
+                        completed(job);
+                        job = null;
+                        finished = true;
+                        }
+                    else throw new IOException("Unknown message from worker: " + message);
+                    }
+                }
+            out.writeByte(DONE);
+            out.flush();
+            }
+        catch (IOException e)
+            {
+            if (job != null)
+                failed(job, "worker " + socket.getRemoteSocketAddress() + " died or timed out: " + e);
+            }
+        finally
+            {
+            synchronized(this) { sockets.remove(socket); }
+            try { socket.close(); }
+            catch (IOException e) { }  // doesn't matter
+            try { buffer.flush(); }
+            catch (IOException e)
+                {
+                sweep.printSynchronized("Could not write results: " + e);
+                }
+            }
+        }
+    }
@@ -0,0 +1,204 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import java.io.*;
+
+/** Where a ParameterSweep sends its results.
+
+    <p>Each result is a row: the job number, the trial number, the random number seed, and then a fixed number of
+    double <i>values</i> (the independent variable settings, the dependent variable statistics, and any samples).
+    Rows are not written to the sink directly.  Instead each thread asks the sink for its own Buffer, and adds
+    its rows to that.  The Buffer holds its rows in columns, and when it is full it <i>encodes</i> them into bytes,
+    in the thread which filled it, and only then hands the bytes to the sink to write.  Thus the only thing done while
+    holding the sink's lock is copying a large block of bytes to the output, and threads don't wait on one another to
+    format their results.
+
+    <p>Subclasses say how the header and the blocks of rows are encoded: see CSVSweepSink and BinarySweepSink.
+    Rows from different threads are written in whatever order their blocks fill, so rows are not in job order.
+
+    <p>So that a sweep which is killed loses only its most recent rows, a Buffer is also flushed when a row is added
+    more than <i>flushMillis</i> milliseconds after it was last flushed, and the sink then flushes its stream too.
+    If each job takes longer than that, every row is thus written as soon as its job is done.
+*/
+
+public abstract class SweepSink
+    {
+    /** The default number of bytes of values a Buffer holds before it is flushed. */
+    public static final int DEFAULT_BUFFER_BYTES = 1 << 16;
+    /** The default number of milliseconds after which a Buffer, and the stream, are flushed even if not full. */
+    public static final long DEFAULT_FLUSH_MILLIS = 10000;
+
+    final OutputStream out;
+    String[] columnNames = null;
+    int bufferBytes = DEFAULT_BUFFER_BYTES;
+    long flushMillis = DEFAULT_FLUSH_MILLIS;
+    long streamFlushed = System.currentTimeMillis();     // when the stream was last flushed
+    IOException exception = null;
+
+    /** Creates a sink which writes to the given stream.  The stream is closed when the sink is closed. */
+    public SweepSink(OutputStream out)
+        {
+        this.out = out;
+        }
+
+    /** Returns the number of bytes of values a Buffer holds before it is flushed. */
+    public int getBufferBytes() { return bufferBytes; }
+
+    /** Sets the number of bytes of values a Buffer holds before it is flushed.  This only affects Buffers created afterwards. */
+    public void setBufferBytes(int val) { if (val > 0) bufferBytes = val; }
+
+    /** Returns the number of milliseconds after which a Buffer, and the stream, are flushed even if not full. */
+    public long getFlushMillis() { return flushMillis; }
+
+    /** Sets the number of milliseconds after which a Buffer, and the stream, are flushed even if not full.
+        0 flushes after every row. */
+    public void setFlushMillis(long val) { if (val >= 0) flushMillis = val; }
+
+    /** Returns the names of the value columns, or null if the sink hasn't been opened yet. */
+    public String[] getColumnNames() { return columnNames; }
+
+    /** Returns the first exception which occurred while writing, or null if none has. */
+    public synchronized IOException getException() { return exception; }
+
+    /** Writes the header, given the names of the value columns.  This doesn't include the job, trial, and seed
+        columns, which every row has.  Call this once, before creating any Buffers. */
+    public synchronized void open(String[] columnNames) throws IOException
+        {
+        if (this.columnNames != null) throw new IllegalStateException("SweepSink has already been opened");
+        this.columnNames = (String[])(columnNames.clone());
+        write(encodeHeader(this.columnNames));
+        }
+
+    /** Returns a new Buffer, to be used by a single thread. */
+    public Buffer newBuffer()
+        {
+        if (columnNames == null) throw new IllegalStateException("SweepSink has not been opened");
+        return new Buffer(Math.max(1, bufferBytes / (8 * Math.max(1, columnNames.length))));
+        }
+
+    /** Writes the trailer, if any, and closes the stream.  Flush all the Buffers first. */
+    public synchronized void close() throws IOException
+        {
+        try
+            {
+            if (columnNames != null && exception == null)
+                out.write(encodeTrailer());
+            }
+        finally
+            {
+            out.close();
+            }
+        }
+
+    // Writes a block of bytes, flushing the stream if it hasn't been for flushMillis.
+    // This is the only place, other than close(), where the stream is touched.
+    synchronized void write(byte[] bytes, int length) throws IOException
+        {
+        if (exception != null) throw exception;
+        try
+            {
+            out.write(bytes, 0, length);
+            final long now = System.currentTimeMillis();
+            if (now - streamFlushed >= flushMillis)
+                {
+                out.flush();
+                streamFlushed = now;
+                }
+            }
+        catch (IOException e) { exception = e; throw e; }
+        }
+
+    void write(byte[] bytes) throws IOException
+        {
+        write(bytes, bytes.length);
+        }
+
+    /** Returns the header encoded as bytes, given the names of the value columns. */
+    protected abstract byte[] encodeHeader(String[] columnNames) throws IOException;
+
+    /** Encodes the Buffer's rows into bytes, and returns the number of bytes.  The bytes are placed in the Buffer's
+        byte array, which may be enlarged with ensureBytes(...).  This is called in the Buffer's own thread, without holding any locks. */
+    protected abstract int encodeRows(Buffer buffer) throws IOException;
+
+    /** Returns the trailer encoded as bytes.  By default this is empty. */
+    protected byte[] encodeTrailer() throws IOException
+        {
+        return new byte[0];
+        }
+
+
+    /** A block of rows held in columns, to be used by a single thread.  When it is full, or hasn't been flushed for
+        flushMillis, it is flushed to its SweepSink. */
+    public class Buffer
+        {
+        /** The job number of each row. */
+        public final int[] jobs;
+        /** The trial number of each row. */
+        public final int[] trials;
+        /** The seed of each row. */
+        public final long[] seeds;
+        /** The values of each row, by column: values[column][row] */
+        public final double[][] values;
+        /** The number of rows now held. */
+        public int numRows = 0;
+        /** Bytes into which the rows are encoded. */
+        public byte[] bytes = new byte[0];
+        long flushed = System.currentTimeMillis();    // when the Buffer was last flushed
+
+        Buffer(int capacity)
+            {
+            jobs = new int[capacity];
+            trials = new int[capacity];
+            seeds = new long[capacity];
+            values = new double[columnNames.length][capacity];
+            }
+
+        /** Returns the number of rows the Buffer holds before it is flushed. */
+        public int getCapacity() { return jobs.length; }
+
+        /** Returns the SweepSink to which the Buffer is flushed. */
+        public SweepSink getSink() { return SweepSink.this; }
+
+        /** Makes sure that the byte array holds at least the given number of bytes, and returns it. */
+        public byte[] ensureBytes(int length)
+            {
+            if (bytes.length < length)
+                {
+                byte[] newBytes = new byte[Math.max(length, bytes.length * 2)];
+                System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
+                bytes = newBytes;
+                }
+            return bytes;
+            }
+
+        /** Adds a row, flushing the Buffer if it is then full, or if it hasn't been flushed for flushMillis.  row must hold one value for each column. */
+        public void addRow(int job, int trial, long seed, double[] row) throws IOException
+            {
+            if (row.length != values.length)
+                throw new IllegalArgumentException("Row has " + row.length + " values, but there are " + values.length + " columns.");
+            final int r = numRows;
+            jobs[r] = job;
+            trials[r] = trial;
+            seeds[r] = seed;
+            for(int c = 0; c < row.length; c++)
+                values[c][r] = row[c];
+            numRows = r + 1;
+            if (numRows == jobs.length || System.currentTimeMillis() - flushed >= flushMillis) flush();
+            }
+
+        /** Encodes the rows held, writes them to the sink, and empties the Buffer. */
+        public void flush() throws IOException
+            {
+            flushed = System.currentTimeMillis();
+            if (numRows == 0) return;
+            final int length = encodeRows(this);
+            numRows = 0;
+            write(bytes, length);
+            }
+        }
+    }
@@ -0,0 +1,186 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import java.io.*;
+import java.net.*;
+import ec.util.*;
+
+/** A worker process for a distributed ParameterSweep.  It connects to the sweep's coordinator, runs the jobs leased to it,
+    and sends back their results.  See SweepCoordinator, which explains the protocol.
+
+    <p>Run a worker with <tt>java sim.util.sweep.SweepWorker <i>host</i> <i>port</i> <i>threads</i></tt>.  The model must be on
+    the worker's classpath.  The worker runs <i>threads</i> jobs at a time (by default 1), each over its own connection, and quits
+    when the coordinator says that there are no more jobs, or when it loses touch with the coordinator.
+    A coordinator can also launch workers on its own machine: see launch(...).
+*/
+
+public class SweepWorker
+    {
+    final String host;
+    final int port;
+    final int numThreads;
+
+    public SweepWorker(String host, int port, int numThreads)
+        {
+        if (numThreads < 1) throw new IllegalArgumentException("Threads must be at least 1.  You have: " + numThreads);
+        this.host = host;
+        this.port = port;
+        this.numThreads = numThreads;
+        }
+
+    /** Launches a worker in a new JVM on this machine, with the same Java and classpath as this one, which connects to the
+        coordinator on the given host and port.  Its output goes to this JVM's output. */
+    public static Process launch(String host, int port, int numThreads) throws IOException
+        {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(new String[] { java, "-cp", System.getProperty("java.class.path"),
+                                                                   SweepWorker.class.getName(), host, "" + port, "" + numThreads });
+        builder.inheritIO();
+        return builder.start();
+        }
+
+    /** Runs jobs until there are no more, and returns. */
+    public void run()
+        {
+        Thread[] threads = new Thread[numThreads];
+        for(int i = 0; i < threads.length; i++)
+            {
+            threads[i] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    try
+                        {
+                        runConnection();
+                        }
+                    catch (Exception e)
+                        {
+                        System.err.println("Sweep worker lost its connection to " + host + ":" + port + ": " + e);
+                        }
+                    }
+                });
+            threads[i].start();
+            }
+
+        for(int i = 0; i < threads.length; i++)
+            {
+            try
+                {
+                threads[i].join();
+                }
+            catch (InterruptedException e)
+                {
+                // doesn't happen
+                }
+            }
+        }
+
+    // Runs jobs over a single connection, reusing one SimState
+    void runConnection() throws IOException, ClassNotFoundException
+        {
+        final Socket socket = new Socket(host, port);
+        try
+            {
+            socket.setTcpNoDelay(true);
+            final ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeLong(SweepCoordinator.MAGIC);
+            out.writeInt(SweepCoordinator.VERSION);
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            final ParameterSweep sweep = new ParameterSweep((ParameterDatabase)(in.readObject()), null, false);
+            final int heartbeat = in.readInt();
+            socket.setSoTimeout(heartbeat * 4);     // the coordinator's timeout: it sends heartbeats while we wait for a job
+            sweep.generateCombinations();
+
+            // Tell the coordinator we're alive.  If we can't, the coordinator is gone, so stop the job we're running.
+            Thread heartbeats = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    while(!socket.isClosed())
+                        {
+                        try
+                            {
+                            Thread.sleep(heartbeat);
+                            synchronized(out) { out.writeByte(SweepCoordinator.HEARTBEAT); out.flush(); }
+                            }
+                        catch (InterruptedException e) { return; }
+                        catch (IOException e) { sweep.stop = true; return; }
+                        }
+                    }
+                });
+            heartbeats.setDaemon(true);
+            heartbeats.start();
+
+            ParameterSweep.JobRunner runner = sweep.new JobRunner();
+            try
+                {
+                while(true)
+                    {
+                    byte message = in.readByte();
+                    if (message == SweepCoordinator.HEARTBEAT) continue;
+                    else if (message != SweepCoordinator.JOB) break;
+                    int jobNumber = in.readInt();
+                    int combination = in.readInt();
+                    int trial = in.readInt();
+                    ParameterSweep.ParameterSweepSimulationJob job = sweep.newJob(jobNumber, combination, trial);
+                    boolean finished;
+                    try
+                        {
+                        finished = runner.run(job);
+                        }
+                    catch (RuntimeException e)
+                        {
+                        runner = sweep.new JobRunner();  // the SimState may be in a bad way
+                        synchronized(out)
+                            {
+                            out.writeByte(SweepCoordinator.FAILED);
+                            out.writeUTF("" + e);
+                            out.flush();
+                            }
+                        continue;
+                        }
+                    if (!finished) return;    // we lost the coordinator
+
+                    synchronized(out)
+                        {
+                        out.writeByte(SweepCoordinator.RESULT);
+                        out.writeInt(job.jobNumber);
+                        out.writeInt(job.trial + 1);
+                        out.writeLong(job.seed);
+                        out.writeInt(job.row.length);
+                        for(int i = 0; i < job.row.length; i++)
+                            out.writeDouble(job.row[i]);
+                        out.flush();
+                        }
+                    }
+                }
+            finally
+                {
+                heartbeats.interrupt();
+                }
+            }
+        finally
+            {
+            socket.close();
+            }
+        }
+
+    public static void main(String[] args)
+        {
+        try
+            {
+            new SweepWorker(args[0], Integer.parseInt(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : 1).run();
+            }
+        catch (Exception e)
+            {
+            System.err.println("Could not run a sweep worker.\n\nMESSAGE: " + e);
+            System.err.println("Format:   java sim.util.sweep.SweepWorker [host] [port] [threads]");
+            }
+        }
+    }
@@ -0,0 +1,189 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+
+import junit.framework.TestCase;
+import java.io.*;
+import java.util.*;
+
+/** Checks that AsynchronousCheckpointer writes readable checkpoints, and never deadlocks or runs two writers at once. */
+
+public class AsynchronousCheckpointerTest extends TestCase
+    {
+    public AsynchronousCheckpointerTest(String name) { super(name); }
+
+    ArrayList files = new ArrayList();
+
+    File newFile() throws IOException
+        {
+        File file = File.createTempFile("checkpoint", ".tmp");
+        file.deleteOnExit();
+        files.add(file);
+        return file;
+        }
+
+    protected void tearDown()
+        {
+        for(int i = 0; i < files.size(); i++)
+            ((File)files.get(i)).delete();
+        }
+
+    static class Model extends SimState
+        {
+        private static final long serialVersionUID = 1;
+        double[] values = new double[100000];
+        Object extra;   // something to break serialization with
+        Model(long seed) { super(seed); }
+        }
+
+    static class Unserializable implements Serializable
+        {
+        private static final long serialVersionUID = 1;
+        private void writeObject(ObjectOutputStream out) { throw new IllegalStateException("Not today"); }
+        }
+
+    // runs the runnable in another thread, failing if it doesn't finish in time rather than hanging the test
+    void runWithTimeout(Runnable runnable) throws Exception
+        {
+        final Throwable[] thrown = new Throwable[1];
+        final Runnable r = runnable;
+        Thread t = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                try { r.run(); }
+                catch (Throwable e) { thrown[0] = e; }
+                }
+            });
+        t.setDaemon(true);
+        t.start();
+        t.join(30000);
+        assertFalse("Deadlocked", t.isAlive());
+        if (thrown[0] != null) throw new RuntimeException(thrown[0]);
+        }
+
+    public void testFormats() throws Exception
+        {
+        int[] formats = new int[] { SimState.CHECKPOINT_FORMAT_GZIP, SimState.CHECKPOINT_FORMAT_FAST, SimState.CHECKPOINT_FORMAT_UNCOMPRESSED };
+        AsynchronousCheckpointer checkpointer = new AsynchronousCheckpointer(2);
+        Model model = new Model(3);
+        model.start();
+        File[] written = new File[formats.length];
+        for(int i = 0; i < formats.length; i++)
+            {
+            Arrays.fill(model.values, i);
+            model.setCheckpointFormat(formats[i]);
+            written[i] = newFile();
+            checkpointer.checkpoint(model, written[i], null);
+            }
+        Arrays.fill(model.values, -1);  // the snapshots must not see this
+        checkpointer.finish();
+        assertEquals(0, checkpointer.getNumSnapshots());
+        for(int i = 0; i < formats.length; i++)
+            {
+            InputStream in = new FileInputStream(written[i]);
+            try
+                {
+                Model copy = (Model)SimState.readFromCheckpoint(in);
+                for(int j = 0; j < copy.values.length; j++)
+                    assertEquals(i, copy.values[j], 0);
+                }
+            finally { in.close(); }
+            }
+        }
+
+    public void testFailedSnapshotReleasesItsSlot() throws Exception
+        {
+        final AsynchronousCheckpointer checkpointer = new AsynchronousCheckpointer(1);
+        final Model model = new Model(4);
+        model.start();
+        model.extra = new Unserializable();
+        final File file = newFile();
+        final int[] failures = new int[1];
+
+        // neither checkpoint(...) nor finish() may wait on the failed snapshots
+        runWithTimeout(new Runnable()
+            {
+            public void run()
+                {
+                try
+                    {
+                    for(int i = 0; i < 3; i++)
+                        {
+                        try { checkpointer.checkpoint(model, file, null); }
+                        catch (IllegalStateException e) { failures[0]++; }  // expected
+                        }
+                    checkpointer.finish();
+                    model.extra = null;
+                    checkpointer.checkpoint(model, file, null);
+                    checkpointer.finish();
+                    }
+                catch (IOException e) { throw new RuntimeException(e); }
+                }
+            });
+        assertEquals(3, failures[0]);
+        assertEquals(0, checkpointer.getNumSnapshots());
+        assertTrue(file.length() > 0);
+        }
+
+    public void testFinishThenCheckpoint() throws Exception
+        {
+        final AsynchronousCheckpointer checkpointer = new AsynchronousCheckpointer(2);
+        final Model model = new Model(5);
+        model.start();
+        final int[] writing = new int[1];
+        final int[] mostWriting = new int[1];
+        final int[] numWritten = new int[1];
+        final AsynchronousCheckpointer.Callback callback = new AsynchronousCheckpointer.Callback()
+            {
+            public void checkpointWritten(File file, long steps, Exception exception)
+                {
+                synchronized(writing) { writing[0]++; mostWriting[0] = Math.max(mostWriting[0], writing[0]); }
+                try { Thread.sleep(2); } catch (InterruptedException e) { }
+                synchronized(writing) { writing[0]--; if (exception == null) numWritten[0]++; }
+                }
+            };
+        final File file = newFile();
+
+        // one thread keeps finishing while another keeps checkpointing, so writing threads are stopped and started
+        // over and over; the old one must never pick up snapshots meant for the new one
+        final boolean[] done = new boolean[1];
+        Thread finisher = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                while(true)
+                    {
+                    synchronized(done) { if (done[0]) return; }
+                    checkpointer.finish();
+                    }
+                }
+            });
+        finisher.setDaemon(true);
+        finisher.start();
+        runWithTimeout(new Runnable()
+            {
+            public void run()
+                {
+                try
+                    {
+                    for(int i = 0; i < 100; i++)
+                        {
+                        checkpointer.checkpoint(model, file, callback);
+                        if (i % 10 == 0) checkpointer.finish();
+                        }
+                    }
+                catch (IOException e) { throw new RuntimeException(e); }
+                checkpointer.finish();
+                }
+            });
+        synchronized(done) { done[0] = true; }
+        finisher.join(30000);
+        assertEquals(100, numWritten[0]);
+        assertEquals(1, mostWriting[0]);
+        }
+    }
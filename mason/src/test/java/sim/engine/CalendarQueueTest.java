@@ -0,0 +1,205 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+
+import junit.framework.TestCase;
+import ec.util.MersenneTwisterFast;
+import sim.util.*;
+import java.util.*;
+
+/** Checks that CalendarQueue hands out events in exactly the same key order as the binary Heap. */
+
+public class CalendarQueueTest extends TestCase
+    {
+    public CalendarQueueTest(String name)
+        {
+        super(name);
+        }
+
+    // Drains both queues a group at a time, adding new events ahead of the current time as we go (as a Schedule does),
+    // and checks that each group has the same key and the same members.
+    void drainAndCompare(Heap heap, CalendarQueue calendar, MersenneTwisterFast random, double horizon)
+        {
+        int next = 1000000;
+        Bag a = new Bag();
+        Bag b = new Bag();
+        while(!heap.isEmpty())
+            {
+            assertFalse(calendar.isEmpty());
+            assertEquals(heap.size(), calendar.size());
+            Schedule.Key key = (Schedule.Key)(heap.getMinKey());
+            assertEquals(key, calendar.getMinKey());
+            a.clear();
+            b.clear();
+            heap.extractMin(a);
+            calendar.extractMin(b);
+            assertEquals(toSet(a), toSet(b));
+
+            // reschedule a few, some far beyond the calendar's window
+            for(int i = 0; i < 3 && random.nextBoolean(); i++)
+                {
+                double time = key.time + (random.nextBoolean() ? 1 + random.nextInt(4) : random.nextDouble() * horizon);
+                Schedule.Key k = new Schedule.Key(time, random.nextInt(3));
+                Integer obj = Integer.valueOf(next++);
+                heap.add(obj, k);
+                calendar.add(obj, new Schedule.Key(k.time, k.ordering));
+                }
+            }
+        assertTrue(calendar.isEmpty());
+        assertNull(calendar.getMinKey());
+        }
+
+    HashSet toSet(Bag bag)
+        {
+        HashSet set = new HashSet();
+        for(int i = 0; i < bag.numObjs; i++)
+            assertTrue("duplicate object", set.add(bag.objs[i]));
+        return set;
+        }
+
+    void fill(Heap heap, CalendarQueue calendar, MersenneTwisterFast random, int n, boolean integral, double horizon)
+        {
+        for(int i = 0; i < n; i++)
+            {
+            double time = integral ? random.nextInt((int)horizon) : random.nextDouble() * horizon;
+            Schedule.Key k = new Schedule.Key(time, random.nextInt(4) - 1);
+            Integer obj = Integer.valueOf(i);
+            heap.add(obj, k);
+            calendar.add(obj, new Schedule.Key(k.time, k.ordering));
+            }
+        }
+
+    public void testIntegralTimes()
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(1);
+        Heap heap = new Heap();
+        CalendarQueue calendar = new CalendarQueue(16, 1.0);
+        fill(heap, calendar, random, 5000, true, 100);
+        drainAndCompare(heap, calendar, random, 100);
+        }
+
+    public void testSpreadOutTimes()
+        {
+        // most events fall outside the window, in the overflow heap
+        MersenneTwisterFast random = new MersenneTwisterFast(2);
+        Heap heap = new Heap();
+        CalendarQueue calendar = new CalendarQueue(8, 0.5);
+        fill(heap, calendar, random, 5000, false, 10000);
+        drainAndCompare(heap, calendar, random, 10000);
+        }
+
+    public void testClearAndMerge()
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(3);
+        Heap heap = new Heap();
+        CalendarQueue calendar = new CalendarQueue();
+        fill(heap, calendar, random, 1000, true, 50);
+        calendar.clear();
+        assertTrue(calendar.isEmpty());
+        assertEquals(0, calendar.size());
+        
+        Heap other = new Heap();
+        CalendarQueue unused = new CalendarQueue();
+        fill(other, unused, random, 1000, false, 50);
+        Heap merged = calendar.merge(heap);
+        merged = merged.merge(other);
+        Heap expected = new Heap();
+        fill(expected, new CalendarQueue(), new MersenneTwisterFast(3), 1000, true, 50);
+        expected = expected.merge(other);
+        assertEquals(expected.size(), merged.size());
+        Bag a = new Bag();
+        Bag b = new Bag();
+        while(!expected.isEmpty())
+            {
+            assertEquals(expected.getMinKey(), merged.getMinKey());
+            a.clear();
+            b.clear();
+            assertEquals(toSet(expected.extractMin(a)), toSet(merged.extractMin(b)));
+            }
+        assertTrue(merged.isEmpty());
+        }
+
+    // Runs the same model on a Schedule with a Heap and on one with a CalendarQueue, and records which agents
+    // were stepped at each time, in which ordering.
+    ArrayList run(boolean calendar)
+        {
+        final ArrayList log = new ArrayList();
+        final SimState state = new SimState(5);
+        if (calendar) state.schedule.setCalendarQueue(64, 1.0);
+        state.start();
+        for(int i = 0; i < 100; i++)
+            {
+            final int id = i;
+            Steppable agent = new Steppable()
+                {
+                public void step(SimState state)
+                    {
+                    log.add(state.schedule.getTime() + "/" + id);
+                    if ((id + (int)(state.schedule.getTime())) % 10 == 0)  // not random, since the shuffled order of agents may differ
+                        state.schedule.scheduleOnce(state.schedule.getTime() + 0.5, id % 3, this);
+                    }
+                };
+            state.schedule.scheduleRepeating(i % 7, i % 3, agent, 1 + (i % 4));
+            }
+        for(int i = 0; i < 200; i++)
+            state.schedule.step(state);
+        return log;
+        }
+
+    public void testScheduleEquivalence()
+        {
+        ArrayList heap = run(false);
+        ArrayList calendar = run(true);
+        assertEquals(heap.size(), calendar.size());
+        // within a timestep, agents may be stepped in a different (shuffled) order, so compare each timestep as a set
+        assertEquals(new HashSet(heap), new HashSet(calendar));
+        }
+
+    public void testHugeTimes()
+        {
+        // times whose days don't fit in a long all share the last (or first) day, and must still come out in order
+        double[] times = { 1, 2.5, 1e18, 1e19, 9.3e18, 1e300, Double.MAX_VALUE, 1e300, -1e300, -5, 70 };
+        Heap heap = new Heap();
+        CalendarQueue calendar = new CalendarQueue(64, 1.0);
+        for(int i = 0; i < times.length; i++)
+            {
+            Integer obj = Integer.valueOf(i);
+            heap.add(obj, new Schedule.Key(times[i], i % 2));
+            calendar.add(obj, new Schedule.Key(times[i], i % 2));
+            }
+        drainAndCompare(heap, calendar, new MersenneTwisterFast(4), 1e300);
+        }
+
+    public void testHugeTimesInSchedule() throws Exception
+        {
+        // this once hung the first step(), as the window's end overflowed and the queue looked forever for the next event
+        final SimState state = new SimState(6);
+        state.schedule.setCalendarQueue(64, 1.0);
+        state.start();
+        final ArrayList log = new ArrayList();
+        Steppable agent = new Steppable()
+            {
+            public void step(SimState state) { log.add(Double.valueOf(state.schedule.getTime())); }
+            };
+        state.schedule.scheduleOnce(1.0, agent);
+        state.schedule.scheduleOnce(1e300, agent);
+        state.schedule.scheduleOnce(Double.MAX_VALUE, agent);
+        Thread t = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                for(int i = 0; i < 4; i++)
+                    state.schedule.step(state);
+                }
+            });
+        t.setDaemon(true);
+        t.start();
+        t.join(10000);
+        assertFalse("Schedule hung", t.isAlive());
+        assertEquals(Arrays.asList(new Double[] { Double.valueOf(1.0), Double.valueOf(1e300), Double.valueOf(Double.MAX_VALUE) }), log);
+        }
+    }
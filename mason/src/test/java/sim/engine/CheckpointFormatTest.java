@@ -0,0 +1,165 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+
+import junit.framework.TestCase;
+import sim.field.grid.*;
+import sim.field.continuous.*;
+import sim.util.*;
+import java.io.*;
+
+/** Checks that a model written in each checkpoint format reads back with the same contents, and runs on just as the original does. */
+
+public class CheckpointFormatTest extends TestCase
+    {
+    public CheckpointFormatTest(String name) { super(name); }
+
+    static class Agent implements Steppable
+        {
+        private static final long serialVersionUID = 1;
+        int id;
+        int count;
+        double last;
+        Agent(int id) { this.id = id; }
+        public void step(SimState state)
+            {
+            Model model = (Model)state;
+            count++;
+            last = state.random.nextDouble();
+            model.sparse.setObjectLocation(this, state.random.nextInt(50), state.random.nextInt(50));
+            model.continuous.setObjectLocation(this, new Double2D(state.random.nextDouble() * 50, state.random.nextDouble() * 50));
+            model.grid.field[id % 400][id % 400] += last;
+            }
+        }
+
+    static class Model extends SimState
+        {
+        private static final long serialVersionUID = 1;
+        DoubleGrid2D grid = new DoubleGrid2D(400, 400);    // more than a chunk of doubles
+        IntGrid2D ints = new IntGrid2D(10, 10);
+        SparseGrid2D sparse = new SparseGrid2D(50, 50);
+        Continuous2D continuous = new Continuous2D(5, 50, 50);
+        Bag agents = new Bag();
+        IntBag intBag = new IntBag();
+        DoubleBag doubleBag = new DoubleBag();
+        double[] shared = new double[100];
+        double[] alsoShared = shared;
+
+        Model(long seed) { super(seed); }
+
+        public void start()
+            {
+            super.start();
+            for(int i = 0; i < 100; i++)
+                {
+                Agent agent = new Agent(i);
+                agents.add(agent);
+                schedule.scheduleRepeating(agent, i % 3, 1.0);
+                intBag.add(i * 7);
+                doubleBag.add(i / 3.0);
+                shared[i] = i * 1.5;
+                ints.field[i % 10][i / 10] = i;
+                }
+            }
+        }
+
+    Model roundTrip(Model model, int format) throws Exception
+        {
+        model.setCheckpointFormat(format);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        model.writeToCheckpoint(bytes);
+        return (Model)SimState.readFromCheckpoint(new ByteArrayInputStream(bytes.toByteArray()));
+        }
+
+    void assertSameModel(Model expected, Model actual)
+        {
+        assertEquals(expected.schedule.getTime(), actual.schedule.getTime(), 0);
+        assertEquals(expected.schedule.getSteps(), actual.schedule.getSteps());
+        for(int x = 0; x < expected.grid.getWidth(); x++)
+            assertTrue(java.util.Arrays.equals(expected.grid.field[x], actual.grid.field[x]));
+        for(int x = 0; x < expected.ints.getWidth(); x++)
+            assertTrue(java.util.Arrays.equals(expected.ints.field[x], actual.ints.field[x]));
+        assertEquals(expected.agents.numObjs, actual.agents.numObjs);
+        for(int i = 0; i < expected.agents.numObjs; i++)
+            {
+            Agent e = (Agent)expected.agents.objs[i];
+            Agent a = (Agent)actual.agents.objs[i];
+            assertEquals(e.id, a.id);
+            assertEquals(e.count, a.count);
+            assertEquals(e.last, a.last, 0);
+            assertEquals(expected.sparse.getObjectLocation(e), actual.sparse.getObjectLocation(a));
+            assertEquals(expected.continuous.getObjectLocation(e), actual.continuous.getObjectLocation(a));
+            Int2D loc = actual.sparse.getObjectLocation(a);
+            assertTrue(actual.sparse.getObjectsAtLocation(loc.x, loc.y).contains(a));
+            assertTrue(actual.continuous.getObjectsAtLocation(actual.continuous.getObjectLocation(a)).contains(a));
+            }
+        assertEquals(expected.sparse.size(), actual.sparse.size());
+        assertEquals(expected.continuous.size(), actual.continuous.size());
+        assertEquals(expected.intBag.numObjs, actual.intBag.numObjs);
+        for(int i = 0; i < expected.intBag.numObjs; i++)
+            assertEquals(expected.intBag.get(i), actual.intBag.get(i));
+        assertEquals(expected.doubleBag.numObjs, actual.doubleBag.numObjs);
+        for(int i = 0; i < expected.doubleBag.numObjs; i++)
+            assertEquals(expected.doubleBag.get(i), actual.doubleBag.get(i), 0);
+        assertTrue(java.util.Arrays.equals(expected.shared, actual.shared));
+        assertSame(actual.shared, actual.alsoShared);
+        }
+
+    void check(int format) throws Exception
+        {
+        Model model = new Model(42);
+        model.start();
+        for(int i = 0; i < 10; i++)
+            model.schedule.step(model);
+
+        Model copy = roundTrip(model, format);
+        assertSameModel(model, copy);
+
+        // the copy must carry on exactly as the original, including the schedule and random number generator
+        for(int i = 0; i < 10; i++)
+            {
+            model.schedule.step(model);
+            copy.schedule.step(copy);
+            }
+        assertSameModel(model, copy);
+        assertEquals(model.random.nextLong(), copy.random.nextLong());
+
+        // and a copy of a copy too
+        assertSameModel(copy, roundTrip(copy, format));
+        }
+
+    public void testGzip() throws Exception { check(SimState.CHECKPOINT_FORMAT_GZIP); }
+    public void testFast() throws Exception { check(SimState.CHECKPOINT_FORMAT_FAST); }
+    public void testUncompressed() throws Exception { check(SimState.CHECKPOINT_FORMAT_UNCOMPRESSED); }
+
+    public void testCorruptionIsDetected() throws Exception
+        {
+        Model model = new Model(1);
+        model.start();
+        model.setCheckpointFormat(SimState.CHECKPOINT_FORMAT_UNCOMPRESSED);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        model.writeToCheckpoint(bytes);
+        byte[] b = bytes.toByteArray();
+        b[b.length / 2] ^= 1;
+        try
+            {
+            SimState.readFromCheckpoint(new ByteArrayInputStream(b));
+            fail("Corrupt checkpoint was read");
+            }
+        catch (StreamCorruptedException e) { }  // expected
+        }
+
+    public void testBadFormat()
+        {
+        try
+            {
+            new Model(1).setCheckpointFormat(17);
+            fail("Unknown format accepted");
+            }
+        catch (IllegalArgumentException e) { }  // expected
+        }
+    }
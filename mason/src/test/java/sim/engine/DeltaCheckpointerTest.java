@@ -0,0 +1,181 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+
+import junit.framework.TestCase;
+import java.io.*;
+import java.util.*;
+
+/** Checks that chains of delta checkpoints restore exactly the states they were written from, and refuse broken chains. */
+
+public class DeltaCheckpointerTest extends TestCase
+    {
+    public DeltaCheckpointerTest(String name) { super(name); }
+
+    File dir;
+
+    protected void setUp() throws IOException
+        {
+        dir = File.createTempFile("deltas", "");
+        dir.delete();
+        dir.mkdir();
+        }
+
+    protected void tearDown()
+        {
+        File[] files = dir.listFiles();
+        for(int i = 0; i < files.length; i++)
+            files[i].delete();
+        dir.delete();
+        }
+
+    static class Model extends SimState
+        {
+        private static final long serialVersionUID = 1;
+        double[] landscape = new double[400000];    // about 3MB, so several blocks
+        ArrayList agents = new ArrayList();
+        Model(long seed) { super(seed); }
+        }
+
+    // changes a few cells, and adds or removes an agent now and then
+    void change(Model model)
+        {
+        for(int i = 0; i < 20; i++)
+            model.landscape[model.random.nextInt(model.landscape.length)] = model.random.nextDouble();
+        if (model.random.nextBoolean()) model.agents.add(new Integer(model.random.nextInt()));
+        else if (model.agents.size() > 0) model.agents.remove(model.agents.size() - 1);
+        }
+
+    void assertSameModel(Model expected, Model actual)
+        {
+        assertNotNull(actual);
+        assertTrue(Arrays.equals(expected.landscape, actual.landscape));
+        assertEquals(expected.agents, actual.agents);
+        assertTrue(expected.random.stateEquals(actual.random));
+        }
+
+    Model copy(Model model) throws Exception
+        {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        model.writeToCheckpoint(bytes);
+        return (Model)SimState.readFromCheckpoint(new ByteArrayInputStream(bytes.toByteArray()));
+        }
+
+    public void testChain() throws Exception
+        {
+        Model model = new Model(1);
+        model.start();
+        model.setCheckpointFormat(SimState.CHECKPOINT_FORMAT_UNCOMPRESSED);  // random doubles don't compress anyway
+        for(int i = 0; i < model.landscape.length; i++)
+            model.landscape[i] = model.random.nextDouble();
+        DeltaCheckpointer checkpointer = new DeltaCheckpointer();
+        checkpointer.setMaxDeltas(4);
+
+        ArrayList files = new ArrayList();
+        ArrayList expected = new ArrayList();
+        long fullLength = 0;
+        for(int i = 0; i < 12; i++)
+            {
+            File file = new File(dir, "checkpoint" + i);
+            boolean delta = checkpointer.writeToCheckpoint(model, file);
+            assertEquals("checkpoint " + i, i % 5 != 0, delta);
+            assertEquals(delta, DeltaCheckpointer.isDelta(file));
+            if (!delta) fullLength = file.length();
+            else assertTrue("delta " + i + " of " + file.length() + " bytes", file.length() * 10 < fullLength);
+            files.add(file);
+            expected.add(copy(model));
+            change(model);
+            }
+
+        for(int i = 0; i < files.size(); i++)
+            {
+            assertSameModel((Model)expected.get(i), (Model)DeltaCheckpointer.readFromCheckpoint((File)files.get(i)));
+            assertSameModel((Model)expected.get(i), (Model)SimState.readFromCheckpoint((File)files.get(i)));
+            }
+        }
+
+    public void testBrokenChain() throws Exception
+        {
+        Model model = new Model(2);
+        model.start();
+        DeltaCheckpointer checkpointer = new DeltaCheckpointer();
+        File first = new File(dir, "first");
+        File second = new File(dir, "second");
+        checkpointer.writeToCheckpoint(model, first);
+        change(model);
+        assertTrue(checkpointer.writeToCheckpoint(model, second));
+
+        // replace the first checkpoint with a different one
+        change(model);
+        new DeltaCheckpointer().writeToCheckpoint(model, first);
+        try
+            {
+            DeltaCheckpointer.readFromCheckpoint(second);
+            fail("Restored a delta against the wrong checkpoint");
+            }
+        catch (StreamCorruptedException e) { }  // expected
+
+        // or delete it
+        first.delete();
+        try
+            {
+            DeltaCheckpointer.readFromCheckpoint(second);
+            fail("Restored a delta without its checkpoint");
+            }
+        catch (FileNotFoundException e) { }  // expected
+        }
+
+    public void testFullWhenMovedOrOverwritten() throws Exception
+        {
+        Model model = new Model(3);
+        model.start();
+        DeltaCheckpointer checkpointer = new DeltaCheckpointer();
+        File file = new File(dir, "checkpoint");
+        assertFalse(checkpointer.writeToCheckpoint(model, file));
+        assertFalse(checkpointer.writeToCheckpoint(model, file));  // can't be a delta against itself
+        checkpointer.reset();
+        assertFalse(checkpointer.writeToCheckpoint(model, new File(dir, "other")));
+        assertTrue(checkpointer.writeToCheckpoint(model, new File(dir, "another")));
+        assertEquals(1, checkpointer.getNumDeltas());
+        }
+
+    public void testBlockBuffer() throws IOException
+        {
+        // write and read back across block boundaries, in pieces of awkward sizes
+        Random random = new Random(4);
+        byte[] data = new byte[BlockBuffer.BLOCK_SIZE * 3 + 12345];
+        random.nextBytes(data);
+        BlockBuffer buffer = new BlockBuffer();
+        int pos = 0;
+        while(pos < data.length)
+            {
+            int n = Math.min(data.length - pos, random.nextInt(100000));
+            buffer.write(data, pos, n);
+            pos += n;
+            }
+        assertEquals(data.length, buffer.length());
+        assertEquals(4, buffer.numBlocks());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long from = BlockBuffer.BLOCK_SIZE - 10;
+        buffer.writeTo(from, BlockBuffer.BLOCK_SIZE * 2L, out);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, (int)from, (int)from + BlockBuffer.BLOCK_SIZE * 2), out.toByteArray()));
+
+        BlockBuffer copy = new BlockBuffer();
+        copy.readFrom(buffer.getInputStream(false), data.length);
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        copy.writeTo(0, copy.length(), all);
+        assertTrue(Arrays.equals(data, all.toByteArray()));
+
+        try
+            {
+            copy.readFrom(new ByteArrayInputStream(new byte[10]), 11);
+            fail("Read past the end of a stream");
+            }
+        catch (EOFException e) { }  // expected
+        }
+    }
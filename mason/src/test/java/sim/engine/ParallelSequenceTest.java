@@ -0,0 +1,72 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+
+import junit.framework.TestCase;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** Checks that ParallelSequence steps everything once in fork/join mode, and reports an efficiency against the threads actually used. */
+
+public class ParallelSequenceTest extends TestCase
+    {
+    public ParallelSequenceTest(String name) { super(name); }
+
+    ParallelSequence busySequence(final AtomicInteger count, int numSteppables, int numThreads)
+        {
+        Steppable[] steps = new Steppable[numSteppables];
+        for(int i = 0; i < steps.length; i++)
+            steps[i] = new Steppable()
+                {
+                public void step(SimState state)
+                    {
+                    long end = System.nanoTime() + 200000;
+                    while(System.nanoTime() < end) { }     // spin, so the pool's workers are really busy
+                    count.incrementAndGet();
+                    }
+                };
+        ParallelSequence seq = new ParallelSequence(steps, numThreads);
+        seq.setUsesForkJoin(true);
+        seq.setRecordsTiming(true);
+        return seq;
+        }
+
+    public void testForkJoinEfficiency()
+        {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        SimState state = new SimState(1);
+        int[] threads = { 1, 2, 4, 16, ParallelSequence.CPUS };
+        try
+            {
+            for(int i = 0; i < threads.length; i++)
+                {
+                AtomicInteger count = new AtomicInteger();
+                ParallelSequence seq = busySequence(count, 200, threads[i]);
+                seq.setForkJoinPool(pool);
+                for(int j = 0; j < 3; j++)
+                    seq.step(state);
+                assertEquals(600, count.get());
+                // the pool runs chunks on all four workers however few threads we asked for, so this can't exceed 1
+                double efficiency = seq.getLastStepEfficiency();
+                assertTrue("numThreads " + threads[i] + " efficiency " + efficiency, efficiency > 0 && efficiency <= 1.0);
+                seq.cleanup();
+                }
+
+            // fewer Steppables than workers
+            AtomicInteger count = new AtomicInteger();
+            ParallelSequence seq = busySequence(count, 2, ParallelSequence.CPUS);
+            seq.setForkJoinPool(pool);
+            seq.step(state);
+            assertEquals(2, count.get());
+            assertTrue(seq.getLastStepEfficiency() <= 1.0);
+            }
+        finally
+            {
+            pool.shutdown();
+            }
+        }
+    }
@@ -0,0 +1,100 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+
+import junit.framework.TestCase;
+import ec.util.MersenneTwisterFast;
+import java.io.*;
+
+/** Checks that random streams depend only on the seed and the index, however and whenever they're created. */
+
+public class RandomStreamTest extends TestCase
+    {
+    public RandomStreamTest(String name)
+        {
+        super(name);
+        }
+
+    public void testSameStreamsInAnyOrder()
+        {
+        SimState a = new SimState(42);
+        SimState b = new SimState(42);
+        b.buildRandomStreams(300);
+        for(int i = 299; i >= 0; i--)
+            assertEquals(a.getRandomStream(i).nextLong(), new SimState(42).getRandomStream(i).nextLong());
+        a = new SimState(42);
+        for(int i = 0; i < 300; i++)
+            assertEquals("stream " + i, a.getRandomStream(i).nextLong(), b.getRandomStream(i).nextLong());
+        assertSame(b.getRandomStream(7), b.getRandomStream(7));
+        }
+
+    public void testStreamsDiffer()
+        {
+        SimState a = new SimState(42);
+        assertTrue(a.getRandomStream(0).nextLong() != a.getRandomStream(1).nextLong());
+        assertTrue(new SimState(42).getRandomStream(0).nextLong() != new SimState(43).getRandomStream(0).nextLong());
+        assertTrue(new SimState(42).getRandomStream(0).nextLong() != new MersenneTwisterFast(42).nextLong());
+        }
+
+    public void testResetBySetSeed()
+        {
+        SimState a = new SimState(42);
+        long first = a.getRandomStream(5).nextLong();
+        a.getRandomStream(5).nextLong();
+        a.setSeed(42);
+        assertEquals(first, a.getRandomStream(5).nextLong());
+        }
+
+    public void testBuildKeepsExistingStreams()
+        {
+        SimState a = new SimState(42);
+        MersenneTwisterFast s = a.getRandomStream(3);
+        s.nextLong();
+        a.buildRandomStreams(10);
+        assertSame(s, a.getRandomStream(3));
+        a.buildRandomStreams(2);
+        assertSame(s, a.getRandomStream(3));
+        }
+
+    public void testConcurrentCreation() throws Exception
+        {
+        final SimState a = new SimState(42);
+        final MersenneTwisterFast[][] seen = new MersenneTwisterFast[4][1000];
+        Thread[] threads = new Thread[seen.length];
+        for(int t = 0; t < threads.length; t++)
+            {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    for(int i = 0; i < 1000; i++)
+                        seen[thread][i] = a.getRandomStream(thread % 2 == 0 ? i : 999 - i);
+                    }
+                });
+            threads[t].start();
+            }
+        for(int t = 0; t < threads.length; t++)
+            threads[t].join();
+        for(int t = 1; t < threads.length; t++)
+            for(int i = 0; i < 1000; i++)
+                assertSame(seen[0][i], seen[t][t % 2 == 0 ? i : 999 - i]);
+        }
+
+    public void testSerialization() throws Exception
+        {
+        SimState a = new SimState(42);
+        a.getRandomStream(4).nextLong();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(a);
+        out.close();
+        SimState b = (SimState)(new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject());
+        assertEquals(a.getRandomStream(4).nextLong(), b.getRandomStream(4).nextLong());
+        assertEquals(a.getRandomStream(9).nextLong(), b.getRandomStream(9).nextLong());
+        }
+    }
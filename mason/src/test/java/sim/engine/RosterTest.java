@@ -0,0 +1,88 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+
+import junit.framework.TestCase;
+import java.util.*;
+
+/** Checks that a Schedule which gathers repeating Steppables into rosters steps the same agents at the same times
+    as one which doesn't, including agents which are stopped or scheduled while the model is running. */
+
+public class RosterTest extends TestCase
+    {
+    public RosterTest(String name)
+        {
+        super(name);
+        }
+
+    ArrayList run(boolean rosters)
+        {
+        final ArrayList log = new ArrayList();
+        final Stoppable[] stoppables = new Stoppable[100];
+        final SimState state = new SimState(7);
+        state.schedule.setUsesRosters(rosters);
+        state.start();
+        for(int i = 0; i < 100; i++)
+            {
+            final int id = i;
+            Steppable agent = new Steppable()
+                {
+                public void step(SimState state)
+                    {
+                    long time = (long)(state.schedule.getTime());
+                    log.add(time + "/" + id);
+                    // stop now and then, and start new repeating agents, without using the random number
+                    // generator or touching other agents, since the shuffled order of agents differs with rosters
+                    if (time > 10 && id % 4 == 0 && stoppables[id] != null)
+                        {
+                        stoppables[id].stop();
+                        stoppables[id] = null;
+                        }
+                    if (time == 20 && id % 10 == 0)
+                        {
+                        final int child = id + 1000;
+                        state.schedule.scheduleRepeating(new Steppable()
+                            {
+                            public void step(SimState state) { log.add((long)(state.schedule.getTime()) + "/" + child); }
+                            }, id % 3, 2.0);
+                        }
+                    }
+                };
+            stoppables[i] = state.schedule.scheduleRepeating(i % 5, i % 2, agent, 1 + (i % 3));
+            }
+        for(int i = 0; i < 100; i++)
+            state.schedule.step(state);
+        return log;
+        }
+
+    public void testSameSteps()
+        {
+        ArrayList plain = run(false);
+        ArrayList rosters = run(true);
+        assertEquals(plain.size(), rosters.size());
+        assertEquals(new HashSet(plain), new HashSet(rosters));
+        }
+
+    public void testStoppedMembersAreNotStepped()
+        {
+        final int[] count = new int[1];
+        SimState state = new SimState(1);
+        state.schedule.setUsesRosters(true);
+        state.start();
+        Stoppable[] s = new Stoppable[10];
+        for(int i = 0; i < s.length; i++)
+            s[i] = state.schedule.scheduleRepeating(new Steppable() { public void step(SimState state) { count[0]++; } });
+        state.schedule.step(state);
+        assertEquals(10, count[0]);
+        for(int i = 0; i < s.length; i += 2)
+            s[i].stop();
+        state.schedule.step(state);
+        assertEquals(15, count[0]);
+        state.schedule.reset();
+        assertTrue(state.schedule.scheduleComplete());
+        }
+    }
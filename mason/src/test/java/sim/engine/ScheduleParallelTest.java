@@ -0,0 +1,135 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+
+import junit.framework.TestCase;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/** Checks that a Schedule stepping orderings in parallel is reproducible for a given seed, and finishes each ordering before starting the next. */
+
+public class ScheduleParallelTest extends TestCase
+    {
+    public ScheduleParallelTest(String name) { super(name); }
+
+    static final int NUM_AGENTS = 300;
+    static final int NUM_ORDERINGS = 3;
+    static final int NUM_STEPS = 20;
+
+    static class Model extends SimState
+        {
+        private static final long serialVersionUID = 1;
+        double[] values = new double[NUM_AGENTS];      // each agent writes only its own
+        double[] childValues = new double[NUM_AGENTS];
+        int[] childCounts = new int[NUM_AGENTS];
+        // how many agents of each ordering have been stepped at the current time
+        AtomicIntegerArray stepped = new AtomicIntegerArray(NUM_ORDERINGS);
+        AtomicInteger outOfOrder = new AtomicInteger();
+
+        Model(long seed, int threads)
+            {
+            super(seed);
+            schedule.setParallelThreads(threads);
+            }
+
+        public void start()
+            {
+            super.start();
+            for(int i = 0; i < NUM_AGENTS; i++)
+                schedule.scheduleRepeating(Schedule.EPOCH, i % NUM_ORDERINGS, new Agent(i), 1.0);
+            // reset the counts between timesteps, sequentially
+            schedule.addBefore(new Steppable()
+                {
+                public void step(SimState state)
+                    {
+                    for(int o = 0; o < NUM_ORDERINGS; o++)
+                        stepped.set(o, 0);
+                    }
+                });
+            }
+        }
+
+    static class Agent implements Steppable
+        {
+        private static final long serialVersionUID = 1;
+        int id;
+        Agent(int id) { this.id = id; }
+
+        public void step(SimState state)
+            {
+            final Model model = (Model)state;
+            final int ordering = id % NUM_ORDERINGS;
+            final int perOrdering = NUM_AGENTS / NUM_ORDERINGS;
+            // every agent of the earlier orderings must be done, and none of the later ones started
+            for(int o = 0; o < NUM_ORDERINGS; o++)
+                {
+                int count = model.stepped.get(o);
+                if (o < ordering ? count != perOrdering : o > ordering && count != 0)
+                    model.outOfOrder.incrementAndGet();
+                }
+
+            double r = state.schedule.getRandom(state).nextDouble();
+            model.values[id] = model.values[id] * 0.5 + r;
+            if (r < 0.3)   // schedule a child half a step later, which is held back until the ordering is done
+                {
+                final int parent = id;
+                state.schedule.scheduleOnce(state.schedule.getTime() + 0.5, (int)(r * 10), new Steppable()
+                    {
+                    public void step(SimState state)
+                        {
+                        Model model = (Model)state;
+                        model.childValues[parent] += state.schedule.getRandom(state).nextDouble();
+                        model.childCounts[parent]++;
+                        }
+                    });
+                }
+            model.stepped.incrementAndGet(ordering);
+            }
+        }
+
+    Model run(long seed, int threads)
+        {
+        Model model = new Model(seed, threads);
+        model.start();
+        for(int i = 0; i < NUM_STEPS * 2; i++)  // the integer steps and the children's half steps
+            model.schedule.step(model);
+        model.finish();
+        return model;
+        }
+
+    public void testReproducible()
+        {
+        Model a = run(7, 4);
+        Model b = run(7, 4);
+        assertEquals(0, a.outOfOrder.get());
+        assertEquals(0, b.outOfOrder.get());
+        assertTrue(Arrays.equals(a.values, b.values));
+        assertTrue(Arrays.equals(a.childValues, b.childValues));
+        assertTrue(Arrays.equals(a.childCounts, b.childCounts));
+        int children = 0;
+        for(int i = 0; i < NUM_AGENTS; i++)
+            children += a.childCounts[i];
+        assertTrue("only " + children + " children", children > NUM_AGENTS);
+
+        // a different seed gives a different run
+        assertFalse(Arrays.equals(a.values, run(8, 4).values));
+        }
+
+    public void testOrderingsKeptAcrossTiers()
+        {
+        for(int threads = 2; threads <= 8; threads *= 2)
+            assertEquals("with " + threads + " threads", 0, run(9, threads).outOfOrder.get());
+        }
+
+    public void testSequential()
+        {
+        // with no parallel threads, getRandom(state) is state.random, and each ordering still comes before the next
+        Model model = run(10, 0);
+        assertEquals(0, model.outOfOrder.get());
+        assertTrue(Arrays.equals(model.values, run(10, 0).values));
+        }
+    }
@@ -0,0 +1,211 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field;
+
+import junit.framework.TestCase;
+import ec.util.MersenneTwisterFast;
+import sim.field.continuous.*;
+import sim.field.grid.*;
+import sim.util.*;
+import java.util.*;
+
+/** Checks the all-pairs NeighborSearch of Continuous2D and SparseGrid2D against a brute-force search of every pair. */
+
+public class NeighborSearchTest extends TestCase
+    {
+    public NeighborSearchTest(String name) { super(name); }
+
+    static double wrapped(double d, double size, boolean toroidal)
+        {
+        d = Math.abs(d);
+        return (toroidal ? Math.min(d, size - d) : d);
+        }
+
+    // Fills a Continuous2D with objects, a third of them within distance of an edge or corner, and some exactly distance apart
+    Object[] fill(Continuous2D field, int n, double distance, MersenneTwisterFast random)
+        {
+        Object[] objs = new Object[n];
+        double w = field.getWidth();
+        double h = field.getHeight();
+        for(int i = 0; i < n; i++)
+            {
+            objs[i] = "" + i;
+            double x = random.nextDouble() * w;
+            double y = random.nextDouble() * h;
+            switch(i % 6)
+                {
+                case 0: x = random.nextDouble() * distance; break;
+                case 1: y = h - random.nextDouble() * distance; break;
+                case 2: x = w - random.nextDouble() * distance; y = random.nextDouble() * distance; break;
+                default: break;
+                }
+            field.setObjectLocation(objs[i], new Double2D(x, y));
+            }
+        // exactly distance apart, directly and across the edges
+        Object[] exact = { "a", "b", "c", "d" };
+        field.setObjectLocation(exact[0], new Double2D(0, h / 2));
+        field.setObjectLocation(exact[1], new Double2D(distance, h / 2));
+        field.setObjectLocation(exact[2], new Double2D(w - distance, h / 2));
+        field.setObjectLocation(exact[3], new Double2D(0, 0));
+        Object[] all = new Object[n + exact.length];
+        System.arraycopy(objs, 0, all, 0, n);
+        System.arraycopy(exact, 0, all, n, exact.length);
+        return all;
+        }
+
+    static HashSet set(Bag bag)
+        {
+        HashSet set = new HashSet();
+        for(int i = 0; i < bag.numObjs; i++)
+            assertTrue("duplicate neighbor " + bag.objs[i], set.add(bag.objs[i]));
+        return set;
+        }
+
+    // Checks every object's neighbors, and every visited pair, against the brute-force neighbors
+    void assertSameNeighbors(HashMap expected, NeighborSearch search, boolean parallel)
+        {
+        assertEquals(expected.size(), search.size());
+        Bag bag = new Bag();
+        Iterator i = expected.keySet().iterator();
+        while(i.hasNext())
+            {
+            Object obj = i.next();
+            assertEquals("neighbors of " + obj, expected.get(obj), set(search.getNeighbors(obj, bag)));
+            }
+        for(int j = 0; j < search.size(); j++)
+            assertEquals(((HashSet)(expected.get(search.getObject(j)))).size(), search.getNumNeighbors(j));
+
+        // each pair is visited exactly once, in either order
+        final HashSet pairs = new HashSet();
+        final int[] duplicates = new int[1];
+        final NeighborSearch s = search;
+        search.visitPairs(new NeighborSearch.Visitor()
+            {
+            public void visit(Object a, Object b)
+                {
+                String pair = (s.getIndex(a) < s.getIndex(b) ? a + "/" + b : b + "/" + a);
+                synchronized(pairs) { if (!pairs.add(pair)) duplicates[0]++; }
+                }
+            }, parallel);
+        assertEquals(0, duplicates[0]);
+        int total = 0;
+        i = expected.values().iterator();
+        while(i.hasNext()) total += ((HashSet)(i.next())).size();
+        assertEquals(total / 2, pairs.size());
+        }
+
+    void checkContinuous(double w, double h, double distance, boolean cellList, MersenneTwisterFast random)
+        {
+        Continuous2D field = new Continuous2D(5, w, h, cellList);
+        Object[] objs = fill(field, 600, distance, random);
+        NeighborSearch search = null;
+        for(int t = 0; t < 2; t++)
+            {
+            boolean toroidal = (t == 1);
+            HashMap expected = new HashMap();
+            for(int a = 0; a < objs.length; a++)
+                {
+                HashSet set = new HashSet();
+                Double2D la = field.getObjectLocation(objs[a]);
+                for(int b = 0; b < objs.length; b++)
+                    {
+                    if (a == b) continue;
+                    Double2D lb = field.getObjectLocation(objs[b]);
+                    double dx = wrapped(la.x - lb.x, w, toroidal);
+                    double dy = wrapped(la.y - lb.y, h, toroidal);
+                    if (dx * dx + dy * dy <= distance * distance) set.add(objs[b]);
+                    }
+                expected.put(objs[a], set);
+                }
+            for(int p = 0; p < 2; p++)
+                {
+                search = field.getAllNeighborsExactlyWithinDistance(distance, toroidal, p == 1, search);  // reused each time
+                assertSameNeighbors(expected, search, p == 1);
+                }
+            }
+        }
+
+    public void testContinuous()
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(1);
+        checkContinuous(100, 80, 2.5, false, random);
+        checkContinuous(100, 80, 2.5, true, random);
+        checkContinuous(100, 80, 7, true, random);
+        }
+
+    public void testContinuousSmallTorus()
+        {
+        // the distance is a large fraction of the field, so a bucket may neighbor the same bucket across both edges
+        MersenneTwisterFast random = new MersenneTwisterFast(2);
+        checkContinuous(10, 6, 4, false, random);
+        checkContinuous(10, 6, 2.5, true, random);
+        checkContinuous(10, 10, 6, false, random);
+        }
+
+    void checkSparse(int w, int h, int dist, MersenneTwisterFast random)
+        {
+        SparseGrid2D field = new SparseGrid2D(w, h);
+        Object[] objs = new Object[500];
+        for(int i = 0; i < objs.length; i++)
+            {
+            objs[i] = "" + i;
+            int x = random.nextInt(w);
+            int y = random.nextInt(h);
+            if (i % 5 == 0) x = (random.nextBoolean() ? 0 : w - 1);
+            if (i % 7 == 0) y = (random.nextBoolean() ? 0 : h - 1);
+            field.setObjectLocation(objs[i], x, y);     // several objects often share a location
+            }
+        NeighborSearch search = null;
+        for(int t = 0; t < 2; t++)
+            {
+            boolean toroidal = (t == 1);
+            HashMap expected = new HashMap();
+            for(int a = 0; a < objs.length; a++)
+                {
+                HashSet set = new HashSet();
+                Int2D la = field.getObjectLocation(objs[a]);
+                for(int b = 0; b < objs.length; b++)
+                    {
+                    if (a == b) continue;
+                    Int2D lb = field.getObjectLocation(objs[b]);
+                    if (Math.max(wrapped(la.x - lb.x, w, toroidal), wrapped(la.y - lb.y, h, toroidal)) <= dist)
+                        set.add(objs[b]);
+                    }
+                expected.put(objs[a], set);
+                }
+            for(int p = 0; p < 2; p++)
+                {
+                search = field.getAllNeighborsMaxDistance(dist, toroidal, p == 1, search);
+                assertSameNeighbors(expected, search, p == 1);
+                }
+            }
+        }
+
+    public void testSparseGrid()
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(3);
+        checkSparse(50, 40, 0, random);
+        checkSparse(50, 40, 1, random);
+        checkSparse(50, 40, 3, random);
+        checkSparse(7, 5, 2, random);
+        checkSparse(7, 5, 3, random);
+        }
+
+    public void testNotComputed()
+        {
+        Continuous2D field = new Continuous2D(5, 10, 10);
+        field.setObjectLocation("a", new Double2D(1, 1));
+        NeighborSearch search = field.loadNeighborSearch(1, false, null);
+        try
+            {
+            search.getNumNeighbors(0);
+            fail("Looked up neighbors before computing them");
+            }
+        catch (IllegalStateException e) { }  // expected
+        assertEquals(0, search.getNeighbors("not loaded", null).numObjs);
+        }
+    }
@@ -0,0 +1,67 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.continuous;
+
+import sim.util.*;
+
+/** A benchmark of Continuous2D's memory and speed with each of its storage options.  This isn't a unit test:
+    run it by hand. */
+
+public class Continuous2DBenchmark
+    {
+    static long usedMemory()
+        {
+        Runtime r = Runtime.getRuntime();
+        for(int i = 0; i < 4; i++) r.gc();
+        return r.totalMemory() - r.freeMemory();
+        }
+        
+    /** Compares the memory and speed of the default HASH_MAPS tables against OPEN_ADDRESSING_MAPS, and against
+        HASH_MAPS with a cell list.
+        Usage: java sim.field.continuous.Continuous2DBenchmark [numObjects] [numSteps] */
+    public static void main(String[] args)
+        {
+        int num = (args.length > 0 ? Integer.parseInt(args[0]) : 1000000);
+        int steps = (args.length > 1 ? Integer.parseInt(args[1]) : 10);
+        double size = Math.sqrt(num) * 10;
+        String[] names = new String[] { "HASH_MAPS", "OPEN_ADDRESSING_MAPS", "CELL_LIST" };
+        
+        for(int type = 0; type < names.length; type++)
+            {
+            ec.util.MersenneTwisterFast random = new ec.util.MersenneTwisterFast(1);
+            Object[] agents = new Object[num];
+            for(int i = 0; i < num; i++) agents[i] = new Object();
+            
+            long before = usedMemory();
+            Continuous2D field = new Continuous2D(10, size, size, type == 2);
+            if (type == Continuous2D.OPEN_ADDRESSING_MAPS) field.setMapType(type);
+            long time = System.currentTimeMillis();
+            for(int i = 0; i < num; i++)
+                field.setObjectLocation(agents[i], new Double2D(random.nextDouble() * size, random.nextDouble() * size));
+            long addTime = System.currentTimeMillis() - time;
+            long memory = usedMemory() - before;
+            
+            time = System.currentTimeMillis();
+            for(int s = 0; s < steps; s++)
+                for(int i = 0; i < num; i++)
+                    {
+                    Double2D loc = field.getObjectLocation(agents[i]);
+                    field.setObjectLocation(agents[i], new Double2D(field.stx(loc.x + random.nextDouble() * 2 - 1), field.sty(loc.y + random.nextDouble() * 2 - 1)));
+                    }
+            long moveTime = System.currentTimeMillis() - time;
+            
+            time = System.currentTimeMillis();
+            long found = 0;
+            for(int i = 0; i < num; i += 100)
+                found += field.getNeighborsExactlyWithinDistance(field.getObjectLocation(agents[i]), 10).numObjs;
+            long queryTime = System.currentTimeMillis() - time;
+            
+            System.out.println(names[type] + ": " + num + " objects.  Memory: " + (memory / (1024 * 1024)) + "MB.  Add: " + 
+                addTime + "ms.  Move x " + steps + ": " + moveTime + "ms.  Queries: " + queryTime + "ms (" + found + " found)");
+            }
+        }
+    }
@@ -0,0 +1,233 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.continuous;
+
+import junit.framework.TestCase;
+import ec.util.MersenneTwisterFast;
+import sim.util.*;
+import java.util.*;
+
+/** Checks that Continuous2D's optional indexes answer queries just as the plain field does, and survive copying. */
+
+public class Continuous2DTest extends TestCase
+    {
+    static final double SIZE = 100;
+    static final int NUM_OBJECTS = 2000;
+
+    public Continuous2DTest(String name)
+        {
+        super(name);
+        }
+
+    Object[] objects()
+        {
+        Object[] objs = new Object[NUM_OBJECTS];
+        for(int i = 0; i < objs.length; i++) objs[i] = "" + i;
+        return objs;
+        }
+
+    // Adds, moves, and removes objects at random in all the fields alike
+    void scramble(Continuous2D[] fields, Object[] objs, MersenneTwisterFast random)
+        {
+        for(int i = 0; i < objs.length * 3; i++)
+            {
+            Object obj = objs[random.nextInt(objs.length)];
+            if (random.nextInt(10) == 0)
+                {
+                for(int f = 0; f < fields.length; f++)
+                    fields[f].remove(obj);
+                }
+            else
+                {
+                Double2D loc = new Double2D(random.nextDouble() * SIZE, random.nextDouble() * SIZE);
+                for(int f = 0; f < fields.length; f++)
+                    fields[f].setObjectLocation(obj, loc);
+                }
+            }
+        }
+
+    static HashSet set(Bag bag)
+        {
+        HashSet set = new HashSet();
+        for(int i = 0; i < bag.numObjs; i++) set.add(bag.objs[i]);
+        return set;
+        }
+
+    // Checks that the fields hold the same objects at the same locations, and answer distance queries alike
+    void assertSameQueries(Continuous2D expected, Continuous2D field, MersenneTwisterFast random)
+        {
+        assertEquals(expected.size(), field.size());
+        for(int i = 0; i < expected.allObjects.numObjs; i++)
+            {
+            Object obj = expected.allObjects.objs[i];
+            assertEquals(expected.getObjectLocation(obj), field.getObjectLocation(obj));
+            }
+        for(int i = 0; i < 200; i++)
+            {
+            Double2D position = new Double2D(random.nextDouble() * SIZE, random.nextDouble() * SIZE);
+            double distance = random.nextDouble() * 15;
+            boolean toroidal = random.nextBoolean();
+            assertEquals(set(expected.getNeighborsExactlyWithinDistance(position, distance, toroidal)),
+                set(field.getNeighborsExactlyWithinDistance(position, distance, toroidal)));
+            }
+        }
+
+    public void testCellListQueries()
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(1);
+        Continuous2D plain = new Continuous2D(5, SIZE, SIZE);
+        Continuous2D cells = new Continuous2D(5, SIZE, SIZE, true);
+        assertTrue(cells.getUsesCellList());
+        scramble(new Continuous2D[] { plain, cells }, objects(), random);
+        assertSameQueries(plain, cells, random);
+        }
+
+    public void testCopyWithCellList()
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(2);
+        Continuous2D plain = new Continuous2D(5, SIZE, SIZE);
+        Continuous2D cells = new Continuous2D(5, SIZE, SIZE, true);
+        Object[] objs = objects();
+        scramble(new Continuous2D[] { plain, cells }, objs, random);
+        Continuous2D copy = new Continuous2D(cells);
+        assertTrue(copy.getUsesCellList());
+        assertSameQueries(plain, copy, random);
+
+        // the copy's cell list is its own, and is kept up to date
+        copy.setObjectLocation("new", new Double2D(50.5, 50.5));
+        assertTrue(set(copy.getNeighborsExactlyWithinDistance(new Double2D(50, 50), 1)).contains("new"));
+        assertFalse(set(cells.getNeighborsExactlyWithinDistance(new Double2D(50, 50), 1)).contains("new"));
+        }
+
+    public void testCopyEmpty()
+        {
+        Continuous2D copy = new Continuous2D(new Continuous2D(5, SIZE, SIZE, true));
+        assertEquals(0, copy.size());
+        copy.setObjectLocation("a", new Double2D(1, 1));
+        assertEquals(1, copy.getNeighborsExactlyWithinDistance(new Double2D(0, 0), 2).numObjs);
+        }
+
+    static double distanceSquared(Double2D a, Double2D b, boolean toroidal)
+        {
+        double dx = Math.abs(a.x - b.x);
+        double dy = Math.abs(a.y - b.y);
+        if (toroidal) { dx = Math.min(dx, SIZE - dx); dy = Math.min(dy, SIZE - dy); }
+        return dx * dx + dy * dy;
+        }
+
+    // Checks the k nearest neighbors from the k-d tree against a brute-force search
+    void assertNearestNeighbors(Continuous2D field, MersenneTwisterFast random)
+        {
+        for(int i = 0; i < 100; i++)
+            {
+            Double2D position = new Double2D(random.nextDouble() * SIZE, random.nextDouble() * SIZE);
+            boolean toroidal = random.nextBoolean();
+            int k = 1 + random.nextInt(20);
+            Bag result = field.getNearestNeighbors(position, k, toroidal, false, true, null);
+            assertEquals(k, result.numObjs);
+
+            double[] all = new double[field.allObjects.numObjs];
+            for(int j = 0; j < all.length; j++)
+                all[j] = distanceSquared(position, field.getObjectLocation(field.allObjects.objs[j]), toroidal);
+            Arrays.sort(all);
+            for(int j = 0; j < k; j++)
+                assertEquals(all[j], distanceSquared(position, field.getObjectLocation(result.objs[j]), toroidal), 1e-9);
+            }
+        }
+
+    public void testKDTreeNearestNeighbors()
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(3);
+        Continuous2D plain = new Continuous2D(5, SIZE, SIZE);
+        Continuous2D tree = new Continuous2D(5, SIZE, SIZE);
+        tree.setUsesKDTree(true);
+        Object[] objs = objects();
+        scramble(new Continuous2D[] { plain, tree }, objs, random);
+        assertNearestNeighbors(tree, random);
+        assertSameQueries(plain, tree, random);
+        // move things after the tree has been built
+        scramble(new Continuous2D[] { plain, tree }, objs, random);
+        assertNearestNeighbors(tree, random);
+        assertSameQueries(plain, tree, random);
+        }
+
+    // A coordinate within a few units of an edge, or right on it
+    static double nearEdge(MersenneTwisterFast random)
+        {
+        switch(random.nextInt(4))
+            {
+            case 0: return 0;
+            case 1: return random.nextDouble() * 3;
+            case 2: return SIZE - random.nextDouble() * 3;
+            default: return random.nextDouble() * SIZE;
+            }
+        }
+
+    public void testBoundaryQueries()
+        {
+        // objects and queries crowded against the edges, checked against a brute-force search of every object
+        MersenneTwisterFast random = new MersenneTwisterFast(5);
+        Continuous2D plain = new Continuous2D(5, SIZE, SIZE);
+        Continuous2D cells = new Continuous2D(5, SIZE, SIZE, true);
+        Continuous2D tree = new Continuous2D(5, SIZE, SIZE);
+        tree.setUsesKDTree(true);
+        Continuous2D[] fields = { plain, cells, tree };
+        Object[] objs = objects();
+        for(int i = 0; i < objs.length; i++)
+            {
+            Double2D loc = new Double2D(nearEdge(random), nearEdge(random));
+            for(int f = 0; f < fields.length; f++)
+                fields[f].setObjectLocation(objs[i], loc);
+            }
+
+        for(int i = 0; i < 300; i++)
+            {
+            Double2D position = new Double2D(nearEdge(random), nearEdge(random));
+            if (i < 4) position = new Double2D(i % 2 == 0 ? 0 : SIZE - 1e-9, i < 2 ? 0 : SIZE - 1e-9);  // the corners
+            double distance = (i % 10 == 0 ? 0 : random.nextDouble() * 8);
+            boolean toroidal = random.nextBoolean();
+            HashSet expected = new HashSet();
+            for(int j = 0; j < objs.length; j++)
+                if (distanceSquared(position, plain.getObjectLocation(objs[j]), toroidal) <= distance * distance)
+                    expected.add(objs[j]);
+            for(int f = 0; f < fields.length; f++)
+                assertEquals("field " + f + " at " + position + " within " + distance + (toroidal ? " toroidal" : ""),
+                    expected, set(fields[f].getNeighborsExactlyWithinDistance(position, distance, toroidal)));
+            }
+        assertNearestNeighbors(tree, random);
+        for(int i = 0; i < 4; i++)
+            {
+            Double2D corner = new Double2D(i % 2 == 0 ? 0 : SIZE - 1e-9, i < 2 ? 0 : SIZE - 1e-9);
+            for(int t = 0; t < 2; t++)
+                {
+                Bag result = tree.getNearestNeighbors(corner, 10, t == 1, false, true, null);
+                double[] all = new double[objs.length];
+                for(int j = 0; j < all.length; j++)
+                    all[j] = distanceSquared(corner, tree.getObjectLocation(objs[j]), t == 1);
+                Arrays.sort(all);
+                assertEquals(10, result.numObjs);
+                for(int j = 0; j < 10; j++)
+                    assertEquals(all[j], distanceSquared(corner, tree.getObjectLocation(result.objs[j]), t == 1), 1e-9);
+                }
+            }
+        }
+
+    public void testCopyWithBothIndexes()
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(4);
+        Continuous2D plain = new Continuous2D(5, SIZE, SIZE);
+        Continuous2D both = new Continuous2D(5, SIZE, SIZE, true);
+        both.setUsesKDTree(true);
+        scramble(new Continuous2D[] { plain, both }, objects(), random);
+        both.getNearestNeighbors(new Double2D(0, 0), 1, false, false, true, null);  // build the tree before copying
+        Continuous2D copy = new Continuous2D(both);
+        assertTrue(copy.getUsesCellList());
+        assertTrue(copy.getUsesKDTree());
+        assertSameQueries(plain, copy, random);
+        assertNearestNeighbors(copy, random);
+        }
+    }
@@ -0,0 +1,86 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.continuous;
+
+import junit.framework.TestCase;
+import ec.util.MersenneTwisterFast;
+import sim.util.*;
+import java.util.*;
+
+/** Checks Continuous3D's k-d tree against brute force, and copying a Continuous3D which uses one. */
+
+public class Continuous3DTest extends TestCase
+    {
+    static final double SIZE = 50;
+
+    public Continuous3DTest(String name)
+        {
+        super(name);
+        }
+
+    Continuous3D build(MersenneTwisterFast random, boolean kdTree)
+        {
+        Continuous3D field = new Continuous3D(5, SIZE, SIZE, SIZE);
+        field.setUsesKDTree(kdTree);
+        for(int i = 0; i < 3000; i++)
+            {
+            Object obj = "" + random.nextInt(1000);
+            if (random.nextInt(10) == 0) field.remove(obj);
+            else field.setObjectLocation(obj, new Double3D(random.nextDouble() * SIZE, random.nextDouble() * SIZE, random.nextDouble() * SIZE));
+            }
+        return field;
+        }
+
+    static double distanceSquared(Double3D a, Double3D b, boolean toroidal)
+        {
+        double dx = Math.abs(a.x - b.x);
+        double dy = Math.abs(a.y - b.y);
+        double dz = Math.abs(a.z - b.z);
+        if (toroidal) { dx = Math.min(dx, SIZE - dx); dy = Math.min(dy, SIZE - dy); dz = Math.min(dz, SIZE - dz); }
+        return dx * dx + dy * dy + dz * dz;
+        }
+
+    void assertNearestNeighbors(Continuous3D field, MersenneTwisterFast random)
+        {
+        for(int i = 0; i < 100; i++)
+            {
+            Double3D position = new Double3D(random.nextDouble() * SIZE, random.nextDouble() * SIZE, random.nextDouble() * SIZE);
+            boolean toroidal = random.nextBoolean();
+            int k = 1 + random.nextInt(20);
+            Bag result = field.getNearestNeighbors(position, k, toroidal, false, true, null);
+            assertEquals(k, result.numObjs);
+            double[] all = new double[field.allObjects.numObjs];
+            for(int j = 0; j < all.length; j++)
+                all[j] = distanceSquared(position, field.getObjectLocation(field.allObjects.objs[j]), toroidal);
+            Arrays.sort(all);
+            for(int j = 0; j < k; j++)
+                assertEquals(all[j], distanceSquared(position, field.getObjectLocation(result.objs[j]), toroidal), 1e-9);
+            }
+        }
+
+    public void testNearestNeighbors()
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(1);
+        assertNearestNeighbors(build(random, true), random);
+        assertNearestNeighbors(build(random, false), random);  // with a k-d tree built just for the query
+        }
+
+    public void testCopyWithKDTree()
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(2);
+        Continuous3D field = build(random, true);
+        Continuous3D copy = new Continuous3D(field);
+        assertTrue(copy.getUsesKDTree());
+        assertEquals(field.size(), copy.size());
+        for(int i = 0; i < field.allObjects.numObjs; i++)
+            {
+            Object obj = field.allObjects.objs[i];
+            assertEquals(field.getObjectLocation(obj), copy.getObjectLocation(obj));
+            }
+        assertNearestNeighbors(copy, random);
+        }
+    }
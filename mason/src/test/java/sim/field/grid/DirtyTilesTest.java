@@ -0,0 +1,161 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+
+import junit.framework.TestCase;
+import sim.util.*;
+
+/** Checks that DirtyTiles and the grids tracking them mark the right tiles, and that each consumer sees the changes since its own epoch. */
+
+public class DirtyTilesTest extends TestCase
+    {
+    public DirtyTilesTest(String name) { super(name); }
+
+    // 37 x 20 with 8 x 8 tiles: the last column and row of tiles are partial
+    static final int WIDTH = 37;
+    static final int HEIGHT = 20;
+
+    int countDirty(DirtyTiles tiles, long since)
+        {
+        int count = 0;
+        for(int tx = 0; tx < tiles.getTilesWide(); tx++)
+            for(int ty = 0; ty < tiles.getTilesHigh(); ty++)
+                if (tiles.isDirty(tx, ty, since)) count++;
+        return count;
+        }
+
+    public void testShape()
+        {
+        DirtyTiles tiles = new DirtyTiles(WIDTH, HEIGHT, 6);   // rounded up to 8
+        assertEquals(8, tiles.getTileSize());
+        assertEquals(5, tiles.getTilesWide());
+        assertEquals(3, tiles.getTilesHigh());
+        // everything starts out dirty
+        assertEquals(15, countDirty(tiles, 0));
+
+        tiles.reshape(8, 9);
+        assertEquals(1, tiles.getTilesWide());
+        assertEquals(2, tiles.getTilesHigh());
+        tiles.reshape(0, 0);
+        assertEquals(0, tiles.getTilesWide());
+        assertFalse(tiles.isDirty(0));
+
+        try
+            {
+            new DirtyTiles(WIDTH, HEIGHT, 0);
+            fail("Created a DirtyTiles with an empty tile");
+            }
+        catch (IllegalArgumentException e) { }  // expected
+        }
+
+    public void testMark()
+        {
+        DirtyTiles tiles = new DirtyTiles(WIDTH, HEIGHT, 8);
+        long since = tiles.nextEpoch();
+        assertEquals(since, tiles.getEpoch());
+        assertFalse(tiles.isDirty(since));
+        assertEquals(15, countDirty(tiles, 0));   // still dirty to someone who's never looked
+
+        // the last location, in the partial corner tile, and the first
+        tiles.mark(WIDTH - 1, HEIGHT - 1);
+        tiles.mark(0, 0);
+        assertTrue(tiles.isDirty(4, 2, since));
+        assertTrue(tiles.isDirty(0, 0, since));
+        assertEquals(2, countDirty(tiles, since));
+        IntBag tx = new IntBag();
+        IntBag ty = new IntBag();
+        tx.add(99);
+        assertEquals(2, tiles.getDirtyTiles(since, tx, ty));
+        assertEquals(2, tx.numObjs);
+        assertEquals(0, tx.get(0) + ty.get(0));
+        assertEquals(6, tx.get(1) + ty.get(1));
+
+        // a rectangle crossing tile boundaries and hanging off the edges of the grid
+        since = tiles.nextEpoch();
+        tiles.mark(15, -5, 17, 9);
+        assertEquals(4, countDirty(tiles, since));
+        assertTrue(tiles.isDirty(1, 0, since));
+        assertTrue(tiles.isDirty(2, 1, since));
+        since = tiles.nextEpoch();
+        tiles.mark(30, 10, 100, 100);
+        assertEquals(4, countDirty(tiles, since));
+        assertTrue(tiles.isDirty(4, 2, since));
+        assertFalse(tiles.isDirty(3, 0, since));
+
+        // empty rectangles mark nothing
+        since = tiles.nextEpoch();
+        tiles.mark(5, 5, 5, 10);
+        tiles.mark(-10, -10, 0, 0);
+        tiles.mark(WIDTH, 0, WIDTH + 5, HEIGHT);
+        assertFalse(tiles.isDirty(since));
+
+        tiles.markAll();
+        assertEquals(15, countDirty(tiles, since));
+        }
+
+    public void testEpochs()
+        {
+        DirtyTiles tiles = new DirtyTiles(WIDTH, HEIGHT, 8);
+
+        // two consumers looking at different times
+        long a = 0;
+        long b = 0;
+        a = tiles.nextEpoch();
+        tiles.mark(3, 3);
+        assertEquals(1, countDirty(tiles, a));
+        assertEquals(15, countDirty(tiles, b));
+        b = tiles.nextEpoch();
+        tiles.mark(20, 12);
+        assertEquals(2, countDirty(tiles, a));   // a hasn't looked since the first change
+        assertEquals(1, countDirty(tiles, b));
+        assertTrue(tiles.isDirty(2, 1, b));
+        a = tiles.nextEpoch();
+        assertFalse(tiles.isDirty(a));
+        assertTrue(tiles.isDirty(b));
+
+        // a tile changed again later is stamped with the later epoch
+        tiles.mark(3, 3);
+        assertTrue(tiles.isDirty(0, 0, a));
+        b = tiles.nextEpoch();
+        assertFalse(tiles.isDirty(b));
+        }
+
+    public void testGrids()
+        {
+        DoubleGrid2D doubles = new DoubleGrid2D(WIDTH, HEIGHT);
+        assertNull(doubles.getDirtyTiles());
+        doubles.set(1, 1, 1);   // not tracking: no harm done
+        doubles.markDirty(1, 1);
+        doubles.setTracksDirtyTiles(true);
+        DirtyTiles tiles = doubles.getDirtyTiles();
+        assertEquals(DirtyTiles.DEFAULT_TILE_SIZE, tiles.getTileSize());
+
+        long since = tiles.nextEpoch();
+        doubles.set(WIDTH - 1, 0, 2);
+        assertEquals(1, countDirty(tiles, since));
+        assertTrue(tiles.isDirty(tiles.getTilesWide() - 1, 0, since));
+        since = tiles.nextEpoch();
+        doubles.setTo(3);
+        assertEquals(tiles.getTilesWide() * tiles.getTilesHigh(), countDirty(tiles, since));
+
+        // resizing the grid reshapes its tracker
+        since = tiles.nextEpoch();
+        doubles.reshape(100, 50);
+        assertSame(tiles, doubles.getDirtyTiles());
+        assertEquals(7, tiles.getTilesWide());
+        assertEquals(4, tiles.getTilesHigh());
+        assertTrue(tiles.isDirty(6, 3, since));
+
+        IntGrid2D ints = new IntGrid2D(WIDTH, HEIGHT);
+        ints.setTracksDirtyTiles(true);
+        since = ints.getDirtyTiles().nextEpoch();
+        ints.set(0, HEIGHT - 1, 4);
+        assertTrue(ints.getDirtyTiles().isDirty(0, 1, since));
+        ints.setTracksDirtyTiles(false);
+        assertNull(ints.getDirtyTiles());
+        }
+    }
@@ -0,0 +1,331 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+
+import junit.framework.TestCase;
+import sim.util.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/** Checks that mapped grids hold the same values and give the same answers as DoubleGrid2D and IntGrid2D, in each mode and across serialization. */
+
+public class MappedGridTest extends TestCase
+    {
+    public MappedGridTest(String name) { super(name); }
+
+    // not a multiple of TILE_SIZE either way, so the padded edge tiles are exercised
+    static final int WIDTH = 150;
+    static final int HEIGHT = 70;
+
+    ArrayList files = new ArrayList();
+
+    File newFile() throws IOException
+        {
+        File file = File.createTempFile("grid", ".map");
+        file.deleteOnExit();
+        files.add(file);
+        return file;
+        }
+
+    protected void tearDown()
+        {
+        for(int i = 0; i < files.size(); i++)
+            ((File)files.get(i)).delete();
+        }
+
+    DoubleGrid2D randomDoubles(long seed)
+        {
+        Random random = new Random(seed);
+        DoubleGrid2D grid = new DoubleGrid2D(WIDTH, HEIGHT);
+        for(int x = 0; x < WIDTH; x++)
+            for(int y = 0; y < HEIGHT; y++)
+                grid.field[x][y] = random.nextGaussian() * 10;
+        return grid;
+        }
+
+    IntGrid2D randomInts(long seed)
+        {
+        Random random = new Random(seed);
+        IntGrid2D grid = new IntGrid2D(WIDTH, HEIGHT);
+        for(int x = 0; x < WIDTH; x++)
+            for(int y = 0; y < HEIGHT; y++)
+                grid.field[x][y] = random.nextInt(1000) - 500;
+        return grid;
+        }
+
+    void assertSameValues(DoubleGrid2D expected, MappedDoubleGrid2D actual)
+        {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for(int x = 0; x < expected.getWidth(); x++)
+            for(int y = 0; y < expected.getHeight(); y++)
+                assertEquals("(" + x + ", " + y + ")", expected.field[x][y], actual.get(x, y), 0);
+        }
+
+    Object roundTrip(Object obj) throws Exception
+        {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(obj);
+        out.close();
+        return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        }
+
+    public void testDoubleValues() throws IOException
+        {
+        DoubleGrid2D expected = randomDoubles(1);
+        MappedDoubleGrid2D grid = new MappedDoubleGrid2D(newFile(), expected);
+        assertEquals(MappedGrid2D.READ_WRITE, grid.getMode());
+        assertSameValues(expected, grid);
+
+        DoubleGrid2D copy = grid.toDoubleGrid2D();
+        for(int x = 0; x < WIDTH; x++)
+            assertTrue(Arrays.equals(expected.field[x], copy.field[x]));
+        assertTrue(Arrays.equals(expected.toArray(), grid.toArray()));
+
+        // a window straddling tile boundaries
+        DoubleGrid2D window = grid.copyTo(new DoubleGrid2D(40, 30), 50, 20);
+        for(int x = 0; x < 40; x++)
+            for(int y = 0; y < 30; y++)
+                assertEquals(expected.field[50 + x][20 + y], window.field[x][y], 0);
+        try
+            {
+            grid.copyTo(new DoubleGrid2D(40, 30), 120, 0);
+            fail("Copied a window which doesn't fit");
+            }
+        catch (IllegalArgumentException e) { }  // expected
+
+        // copying into a grid tracking dirty tiles marks it all as changed, so its portrayal redraws it
+        window.setTracksDirtyTiles(true);
+        long since = window.getDirtyTiles().nextEpoch();
+        grid.copyTo(window, 0, 0);
+        assertTrue(window.getDirtyTiles().isDirty(0, 0, since));
+        assertTrue(window.getDirtyTiles().isDirty(window.getDirtyTiles().getTilesWide() - 1, window.getDirtyTiles().getTilesHigh() - 1, since));
+
+        assertEquals(expected.max(), grid.max(), 0);
+        assertEquals(expected.min(), grid.min(), 0);
+        assertEquals(expected.mean(), grid.mean(), 1e-9);
+
+        grid.set(149, 69, 1234.5);
+        assertEquals(1234.5, grid.get(149, 69), 0);
+        assertEquals(1234.5, grid.max(), 0);
+        }
+
+    public void testDoubleOperations() throws IOException
+        {
+        DoubleGrid2D expected = randomDoubles(2);
+        MappedDoubleGrid2D grid = new MappedDoubleGrid2D(newFile(), expected);
+
+        expected.add(3.5); grid.add(3.5);
+        assertSameValues(expected, grid);
+        expected.multiply(-0.5); grid.multiply(-0.5);
+        assertSameValues(expected, grid);
+        expected.upperBound(4); grid.upperBound(4);
+        assertSameValues(expected, grid);
+        expected.lowerBound(-6); grid.lowerBound(-6);
+        assertSameValues(expected, grid);
+        expected.rint(); grid.rint();
+        assertSameValues(expected, grid);
+        expected.replaceAll(4, 17); grid.replaceAll(4, 17);
+        assertSameValues(expected, grid);
+        expected.multiply(0.3); grid.multiply(0.3);
+        DoubleGrid2D floored = new DoubleGrid2D(expected).floor();
+        DoubleGrid2D ceilinged = new DoubleGrid2D(expected).ceiling();
+        expected.truncate(); grid.truncate();
+        assertSameValues(expected, grid);
+
+        grid.setTo(floored);
+        assertSameValues(floored, grid);
+        grid.setTo(ceilinged);
+        assertSameValues(ceilinged, grid);
+        grid.setTo(2.25);
+        assertEquals(2.25, grid.min(), 0);
+        assertEquals(2.25, grid.max(), 0);
+        assertEquals(2.25 * WIDTH * HEIGHT, grid.sum(), 1e-9);
+        }
+
+    public void testDoubleNeighbors() throws IOException
+        {
+        DoubleGrid2D expected = randomDoubles(3);
+        MappedDoubleGrid2D grid = new MappedDoubleGrid2D(newFile(), expected);
+        int[] modes = { Grid2D.BOUNDED, Grid2D.TOROIDAL };   // DoubleGrid2D can't do UNBOUNDED
+        int[][] points = { { 0, 0 }, { 63, 64 }, { 149, 69 }, { 75, 35 } };
+        for(int m = 0; m < modes.length; m++)
+            for(int p = 0; p < points.length; p++)
+                {
+                int x = points[p][0];
+                int y = points[p][1];
+                assertSameBag(expected.getMooreNeighbors(x, y, 2, modes[m], true), grid.getMooreNeighbors(x, y, 2, modes[m], true));
+                assertSameBag(expected.getVonNeumannNeighbors(x, y, 3, modes[m], false), grid.getVonNeumannNeighbors(x, y, 3, modes[m], false));
+                assertSameBag(expected.getHexagonalNeighbors(x, y, 2, modes[m], true), grid.getHexagonalNeighbors(x, y, 2, modes[m], true));
+                assertSameBag(expected.getRadialNeighbors(x, y, 2.5, modes[m], true), grid.getRadialNeighbors(x, y, 2.5, modes[m], true));
+                }
+        }
+
+    void assertSameBag(DoubleBag expected, DoubleBag actual)
+        {
+        assertEquals(expected.numObjs, actual.numObjs);
+        for(int i = 0; i < expected.numObjs; i++)
+            assertEquals(expected.objs[i], actual.objs[i], 0);
+        }
+
+    public void testReadOnly() throws IOException
+        {
+        File file = newFile();
+        DoubleGrid2D expected = randomDoubles(4);
+        new MappedDoubleGrid2D(file, expected).flush();
+
+        MappedDoubleGrid2D grid = new MappedDoubleGrid2D(file, MappedGrid2D.READ_ONLY);
+        assertSameValues(expected, grid);
+        try
+            {
+            grid.set(1, 1, 0);
+            fail("Changed a READ_ONLY grid");
+            }
+        catch (ReadOnlyBufferException e) { }  // expected
+        try
+            {
+            grid.add(1);
+            fail("Changed a READ_ONLY grid");
+            }
+        catch (ReadOnlyBufferException e) { }  // expected
+        try
+            {
+            grid.reshape(10, 10);
+            fail("Reshaped a READ_ONLY grid");
+            }
+        catch (RuntimeException e) { }  // expected
+        }
+
+    public void testReadWriteIsShared() throws IOException
+        {
+        File file = newFile();
+        MappedDoubleGrid2D writer = new MappedDoubleGrid2D(file, WIDTH, HEIGHT, 1.0);
+        writer.set(100, 50, 42);
+        writer.flush();
+
+        MappedDoubleGrid2D reader = new MappedDoubleGrid2D(file, MappedGrid2D.READ_ONLY);
+        assertEquals(42, reader.get(100, 50), 0);
+        assertEquals(1, reader.get(99, 50), 0);
+        writer.set(0, 0, 7);
+        writer.flush();
+        assertEquals(7, reader.get(0, 0), 0);
+        }
+
+    public void testPrivateIsNotShared() throws IOException
+        {
+        File file = newFile();
+        new MappedDoubleGrid2D(file, WIDTH, HEIGHT, 1.0).flush();
+
+        MappedDoubleGrid2D a = new MappedDoubleGrid2D(file, MappedGrid2D.PRIVATE);
+        MappedDoubleGrid2D b = new MappedDoubleGrid2D(file, MappedGrid2D.PRIVATE);
+        a.set(10, 10, 5);
+        b.add(1);
+        assertEquals(5, a.get(10, 10), 0);
+        assertEquals(1, a.get(11, 10), 0);
+        assertEquals(2, b.get(10, 10), 0);
+        assertEquals(1, new MappedDoubleGrid2D(file, MappedGrid2D.READ_ONLY).get(10, 10), 0);
+
+        try
+            {
+            a.reshape(10, 10);
+            fail("Reshaped a PRIVATE grid");
+            }
+        catch (RuntimeException e) { }  // expected
+        }
+
+    public void testSerialization() throws Exception
+        {
+        File file = newFile();
+        DoubleGrid2D expected = randomDoubles(5);
+        new MappedDoubleGrid2D(file, expected).flush();
+
+        MappedDoubleGrid2D readOnly = new MappedDoubleGrid2D(file, MappedGrid2D.READ_ONLY);
+        MappedDoubleGrid2D copy = (MappedDoubleGrid2D)roundTrip(readOnly);
+        assertEquals(MappedGrid2D.READ_ONLY, copy.getMode());
+        assertEquals(readOnly.getFile(), copy.getFile());
+        assertSameValues(expected, copy);
+
+        // a PRIVATE grid carries its changes with it, but still doesn't write them to the file
+        MappedDoubleGrid2D priv = new MappedDoubleGrid2D(file, MappedGrid2D.PRIVATE);
+        priv.set(3, 4, -1);
+        priv.set(140, 65, -2);
+        expected.field[3][4] = -1;
+        expected.field[140][65] = -2;
+        copy = (MappedDoubleGrid2D)roundTrip(priv);
+        assertEquals(MappedGrid2D.PRIVATE, copy.getMode());
+        assertSameValues(expected, copy);
+        assertFalse(readOnly.get(3, 4) == -1);
+
+        // the file has to be the same size when it's mapped again
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(readOnly);
+        out.close();
+        new MappedDoubleGrid2D(file, 10, 10).flush();
+        try
+            {
+            new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+            fail("Restored a grid whose file has changed size");
+            }
+        catch (InvalidObjectException e) { }  // expected
+        }
+
+    public void testInts() throws Exception
+        {
+        IntGrid2D expected = randomInts(6);
+        File file = newFile();
+        MappedIntGrid2D grid = new MappedIntGrid2D(file, expected);
+        IntGrid2D copy = grid.toIntGrid2D();
+        for(int x = 0; x < WIDTH; x++)
+            assertTrue(Arrays.equals(expected.field[x], copy.field[x]));
+        assertTrue(Arrays.equals(expected.toArray(), grid.toArray()));
+
+        long sum = 0;
+        for(int x = 0; x < WIDTH; x++)
+            for(int y = 0; y < HEIGHT; y++)
+                sum += expected.field[x][y];
+        assertEquals(sum, grid.sum());
+        assertEquals(expected.max(), grid.max());
+        assertEquals(expected.min(), grid.min());
+
+        expected.add(7); grid.add(7);
+        expected.multiply(3); grid.multiply(3);
+        expected.upperBound(600); grid.upperBound(600);
+        expected.lowerBound(-600); grid.lowerBound(-600);
+        expected.replaceAll(600, 0); grid.replaceAll(600, 0);
+        copy = grid.copyTo(new IntGrid2D(1, 1));
+        for(int x = 0; x < WIDTH; x++)
+            assertTrue(Arrays.equals(expected.field[x], copy.field[x]));
+
+        copy.setTracksDirtyTiles(true);
+        long since = copy.getDirtyTiles().nextEpoch();
+        grid.copyTo(copy, 0, 0);
+        assertTrue(copy.getDirtyTiles().isDirty(copy.getDirtyTiles().getTilesWide() - 1, 0, since));
+
+        IntBag e = expected.getMooreNeighbors(64, 63, 2, Grid2D.TOROIDAL, true);
+        IntBag a = grid.getMooreNeighbors(64, 63, 2, Grid2D.TOROIDAL, true);
+        assertEquals(e.numObjs, a.numObjs);
+        for(int i = 0; i < e.numObjs; i++)
+            assertEquals(e.objs[i], a.objs[i]);
+
+        grid.flush();
+        MappedIntGrid2D priv = new MappedIntGrid2D(file, MappedGrid2D.PRIVATE);
+        priv.set(149, 0, 12345);
+        MappedIntGrid2D restored = (MappedIntGrid2D)roundTrip(priv);
+        assertEquals(12345, restored.get(149, 0));
+        assertEquals(expected.field[148][0], restored.get(148, 0));
+
+        try
+            {
+            new MappedDoubleGrid2D(file, MappedGrid2D.READ_ONLY);
+            fail("Mapped an int grid as a double grid");
+            }
+        catch (IOException ex) { }  // expected
+        }
+    }
@@ -0,0 +1,98 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+
+import junit.framework.TestCase;
+import sim.util.*;
+import java.util.*;
+
+/** Checks that Neighborhoods visit the same set of locations as the get...Locations(...) methods, each only once. */
+
+public class NeighborhoodTest extends TestCase
+    {
+    public NeighborhoodTest(String name) { super(name); }
+
+    DoubleGrid2D grid;
+
+    List visited(Neighborhood neighborhood, int x, int y, int mode)
+        {
+        final List list = new ArrayList();
+        grid.visitLocations(neighborhood, x, y, mode, new Neighborhood.Visitor()
+            {
+            public void visit(int x, int y) { list.add(new Int2D(x, y)); }
+            });
+        return list;
+        }
+
+    List located(int type, int x, int y, int dist, int mode, boolean includeOrigin)
+        {
+        IntBag xPos = new IntBag();
+        IntBag yPos = new IntBag();
+        if (type == Neighborhood.MOORE) grid.getMooreLocations(x, y, dist, mode, includeOrigin, xPos, yPos);
+        else if (type == Neighborhood.VON_NEUMANN) grid.getVonNeumannLocations(x, y, dist, mode, includeOrigin, xPos, yPos);
+        else grid.getHexagonalLocations(x, y, dist, mode, includeOrigin, xPos, yPos);
+        List list = new ArrayList();
+        for(int i = 0; i < xPos.numObjs; i++)
+            list.add(new Int2D(xPos.objs[i], yPos.objs[i]));
+        return list;
+        }
+
+    void check(int width, int height, int mode)
+        {
+        grid = new DoubleGrid2D(width, height);
+        for(int type = Neighborhood.MOORE; type <= Neighborhood.HEXAGONAL; type++)
+            for(int dist = 0; dist <= 3; dist++)
+                for(int origin = 0; origin < 2; origin++)
+                    {
+                    boolean includeOrigin = (origin == 1);
+                    Neighborhood neighborhood = Neighborhood.get(type, dist, includeOrigin);
+                    for(int x = 0; x < width; x++)
+                        for(int y = 0; y < height; y++)
+                            {
+                            String where = "type " + type + " dist " + dist + " origin " + includeOrigin + " at " + x + ", " + y;
+                            List v = visited(neighborhood, x, y, mode);
+                            Set expected = new HashSet(located(type, x, y, dist, mode, includeOrigin));
+                            if (!includeOrigin) expected.remove(new Int2D(x, y));
+                            assertEquals(where, expected, new HashSet(v));
+                            assertEquals(where + " visited twice", v.size(), new HashSet(v).size());
+                            }
+                    }
+        }
+
+    public void testBounded() { check(10, 12, Grid2D.BOUNDED); }
+
+    public void testToroidal() { check(10, 12, Grid2D.TOROIDAL); }
+
+    public void testSmallToroidal()
+        {
+        check(4, 4, Grid2D.TOROIDAL);
+        check(6, 6, Grid2D.TOROIDAL);
+        }
+
+    public void testWrappedMooreDiffersInCount()
+        {
+        // getMooreLocations(...) returns duplicates when a wide, short grid wraps vertically; the Neighborhood doesn't
+        grid = new DoubleGrid2D(5, 2);
+        List located = located(Neighborhood.MOORE, 2, 0, 1, Grid2D.TOROIDAL, true);
+        List v = visited(Neighborhood.get(Neighborhood.MOORE, 1, true), 2, 0, Grid2D.TOROIDAL);
+        assertEquals(new HashSet(located), new HashSet(v));
+        assertEquals(6, v.size());
+        assertTrue(located.size() > v.size());
+        }
+    
+    public void testWrappedMooreOnTallGrid()
+        {
+        // getMooreLocations(...) wraps only as far as the grid's width when a tall, narrow grid wraps vertically,
+        // so it misses rows; the Neighborhood covers the whole grid
+        grid = new DoubleGrid2D(4, 6);
+        List located = located(Neighborhood.MOORE, 0, 0, 3, Grid2D.TOROIDAL, true);
+        List v = visited(Neighborhood.get(Neighborhood.MOORE, 3, true), 0, 0, Grid2D.TOROIDAL);
+        assertEquals(24, v.size());
+        assertEquals(24, new HashSet(v).size());
+        assertEquals(16, new HashSet(located).size());
+        }
+    }
@@ -0,0 +1,170 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+
+import junit.framework.TestCase;
+import ec.util.MersenneTwisterFast;
+import java.util.concurrent.*;
+
+/** Checks that Stencils compute the same values serially and in parallel, and that diffusion matches Diffuser bit for bit. */
+
+public class StencilTest extends TestCase
+    {
+    static final double EVAPORATION_RATE = 0.99;
+    static final double DIFFUSION_RATE = 0.99;
+
+    ForkJoinPool pool;
+
+    public StencilTest(String name) { super(name); }
+
+    protected void setUp() { pool = new ForkJoinPool(4); }
+    protected void tearDown() { pool.shutdown(); }
+
+    DoubleGrid2D randomGrid(int width, int height, long seed)
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(seed);
+        DoubleGrid2D grid = new DoubleGrid2D(width, height);
+        for(int x = 0; x < width; x++)
+            for(int y = 0; y < height; y++)
+                grid.field[x][y] = random.nextDouble() * 1000;
+        return grid;
+        }
+
+    // the inner loop of sim.app.heatbugs.Diffuser, which the diffusion stencil must match exactly
+    double[][] diffuse(double[][] field, double evaporationRate, double diffusionRate)
+        {
+        int width = field.length;
+        int height = field[0].length;
+        double[][] put = new double[width][height];
+        for(int x = 0; x < width; x++)
+            {
+            double[] past = field[(x + width - 1) % width];
+            double[] current = field[x];
+            double[] next = field[(x + 1) % width];
+            for(int y = 0; y < height; y++)
+                {
+                int yminus1 = (y + height - 1) % height;
+                int yplus1 = (y + 1) % height;
+                double average = (past[yminus1] + past[y] + past[yplus1] +
+                    current[yminus1] + current[y] + current[yplus1] +
+                    next[yminus1] + next[y] + next[yplus1]) / 9.0;
+                put[x][y] = evaporationRate * (current[y] + diffusionRate * (average - current[y]));
+                }
+            }
+        return put;
+        }
+
+    // the weighted sum of the neighbors of each location, done the slow way
+    double[][] convolve(double[][] field, double[][] weights, boolean toroidal)
+        {
+        int width = field.length;
+        int height = field[0].length;
+        int rx = weights.length / 2;
+        int ry = weights[0].length / 2;
+        double[][] out = new double[width][height];
+        for(int x = 0; x < width; x++)
+            for(int y = 0; y < height; y++)
+                {
+                double sum = 0;
+                for(int dx = -rx; dx <= rx; dx++)
+                    for(int dy = -ry; dy <= ry; dy++)
+                        {
+                        int xx = x + dx;
+                        int yy = y + dy;
+                        if (toroidal) { xx = (xx % width + width) % width; yy = (yy % height + height) % height; }
+                        else if (xx < 0 || xx >= width || yy < 0 || yy >= height) continue;
+                        sum += weights[dx + rx][dy + ry] * field[xx][yy];
+                        }
+                out[x][y] = sum;
+                }
+        return out;
+        }
+
+    void assertSame(double[][] expected, double[][] actual)
+        {
+        for(int x = 0; x < expected.length; x++)
+            for(int y = 0; y < expected[x].length; y++)
+                assertEquals("at " + x + ", " + y, Double.doubleToLongBits(expected[x][y]), Double.doubleToLongBits(actual[x][y]));
+        }
+
+    void assertClose(double[][] expected, double[][] actual)
+        {
+        for(int x = 0; x < expected.length; x++)
+            for(int y = 0; y < expected[x].length; y++)
+                assertEquals("at " + x + ", " + y, expected[x][y], actual[x][y], 1e-9);
+        }
+
+    void checkDiffusion(int width, int height)
+        {
+        DoubleGrid2D grid = randomGrid(width, height, width * 31 + height);
+        double[][] expected = diffuse(grid.field, EVAPORATION_RATE, DIFFUSION_RATE);
+
+        Stencil serial = Stencil.diffusion2D(EVAPORATION_RATE, DIFFUSION_RATE);
+        serial.setUsesForkJoin(false);
+        assertSame(expected, serial.apply(grid, new DoubleGrid2D(width, height), Grid2D.TOROIDAL).field);
+
+        Stencil parallel = Stencil.diffusion2D(EVAPORATION_RATE, DIFFUSION_RATE);
+        parallel.setForkJoinPool(pool);
+        parallel.setMinParallelSize(0);
+        assertSame(expected, parallel.apply(grid, new DoubleGrid2D(width, height), Grid2D.TOROIDAL).field);
+        }
+
+    public void testDiffusionMatchesDiffuser()
+        {
+        checkDiffusion(100, 100);   // HeatBugs' own size
+        checkDiffusion(40, 5000);   // several tiles along each column
+        checkDiffusion(3, 3);
+        }
+
+    public void testRepeatedDiffusionMatchesDiffuser()
+        {
+        DoubleGrid2D grid = randomGrid(100, 100, 1);
+        DoubleGrid2D scratch = new DoubleGrid2D(100, 100);
+        double[][] expected = grid.field;
+        Stencil stencil = Stencil.diffusion2D(EVAPORATION_RATE, DIFFUSION_RATE);
+        stencil.setForkJoinPool(pool);
+        for(int i = 0; i < 50; i++)
+            {
+            expected = diffuse(expected, EVAPORATION_RATE, DIFFUSION_RATE);
+            stencil.step(grid, scratch, Grid2D.TOROIDAL);
+            }
+        assertSame(expected, grid.field);
+        }
+
+    public void testMinParallelSize()
+        {
+        Stencil stencil = Stencil.diffusion2D(EVAPORATION_RATE, DIFFUSION_RATE);
+        assertTrue(100 * 100 >= stencil.getMinParallelSize());
+        stencil.setMinParallelSize(-5);
+        assertEquals(0, stencil.getMinParallelSize());
+        }
+
+    public void testGeneralStencil()
+        {
+        double[][] weights = new double[5][3];
+        MersenneTwisterFast random = new MersenneTwisterFast(2);
+        for(int i = 0; i < weights.length; i++)
+            for(int j = 0; j < weights[i].length; j++)
+                weights[i][j] = random.nextDouble() - 0.5;
+        DoubleGrid2D grid = randomGrid(37, 3000, 3);
+
+        int[] modes = new int[] { Grid2D.TOROIDAL, Grid2D.BOUNDED };
+        for(int m = 0; m < modes.length; m++)
+            {
+            double[][] expected = convolve(grid.field, weights, modes[m] == Grid2D.TOROIDAL);
+            Stencil serial = new Stencil(weights);
+            serial.setUsesForkJoin(false);
+            double[][] a = serial.apply(grid, new DoubleGrid2D(37, 3000), modes[m]).field;
+            assertClose(expected, a);
+
+            Stencil parallel = new Stencil(weights);
+            parallel.setForkJoinPool(pool);
+            parallel.setMinParallelSize(0);
+            assertSame(a, parallel.apply(grid, new DoubleGrid2D(37, 3000), modes[m]).field);
+            }
+        }
+    }
@@ -0,0 +1,151 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util;
+
+import junit.framework.TestCase;
+import ec.util.MersenneTwisterFast;
+import sim.field.SparseField;
+import sim.field.grid.SparseGrid2D;
+import java.io.*;
+import java.util.*;
+
+/** Checks IdentityOpenMap and LocationOpenMap against the java.util maps they stand in for. */
+
+public class OpenMapTest extends TestCase
+    {
+    public OpenMapTest(String name)
+        {
+        super(name);
+        }
+
+    Object randomLocation(MersenneTwisterFast random)
+        {
+        int x = random.nextInt(40) - 20;
+        int y = random.nextInt(40) - 20;
+        switch(random.nextInt(4))
+            {
+            case 0: return new Int2D(x, y);
+            case 1: return new MutableInt2D(x, y);
+            case 2: return new Int3D(x, y, 1);        // can't be packed
+            default: return (random.nextBoolean() ? new Int2D(Integer.MIN_VALUE, y) : new Int2D(x, Integer.MAX_VALUE));
+            }
+        }
+
+    Object copy(Object obj) throws Exception
+        {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(obj);
+        out.close();
+        return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        }
+
+    public void testLocationOpenMap() throws Exception
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(1);
+        LocationOpenMap map = new LocationOpenMap();
+        HashMap expected = new HashMap();
+        for(int i = 0; i < 100000; i++)
+            {
+            Object key = randomLocation(random);
+            Object lookup = (key instanceof Int2D && random.nextBoolean()) ? (Object)(new MutableInt2D((Int2D)key)) : key;
+            if (key instanceof MutableInt2D) key = new Int2D(((MutableInt2D)key).x, ((MutableInt2D)key).y);  // don't let the reference map hold mutable keys
+            switch(random.nextInt(4))
+                {
+                case 0: case 1:
+                    Object value = (random.nextInt(10) == 0 ? null : Integer.valueOf(i));
+                    assertEquals(expected.put(key, value), map.put(lookup, value));
+                    break;
+                case 2:
+                    assertEquals(expected.remove(key), map.remove(lookup));
+                    break;
+                default:
+                    assertEquals(expected.get(key), map.get(lookup));
+                    assertEquals(expected.containsKey(key), map.containsKey(lookup));
+                    break;
+                }
+            assertEquals(expected.size(), map.size());
+            }
+        assertEquals(expected, new HashMap(map));
+        assertEquals(expected, new HashMap((Map)copy(map)));
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(new Int2D(0, 0)));
+        }
+
+    public void testIdentityOpenMap() throws Exception
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(2);
+        Object[] keys = new Object[500];
+        for(int i = 0; i < keys.length; i++)
+            keys[i] = new Int2D(0, 0);  // all equal, but not identical
+        IdentityOpenMap map = new IdentityOpenMap();
+        IdentityHashMap expected = new IdentityHashMap();
+        for(int i = 0; i < 100000; i++)
+            {
+            Object key = keys[random.nextInt(keys.length)];
+            switch(random.nextInt(4))
+                {
+                case 0: case 1:
+                    Object value = (random.nextInt(10) == 0 ? null : Integer.valueOf(i));
+                    assertEquals(expected.put(key, value), map.put(key, value));
+                    break;
+                case 2:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                default:
+                    assertEquals(expected.get(key), map.get(key));
+                    assertEquals(expected.containsKey(key), map.containsKey(key));
+                    break;
+                }
+            assertEquals(expected.size(), map.size());
+            }
+        assertEquals(expected, new IdentityHashMap(map));
+        IdentityOpenMap copy = (IdentityOpenMap)(copy(map));
+        assertEquals(map.size(), copy.size());
+        }
+
+    String describe(SparseGrid2D grid, Object[] objs)
+        {
+        StringBuffer buf = new StringBuffer();
+        for(int i = 0; i < objs.length; i++)
+            {
+            Int2D loc = grid.getObjectLocation(objs[i]);
+            buf.append(loc);
+            if (loc != null) buf.append(grid.numObjectsAtLocation(loc));
+            }
+        return buf.toString();
+        }
+
+    public void testSparseFieldMapTypes()
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(3);
+        SparseGrid2D hashed = new SparseGrid2D(30, 30);
+        SparseGrid2D open = new SparseGrid2D(30, 30);
+        open.setMapType(SparseField.OPEN_ADDRESSING_MAPS);
+        Object[] objs = new Object[1000];
+        for(int i = 0; i < objs.length; i++) objs[i] = new Object();
+        for(int i = 0; i < 20000; i++)
+            {
+            Object obj = objs[random.nextInt(objs.length)];
+            if (random.nextInt(5) == 0)
+                {
+                assertEquals(hashed.remove(obj), open.remove(obj));
+                }
+            else
+                {
+                int x = random.nextInt(30);
+                int y = random.nextInt(30);
+                hashed.setObjectLocation(obj, x, y);
+                open.setObjectLocation(obj, x, y);
+                }
+            if (i == 10000) hashed.setMapType(SparseField.OPEN_ADDRESSING_MAPS);  // switching over keeps the contents
+            }
+        assertEquals(hashed.size(), open.size());
+        assertEquals(describe(hashed, objs), describe(open, objs));
+        }
+    }
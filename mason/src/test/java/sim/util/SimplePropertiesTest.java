@@ -0,0 +1,145 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util;
+
+import junit.framework.TestCase;
+import java.io.*;
+import java.util.*;
+
+/** Checks that SimpleProperties' DoubleGetters read each kind of property just as getValue(...) does, by whichever path they were built. */
+
+public class SimplePropertiesTest extends TestCase
+    {
+    public SimplePropertiesTest(String name) { super(name); }
+
+    public static class Agent
+        {
+        public int i = 7;
+        public boolean broken;
+        public byte getByte() { return (byte)-3; }
+        public short getShort() { return (short)300; }
+        public int getInt() { return i; }
+        public long getLong() { return 1L << 40; }
+        public float getFloat() { return 0.25f; }
+        public double getDouble() { return i * 0.5; }
+        public boolean isAlive() { return i > 0; }
+        public Integer getBoxed() { return new Integer(i); }
+        public String getName() { return "agent"; }
+        public int getFragile() { if (broken) throw new IllegalStateException("broken"); return i; }
+        public boolean isFragileFlag() { if (broken) throw new IllegalStateException("broken"); return true; }
+        }
+
+    static int find(Properties properties, String name)
+        {
+        for(int i = 0; i < properties.numProperties(); i++)
+            if (properties.getName(i).equals(name)) return i;
+        fail("No property " + name);
+        return -1;
+        }
+
+    public void testNumbers()
+        {
+        Agent agent = new Agent();
+        SimpleProperties properties = new SimpleProperties(agent);
+        String[] names = { "Byte", "Short", "Int", "Long", "Float", "Double", "Boxed" };
+        Properties.DoubleGetter[] getters = new Properties.DoubleGetter[names.length];
+        for(int n = 0; n < names.length; n++)
+            {
+            int index = find(properties, names[n]);
+            getters[n] = properties.getDoubleGetter(index);
+            assertEquals(names[n], ((Number)properties.getValue(index)).doubleValue(), getters[n].get(), 0);
+            }
+        assertNull(properties.getDoubleGetter(find(properties, "Name")));
+        assertNull(properties.getDoubleGetter(-1));
+        assertNull(properties.getDoubleGetter(properties.numProperties()));
+
+        // the primitive ones call the method directly, through a class spun by LambdaMetafactory
+        for(int n = 0; n < names.length - 1; n++)
+            {
+            assertTrue(names[n], getters[n] instanceof SimpleProperties.CompiledDoubleGetter);
+            assertTrue(names[n], ((SimpleProperties.CompiledDoubleGetter)getters[n]).getter.getClass().isSynthetic());
+            }
+        // the boxed one goes through getValue(...)
+        assertFalse(getters[names.length - 1] instanceof SimpleProperties.CompiledDoubleGetter);
+
+        // they read the property as it is now
+        agent.i = 11;
+        assertEquals(11, getters[2].get(), 0);
+        assertEquals(5.5, getters[5].get(), 0);
+        assertEquals(11, getters[6].get(), 0);
+        }
+
+    public void testBoolean()
+        {
+        Agent agent = new Agent();
+        SimpleProperties properties = new SimpleProperties(agent);
+        Properties.DoubleGetter getter = properties.getDoubleGetter(find(properties, "Alive"));
+        // LambdaMetafactory can't turn a boolean into a double, so this is a bound MethodHandle
+        assertFalse(getter instanceof SimpleProperties.CompiledDoubleGetter);
+        assertEquals(SimpleProperties.class, getter.getClass().getEnclosingClass());
+        assertEquals(1, getter.get(), 0);
+        agent.i = 0;
+        assertEquals(0, getter.get(), 0);
+        }
+
+    public void testNonPublicClass()
+        {
+        // the empty list's class is private to java.util, so its isEmpty() can't be compiled, and we fall back to
+        // reflection, which can't call it either: like getValue(...), the getter prints the exception and gives up
+        SimpleProperties properties = new SimpleProperties(Collections.emptyList());
+        int index = find(properties, "Empty");
+        Properties.DoubleGetter getter = properties.getDoubleGetter(index);
+        assertNotNull(getter);
+        assertEquals(Properties.class, getter.getClass().getEnclosingClass());
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(new ByteArrayOutputStream()));
+        try
+            {
+            assertNull(properties.getValue(index));
+            assertTrue(Double.isNaN(getter.get()));
+            }
+        finally
+            {
+            System.setErr(err);
+            }
+
+        // whereas a non-public class in SimpleProperties' own package is compiled
+        properties = new SimpleProperties(new Object()
+            {
+            public int getSecret() { return 42; }
+            });
+        getter = properties.getDoubleGetter(find(properties, "Secret"));
+        assertTrue(getter instanceof SimpleProperties.CompiledDoubleGetter);
+        assertEquals(42, getter.get(), 0);
+        }
+
+    public void testExceptions()
+        {
+        // a get method which throws gives NaN, whether it's compiled or not, just as getValue(...) gives null
+        Agent agent = new Agent();
+        SimpleProperties properties = new SimpleProperties(agent);
+        Properties.DoubleGetter number = properties.getDoubleGetter(find(properties, "Fragile"));
+        Properties.DoubleGetter flag = properties.getDoubleGetter(find(properties, "FragileFlag"));
+        assertEquals(7, number.get(), 0);
+        assertEquals(1, flag.get(), 0);
+        agent.broken = true;
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(new ByteArrayOutputStream()));
+        try
+            {
+            assertNull(properties.getValue(find(properties, "Fragile")));
+            assertTrue(Double.isNaN(number.get()));
+            assertTrue(Double.isNaN(flag.get()));
+            }
+        finally
+            {
+            System.setErr(err);
+            }
+        agent.broken = false;
+        assertEquals(7, number.get(), 0);
+        }
+    }
@@ -0,0 +1,105 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import junit.framework.TestCase;
+
+/** Checks SobolSequence against the published first points, and checks that its points are evenly stratified in every dimension. */
+
+public class SobolSequenceTest extends TestCase
+    {
+    public SobolSequenceTest(String name) { super(name); }
+
+    // The first eight points in three dimensions, in Gray code order, using Joe and Kuo's direction numbers
+    static final double[][] FIRST_POINTS =
+        {
+        { 0, 0, 0 },
+        { 0.5, 0.5, 0.5 },
+        { 0.75, 0.25, 0.25 },
+        { 0.25, 0.75, 0.75 },
+        { 0.375, 0.375, 0.625 },
+        { 0.875, 0.875, 0.125 },
+        { 0.625, 0.125, 0.875 },
+        { 0.125, 0.625, 0.375 },
+        };
+
+    public void testFirstPoints()
+        {
+        SobolSequence sobol = new SobolSequence(3);
+        assertEquals(3, sobol.getDimensions());
+        for(int i = 0; i < FIRST_POINTS.length; i++)
+            {
+            double[] point = sobol.next();
+            assertEquals(3, point.length);
+            for(int d = 0; d < 3; d++)
+                assertEquals("point " + i + " dimension " + d, FIRST_POINTS[i][d], point[d], 0);
+            }
+
+        // fewer dimensions give the same leading coordinates
+        sobol = new SobolSequence(1);
+        for(int i = 0; i < FIRST_POINTS.length; i++)
+            assertEquals(FIRST_POINTS[i][0], sobol.next()[0], 0);
+        }
+
+    public void testStratified()
+        {
+        // the first 2^k points put exactly one coordinate in each interval [j / 2^k, (j+1) / 2^k), in every dimension
+        final int k = 10;
+        final int n = 1 << k;
+        SobolSequence sobol = new SobolSequence(SobolSequence.MAX_DIMENSIONS);
+        boolean[][] seen = new boolean[SobolSequence.MAX_DIMENSIONS][n];
+        for(int i = 0; i < n; i++)
+            {
+            double[] point = sobol.next();
+            for(int d = 0; d < point.length; d++)
+                {
+                assertTrue(point[d] >= 0 && point[d] < 1);
+                int j = (int)(point[d] * n);
+                assertEquals("dimension " + d + " point " + i, j, point[d] * n, 0);
+                assertFalse("dimension " + d + " interval " + j + " twice", seen[d][j]);
+                seen[d][j] = true;
+                }
+            }
+        }
+
+    public void testTwoDimensionalNet()
+        {
+        // the first 2^k points in the first two dimensions form a (0, k, 2)-net: each box 2^-a wide and 2^-(k-a) high holds one point
+        final int k = 8;
+        final int n = 1 << k;
+        double[][] points = new double[n][];
+        SobolSequence sobol = new SobolSequence(2);
+        for(int i = 0; i < n; i++)
+            points[i] = sobol.next();
+        for(int a = 0; a <= k; a++)
+            {
+            boolean[] seen = new boolean[n];
+            for(int i = 0; i < n; i++)
+                {
+                int box = ((int)(points[i][0] * (1 << a)) << (k - a)) + (int)(points[i][1] * (1 << (k - a)));
+                assertFalse("a = " + a + " box " + box + " twice", seen[box]);
+                seen[box] = true;
+                }
+            }
+        }
+
+    public void testBadDimensions()
+        {
+        try
+            {
+            new SobolSequence(0);
+            fail("Created a Sobol sequence with no dimensions");
+            }
+        catch (IllegalArgumentException e) { }  // expected
+        try
+            {
+            new SobolSequence(SobolSequence.MAX_DIMENSIONS + 1);
+            fail("Created a Sobol sequence with too many dimensions");
+            }
+        catch (IllegalArgumentException e) { }  // expected
+        }
+    }
@@ -0,0 +1,154 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import junit.framework.TestCase;
+import java.io.*;
+import java.util.*;
+
+/** Checks that rows written to CSV and binary sweep sinks read back exactly, and are flushed when they've been held too long. */
+
+public class SweepSinkTest extends TestCase
+    {
+    public SweepSinkTest(String name) { super(name); }
+
+    static final String[] COLUMNS = { "alpha", "beta", "gamma" };
+
+    // the rows written, as strings so they can be compared regardless of order
+    ArrayList expected = new ArrayList();
+
+    static String row(int job, int trial, long seed, double[] values)
+        {
+        StringBuilder b = new StringBuilder();
+        b.append(job).append(' ').append(trial).append(' ').append(seed);
+        for(int i = 0; i < values.length; i++)
+            b.append(' ').append(Double.doubleToLongBits(values[i]));
+        return b.toString();
+        }
+
+    // writes rows through several Buffers, some of them filling and some not, and closes the sink
+    void fill(SweepSink sink) throws IOException
+        {
+        Random random = new Random(1);
+        sink.setBufferBytes(8 * COLUMNS.length * 7);   // 7 rows per Buffer
+        sink.open(COLUMNS);
+        SweepSink.Buffer[] buffers = new SweepSink.Buffer[3];
+        for(int i = 0; i < buffers.length; i++)
+            buffers[i] = sink.newBuffer();
+        assertEquals(7, buffers[0].getCapacity());
+        double[] values = new double[COLUMNS.length];
+        for(int job = 0; job < 50; job++)
+            {
+            for(int i = 0; i < values.length; i++)
+                values[i] = (i == 0 ? random.nextGaussian() * 1e-300 : i == 1 ? random.nextInt(10) : random.nextDouble());
+            if (job == 10) values[2] = Double.NaN;
+            if (job == 11) values[2] = Double.NEGATIVE_INFINITY;
+            long seed = random.nextLong();
+            buffers[job % buffers.length].addRow(job, job % 4 + 1, seed, values);
+            expected.add(row(job, job % 4 + 1, seed, values));
+            }
+        for(int i = 0; i < buffers.length; i++)
+            buffers[i].flush();
+        sink.close();
+        assertNull(sink.getException());
+        }
+
+    void assertSameRows(ArrayList actual)
+        {
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        }
+
+    public void testCSV() throws IOException
+        {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        fill(new CSVSweepSink(bytes));
+
+        BufferedReader reader = new BufferedReader(new StringReader(bytes.toString("UTF-8")));
+        assertEquals("job, trial, rng, alpha, beta, gamma", reader.readLine());
+        ArrayList actual = new ArrayList();
+        String line;
+        while((line = reader.readLine()) != null)
+            {
+            String[] fields = line.split(", ");
+            assertEquals(3 + COLUMNS.length, fields.length);
+            double[] values = new double[COLUMNS.length];
+            for(int i = 0; i < values.length; i++)
+                values[i] = Double.parseDouble(fields[3 + i]);
+            actual.add(row(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Long.parseLong(fields[2]), values));
+            }
+        assertSameRows(actual);
+        }
+
+    public void testBinary() throws IOException
+        {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        fill(new BinarySweepSink(bytes));
+
+        BinarySweepSink.Reader reader = new BinarySweepSink.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertTrue(Arrays.equals(COLUMNS, reader.getColumnNames()));
+        ArrayList actual = new ArrayList();
+        double[] values = new double[COLUMNS.length];
+        while(reader.nextBlock())
+            for(int r = 0; r < reader.getNumRows(); r++)
+                {
+                for(int c = 0; c < values.length; c++)
+                    values[c] = reader.getColumn(c)[r];
+                actual.add(row(reader.getJobs()[r], reader.getTrials()[r], reader.getSeeds()[r], values));
+                }
+        assertFalse(reader.nextBlock());
+        reader.close();
+        assertSameRows(actual);
+        }
+
+    public void testFlushedAfterTime() throws Exception
+        {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SweepSink sink = new CSVSweepSink(new BufferedOutputStream(bytes, 1 << 16));
+        sink.setFlushMillis(500);
+        sink.open(COLUMNS);
+        SweepSink.Buffer buffer = sink.newBuffer();
+        double[] values = new double[COLUMNS.length];
+
+        // a quick job stays in the Buffer
+        buffer.addRow(0, 1, 0, values);
+        assertEquals(1, buffer.numRows);
+        assertEquals(0, bytes.size());
+
+        // a slow one is written out, all the way through the BufferedOutputStream, along with the row before it
+        Thread.sleep(600);
+        buffer.addRow(1, 1, 0, values);
+        assertEquals(0, buffer.numRows);
+        assertEquals(3, bytes.toString("UTF-8").split("\n").length);
+
+        // with a limit of 0, every row is written at once
+        sink.setFlushMillis(0);
+        buffer.addRow(2, 1, 0, values);
+        assertEquals(0, buffer.numRows);
+        assertEquals(4, bytes.toString("UTF-8").split("\n").length);
+        sink.close();
+        }
+
+    public void testBadRow() throws IOException
+        {
+        SweepSink sink = new CSVSweepSink(new ByteArrayOutputStream());
+        try
+            {
+            sink.newBuffer();
+            fail("Created a Buffer before the sink was opened");
+            }
+        catch (IllegalStateException e) { }  // expected
+        sink.open(COLUMNS);
+        try
+            {
+            sink.newBuffer().addRow(0, 1, 0, new double[2]);
+            fail("Added a row with the wrong number of values");
+            }
+        catch (IllegalArgumentException e) { }  // expected
+        }
+    }
@@ -0,0 +1,166 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import junit.framework.TestCase;
+import sim.engine.*;
+import ec.util.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/** Checks that a sweep run by worker processes gives the same rows as one run in threads, even when a worker dies holding a job. */
+
+public class SweepWorkerTest extends TestCase
+    {
+    public SweepWorkerTest(String name) { super(name); }
+
+    /** The swept model: it must be public, and on the workers' classpath, which is the same as ours. */
+    public static class Model extends SimState
+        {
+        private static final long serialVersionUID = 1;
+        double x;
+        double y;
+        public Model(long seed) { super(seed); }
+        public double getX() { return x; }
+        public void setX(double val) { x = val; }
+        public double getY() { return y; }
+        public void start()
+            {
+            super.start();
+            y = 0;      // the SimState is reused from job to job
+            schedule.scheduleRepeating(new Steppable()
+                {
+                public void step(SimState state)
+                    {
+                    y += x + random.nextGaussian();
+                    }
+                });
+            }
+        }
+
+    ParameterDatabase database()
+        {
+        ParameterDatabase db = new ParameterDatabase();
+        db.set(new Parameter(ParameterSettings.MODEL_P), Model.class.getName());
+        db.set(new Parameter(ParameterSettings.INDEPENDENT_P), "X");
+        db.set(new Parameter(ParameterSettings.MIN_P), "0");
+        db.set(new Parameter(ParameterSettings.MAX_P), "1");
+        db.set(new Parameter(ParameterSettings.DIVISIONS_P), "3");
+        db.set(new Parameter(ParameterSettings.DEPENDENT_P), "Y");
+        db.set(new Parameter(ParameterSettings.STEPS_P), "20");
+        db.set(new Parameter(ParameterSettings.MOD_P), "5");
+        db.set(new Parameter(ParameterSettings.TRIALS_P), "4");
+        db.set(new Parameter(ParameterSettings.SEED_P), "3");
+        db.set(new Parameter(ParameterSettings.THREADS_P), "2");
+        db.set(new Parameter(ParameterSettings.TIMEOUT_P), "5000");
+        return db;
+        }
+
+    // Runs the sweep to completion, failing if it takes more than a minute, and returns its rows, sorted, as strings
+    ArrayList run(ParameterDatabase db, Runnable meanwhile) throws Exception
+        {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ParameterSweep sweep = new ParameterSweep(db, new BinarySweepSink(bytes));
+        sweep.run();
+        if (meanwhile != null) meanwhile.run();
+        Thread t = new Thread(new Runnable() { public void run() { sweep.waitUntilStopped(); } });
+        t.setDaemon(true);
+        t.start();
+        t.join(60000);
+        if (t.isAlive()) sweep.stop();
+        assertFalse("sweep hung", t.isAlive());
+
+        BinarySweepSink.Reader reader = new BinarySweepSink.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        ArrayList rows = new ArrayList();
+        while(reader.nextBlock())
+            for(int r = 0; r < reader.getNumRows(); r++)
+                {
+                StringBuilder b = new StringBuilder();
+                b.append(reader.getJobs()[r]).append(' ').append(reader.getTrials()[r]).append(' ').append(reader.getSeeds()[r]);
+                for(int c = 0; c < reader.getColumnNames().length; c++)
+                    b.append(' ').append(Double.doubleToLongBits(reader.getColumn(c)[r]));
+                rows.add(b.toString());
+                }
+        reader.close();
+        Collections.sort(rows);
+        return rows;
+        }
+
+    public void testLocalWorkers() throws Exception
+        {
+        ArrayList expected = run(database(), null);
+        assertEquals(3 * 4, expected.size());
+
+        // two worker JVMs launched with SweepWorker.launch(...), of two threads each
+        ParameterDatabase db = database();
+        db.set(new Parameter(ParameterSettings.WORKERS_P), "2");
+        assertEquals(expected, run(db, null));
+        }
+
+    static int freePort() throws IOException
+        {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+        }
+
+    public void testKilledWorker() throws Exception
+        {
+        ArrayList expected = run(database(), null);
+
+        // no local workers: we play the first worker ourselves, which takes a job and dies, then a real one does the rest
+        ParameterDatabase db = database();
+        final int port = freePort();
+        db.set(new Parameter(ParameterSettings.PORT_P), "" + port);
+        final int[] killedJob = { -1 };
+        ArrayList rows = run(db, new Runnable()
+            {
+            public void run()
+                {
+                try
+                    {
+                    Socket socket = null;
+                    for(int i = 0; socket == null; i++)  // the coordinator may not be listening yet
+                        {
+                        try { socket = new Socket("localhost", port); }
+                        catch (ConnectException e) { if (i == 100) throw e; Thread.sleep(100); }
+                        }
+                    ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    out.writeLong(SweepCoordinator.MAGIC);
+                    out.writeInt(SweepCoordinator.VERSION);
+                    out.flush();
+                    ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+                    in.readObject();
+                    in.readInt();
+                    byte message;
+                    while((message = in.readByte()) == SweepCoordinator.HEARTBEAT) { }
+                    assertEquals(SweepCoordinator.JOB, message);
+                    killedJob[0] = in.readInt();
+                    socket.close();     // as if the worker had been killed in the middle of the job
+
+                    final SweepWorker worker = new SweepWorker("localhost", port, 2);
+                    Thread thread = new Thread(new Runnable() { public void run() { worker.run(); } });
+                    thread.setDaemon(true);
+                    thread.start();
+                    }
+                catch (Exception e)
+                    {
+                    throw new RuntimeException(e);
+                    }
+                }
+            });
+        // the killed worker's job was leased again, and its row is the same as if nothing had gone wrong
+        assertTrue(killedJob[0] >= 0);
+        boolean found = false;
+        for(int i = 0; i < rows.size(); i++)
+            if (((String)(rows.get(i))).startsWith(killedJob[0] + " ")) found = true;
+        assertTrue(found);
+        assertEquals(expected, rows);
+        }
+    }